@@ -0,0 +1,173 @@
+package com.quickride.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import com.quickride.routing.AStarRouter;
+import com.quickride.routing.ContractionHierarchy;
+import com.quickride.routing.HierarchyRouter;
+import com.quickride.routing.RoadGraph;
+import com.quickride.routing.SwissRoadNetwork;
+
+/**
+ * Preprocessing cost and query latency of the contraction hierarchy
+ * Generates the synthetic Swiss road network, contracts it into a file and
+ * maps it back, then times random trips inside a city and between cities
+ * with the hierarchy, A* and plain Dijkstra, checking all three find the same
+ * lengths and that unpacked hierarchy paths add up to them. Runs without the
+ * JavaFX toolkit
+ *
+ * Usage: ContractionHierarchyBenchmark [queries] [seed]
+ */
+public final class ContractionHierarchyBenchmark {
+    // Pickups and dropoffs of city trips are within this many degrees of the centre (about 2 km)
+    private static final double CITY_RADIUS = 0.02;
+    
+    private static final double[][] CITIES = {
+        {47.3769, 8.5417}, {46.2044, 6.1432}, {46.9480, 7.4474}, {47.5596, 7.5886}, {46.5197, 6.6323},
+        {47.0502, 8.3093}, {46.2018, 6.8785}, {46.3834, 6.2347}, {47.4245, 9.3767}, {46.6864, 7.8632}
+    };
+    
+    private ContractionHierarchyBenchmark() {
+        // Entry point only
+    }
+    
+    public static void main(String[] args) throws IOException {
+        int queries = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        
+        RoadGraph graph = SwissRoadNetwork.generate(42);
+        Path file = Files.createTempFile("quickride-roads", ContractionHierarchy.FILE_SUFFIX);
+        ContractionHierarchy hierarchy;
+        try {
+            long start = System.nanoTime();
+            int shortcuts = ContractionHierarchy.build(graph, file);
+            double buildSeconds = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            hierarchy = ContractionHierarchy.open(file, graph);
+            double openMillis = (System.nanoTime() - start) / 1e6;
+            System.out.printf("Contracted %s in %.1f s: %d shortcuts, %d upward arcs, %d KB on disk, mapped in %.2f ms%n",
+                    graph, buildSeconds, shortcuts, hierarchy.arcCount(), Files.size(file) / 1024, openMillis);
+            
+            boolean ok = run(graph, hierarchy, queries, seed);
+            if (!ok) {
+                System.exit(1);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    private static boolean run(RoadGraph graph, ContractionHierarchy hierarchy, int queries, long seed) {
+        HierarchyRouter hierarchyRouter = new HierarchyRouter(hierarchy);
+        AStarRouter router = new AStarRouter(graph);
+        int[][] cityTrips = trips(graph, queries, seed, true);
+        int[][] countryTrips = trips(graph, queries / 10, seed, false);
+        
+        // Warm up the JIT so the first measured run is not penalized
+        for (int search = 0; search < 3; search++) {
+            time(hierarchyRouter, router, cityTrips, search);
+        }
+        
+        System.out.printf("%-14s %-12s %10s %10s %10s %10s%n", "trips", "search", "p50 us", "p99 us", "settled", "km");
+        boolean ok = report("in a city", hierarchyRouter, router, cityTrips);
+        ok &= report("between cities", hierarchyRouter, router, countryTrips);
+        ok &= checkPaths(graph, hierarchyRouter, countryTrips);
+        return ok;
+    }
+    
+    // Prints timings of the three searches for the trips; false if they disagree on a length
+    private static boolean report(String name, HierarchyRouter hierarchyRouter, AStarRouter router, int[][] trips) {
+        double[][] hierarchy = time(hierarchyRouter, router, trips, 0);
+        double[][] astar = time(hierarchyRouter, router, trips, 1);
+        double[][] dijkstra = time(hierarchyRouter, router, trips, 2);
+        print(name, "hierarchy", hierarchy);
+        print("", "A*", astar);
+        print("", "Dijkstra", dijkstra);
+        int wrong = 0;
+        for (int i = 0; i < trips.length; i++) {
+            if (Math.abs(hierarchy[2][i] - dijkstra[2][i]) > 1e-6 || Math.abs(astar[2][i] - dijkstra[2][i]) > 1e-6) {
+                wrong++;
+            }
+        }
+        if (wrong > 0) {
+            System.out.printf("  %d trips with different lengths%n", wrong);
+        }
+        return wrong == 0;
+    }
+    
+    // Unpacked hierarchy paths must be real roads adding up to the shortest length
+    private static boolean checkPaths(RoadGraph graph, HierarchyRouter hierarchyRouter, int[][] trips) {
+        int wrong = 0;
+        for (int[] trip : trips) {
+            int[] path = hierarchyRouter.path(trip[0], trip[1]);
+            double expected = hierarchyRouter.distanceMetres(trip[0], trip[1]);
+            if (path == null) {
+                wrong += Double.isInfinite(expected) ? 0 : 1;
+                continue;
+            }
+            double length = 0;
+            for (int i = 0; i + 1 < path.length; i++) {
+                length += shortestArcMetres(graph, path[i], path[i + 1]);
+            }
+            if (path[0] != trip[0] || path[path.length - 1] != trip[1] || Math.abs(length - expected) > 1e-3) {
+                wrong++;
+            }
+        }
+        System.out.printf("%nUnpacked %d hierarchy paths, %d not matching their length%n", trips.length, wrong);
+        return wrong == 0;
+    }
+    
+    private static double shortestArcMetres(RoadGraph graph, int from, int to) {
+        double shortest = Double.POSITIVE_INFINITY;
+        for (int arc = graph.firstArc(from); arc < graph.firstArc(from + 1); arc++) {
+            if (graph.arcTarget(arc) == to) {
+                shortest = Math.min(shortest, graph.arcLength(arc));
+            }
+        }
+        return shortest;
+    }
+    
+    private static void print(String name, String search, double[][] results) {
+        double[] nanos = results[0].clone();
+        Arrays.sort(nanos);
+        System.out.printf("%-14s %-12s %10.1f %10.1f %10.0f %10.1f%n", name, search,
+                nanos[nanos.length / 2] / 1e3, nanos[(int) (nanos.length * 0.99)] / 1e3,
+                Arrays.stream(results[1]).average().orElse(0), Arrays.stream(results[2]).average().orElse(0) / 1000);
+    }
+    
+    // Returns {ns per query, nodes settled, metres} for each trip with the hierarchy (0), A* (1) or Dijkstra (2)
+    private static double[][] time(HierarchyRouter hierarchyRouter, AStarRouter router, int[][] trips, int search) {
+        double[][] results = new double[3][trips.length];
+        for (int i = 0; i < trips.length; i++) {
+            long start = System.nanoTime();
+            double metres = search == 0 ? hierarchyRouter.distanceMetres(trips[i][0], trips[i][1])
+                    : search == 1 ? router.distanceMetres(trips[i][0], trips[i][1])
+                    : router.dijkstraMetres(trips[i][0], trips[i][1]);
+            results[0][i] = System.nanoTime() - start;
+            results[1][i] = search == 0 ? hierarchyRouter.getLastSettled() : router.getLastSettled();
+            results[2][i] = metres;
+        }
+        return results;
+    }
+    
+    // Random trips as {source node, target node}, inside one city or from one city to another
+    private static int[][] trips(RoadGraph graph, int count, long seed, boolean withinCity) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[][] trips = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int from = random.nextInt(CITIES.length);
+            int to = withinCity ? from : (from + 1 + random.nextInt(CITIES.length - 1)) % CITIES.length;
+            trips[i] = new int[] {nodeNear(graph, CITIES[from], random), nodeNear(graph, CITIES[to], random)};
+        }
+        return trips;
+    }
+    
+    private static int nodeNear(RoadGraph graph, double[] city, SplittableRandom random) {
+        return graph.nearestNode(city[0] + (random.nextDouble() * 2 - 1) * CITY_RADIUS,
+                city[1] + (random.nextDouble() * 2 - 1) * CITY_RADIUS);
+    }
+}
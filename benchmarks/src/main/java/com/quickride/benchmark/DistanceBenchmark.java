@@ -0,0 +1,193 @@
+package com.quickride.benchmark;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.quickride.manager.TaxiGridIndex;
+import com.quickride.model.GeoDistance;
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+import com.quickride.util.TaxiFactory;
+
+/**
+ * Accuracy and cost of the GeoDistance kernels
+ * Measures the largest relative error of the flat distances against
+ * haversine for random pairs, with the pair's mean latitude and with a fixed
+ * reference latitude, and checks it against the bounds GeoDistance documents.
+ * Then times each kernel and compares the nearest taxi picked by ranking a
+ * fleet with squared degrees, and by the grid search, with the exact pick.
+ * Fails if a bound is exceeded. Runs without the JavaFX toolkit
+ *
+ * Usage: DistanceBenchmark [pairs] [fleet size]
+ */
+public final class DistanceBenchmark {
+    // Spread of the fleet around each Swiss city, in degrees (about 5 km)
+    private static final double FLEET_SPREAD = 0.05;
+    private static final int PICKUPS = 2_000;
+    
+    private DistanceBenchmark() {
+        // Entry point only
+    }
+    
+    public static void main(String[] args) {
+        int pairs = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int fleetSize = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        
+        System.out.printf("Distance benchmark: %d pairs, fleet of %d%n", pairs, fleetSize);
+        SplittableRandom random = new SplittableRandom(42);
+        boolean withinBounds = true;
+        
+        System.out.printf("%n%-34s %10s %14s %12s%n", "flat distance", "up to km", "max error", "bound");
+        withinBounds &= checkError("mean latitude, |lat| <= 60", random, pairs, 10, 60, false, 0.000001);
+        withinBounds &= checkError("mean latitude, |lat| <= 60", random, pairs, 100, 60, false, 0.0001);
+        withinBounds &= checkError("reference latitude, Switzerland", random, pairs, 5, 0, true, 0.00025);
+        withinBounds &= checkError("reference latitude, Switzerland", random, pairs, 50, 0, true, 0.0025);
+        
+        timeKernels(random, pairs);
+        comparePicks(random, fleetSize);
+        
+        if (!withinBounds) {
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Largest relative error of the flat distance for pairs up to maxKm apart
+     * @param maxAbsLatitude latitudes of the first point are drawn up to this, unless swiss
+     * @param swiss draw the first point in Switzerland and use its latitude as the reference
+     */
+    private static boolean checkError(String name, SplittableRandom random, int pairs, double maxKm,
+            double maxAbsLatitude, boolean swiss, double bound) {
+        double maxError = 0;
+        for (int i = 0; i < pairs; i++) {
+            double lat1 = swiss ? 45.8 + random.nextDouble() * 2 : (random.nextDouble() * 2 - 1) * maxAbsLatitude;
+            double lon1 = swiss ? 6 + random.nextDouble() * 4.5 : random.nextDouble() * 360 - 180;
+            
+            // Second point at a random bearing, spread evenly over the disc
+            double km = maxKm * Math.sqrt(random.nextDouble());
+            double bearing = random.nextDouble() * 2 * Math.PI;
+            double lat2 = lat1 + km * Math.cos(bearing) / GeoDistance.KM_PER_DEGREE;
+            double lon2 = lon1 + km * Math.sin(bearing) / (GeoDistance.KM_PER_DEGREE * GeoDistance.cosLatitude(lat1));
+            
+            double exact = GeoDistance.haversineKm(lat1, lon1, lat2, lon2);
+            if (exact < 1e-3) {
+                continue;
+            }
+            double flat = swiss
+                    ? GeoDistance.equirectangularKm(lat1, lon1, lat2, lon2, GeoDistance.cosLatitude(lat1))
+                    : GeoDistance.equirectangularKm(lat1, lon1, lat2, lon2);
+            maxError = Math.max(maxError, Math.abs(flat - exact) / exact);
+        }
+        boolean ok = maxError <= bound;
+        System.out.printf("%-34s %10.0f %13.5f%% %11.4f%%%s%n", name, maxKm, maxError * 100, bound * 100, ok ? "" : "  EXCEEDED");
+        return ok;
+    }
+    
+    private static void timeKernels(SplittableRandom random, int pairs) {
+        // Pairs within a Swiss city, as in a nearest-taxi search
+        double[] lat1 = new double[pairs];
+        double[] lon1 = new double[pairs];
+        double[] lat2 = new double[pairs];
+        double[] lon2 = new double[pairs];
+        for (int i = 0; i < pairs; i++) {
+            lat1[i] = 47.37 + random.nextDouble() * 0.05;
+            lon1[i] = 8.54 + random.nextDouble() * 0.05;
+            lat2[i] = 47.37 + random.nextDouble() * 0.05;
+            lon2[i] = 8.54 + random.nextDouble() * 0.05;
+        }
+        double cos = GeoDistance.cosLatitude(47.39);
+        
+        System.out.printf("%n%-34s %10s%n", "kernel", "ns/call");
+        for (int run = 0; run < 2; run++) {
+            // The first run warms up the JIT and is not printed
+            boolean print = run == 1;
+            double sink = 0;
+            
+            long start = System.nanoTime();
+            for (int i = 0; i < pairs; i++) {
+                sink += GeoDistance.haversineKm(lat1[i], lon1[i], lat2[i], lon2[i]);
+            }
+            report(print, "haversineKm", start, pairs);
+            
+            start = System.nanoTime();
+            for (int i = 0; i < pairs; i++) {
+                sink += GeoDistance.equirectangularKm(lat1[i], lon1[i], lat2[i], lon2[i]);
+            }
+            report(print, "equirectangularKm", start, pairs);
+            
+            start = System.nanoTime();
+            for (int i = 0; i < pairs; i++) {
+                sink += GeoDistance.equirectangularKm(lat1[i], lon1[i], lat2[i], lon2[i], cos);
+            }
+            report(print, "equirectangularKm, given cos", start, pairs);
+            
+            start = System.nanoTime();
+            for (int i = 0; i < pairs; i++) {
+                sink += GeoDistance.squaredDegrees(lat1[i], lon1[i], lat2[i], lon2[i], cos);
+            }
+            report(print, "squaredDegrees", start, pairs);
+            
+            if (sink == 42) {
+                System.out.println();
+            }
+        }
+    }
+    
+    private static void report(boolean print, String name, long start, int pairs) {
+        if (print) {
+            System.out.printf("%-34s %10.2f%n", name, (double) (System.nanoTime() - start) / pairs);
+        }
+    }
+    
+    // Nearest taxi by squared degrees and by the grid against the exact nearest
+    private static void comparePicks(SplittableRandom random, int fleetSize) {
+        List<Location> cities = TaxiFactory.swissCities();
+        Location[] fleet = new Location[fleetSize];
+        TaxiGridIndex grid = new TaxiGridIndex();
+        for (int i = 0; i < fleetSize; i++) {
+            fleet[i] = near(cities.get(i % cities.size()), random);
+            grid.add(new Taxi("Driver " + i, "DIST " + i, "Benchmark", fleet[i]));
+        }
+        
+        int rankedDiffers = 0;
+        int gridDiffers = 0;
+        double rankedExtraKm = 0;
+        double gridExtraKm = 0;
+        for (int p = 0; p < PICKUPS; p++) {
+            Location pickup = near(cities.get(p % cities.size()), random);
+            double cos = GeoDistance.cosLatitude(pickup.getLatitude());
+            int exact = 0;
+            int ranked = 0;
+            for (int i = 1; i < fleetSize; i++) {
+                if (pickup.distanceTo(fleet[i]) < pickup.distanceTo(fleet[exact])) {
+                    exact = i;
+                }
+                if (squared(pickup, fleet[i], cos) < squared(pickup, fleet[ranked], cos)) {
+                    ranked = i;
+                }
+            }
+            double exactKm = pickup.distanceTo(fleet[exact]);
+            if (ranked != exact) {
+                rankedDiffers++;
+                rankedExtraKm = Math.max(rankedExtraKm, pickup.distanceTo(fleet[ranked]) - exactKm);
+            }
+            double gridKm = pickup.distanceTo(grid.findNearest(pickup).getCurrentLocation());
+            if (gridKm > exactKm) {
+                gridDiffers++;
+                gridExtraKm = Math.max(gridExtraKm, gridKm - exactKm);
+            }
+        }
+        System.out.printf("%nNearest of %d taxis for %d pickups, against the exact pick:%n", fleetSize, PICKUPS);
+        System.out.printf("%-34s %6d other picks, at most %.1f m farther%n", "squared degrees scan", rankedDiffers, rankedExtraKm * 1000);
+        System.out.printf("%-34s %6d other picks, at most %.1f m farther%n", "grid search", gridDiffers, gridExtraKm * 1000);
+    }
+    
+    private static double squared(Location from, Location to, double cos) {
+        return GeoDistance.squaredDegrees(from.getLatitude(), from.getLongitude(), to.getLatitude(), to.getLongitude(), cos);
+    }
+    
+    private static Location near(Location centre, SplittableRandom random) {
+        return new Location(centre.getLatitude() + (random.nextDouble() * 2 - 1) * FLEET_SPREAD,
+                centre.getLongitude() + (random.nextDouble() * 2 - 1) * FLEET_SPREAD, centre.getAddress());
+    }
+}
@@ -0,0 +1,73 @@
+package com.quickride.benchmark;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+import com.quickride.exception.InvalidTaxiException;
+import com.quickride.manager.RideManager;
+import com.quickride.manager.TaxiManager;
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+import com.quickride.simulation.FleetSimulation;
+import com.quickride.simulation.HeadlessSimulation;
+import com.quickride.simulation.RouteTable;
+import com.quickride.simulation.SteadyDemand;
+import com.quickride.simulation.VirtualClock;
+
+/**
+ * Runs simulated hours of fleet movement and bookings on a virtual clock
+ * The managers book, start and complete rides from steady demand while the
+ * fleet moves in 2 s ticks, as fast as the CPU allows. Prints the dispatch
+ * counts after every simulated hour and how many simulated hours passed per
+ * second of wall-clock time. Runs without the JavaFX toolkit
+ *
+ * Usage: HeadlessSimulationBenchmark [taxis] [hours] [rides per hour] [seed]
+ */
+public final class HeadlessSimulationBenchmark {
+    private static final long HOUR_MILLIS = 3_600_000;
+    private static final ZoneId ZONE = ZoneId.of("Europe/Zurich");
+    
+    private HeadlessSimulationBenchmark() {
+        // Entry point only
+    }
+    
+    public static void main(String[] args) throws InvalidTaxiException {
+        int taxis = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int hours = args.length > 1 ? Integer.parseInt(args[1]) : 24;
+        double ridesPerHour = args.length > 2 ? Double.parseDouble(args[2]) : 500;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        
+        System.out.printf("Headless simulation: %d taxis, %d h, %.0f rides/h, seed %d%n", taxis, hours, ridesPerHour, seed);
+        
+        // Warm up the JIT so the first measured hour is not penalized
+        create(taxis, ridesPerHour, seed).run(HOUR_MILLIS);
+        
+        HeadlessSimulation simulation = create(taxis, ridesPerHour, seed);
+        System.out.printf("%5s | %9s %9s %9s %9s | %10s%n",
+                "hour", "requested", "unserved", "completed", "in flight", "sim h/s");
+        for (int hour = 1; hour <= hours; hour++) {
+            long wallBefore = simulation.getWallNanos();
+            simulation.run(HOUR_MILLIS);
+            double seconds = (simulation.getWallNanos() - wallBefore) / 1e9;
+            System.out.printf("%5d | %9d %9d %9d %9d | %10.1f%n", hour, simulation.getRequested(),
+                    simulation.getUnserved(), simulation.getCompleted(), simulation.getRidesInFlight(), 1 / seconds);
+        }
+        System.out.printf("%nVirtual clock at %s%n%s%n", simulation.getClock().instant().atZone(ZONE), simulation);
+    }
+    
+    private static HeadlessSimulation create(int taxis, double ridesPerHour, long seed) throws InvalidTaxiException {
+        RouteTable routes = RouteTable.swissIntercity();
+        VirtualClock clock = new VirtualClock(LocalDate.of(2024, 1, 1).atStartOfDay(ZONE).toInstant(), ZONE);
+        TaxiManager taxiManager = new TaxiManager();
+        RideManager rideManager = new RideManager(taxiManager);
+        HeadlessSimulation simulation = new HeadlessSimulation(taxiManager, rideManager,
+                new FleetSimulation(routes, taxis, seed),
+                new SteadyDemand(routes, ridesPerHour, clock.millis(), seed),
+                clock, HeadlessSimulation.DEFAULT_TICK_MILLIS);
+        for (int i = 0; i < taxis; i++) {
+            // Unique plates; the factory's random ones repeat in large fleets
+            simulation.addTaxi(new Taxi("Driver " + i, "SIM " + i, "Simulated", new Location(0, 0, "")));
+        }
+        return simulation;
+    }
+}
@@ -0,0 +1,137 @@
+package com.quickride.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import com.quickride.exception.InvalidTaxiException;
+import com.quickride.exception.NoTaxiAvailableException;
+import com.quickride.manager.RideManager;
+import com.quickride.manager.TaxiManager;
+import com.quickride.model.Location;
+import com.quickride.model.Ride;
+import com.quickride.model.Taxi;
+import com.quickride.persistence.FsyncPolicy;
+import com.quickride.persistence.StateJournal;
+import com.quickride.util.TaxiFactory;
+
+/**
+ * Booking throughput with the journal under each fsync policy
+ * Every worker books a ride, starts it and completes it in a loop, so each
+ * ride costs three journal events. Runs without the JavaFX toolkit
+ *
+ * Usage: JournalBenchmark [threads] [seconds] [taxis]
+ */
+public final class JournalBenchmark {
+    private static final Location PICKUP = new Location(47.3769, 8.5417, "Zurich");
+    private static final Location DROPOFF = new Location(46.9480, 7.4474, "Bern");
+    
+    private JournalBenchmark() {
+        // Entry point only
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int taxis = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        
+        System.out.printf("Journal benchmark: %d threads, %d s per policy, %d taxis%n", threads, seconds, taxis);
+        System.out.printf("%-14s %12s %12s%n", "policy", "rides/s", "events/s");
+        
+        // Warm up the JIT so the first measured run is not penalized
+        run(null, threads, 1, taxis);
+        
+        // Unjournaled baseline first, then each policy
+        printResult("none", run(null, threads, seconds, taxis));
+        for (FsyncPolicy policy : FsyncPolicy.values()) {
+            printResult(policy.name(), run(policy, threads, seconds, taxis));
+        }
+    }
+    
+    private static void printResult(String name, double ridesPerSecond) {
+        System.out.printf("%-14s %12.0f %12.0f%n", name, ridesPerSecond, ridesPerSecond * 3);
+    }
+    
+    // Returns completed rides per second
+    private static double run(FsyncPolicy policy, int threads, int seconds, int taxis) throws Exception {
+        Path directory = Files.createTempDirectory("quickride-journal-bench");
+        TaxiManager taxiManager = new TaxiManager();
+        RideManager rideManager = new RideManager(taxiManager);
+        StateJournal journal = policy != null ? StateJournal.open(directory, policy) : null;
+        try {
+            taxiManager.setJournal(journal);
+            rideManager.setJournal(journal);
+            addFleet(taxiManager, taxis);
+            
+            LongAdder completed = new LongAdder();
+            CountDownLatch start = new CountDownLatch(1);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Thread(() -> {
+                    try {
+                        start.await();
+                        while (System.nanoTime() < deadline) {
+                            if (bookOne(rideManager)) {
+                                completed.increment();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, "bench-worker-" + i);
+                workers[i].start();
+            }
+            
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double elapsed = (System.nanoTime() - begin) / 1e9;
+            return completed.sum() / elapsed;
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+            deleteRecursively(directory);
+        }
+    }
+    
+    private static boolean bookOne(RideManager rideManager) {
+        try {
+            Ride ride = rideManager.requestRide("Bench", PICKUP, DROPOFF, false);
+            rideManager.startRide(ride);
+            rideManager.completeRide(ride);
+            return true;
+        } catch (NoTaxiAvailableException e) {
+            // More workers than free taxis - try again
+            return false;
+        }
+    }
+    
+    private static void addFleet(TaxiManager taxiManager, int count) {
+        int added = 0;
+        while (added < count) {
+            for (Taxi taxi : TaxiFactory.createRandomTaxis(Math.min(50, count - added))) {
+                try {
+                    taxiManager.addTaxi(taxi);
+                    added++;
+                } catch (InvalidTaxiException e) {
+                    // Random plates can collide - draw another taxi
+                }
+            }
+        }
+    }
+    
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
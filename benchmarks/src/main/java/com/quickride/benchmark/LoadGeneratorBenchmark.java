@@ -0,0 +1,106 @@
+package com.quickride.benchmark;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.quickride.exception.InvalidTaxiException;
+import com.quickride.manager.RideManager;
+import com.quickride.manager.TaxiManager;
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+import com.quickride.simulation.LoadGenerator;
+import com.quickride.simulation.LoadGenerator.Operation;
+import com.quickride.simulation.PoissonDemand;
+import com.quickride.simulation.VirtualClock;
+import com.quickride.util.TaxiFactory;
+
+/**
+ * Sustained ride throughput and call latency under synthetic demand
+ * A simulated working day of Poisson requests around the Swiss cities, with
+ * hot spots at the main stations and airports, is compressed into the run
+ * and played against the managers in real time, each ride going through
+ * request, start and complete. Prints the requests per simulated hour, then
+ * throughput and p50/p99/p99.9 latency per call and how late calls started.
+ * Fails if the managers fell behind the schedule. Runs without the JavaFX
+ * toolkit
+ *
+ * Usage: LoadGeneratorBenchmark [requests per second] [seconds] [taxis] [seed]
+ */
+public final class LoadGeneratorBenchmark {
+    private static final ZoneId ZONE = ZoneId.of("Europe/Zurich");
+    private static final double DAY_MILLIS = 86_400_000;
+    
+    // Calls starting later than this at the 99th percentile mean the target rate was not sustained
+    private static final double MAX_P99_LAG_MILLIS = 50;
+    
+    private LoadGeneratorBenchmark() {
+        // Entry point only
+    }
+    
+    public static void main(String[] args) throws InvalidTaxiException {
+        double rate = args.length > 0 ? Double.parseDouble(args[0]) : 500;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int taxis = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        
+        System.out.printf("Load generator: %.0f requests/s on average, one day in %d s, %d taxis, seed %d%n",
+                rate, seconds, taxis, seed);
+        
+        // Warm up the JIT so the measured run is not penalized
+        create(rate, Math.max(1, seconds / 10), taxis, seed).run((long) (DAY_MILLIS / 10));
+        
+        LoadGenerator generator = create(rate, seconds, taxis, seed);
+        generator.run((long) DAY_MILLIS);
+        
+        System.out.printf("%nRequests per simulated hour:%n");
+        for (int row = 0; row < 2; row++) {
+            StringBuilder hours = new StringBuilder();
+            StringBuilder counts = new StringBuilder();
+            for (int hour = row * 12; hour < row * 12 + 12; hour++) {
+                hours.append(String.format("%7d", hour));
+                counts.append(String.format("%7d", generator.getRequestsInHour(hour)));
+            }
+            System.out.printf("hour  %s%nrides %s%n", hours, counts);
+        }
+        
+        System.out.printf("%n%-9s %9s %10s %10s %10s %10s%n", "call", "count", "per s", "p50 us", "p99 us", "p99.9 us");
+        for (Operation operation : Operation.values()) {
+            System.out.printf("%-9s %9d %10.1f %10.1f %10.1f %10.1f%n", operation, generator.count(operation),
+                    generator.throughput(operation), generator.latencyNanos(operation, 50) / 1e3,
+                    generator.latencyNanos(operation, 99) / 1e3, generator.latencyNanos(operation, 99.9) / 1e3);
+        }
+        double p99Lag = generator.lagNanos(99) / 1e6;
+        System.out.printf("%nSchedule lag: p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms%n",
+                generator.lagNanos(50) / 1e6, p99Lag, generator.lagNanos(99.9) / 1e6);
+        System.out.println(generator);
+        if (p99Lag > MAX_P99_LAG_MILLIS) {
+            System.out.printf("Could not sustain the target rate: p99 lag above %.0f ms%n", MAX_P99_LAG_MILLIS);
+            System.exit(1);
+        }
+    }
+    
+    private static LoadGenerator create(double rate, int seconds, int taxis, long seed) throws InvalidTaxiException {
+        VirtualClock clock = new VirtualClock(LocalDate.of(2024, 1, 1).atStartOfDay(ZONE).toInstant(), ZONE);
+        List<Location> cities = TaxiFactory.swissCities();
+        
+        // A day's requests spread over the run: average rides per simulated hour
+        PoissonDemand demand = new PoissonDemand(cities, rate * seconds / 24, PoissonDemand.commuterDay(), clock.millis(), seed);
+        demand.addHotSpot(new Location(47.3779, 8.5403, "Zurich HB"), 2);
+        demand.addHotSpot(new Location(47.4582, 8.5555, "Zurich Airport"), 1.5);
+        demand.addHotSpot(new Location(46.2381, 6.1090, "Geneva Airport"), 1);
+        demand.addHotSpot(new Location(46.9490, 7.4391, "Bern station"), 1);
+        
+        TaxiManager taxiManager = new TaxiManager();
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < taxis; i++) {
+            Location city = cities.get(i % cities.size());
+            Location location = new Location(city.getLatitude() + (random.nextDouble() * 2 - 1) * 0.02,
+                    city.getLongitude() + (random.nextDouble() * 2 - 1) * 0.02, city.getAddress());
+            // Unique plates; the factory's random ones repeat in large fleets
+            taxiManager.addTaxi(new Taxi("Driver " + i, "LOAD " + i, "Simulated", location));
+        }
+        return new LoadGenerator(new RideManager(taxiManager), demand, clock, DAY_MILLIS / (seconds * 1000.0));
+    }
+}
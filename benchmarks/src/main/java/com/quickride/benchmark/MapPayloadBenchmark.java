@@ -0,0 +1,197 @@
+package com.quickride.benchmark;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+import com.quickride.manager.TaxiGridIndex;
+import com.quickride.util.MapViewport;
+import com.quickride.util.TaxiDeltaEncoder;
+
+/**
+ * Per-tick cost of pushing taxi positions to the map
+ * Compares the full JSON payload that used to be rebuilt on every tick with
+ * the delta encoding, for several fleet sizes and shares of moving taxis.
+ * Measures the Java side and the size of the script handed to the WebView;
+ * the page's parsing work grows with that size, and the old payload also paid
+ * for a JSON.parse and a quadratic processedIds.includes() sweep on top.
+ * A second table shows the effect of viewport culling: the taxis in a
+ * district-sized view are looked up through the grid index and only those
+ * are encoded. Runs without the JavaFX toolkit
+ *
+ * Usage: MapPayloadBenchmark [ticks]
+ */
+public final class MapPayloadBenchmark {
+    private static final int[] FLEET_SIZES = {1_000, 5_000, 20_000};
+    private static final double[] MOVED_SHARES = {1.0, 0.1, 0.01};
+    
+    // Central Zurich at roughly zoom 14, plus the 25% margin the viewer adds
+    private static final MapViewport DISTRICT = new MapViewport(14, 47.36, 8.51, 47.40, 8.57).expand(0.25);
+    
+    private static final DecimalFormat COORD_FORMAT = new DecimalFormat("##.######");
+    
+    private MapPayloadBenchmark() {
+        // Entry point only
+    }
+    
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        
+        System.out.printf("Map payload benchmark: %d ticks per run%n", ticks);
+        System.out.printf("%8s %7s | %10s %11s %14s | %10s %11s%n",
+                "taxis", "moved", "full ms", "full chars", "js compares", "delta ms", "delta chars");
+        
+        // Warm up the JIT so the first measured run is not penalized
+        run(5_000, 1.0, ticks);
+        
+        for (int fleet : FLEET_SIZES) {
+            for (double share : MOVED_SHARES) {
+                long[] result = run(fleet, share, ticks);
+                System.out.printf("%8d %6.0f%% | %10.3f %11d %14d | %10.3f %11d%n",
+                        fleet, share * 100, result[0] / 1e6, result[1],
+                        (long) fleet * (fleet + 1) / 2, result[2] / 1e6, result[3]);
+            }
+        }
+        
+        System.out.printf("%nViewport culling, all taxis moving, view of central Zurich%n");
+        System.out.printf("%8s | %10s %11s | %8s %10s %10s %11s%n",
+                "taxis", "all ms", "all chars", "in view", "query ms", "delta ms", "delta chars");
+        for (int fleet : FLEET_SIZES) {
+            long[] result = runCulled(fleet, ticks);
+            System.out.printf("%8d | %10.3f %11d | %8d %10.3f %10.3f %11d%n",
+                    fleet, result[0] / 1e6, result[1], result[2], result[3] / 1e6, result[4] / 1e6, result[5]);
+        }
+    }
+    
+    /**
+     * Returns {unculled delta ns, unculled chars, taxis in view, grid query ns, culled delta ns, culled chars},
+     * all per tick. A tenth of the fleet is placed around Zurich so the view is not empty
+     */
+    private static long[] runCulled(int fleet, int ticks) {
+        Random random = new Random(42);
+        List<Taxi> taxis = createFleet(fleet, random);
+        for (int i = 0; i < fleet / 10; i++) {
+            Taxi taxi = taxis.get(i);
+            taxi.setCurrentLocation(new Location(47.25 + random.nextDouble() * 0.25, 8.35 + random.nextDouble() * 0.4,
+                    taxi.getCurrentLocation().getAddress()));
+        }
+        TaxiGridIndex grid = new TaxiGridIndex();
+        taxis.forEach(grid::add);
+        
+        TaxiDeltaEncoder all = new TaxiDeltaEncoder();
+        TaxiDeltaEncoder culled = new TaxiDeltaEncoder();
+        all.encode(taxis);
+        culled.encode(grid.findInBounds(DISTRICT.getSouth(), DISTRICT.getWest(), DISTRICT.getNorth(), DISTRICT.getEast(), taxi -> true));
+        
+        long allNanos = 0;
+        long allChars = 0;
+        long inView = 0;
+        long queryNanos = 0;
+        long culledNanos = 0;
+        long culledChars = 0;
+        for (int tick = 0; tick < ticks; tick++) {
+            move(taxis, fleet, random);
+            taxis.forEach(grid::update);
+            
+            long start = System.nanoTime();
+            String delta = all.encode(taxis);
+            allNanos += System.nanoTime() - start;
+            allChars += delta != null ? delta.length() : 0;
+            
+            start = System.nanoTime();
+            List<Taxi> visible = grid.findInBounds(
+                    DISTRICT.getSouth(), DISTRICT.getWest(), DISTRICT.getNorth(), DISTRICT.getEast(), taxi -> true);
+            queryNanos += System.nanoTime() - start;
+            inView += visible.size();
+            
+            start = System.nanoTime();
+            delta = culled.encode(visible);
+            culledNanos += System.nanoTime() - start;
+            culledChars += delta != null ? delta.length() : 0;
+        }
+        return new long[] {allNanos / ticks, allChars / ticks, inView / ticks,
+                queryNanos / ticks, culledNanos / ticks, culledChars / ticks};
+    }
+    
+    // Returns {full ns per tick, full chars per tick, delta ns per tick, delta chars per tick}
+    private static long[] run(int fleet, double movedShare, int ticks) {
+        Random random = new Random(42);
+        List<Taxi> taxis = createFleet(fleet, random);
+        int moving = Math.max(1, (int) (fleet * movedShare));
+        
+        TaxiDeltaEncoder encoder = new TaxiDeltaEncoder();
+        // The first update creates every marker; it is paid once, not per tick
+        encoder.encode(taxis);
+        
+        long fullNanos = 0;
+        long fullChars = 0;
+        long deltaNanos = 0;
+        long deltaChars = 0;
+        for (int tick = 0; tick < ticks; tick++) {
+            move(taxis, moving, random);
+            
+            long start = System.nanoTime();
+            String full = fullPayload(taxis);
+            fullNanos += System.nanoTime() - start;
+            fullChars += full.length();
+            
+            start = System.nanoTime();
+            String delta = encoder.encode(taxis);
+            deltaNanos += System.nanoTime() - start;
+            deltaChars += delta != null ? delta.length() : 0;
+        }
+        return new long[] {fullNanos / ticks, fullChars / ticks, deltaNanos / ticks, deltaChars / ticks};
+    }
+    
+    private static List<Taxi> createFleet(int count, Random random) {
+        List<Taxi> taxis = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Location location = new Location(
+                    46.0 + random.nextDouble() * 1.5, 6.5 + random.nextDouble() * 3.5, "Switzerland");
+            taxis.add(new Taxi("Driver " + i, "ZH " + (100000 + i), "Toyota Prius", location));
+        }
+        return taxis;
+    }
+    
+    // Nudge randomly picked taxis by up to ~50 m, as one animator step would
+    private static void move(List<Taxi> taxis, int count, Random random) {
+        for (int i = 0; i < count; i++) {
+            Taxi taxi = taxis.get(random.nextInt(taxis.size()));
+            Location location = taxi.getCurrentLocation();
+            taxi.setCurrentLocation(new Location(location.getLatitude() + (random.nextDouble() - 0.5) * 0.001,
+                    location.getLongitude() + (random.nextDouble() - 0.5) * 0.001, location.getAddress()));
+        }
+    }
+    
+    // The payload RealMapViewer.updateTaxis built before the delta encoding
+    private static String fullPayload(List<Taxi> taxis) {
+        StringBuilder taxiJson = new StringBuilder("[");
+        boolean first = true;
+        for (Taxi taxi : taxis) {
+            if (!first) {
+                taxiJson.append(",");
+            }
+            Location location = taxi.getCurrentLocation();
+            taxiJson.append("{")
+                    .append("\"id\":\"").append(escapeJavaScript(taxi.getId())).append("\",")
+                    .append("\"driver\":\"").append(escapeJavaScript(taxi.getDriverName())).append("\",")
+                    .append("\"lat\":").append(COORD_FORMAT.format(location.getLatitude())).append(",")
+                    .append("\"lon\":").append(COORD_FORMAT.format(location.getLongitude())).append("}");
+            first = false;
+        }
+        taxiJson.append("]");
+        return "updateTaxis('" + taxiJson.toString() + "');";
+    }
+    
+    private static String escapeJavaScript(String str) {
+        if (str == null) return "";
+        return str.replace("\\", "\\\\")
+                 .replace("'", "\\'")
+                 .replace("\"", "\\\"")
+                 .replace("\r", "\\r")
+                 .replace("\n", "\\n");
+    }
+}
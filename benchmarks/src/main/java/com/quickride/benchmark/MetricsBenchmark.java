@@ -0,0 +1,181 @@
+package com.quickride.benchmark;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.quickride.exception.NoTaxiAvailableException;
+import com.quickride.manager.RideManager;
+import com.quickride.manager.TaxiManager;
+import com.quickride.metrics.HistogramSnapshot;
+import com.quickride.metrics.LatencyHistogram;
+import com.quickride.metrics.Metrics;
+import com.quickride.model.Location;
+import com.quickride.model.Ride;
+import com.quickride.model.Taxi;
+
+/**
+ * Cost and accuracy of the latency histograms
+ * Checks the histogram's percentiles against exact ones from sorted values,
+ * times record() from one and from several threads sharing a histogram, and
+ * compares booking throughput with and without metrics attached to the
+ * managers. Fails if a percentile is off by more than the bucket precision.
+ * Runs without the JavaFX toolkit
+ *
+ * Usage: MetricsBenchmark [threads] [seconds] [taxis]
+ */
+public final class MetricsBenchmark {
+    private static final Location PICKUP = new Location(47.3769, 8.5417, "Zurich");
+    private static final Location DROPOFF = new Location(46.9480, 7.4474, "Bern");
+    
+    private static final int SAMPLES = 1_000_000;
+    private static final int RECORDS_PER_THREAD = 20_000_000;
+    
+    // Percentiles are the top of a bucket, at most this much above the exact value
+    private static final double MAX_RELATIVE_ERROR = 1.0 / 64;
+    
+    private MetricsBenchmark() {
+        // Entry point only
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int taxis = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        
+        System.out.printf("Metrics benchmark: %d threads, %d s per run, %d taxis%n", threads, seconds, taxis);
+        boolean accurate = checkAccuracy();
+        
+        // Warm up the JIT so the first measured run is not penalized
+        recordNanos(1, RECORDS_PER_THREAD / 10);
+        System.out.printf("%nrecord() from 1 thread:   %6.1f ns%n", recordNanos(1, RECORDS_PER_THREAD));
+        System.out.printf("record() from %d threads: %6.1f ns per thread%n", threads, recordNanos(threads, RECORDS_PER_THREAD));
+        
+        book(null, threads, 1, taxis);
+        System.out.printf("%n%-16s %12s%n", "managers", "rides/s");
+        System.out.printf("%-16s %12.0f%n", "without metrics", book(null, threads, seconds, taxis));
+        Metrics metrics = new Metrics();
+        System.out.printf("%-16s %12.0f%n", "with metrics", book(metrics, threads, seconds, taxis));
+        System.out.println(metrics);
+        
+        if (!accurate) {
+            System.exit(1);
+        }
+    }
+    
+    // Log-normal values from about 1 us to about 10 ms, like call latencies with a long tail
+    private static boolean checkAccuracy() {
+        SplittableRandom random = new SplittableRandom(42);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            double gaussian = Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+            values[i] = (long) Math.exp(Math.log(20_000) + 1.2 * gaussian);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        
+        System.out.printf("%n%-10s %12s %12s %10s%n", "percentile", "exact ns", "histogram ns", "error");
+        boolean accurate = true;
+        for (double percentile : new double[] {50, 90, 99, 99.9, 99.99, 100}) {
+            long exact = values[Math.max(0, (int) Math.ceil(percentile / 100 * SAMPLES) - 1)];
+            long estimate = snapshot.valueAtPercentile(percentile);
+            double error = (double) (estimate - exact) / exact;
+            System.out.printf("%-10s %12d %12d %9.3f%%%n", percentile, exact, estimate, error * 100);
+            if (error < 0 || error > MAX_RELATIVE_ERROR) {
+                System.out.printf("Percentile %s outside the bucket precision%n", percentile);
+                accurate = false;
+            }
+        }
+        return accurate;
+    }
+    
+    // Average nanoseconds per record() with the given number of threads sharing one histogram
+    private static double recordNanos(int threads, int records) throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            long seed = i;
+            workers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                // Values across a few powers of two so the recorders hit different buckets
+                long value = seed * 7919 + 1000;
+                for (int n = 0; n < records; n++) {
+                    histogram.record(value);
+                    value = (value * 1103515245 + 12345) & 0xfffff;
+                }
+            }, "bench-recorder-" + i);
+            workers[i].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (histogram.snapshot().getCount() != (long) threads * records) {
+            throw new IllegalStateException("Lost records");
+        }
+        return (double) elapsed / records;
+    }
+    
+    // Completed rides per second of workers booking, starting and completing rides
+    private static double book(Metrics metrics, int threads, int seconds, int taxis) throws Exception {
+        TaxiManager taxiManager = new TaxiManager();
+        RideManager rideManager = new RideManager(taxiManager);
+        taxiManager.setMetrics(metrics);
+        rideManager.setMetrics(metrics);
+        for (int i = 0; i < taxis; i++) {
+            taxiManager.addTaxi(new Taxi("Driver " + i, "METRICS " + i, "Benchmark", PICKUP));
+        }
+        
+        LongAdder completed = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline) {
+                        if (bookOne(rideManager)) {
+                            completed.increment();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "bench-worker-" + i);
+            workers[i].start();
+        }
+        
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        return completed.sum() / elapsed;
+    }
+    
+    private static boolean bookOne(RideManager rideManager) {
+        try {
+            Ride ride = rideManager.requestRide("Bench", PICKUP, DROPOFF, true);
+            rideManager.startRide(ride);
+            rideManager.completeRide(ride);
+            return true;
+        } catch (NoTaxiAvailableException e) {
+            // More workers than free taxis - try again
+            return false;
+        }
+    }
+}
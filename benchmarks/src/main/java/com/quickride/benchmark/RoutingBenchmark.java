@@ -0,0 +1,144 @@
+package com.quickride.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import com.quickride.model.Location;
+import com.quickride.routing.AStarRouter;
+import com.quickride.routing.RoadGraph;
+import com.quickride.routing.RoadNetwork;
+import com.quickride.routing.SwissRoadNetwork;
+import com.quickride.simulation.RouteTable;
+
+/**
+ * Query latency of the road router
+ * Generates the synthetic Swiss road network, writes and reloads it, then
+ * times random trips inside a city and between cities with A* and with plain
+ * Dijkstra, checking both find the same lengths. Also routes the animator's
+ * intercity routes over the roads. Runs without the JavaFX toolkit
+ *
+ * Usage: RoutingBenchmark [queries] [seed]
+ */
+public final class RoutingBenchmark {
+    // Pickups and dropoffs of city trips are within this many degrees of the centre (about 2 km)
+    private static final double CITY_RADIUS = 0.02;
+    
+    private static final double[][] CITIES = {
+        {47.3769, 8.5417}, {46.2044, 6.1432}, {46.9480, 7.4474}, {47.5596, 7.5886}, {46.5197, 6.6323},
+        {47.0502, 8.3093}, {46.2018, 6.8785}, {46.3834, 6.2347}, {47.4245, 9.3767}, {46.6864, 7.8632}
+    };
+    
+    private RoutingBenchmark() {
+        // Entry point only
+    }
+    
+    public static void main(String[] args) throws IOException {
+        int queries = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        
+        long start = System.nanoTime();
+        RoadGraph generated = SwissRoadNetwork.generate(42);
+        double generateMillis = (System.nanoTime() - start) / 1e6;
+        
+        Path file = Files.createTempFile("quickride-roads", ".bin");
+        RoadGraph graph;
+        try {
+            generated.write(file);
+            start = System.nanoTime();
+            graph = RoadGraph.load(file);
+            System.out.printf("Generated %s in %.1f ms, %d KB on disk, loaded in %.1f ms%n",
+                    graph, generateMillis, Files.size(file) / 1024, (System.nanoTime() - start) / 1e6);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        
+        AStarRouter router = new AStarRouter(graph);
+        int[][] cityTrips = trips(graph, queries, seed, true);
+        int[][] countryTrips = trips(graph, queries / 10, seed, false);
+        
+        // Warm up the JIT so the first measured run is not penalized
+        run(router, cityTrips, true);
+        run(router, cityTrips, false);
+        
+        System.out.printf("%-14s %-9s %10s %10s %10s %10s%n", "trips", "search", "p50 us", "p99 us", "settled", "km");
+        boolean ok = report("in a city", router, cityTrips);
+        ok &= report("between cities", router, countryTrips);
+        
+        RoadNetwork network = new RoadNetwork(graph);
+        start = System.nanoTime();
+        RouteTable routes = network.followRoads(RouteTable.swissIntercity());
+        double routeMillis = (System.nanoTime() - start) / 1e6;
+        int waypoints = routes.firstWaypoint(routes.size());
+        System.out.printf("%nAnimator routes over roads: %d routes, %d waypoints, longest has %d segments, %.1f ms%n",
+                routes.size(), waypoints, routes.maxSegments(), routeMillis);
+        for (int r = 0; r < routes.size(); r++) {
+            int last = routes.firstWaypoint(r) + routes.segmentCount(r);
+            Location from = new Location(routes.latitude(routes.firstWaypoint(r)), routes.longitude(routes.firstWaypoint(r)), "");
+            Location to = new Location(routes.latitude(last), routes.longitude(last), "");
+            System.out.printf("  %-24s %6.1f km by road, %6.1f km straight%n",
+                    routes.startName(r), routes.routeLength(r), from.distanceTo(to));
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+    
+    // Prints A* and Dijkstra timings for the trips; false if they disagree on a length
+    private static boolean report(String name, AStarRouter router, int[][] trips) {
+        double[][] astar = run(router, trips, true);
+        double[][] dijkstra = run(router, trips, false);
+        print(name, "A*", astar);
+        print("", "Dijkstra", dijkstra);
+        int wrong = 0;
+        for (int i = 0; i < trips.length; i++) {
+            if (Math.abs(astar[2][i] - dijkstra[2][i]) > 1e-6) {
+                wrong++;
+            }
+        }
+        if (wrong > 0) {
+            System.out.printf("  %d trips with different lengths%n", wrong);
+        }
+        return wrong == 0;
+    }
+    
+    private static void print(String name, String search, double[][] results) {
+        double[] nanos = results[0].clone();
+        Arrays.sort(nanos);
+        System.out.printf("%-14s %-9s %10.1f %10.1f %10.0f %10.1f%n", name, search,
+                nanos[nanos.length / 2] / 1e3, nanos[(int) (nanos.length * 0.99)] / 1e3,
+                Arrays.stream(results[1]).average().orElse(0), Arrays.stream(results[2]).average().orElse(0) / 1000);
+    }
+    
+    // Returns {ns per query, nodes settled, metres} for each trip
+    private static double[][] run(AStarRouter router, int[][] trips, boolean astar) {
+        double[][] results = new double[3][trips.length];
+        for (int i = 0; i < trips.length; i++) {
+            long start = System.nanoTime();
+            double metres = astar ? router.distanceMetres(trips[i][0], trips[i][1]) : router.dijkstraMetres(trips[i][0], trips[i][1]);
+            results[0][i] = System.nanoTime() - start;
+            results[1][i] = router.getLastSettled();
+            results[2][i] = metres;
+        }
+        return results;
+    }
+    
+    // Random trips as {source node, target node}, inside one city or from one city to another
+    private static int[][] trips(RoadGraph graph, int count, long seed, boolean withinCity) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[][] trips = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int from = random.nextInt(CITIES.length);
+            int to = withinCity ? from : (from + 1 + random.nextInt(CITIES.length - 1)) % CITIES.length;
+            trips[i] = new int[] {nodeNear(graph, CITIES[from], random), nodeNear(graph, CITIES[to], random)};
+        }
+        return trips;
+    }
+    
+    private static int nodeNear(RoadGraph graph, double[] city, SplittableRandom random) {
+        return graph.nearestNode(city[0] + (random.nextDouble() * 2 - 1) * CITY_RADIUS,
+                city[1] + (random.nextDouble() * 2 - 1) * CITY_RADIUS);
+    }
+}
@@ -0,0 +1,233 @@
+package com.quickride.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.quickride.model.Location;
+import com.quickride.simulation.FleetSimulation;
+import com.quickride.simulation.RouteTable;
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Cost of one animation tick for growing fleets
+ * Compares FleetSimulation with a copy of the per-taxi animation objects
+ * TaxiAnimator used before: waypoints as double[][], segment offsets summed
+ * again on every step, a new double[] per position and positions written
+ * through Location setters. Reports time and bytes allocated per tick on the
+ * benchmark thread. A second table runs the largest fleet in parallel mode on
+ * pools of growing size, as ticks per second against threads used.
+ * Runs without the JavaFX toolkit
+ *
+ * Usage: SimulationBenchmark [ticks] [parallel fleet]
+ */
+public final class SimulationBenchmark {
+    private static final int[] FLEET_SIZES = {1_000, 10_000, 100_000};
+    private static final int PARTITIONS_PER_THREAD = 4;
+    
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    
+    // Each route's waypoints in the legacy double[][] form, shared like the old static table
+    private static final Map<Integer, double[][]> LEGACY_WAYPOINTS = new HashMap<>();
+    
+    private SimulationBenchmark() {
+        // Entry point only
+    }
+    
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int parallelFleet = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        RouteTable routes = RouteTable.swissIntercity();
+        
+        System.out.printf("Simulation benchmark: %d ticks per run%n", ticks);
+        System.out.printf("%8s | %10s %12s | %10s %12s | %8s%n",
+                "taxis", "legacy ms", "legacy B", "arrays ms", "arrays B", "speedup");
+        
+        // Warm up the JIT so the first measured run is not penalized
+        runLegacy(routes, 10_000, ticks);
+        runArrays(routes, 10_000, ticks);
+        
+        for (int fleet : FLEET_SIZES) {
+            long[] legacy = runLegacy(routes, fleet, ticks);
+            long[] arrays = runArrays(routes, fleet, ticks);
+            System.out.printf("%8d | %10.3f %12d | %10.3f %12d | %7.1fx%n",
+                    fleet, legacy[0] / 1e6, legacy[1], arrays[0] / 1e6, arrays[1], (double) legacy[0] / arrays[0]);
+        }
+        
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%nParallel ticks, %d taxis, %d partitions per thread, %d cores available%n",
+                parallelFleet, PARTITIONS_PER_THREAD, cores);
+        System.out.printf("%8s | %10s %10s %8s%n", "threads", "ms/tick", "ticks/s", "speedup");
+        long sequential = runArrays(routes, parallelFleet, ticks)[0];
+        System.out.printf("%8s | %10.3f %10.0f %8s%n", "seq", sequential / 1e6, 1e9 / sequential, "1.0x");
+        for (int threads = 1; threads <= cores; threads = threads < cores && threads * 2 > cores ? cores : threads * 2) {
+            long nanos = runParallel(routes, parallelFleet, ticks, threads);
+            System.out.printf("%8d | %10.3f %10.0f %7.1fx%n", threads, nanos / 1e6, 1e9 / nanos, (double) sequential / nanos);
+        }
+    }
+    
+    // Returns ns per tick with the fleet advanced on a pool of the given size
+    private static long runParallel(RouteTable routes, int fleet, int ticks, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            FleetSimulation simulation = new FleetSimulation(routes, fleet, 42);
+            for (int i = 0; i < fleet; i++) {
+                simulation.add();
+            }
+            simulation.setParallel(pool, threads * PARTITIONS_PER_THREAD);
+            // Let the pool start its workers and the JIT settle
+            for (int tick = 0; tick < ticks / 10; tick++) {
+                simulation.tick();
+            }
+            long start = System.nanoTime();
+            for (int tick = 0; tick < ticks; tick++) {
+                simulation.tick();
+            }
+            return (System.nanoTime() - start) / ticks;
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    // Returns {ns per tick, bytes allocated per tick}
+    private static long[] runArrays(RouteTable routes, int fleet, int ticks) {
+        FleetSimulation simulation = new FleetSimulation(routes, fleet, 42);
+        for (int i = 0; i < fleet; i++) {
+            simulation.add();
+        }
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int tick = 0; tick < ticks; tick++) {
+            simulation.tick();
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+        return new long[] {nanos / ticks, allocated / ticks};
+    }
+    
+    // Returns {ns per tick, bytes allocated per tick}
+    private static long[] runLegacy(RouteTable routes, int fleet, int ticks) {
+        Random random = new Random(42);
+        List<LegacyAnimation> animations = new ArrayList<>(fleet);
+        List<Location> locations = new ArrayList<>(fleet);
+        for (int i = 0; i < fleet; i++) {
+            int route = random.nextInt(routes.size());
+            LegacyAnimation animation = new LegacyAnimation(waypoints(routes, route), 1500 + random.nextInt(500), random);
+            animations.add(animation);
+            locations.add(new Location(animation.waypoints[0][0], animation.waypoints[0][1], routes.startName(route)));
+        }
+        
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int tick = 0; tick < ticks; tick++) {
+            for (int i = 0; i < fleet; i++) {
+                LegacyAnimation animation = animations.get(i);
+                if (animation.update()) {
+                    double[] position = animation.getCurrentPosition();
+                    locations.set(i, new Location(position[0], position[1], locations.get(i).getAddress()));
+                    if (animation.isComplete()) {
+                        int route = random.nextInt(routes.size());
+                        animation = new LegacyAnimation(waypoints(routes, route), 1500 + random.nextInt(500), random);
+                        animations.set(i, animation);
+                        locations.set(i, new Location(animation.waypoints[0][0], animation.waypoints[0][1],
+                                routes.startName(route)));
+                    }
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+        return new long[] {nanos / ticks, allocated / ticks};
+    }
+    
+    private static double[][] waypoints(RouteTable routes, int route) {
+        return LEGACY_WAYPOINTS.computeIfAbsent(route, r -> {
+            double[][] waypoints = new double[routes.segmentCount(r) + 1][];
+            for (int w = 0; w < waypoints.length; w++) {
+                int waypoint = routes.firstWaypoint(r) + w;
+                waypoints[w] = new double[] {routes.latitude(waypoint), routes.longitude(waypoint)};
+            }
+            return waypoints;
+        });
+    }
+    
+    // TaxiAnimator.TaxiAnimation as it was before the simulation moved to FleetSimulation
+    private static final class LegacyAnimation {
+        private final double[][] waypoints;
+        private final int totalSteps;
+        private final Random random;
+        private int currentStep;
+        private int currentSegment;
+        private final int[] segmentSteps;
+        
+        LegacyAnimation(double[][] waypoints, int totalSteps, Random random) {
+            this.waypoints = waypoints;
+            this.totalSteps = totalSteps;
+            this.random = random;
+            
+            double totalDistance = 0;
+            double[] segmentDistances = new double[waypoints.length - 1];
+            for (int i = 0; i < waypoints.length - 1; i++) {
+                double distance = new Location(waypoints[i][0], waypoints[i][1], "")
+                        .distanceTo(new Location(waypoints[i + 1][0], waypoints[i + 1][1], ""));
+                segmentDistances[i] = distance;
+                totalDistance += distance;
+            }
+            this.segmentSteps = new int[waypoints.length - 1];
+            int remainingSteps = totalSteps;
+            for (int i = 0; i < waypoints.length - 1; i++) {
+                if (i == waypoints.length - 2) {
+                    segmentSteps[i] = remainingSteps;
+                } else {
+                    segmentSteps[i] = (int) Math.round((segmentDistances[i] / totalDistance) * totalSteps);
+                    remainingSteps -= segmentSteps[i];
+                }
+            }
+        }
+        
+        boolean update() {
+            if (currentStep >= totalSteps) {
+                return false;
+            }
+            if (random.nextInt(3) > 0) {
+                currentStep++;
+            }
+            int stepsTaken = 0;
+            for (int i = 0; i <= currentSegment; i++) {
+                stepsTaken += segmentSteps[i];
+                if (currentStep <= stepsTaken) {
+                    break;
+                }
+                if (i == currentSegment) {
+                    currentSegment++;
+                }
+            }
+            return true;
+        }
+        
+        double[] getCurrentPosition() {
+            double[] start = waypoints[currentSegment];
+            double[] end = waypoints[currentSegment + 1];
+            int segmentStartStep = 0;
+            for (int i = 0; i < currentSegment; i++) {
+                segmentStartStep += segmentSteps[i];
+            }
+            int stepsInSegment = currentStep - segmentStartStep;
+            double segmentProgress = (double) stepsInSegment / segmentSteps[currentSegment];
+            double lat = start[0] + (end[0] - start[0]) * segmentProgress;
+            double lon = start[1] + (end[1] - start[1]) * segmentProgress;
+            double jitter = 0.00005;
+            lat += (random.nextDouble() * jitter * 2) - jitter;
+            lon += (random.nextDouble() * jitter * 2) - jitter;
+            return new double[] {lat, lon};
+        }
+        
+        boolean isComplete() {
+            return currentStep >= totalSteps;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.quickride.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import com.quickride.tiles.TileLayer;
+import com.quickride.tiles.TileServer;
+import com.quickride.tiles.TileStore;
+
+/**
+ * Offline check and timing of the tile cache and the local tile server
+ * Imports the fixture tile set into a fresh store, serves it through an
+ * offline TileServer and requests every tile and the bundled Leaflet files
+ * over HTTP, so nothing touches the network. Then reopens the store to check
+ * the tiles survive, and replays a skewed access pattern against a store far
+ * smaller than the tiles it sees, to show the hit rate, evictions and
+ * compactions. Exits with status 1 if a tile comes back wrong or missing.
+ *
+ * Usage: TileCacheBenchmark fixture-dir [requests]
+ * The fixture dir is laid out as {layer}/{z}/{x}/{y}.png, e.g. the application's src/test/resources/tiles
+ */
+public final class TileCacheBenchmark {
+    private static final int EVICTION_TILES = 2_000;
+    private static final long EVICTION_CAPACITY = 1L << 20;
+    private static final int EVICTION_SEGMENT_SIZE = 128 * 1024;
+    
+    private TileCacheBenchmark() {
+        // Entry point only
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: TileCacheBenchmark fixture-dir [requests]");
+            System.exit(2);
+        }
+        Path fixtures = Paths.get(args[0]);
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        
+        boolean ok = serveFixtures(fixtures);
+        ok &= replayWithEviction(requests);
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+    
+    // Serve every fixture tile over HTTP from an offline server, then reopen the store and compare
+    private static boolean serveFixtures(Path fixtures) throws Exception {
+        List<Path> files = fixtureFiles(fixtures);
+        Path directory = Files.createTempDirectory("quickride-tile-bench");
+        boolean ok = true;
+        try {
+            long start = System.nanoTime();
+            int imported;
+            try (TileStore store = TileStore.open(directory, TileStore.DEFAULT_CAPACITY)) {
+                imported = store.importDirectory(fixtures);
+            }
+            System.out.printf("Imported %d of %d fixture tiles in %.1f ms%n",
+                    imported, files.size(), (System.nanoTime() - start) / 1e6);
+            
+            try (TileStore store = TileStore.open(directory, TileStore.DEFAULT_CAPACITY)) {
+                System.out.printf("Reopened store: %s%n", store);
+                ok &= store.size() == files.size();
+                
+                TileServer server = TileServer.start(store, true);
+                try {
+                    HttpClient client = HttpClient.newHttpClient();
+                    for (String file : new String[] {"leaflet.js", "leaflet.css", "images/layers.png"}) {
+                        HttpResponse<byte[]> response = get(client, server.leafletUrl(file));
+                        System.out.printf("  %-18s %d, %d bytes%n", file, response.statusCode(), response.body().length);
+                        ok &= response.statusCode() == 200 && response.body().length > 0;
+                    }
+                    
+                    // Two passes: the first faults the mapping in, the second is the warm path
+                    for (int pass = 1; pass <= 2; pass++) {
+                        long[] nanos = new long[files.size()];
+                        int wrong = 0;
+                        for (int i = 0; i < files.size(); i++) {
+                            Path file = files.get(i);
+                            Path relative = fixtures.relativize(file);
+                            String url = server.getBaseUrl() + "/tiles/" + relative.toString().replace('\\', '/');
+                            long requestStart = System.nanoTime();
+                            HttpResponse<byte[]> response = get(client, url);
+                            nanos[i] = System.nanoTime() - requestStart;
+                            if (response.statusCode() != 200 || !Arrays.equals(response.body(), Files.readAllBytes(file))) {
+                                wrong++;
+                            }
+                        }
+                        Arrays.sort(nanos);
+                        System.out.printf("  pass %d: %d tiles over HTTP, p50 %.3f ms, p99 %.3f ms, %d wrong%n",
+                                pass, files.size(), nanos[nanos.length / 2] / 1e6,
+                                nanos[(int) (nanos.length * 0.99)] / 1e6, wrong);
+                        ok &= wrong == 0;
+                    }
+                    
+                    // Offline, a tile outside the fixture set is not found rather than fetched
+                    int status = get(client, server.tileUrlTemplate(TileLayer.STREET)
+                            .replace("{z}", "12").replace("{x}", "2145").replace("{y}", "1434")).statusCode();
+                    System.out.printf("  uncached tile while offline: %d%n", status);
+                    ok &= status == 404;
+                    
+                    // Let the neighbour prefetches of the last requests finish before reporting
+                    Thread.sleep(200);
+                    System.out.printf("  server: %s%n", server);
+                } finally {
+                    server.close();
+                }
+            }
+        } finally {
+            deleteRecursively(directory);
+        }
+        return ok;
+    }
+    
+    /**
+     * Replay a skewed access pattern on a store that holds about a tenth of the tiles
+     * Each miss stores the tile, as the server does after an upstream fetch
+     */
+    private static boolean replayWithEviction(int requests) throws IOException {
+        Random random = new Random(42);
+        byte[][] tiles = new byte[EVICTION_TILES][];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new byte[2_000 + random.nextInt(8_000)];
+            random.nextBytes(tiles[i]);
+        }
+        
+        Path directory = Files.createTempDirectory("quickride-tile-bench");
+        boolean ok = true;
+        try {
+            long start = System.nanoTime();
+            int wrong = 0;
+            try (TileStore store = TileStore.open(directory, EVICTION_CAPACITY, EVICTION_SEGMENT_SIZE)) {
+                for (int i = 0; i < requests; i++) {
+                    // Squaring a uniform value favours low indexes, like a few busy map areas
+                    double u = random.nextDouble();
+                    int tile = (int) (u * u * EVICTION_TILES);
+                    long key = TileStore.key(TileLayer.STREET, 18, tile, tile);
+                    byte[] data = store.get(key);
+                    if (data == null) {
+                        store.put(key, tiles[tile]);
+                    } else if (!Arrays.equals(data, tiles[tile])) {
+                        wrong++;
+                    }
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%nEviction: %d requests over %d tiles, %d KB capacity, %.0f requests/s%n",
+                        requests, EVICTION_TILES, EVICTION_CAPACITY / 1024, requests / seconds);
+                System.out.printf("  hit rate %.1f%%, %s, %d wrong%n",
+                        100.0 * store.getHits() / requests, store, wrong);
+                ok &= wrong == 0 && store.liveBytes() <= EVICTION_CAPACITY;
+                ok &= store.segmentCount() * (long) EVICTION_SEGMENT_SIZE <= 2 * EVICTION_CAPACITY + EVICTION_SEGMENT_SIZE;
+            }
+            
+            // The tiles that survived eviction are all readable after a reopen
+            try (TileStore store = TileStore.open(directory, EVICTION_CAPACITY, EVICTION_SEGMENT_SIZE)) {
+                int checked = 0;
+                for (int tile = 0; tile < EVICTION_TILES; tile++) {
+                    byte[] data = store.get(TileStore.key(TileLayer.STREET, 18, tile, tile));
+                    if (data != null) {
+                        checked++;
+                        if (!Arrays.equals(data, tiles[tile])) {
+                            wrong++;
+                        }
+                    }
+                }
+                System.out.printf("  reopened: %d tiles readable, %d wrong%n", checked, wrong);
+                ok &= wrong == 0 && checked == store.size();
+            }
+        } finally {
+            deleteRecursively(directory);
+        }
+        return ok;
+    }
+    
+    private static HttpResponse<byte[]> get(HttpClient client, String url) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(URI.create(url)).build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+    
+    private static List<Path> fixtureFiles(Path fixtures) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(fixtures)) {
+            paths.filter(path -> path.toString().endsWith(".png")).sorted().forEach(files::add);
+        }
+        return files;
+    }
+    
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.quickride.benchmark.jmh;
+
+import java.util.SplittableRandom;
+
+import com.quickride.exception.InvalidTaxiException;
+import com.quickride.manager.TaxiManager;
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+import com.quickride.simulation.RouteTable;
+
+/**
+ * Taxi fleets and pickup points shared by the benchmarks
+ * Positions cluster around the waypoints of the animator's intercity routes,
+ * so the spatial grid sees dense cities and empty countryside as in the app.
+ * Everything is seeded, so every run and fork benchmarks the same fleet
+ */
+final class Fleets {
+    // Fleet sizes every fleet benchmark runs with, as JMH @Param values
+    static final String SIZE_100 = "100";
+    static final String SIZE_1K = "1000";
+    static final String SIZE_10K = "10000";
+    static final String SIZE_100K = "100000";
+    
+    // Pickups cycled through by the benchmarks; a power of two so the index can be masked
+    static final int PICKUPS = 1024;
+    
+    // Taxis and pickups are within this many degrees of a waypoint (about 5 km)
+    private static final double SPREAD = 0.05;
+    
+    private static final RouteTable ROUTES = RouteTable.swissIntercity();
+    
+    private Fleets() {
+        // Static helpers only
+    }
+    
+    /**
+     * A taxi manager with the given number of available taxis
+     */
+    static TaxiManager newTaxiManager(int size, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        TaxiManager manager = new TaxiManager();
+        try {
+            for (int i = 0; i < size; i++) {
+                manager.addTaxi(new Taxi("Driver " + i, "BENCH " + i, "Benchmark", randomLocation(random)));
+            }
+        } catch (InvalidTaxiException e) {
+            throw new IllegalStateException("Could not build benchmark fleet", e);
+        }
+        return manager;
+    }
+    
+    /**
+     * Random pickup points in the same areas as the taxis
+     */
+    static Location[] pickups(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Location[] pickups = new Location[count];
+        for (int i = 0; i < count; i++) {
+            pickups[i] = randomLocation(random);
+        }
+        return pickups;
+    }
+    
+    private static Location randomLocation(SplittableRandom random) {
+        int waypoint = random.nextInt(ROUTES.firstWaypoint(ROUTES.size()));
+        return new Location(ROUTES.latitude(waypoint) + (random.nextDouble() * 2 - 1) * SPREAD,
+                ROUTES.longitude(waypoint) + (random.nextDouble() * 2 - 1) * SPREAD, "Benchmark");
+    }
+}
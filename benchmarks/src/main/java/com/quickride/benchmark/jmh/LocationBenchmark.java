@@ -0,0 +1,97 @@
+package com.quickride.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.quickride.model.GeoDistance;
+import com.quickride.model.Location;
+
+/**
+ * Location.distanceTo, once and as a scan of the whole fleet
+ * The scan is the brute-force nearest-taxi search the spatial grid replaces,
+ * so its cost per fleet size is the baseline for getNearestAvailableTaxi.
+ * The approximate and squared variants show what ranking with the
+ * GeoDistance flat kernels saves over haversine
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationBenchmark {
+    @Param({Fleets.SIZE_100, Fleets.SIZE_1K, Fleets.SIZE_10K, Fleets.SIZE_100K})
+    public int fleetSize;
+    
+    private Location[] fleet;
+    private Location[] pickups;
+    private int next;
+    
+    @Setup(Level.Trial)
+    public void createLocations() {
+        fleet = Fleets.pickups(fleetSize, 42);
+        pickups = Fleets.pickups(Fleets.PICKUPS, 7);
+    }
+    
+    @Benchmark
+    public double distanceTo() {
+        int i = next++ & (Fleets.PICKUPS - 1);
+        return pickups[i].distanceTo(fleet[i % fleetSize]);
+    }
+    
+    @Benchmark
+    public double distanceToFleet() {
+        Location pickup = pickups[next++ & (Fleets.PICKUPS - 1)];
+        double nearest = Double.MAX_VALUE;
+        for (Location taxi : fleet) {
+            nearest = Math.min(nearest, pickup.distanceTo(taxi));
+        }
+        return nearest;
+    }
+    
+    @Benchmark
+    public double approximateDistanceTo() {
+        int i = next++ & (Fleets.PICKUPS - 1);
+        return pickups[i].approximateDistanceTo(fleet[i % fleetSize]);
+    }
+    
+    @Benchmark
+    public double squaredDegrees() {
+        int i = next++ & (Fleets.PICKUPS - 1);
+        Location pickup = pickups[i];
+        Location taxi = fleet[i % fleetSize];
+        return GeoDistance.squaredDegrees(pickup.getLatitude(), pickup.getLongitude(),
+                taxi.getLatitude(), taxi.getLongitude(), GeoDistance.cosLatitude(pickup.getLatitude()));
+    }
+    
+    // Ranks the fleet by squared degrees and measures only the winner exactly
+    @Benchmark
+    public double squaredDegreesFleet() {
+        Location pickup = pickups[next++ & (Fleets.PICKUPS - 1)];
+        double latitude = pickup.getLatitude();
+        double longitude = pickup.getLongitude();
+        double cosLatitude = GeoDistance.cosLatitude(latitude);
+        Location nearest = fleet[0];
+        double nearestSquared = Double.MAX_VALUE;
+        for (Location taxi : fleet) {
+            double squared = GeoDistance.squaredDegrees(latitude, longitude, taxi.getLatitude(), taxi.getLongitude(), cosLatitude);
+            if (squared < nearestSquared) {
+                nearestSquared = squared;
+                nearest = taxi;
+            }
+        }
+        return pickup.distanceTo(nearest);
+    }
+}
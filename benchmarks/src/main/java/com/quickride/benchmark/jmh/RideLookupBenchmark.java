@@ -0,0 +1,66 @@
+package com.quickride.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.quickride.exception.NoTaxiAvailableException;
+import com.quickride.manager.RideManager;
+import com.quickride.model.Location;
+import com.quickride.model.Ride;
+
+/**
+ * RideManager.getRideById with as many completed rides on record as there are taxis
+ * The IDs looked up are spread evenly over the booking order
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RideLookupBenchmark {
+    @Param({Fleets.SIZE_100, Fleets.SIZE_1K, Fleets.SIZE_10K, Fleets.SIZE_100K})
+    public int fleetSize;
+    
+    private RideManager rideManager;
+    private String[] ids;
+    private int next;
+    
+    @Setup(Level.Trial)
+    public void bookRides() throws NoTaxiAvailableException {
+        rideManager = new RideManager(Fleets.newTaxiManager(fleetSize, 42));
+        Location[] pickups = Fleets.pickups(Fleets.PICKUPS, 7);
+        Location[] dropoffs = Fleets.pickups(Fleets.PICKUPS, 11);
+        ids = new String[Fleets.PICKUPS];
+        for (int i = 0; i < fleetSize; i++) {
+            int point = i & (Fleets.PICKUPS - 1);
+            Ride ride = rideManager.requestRide("Benchmark", pickups[point], dropoffs[point], true);
+            rideManager.startRide(ride);
+            rideManager.completeRide(ride);
+            ids[(int) ((long) i * Fleets.PICKUPS / fleetSize)] = ride.getId();
+        }
+        // Small fleets leave gaps in the sample; repeat the ID before each
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] == null) {
+                ids[i] = ids[i - 1];
+            }
+        }
+    }
+    
+    @Benchmark
+    public Ride getRideById() {
+        return rideManager.getRideById(ids[next++ & (Fleets.PICKUPS - 1)]);
+    }
+}
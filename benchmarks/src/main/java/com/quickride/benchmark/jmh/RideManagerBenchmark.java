@@ -0,0 +1,109 @@
+package com.quickride.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.quickride.exception.NoTaxiAvailableException;
+import com.quickride.manager.RideManager;
+import com.quickride.manager.TaxiManager;
+import com.quickride.model.Location;
+import com.quickride.model.Ride;
+
+/**
+ * Ride lifecycle operations of RideManager for growing fleets
+ * requestRide books with the nearest taxi; the ride is started and completed
+ * after the call, outside the measurement, which gives the taxi back.
+ * completeRide is measured on a ride requested and started before it. The
+ * ride manager is replaced every iteration so the finished rides it keeps do
+ * not pile up across the run. Sampled per call, which also gives percentiles;
+ * lookups are in RideLookupBenchmark
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RideManagerBenchmark {
+    /**
+     * The fleet and ride manager, shared by the benchmarks and the state that prepares completions
+     * Benchmark scope, because JMH gives each user of a thread-scoped state its own copy
+     */
+    @State(Scope.Benchmark)
+    public static class Rides {
+        @Param({Fleets.SIZE_100, Fleets.SIZE_1K, Fleets.SIZE_10K, Fleets.SIZE_100K})
+        public int fleetSize;
+        
+        TaxiManager taxiManager;
+        RideManager rideManager;
+        Location[] pickups;
+        Location[] dropoffs;
+        int next;
+        
+        // Ride booked by the last requestRide call, finished again after it
+        Ride requested;
+        
+        @Setup(Level.Trial)
+        public void createFleet() {
+            taxiManager = Fleets.newTaxiManager(fleetSize, 42);
+            pickups = Fleets.pickups(Fleets.PICKUPS, 7);
+            dropoffs = Fleets.pickups(Fleets.PICKUPS, 11);
+        }
+        
+        @Setup(Level.Iteration)
+        public void createRideManager() {
+            rideManager = new RideManager(taxiManager);
+        }
+        
+        @TearDown(Level.Invocation)
+        public void finishRequested() {
+            if (requested != null) {
+                rideManager.startRide(requested);
+                rideManager.completeRide(requested);
+                requested = null;
+            }
+        }
+        
+        Ride book() throws NoTaxiAvailableException {
+            int i = next++ & (Fleets.PICKUPS - 1);
+            return rideManager.requestRide("Benchmark", pickups[i], dropoffs[i], true);
+        }
+    }
+    
+    /**
+     * State for completeRide, which needs a ride in progress before every call
+     */
+    @State(Scope.Thread)
+    public static class InProgress {
+        Ride ride;
+        
+        @Setup(Level.Invocation)
+        public void start(Rides rides) throws NoTaxiAvailableException {
+            ride = rides.book();
+            rides.rideManager.startRide(ride);
+        }
+    }
+    
+    @Benchmark
+    public Ride requestRide(Rides rides) throws NoTaxiAvailableException {
+        rides.requested = rides.book();
+        return rides.requested;
+    }
+    
+    @Benchmark
+    public void completeRide(Rides rides, InProgress inProgress) {
+        rides.rideManager.completeRide(inProgress.ride);
+    }
+}
@@ -0,0 +1,53 @@
+package com.quickride.benchmark.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.quickride.manager.TaxiManager;
+import com.quickride.model.Taxi;
+import com.quickride.simulation.RouteTable;
+import com.quickride.util.TaxiAnimator;
+
+/**
+ * Cost of one TaxiAnimator tick: moving the fleet, copying the positions to
+ * the taxis and updating the taxi manager's spatial grid
+ * Runs without a map, so everything counts as in view and nothing is sent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaxiAnimatorBenchmark {
+    @Param({Fleets.SIZE_100, Fleets.SIZE_1K, Fleets.SIZE_10K, Fleets.SIZE_100K})
+    public int fleetSize;
+    
+    private TaxiAnimator animator;
+    
+    @Setup(Level.Trial)
+    public void createAnimator() {
+        TaxiManager manager = Fleets.newTaxiManager(fleetSize, 42);
+        animator = new TaxiAnimator(manager.getAllTaxis(), null, RouteTable.swissIntercity());
+        animator.setTaxiManager(manager);
+        animator.placeOnRoutes();
+    }
+    
+    @Benchmark
+    public List<Taxi> tick() {
+        return animator.tick(null);
+    }
+}
@@ -0,0 +1,97 @@
+package com.quickride.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.quickride.exception.InvalidTaxiException;
+import com.quickride.exception.NoTaxiAvailableException;
+import com.quickride.manager.TaxiManager;
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+
+/**
+ * Dispatch operations of TaxiManager for growing fleets
+ * Each claim is undone after the measured call, and each release is prepared
+ * by a claim before it, outside the measurement, so the fleet stays the same
+ * size throughout. Sampled per call, which also gives percentiles
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaxiManagerBenchmark {
+    /**
+     * The fleet, shared by the benchmarks and the state that prepares releases
+     * Benchmark scope, because JMH gives each user of a thread-scoped state its own copy
+     */
+    @State(Scope.Benchmark)
+    public static class Fleet {
+        @Param({Fleets.SIZE_100, Fleets.SIZE_1K, Fleets.SIZE_10K, Fleets.SIZE_100K})
+        public int fleetSize;
+        
+        TaxiManager manager;
+        Location[] pickups;
+        int next;
+        
+        // Taxi claimed by the last call, released again after it
+        Taxi claimed;
+        
+        @Setup(Level.Trial)
+        public void create() {
+            manager = Fleets.newTaxiManager(fleetSize, 42);
+            pickups = Fleets.pickups(Fleets.PICKUPS, 7);
+        }
+        
+        @TearDown(Level.Invocation)
+        public void releaseClaimed() throws InvalidTaxiException {
+            if (claimed != null) {
+                manager.releaseTaxi(claimed);
+                claimed = null;
+            }
+        }
+    }
+    
+    /**
+     * State for releaseTaxi, which needs a claimed taxi before every call
+     */
+    @State(Scope.Thread)
+    public static class Claimed {
+        Taxi taxi;
+        
+        @Setup(Level.Invocation)
+        public void claim(Fleet fleet) throws NoTaxiAvailableException {
+            taxi = fleet.manager.getNextAvailableTaxi();
+        }
+    }
+    
+    @Benchmark
+    public Taxi getNearestAvailableTaxi(Fleet fleet) throws NoTaxiAvailableException {
+        fleet.claimed = fleet.manager.getNearestAvailableTaxi(fleet.pickups[fleet.next++ & (Fleets.PICKUPS - 1)]);
+        return fleet.claimed;
+    }
+    
+    @Benchmark
+    public Taxi getNextAvailableTaxi(Fleet fleet) throws NoTaxiAvailableException {
+        fleet.claimed = fleet.manager.getNextAvailableTaxi();
+        return fleet.claimed;
+    }
+    
+    @Benchmark
+    public void releaseTaxi(Fleet fleet, Claimed claimed) throws InvalidTaxiException {
+        fleet.manager.releaseTaxi(claimed.taxi);
+    }
+}
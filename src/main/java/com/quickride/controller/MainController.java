@@ -1,21 +1,35 @@
 package com.quickride.controller;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.quickride.exception.InvalidTaxiException;
 import com.quickride.manager.RideManager;
 import com.quickride.manager.TaxiManager;
+import com.quickride.metrics.Metrics;
+import com.quickride.metrics.MetricsServer;
 import com.quickride.model.Location;
 import com.quickride.model.Ride;
 import com.quickride.model.RideStatus;
 import com.quickride.model.Taxi;
+import com.quickride.persistence.FsyncPolicy;
+import com.quickride.persistence.RideArchive;
+import com.quickride.persistence.StateJournal;
+import com.quickride.routing.RoadNetwork;
+import com.quickride.simulation.RouteTable;
+import com.quickride.tiles.TileServer;
+import com.quickride.tiles.TileStore;
+import com.quickride.util.MapViewport;
 import com.quickride.util.RealMapViewer;
 import com.quickride.util.TaxiAnimator;
 import com.quickride.util.TaxiFactory;
+import com.quickride.util.UiUpdatePump;
 
 import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
@@ -58,6 +72,48 @@ public class MainController {
     private final RideManager rideManager = new RideManager(taxiManager);
     private TaxiAnimator taxiAnimator;
     
+    // Applies manager changes to the tables and the map at most once per pulse
+    private final UiUpdatePump uiUpdatePump = new UiUpdatePump();
+    
+    // Pump key for the map refresh - any number of taxi changes in a pulse trigger one map update
+    private static final Object MAP_UPDATE_KEY = new Object();
+    
+    // System properties for the journal location and its fsync policy
+    private static final String JOURNAL_DIR_PROPERTY = "quickride.journal.dir";
+    private static final String JOURNAL_FSYNC_PROPERTY = "quickride.journal.fsync";
+    private static final String SNAPSHOT_INTERVAL_PROPERTY = "quickride.snapshot.interval";
+    private static final String ARCHIVE_DIR_PROPERTY = "quickride.archive.dir";
+    private static final String ARCHIVE_RETAIN_PROPERTY = "quickride.archive.retain";
+    private static final String TILES_DIR_PROPERTY = "quickride.tiles.dir";
+    private static final String TILES_CAPACITY_PROPERTY = "quickride.tiles.capacity.mb";
+    private static final String TILES_OFFLINE_PROPERTY = "quickride.tiles.offline";
+    private static final String TILES_PREFETCH_PROPERTY = "quickride.tiles.prefetch";
+    private static final String TILES_SEED_PROPERTY = "quickride.tiles.seed";
+    private static final String ANIMATOR_PARALLEL_PROPERTY = "quickride.animator.parallel";
+    private static final String ROADS_FILE_PROPERTY = "quickride.roads.file";
+    private static final String METRICS_PORT_PROPERTY = "quickride.metrics.port";
+    private static final String METRICS_FILE_PROPERTY = "quickride.metrics.file";
+    
+    // Default seconds between journal snapshots
+    private static final long DEFAULT_SNAPSHOT_INTERVAL_SECONDS = 300;
+    
+    // Journal of taxis and rides, null if it could not be opened
+    private StateJournal journal;
+    
+    // Archive of finished rides, null if it could not be opened
+    private RideArchive rideArchive;
+    
+    // Tile cache and the local server the map loads from, null if they could not be started
+    private TileStore tileStore;
+    private TileServer tileServer;
+    
+    // Road network for taxi routes and fare estimates, null until it has loaded or if it could not be
+    private RoadNetwork roadNetwork;
+    
+    // Latencies and counters of the managers and the map, served locally when a port is set
+    private final Metrics metrics = new Metrics();
+    private MetricsServer metricsServer;
+    
     @FXML
     private TableView<Taxi> availableTaxisTable;
     
@@ -100,6 +156,22 @@ public class MainController {
     public void initialize() {
         System.out.println("MainController initialized");
         
+        // Batch manager updates to the FX pulse
+        taxiManager.setUpdatePump(uiUpdatePump);
+        rideManager.setUpdatePump(uiUpdatePump);
+        uiUpdatePump.start();
+        
+        // Record before recovery so the export covers the whole session
+        taxiManager.setMetrics(metrics);
+        rideManager.setMetrics(metrics);
+        openMetricsServer();
+        
+        // Restore taxis and rides from the previous session
+        openJournal();
+        openRideArchive();
+        openTileServer();
+        openRoadNetwork();
+        
         // Initialize tables
         setupTaxiTable();
         setupRidesTable();
@@ -288,7 +360,197 @@ public class MainController {
         }
     }
     
+    /**
+     * Open the journal, replay it into the managers and start logging
+     * The app keeps running without persistence if the journal cannot be opened
+     */
+    private void openJournal() {
+        Path directory = Paths.get(System.getProperty(JOURNAL_DIR_PROPERTY,
+                Paths.get(System.getProperty("user.home"), ".quickride", "journal").toString()));
+        FsyncPolicy policy = journalFsyncPolicy();
+        
+        try {
+            journal = StateJournal.open(directory, policy);
+            journal.recover(taxiManager, rideManager);
+            taxiManager.setJournal(journal);
+            rideManager.setJournal(journal);
+            journal.startPeriodicSnapshots(taxiManager, rideManager,
+                    Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, DEFAULT_SNAPSHOT_INTERVAL_SECONDS));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Could not open journal in " + directory + ", continuing without persistence", e);
+            closeJournal();
+        }
+    }
+    
+    // Fsync policy named by the system property, or group commit if it is unset or names no policy
+    private static FsyncPolicy journalFsyncPolicy() {
+        String name = System.getProperty(JOURNAL_FSYNC_PROPERTY);
+        if (name == null) {
+            return FsyncPolicy.GROUP_COMMIT;
+        }
+        try {
+            return FsyncPolicy.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning(() -> "Unknown " + JOURNAL_FSYNC_PROPERTY + " value " + name + ", using "
+                    + FsyncPolicy.GROUP_COMMIT + "; expected one of " + Arrays.toString(FsyncPolicy.values()));
+            return FsyncPolicy.GROUP_COMMIT;
+        }
+    }
+    
+    /**
+     * Open the ride archive so finished rides can leave memory
+     * Without it every ride stays on the heap
+     */
+    private void openRideArchive() {
+        Path directory = Paths.get(System.getProperty(ARCHIVE_DIR_PROPERTY,
+                Paths.get(System.getProperty("user.home"), ".quickride", "archive").toString()));
+        try {
+            rideArchive = RideArchive.open(directory);
+            rideManager.setArchive(rideArchive,
+                    Integer.getInteger(ARCHIVE_RETAIN_PROPERTY, RideManager.DEFAULT_RETAINED_FINISHED_RIDES));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Could not open ride archive in " + directory + ", keeping all rides in memory", e);
+        }
+    }
+    
+    /**
+     * Open the tile cache and start the local server the map loads Leaflet and its tiles from
+     * Without it the map loads everything from the internet
+     */
+    private void openTileServer() {
+        Path directory = Paths.get(System.getProperty(TILES_DIR_PROPERTY,
+                Paths.get(System.getProperty("user.home"), ".quickride", "tiles").toString()));
+        long capacity = Long.getLong(TILES_CAPACITY_PROPERTY, TileStore.DEFAULT_CAPACITY >> 20) << 20;
+        try {
+            tileStore = TileStore.open(directory, capacity);
+            String seed = System.getProperty(TILES_SEED_PROPERTY);
+            if (seed != null) {
+                int added = tileStore.importDirectory(Paths.get(seed));
+                LOGGER.info(() -> "Imported " + added + " tiles from " + seed);
+            }
+            tileServer = TileServer.start(tileStore, Boolean.getBoolean(TILES_OFFLINE_PROPERTY),
+                    Boolean.getBoolean(TILES_PREFETCH_PROPERTY));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Could not open tile cache in " + directory + ", loading map tiles from the internet", e);
+            closeTileServer();
+        }
+    }
+    
+    /**
+     * Load the road network in the background, generating the synthetic Swiss one on first start
+     * Until it is loaded, and if it cannot be, taxis drive the built-in polylines and fares use
+     * straight-line distances
+     */
+    private void openRoadNetwork() {
+        Path file = Paths.get(System.getProperty(ROADS_FILE_PROPERTY,
+                Paths.get(System.getProperty("user.home"), ".quickride", "roads.bin").toString()));
+        javafx.concurrent.Task<RoadNetwork> loadTask = new javafx.concurrent.Task<RoadNetwork>() {
+            @Override
+            protected RoadNetwork call() throws Exception {
+                return RoadNetwork.openOrGenerate(file);
+            }
+        };
+        loadTask.setOnSucceeded(event -> useRoadNetwork(loadTask.getValue()));
+        loadTask.setOnFailed(event -> LOGGER.log(Level.SEVERE,
+                "Could not load road network from " + file + ", using straight-line routes", loadTask.getException()));
+        Thread loader = new Thread(loadTask, "road-network-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+    
+    /**
+     * Switch fares and the taxi animation to the road network, on the FX thread
+     */
+    private void useRoadNetwork(RoadNetwork network) {
+        roadNetwork = network;
+        LOGGER.info(() -> "Loaded road network: " + network.getGraph());
+        if (taxiAnimator != null) {
+            taxiAnimator.setRoutes(network.followRoads(RouteTable.swissIntercity()));
+        }
+    }
+    
+    /**
+     * Serve the metrics on the loopback interface if a port is configured
+     * Recording goes on without the endpoint; the export can still be written on exit
+     */
+    private void openMetricsServer() {
+        Integer port = Integer.getInteger(METRICS_PORT_PROPERTY);
+        if (port == null) {
+            return;
+        }
+        try {
+            metricsServer = MetricsServer.start(metrics, port);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Could not serve metrics on port " + port, e);
+        }
+    }
+    
+    private void closeMetrics() {
+        LOGGER.info(() -> "Metrics: " + metrics);
+        if (metricsServer != null) {
+            metricsServer.close();
+            metricsServer = null;
+        }
+        String file = System.getProperty(METRICS_FILE_PROPERTY);
+        if (file != null) {
+            try {
+                metrics.writeTo(Paths.get(file));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not write metrics to " + file, e);
+            }
+        }
+    }
+    
+    private void closeTileServer() {
+        if (tileServer != null) {
+            LOGGER.info(() -> "Tile server statistics: " + tileServer);
+            tileServer.close();
+            tileServer = null;
+        }
+        if (tileStore != null) {
+            LOGGER.info(() -> "Tile cache: " + tileStore);
+            try {
+                tileStore.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing tile cache", e);
+            }
+            tileStore = null;
+        }
+    }
+    
+    private void closeRideArchive() {
+        if (rideArchive == null) {
+            return;
+        }
+        rideManager.setArchive(null, RideManager.DEFAULT_RETAINED_FINISHED_RIDES);
+        try {
+            rideArchive.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing ride archive", e);
+        }
+        rideArchive = null;
+    }
+    
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        taxiManager.setJournal(null);
+        rideManager.setJournal(null);
+        try {
+            journal.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing journal", e);
+        }
+        journal = null;
+    }
+    
     private void addDemoData() {
+        // Recovered fleets are kept as they are
+        if (taxiManager.getTotalTaxiCount() > 0) {
+            return;
+        }
+        
         try {
             // Add many more taxis for a realistic map
             Taxi[] randomTaxis = TaxiFactory.createRandomTaxis(25);
@@ -301,8 +563,8 @@ public class MainController {
     }
     
     private void updateStatusBar() {
-        int availableTaxis = taxiManager.getObservableAvailableTaxis().size();
-        int totalRides = rideManager.getObservableRides().size();
+        int availableTaxis = taxiManager.getAvailableTaxiCount();
+        int totalRides = rideManager.getTotalRideCount();
         
         statusLabel.setText(String.format("Available Taxis: %d | Total Rides: %d", 
                 availableTaxis, totalRides));
@@ -321,6 +583,7 @@ public class MainController {
             // Get the controller and set the managers
             RequestRideController controller = loader.getController();
             controller.setRideManager(rideManager);
+            controller.setRoadNetwork(roadNetwork);
             
             // Create and show the stage
             Stage stage = new Stage();
@@ -363,7 +626,11 @@ public class MainController {
             mapContainer.getChildren().add(mapPane);
             
                     // Create and initialize the real map viewer
-        mapViewer = new RealMapViewer(mapPane);
+        mapViewer = new RealMapViewer(mapPane, tileServer);
+        mapViewer.setMetrics(metrics);
+        
+        // Panning or zooming brings other taxis into view
+        mapViewer.addViewportListener(viewport -> uiUpdatePump.submit(MAP_UPDATE_KEY, this::updateMapWithTaxis));
         
         // Set satellite as default view after map loads
         javafx.concurrent.Task<Void> setDefaultViewTask = new javafx.concurrent.Task<Void>() {
@@ -385,18 +652,25 @@ public class MainController {
             
             // Listen for changes in available taxis
             taxiManager.getObservableAvailableTaxis().addListener(
-                (ListChangeListener<Taxi>) change -> updateMapWithTaxis());
+                (ListChangeListener<Taxi>) change -> uiUpdatePump.submit(MAP_UPDATE_KEY, this::updateMapWithTaxis));
         }
     }
     
     /**
      * Update the map with current taxis
+     * Once the map reported its viewport only the taxis in view are looked up,
+     * through the available-taxi grid
      */
     private void updateMapWithTaxis() {
-        List<Taxi> taxis = new ArrayList<>(taxiManager.getObservableAvailableTaxis());
-        if (mapViewer != null) {
-            mapViewer.updateTaxis(taxis);
+        if (mapViewer == null) {
+            return;
         }
+        MapViewport viewport = mapViewer.getViewport();
+        List<Taxi> taxis = viewport == null
+                ? taxiManager.getAvailableTaxis()
+                : taxiManager.findAvailableInBounds(
+                        viewport.getSouth(), viewport.getWest(), viewport.getNorth(), viewport.getEast());
+        mapViewer.updateTaxis(taxis);
     }
     
     /**
@@ -474,8 +748,13 @@ public class MainController {
      */
     private void setupTaxiAnimation() {
         if (mapViewer != null) {
-            List<Taxi> taxis = new ArrayList<>(taxiManager.getObservableAvailableTaxis());
-            taxiAnimator = new TaxiAnimator(taxis, mapViewer);
+            List<Taxi> taxis = taxiManager.getAvailableTaxis();
+            // Road-following routes replace these once the road network has loaded
+            RouteTable routes = roadNetwork != null
+                    ? roadNetwork.followRoads(RouteTable.swissIntercity()) : RouteTable.swissIntercity();
+            taxiAnimator = new TaxiAnimator(taxis, mapViewer, routes);
+            taxiAnimator.setTaxiManager(taxiManager);
+            taxiAnimator.setParallel(Boolean.getBoolean(ANIMATOR_PARALLEL_PROPERTY));
             taxiAnimator.startAnimation();
         }
     }
@@ -484,12 +763,27 @@ public class MainController {
      * Clean up resources
      */
     public void dispose() {
+        uiUpdatePump.stop();
+        LOGGER.info(() -> "UI update statistics: " + uiUpdatePump);
         if (taxiAnimator != null) {
             taxiAnimator.stopAnimation();
         }
         if (mapViewer != null) {
             mapViewer.dispose();
         }
+        
+        // A fresh snapshot on exit means the next start has almost nothing to replay
+        if (journal != null) {
+            try {
+                journal.snapshot(taxiManager, rideManager);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Final snapshot failed", e);
+            }
+        }
+        closeJournal();
+        closeRideArchive();
+        closeTileServer();
+        closeMetrics();
     }
     
     private void showError(String title, Exception e) {
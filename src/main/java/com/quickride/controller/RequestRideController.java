@@ -9,6 +9,7 @@ import com.quickride.manager.RideManager;
 import com.quickride.manager.TaxiManager;
 import com.quickride.model.Location;
 import com.quickride.model.Ride;
+import com.quickride.routing.RoadNetwork;
 
 import javafx.application.Platform;
 import javafx.concurrent.Task;
@@ -84,6 +85,9 @@ public class RequestRideController implements Initializable {
     // Dependencies
     private RideManager rideManager;
     
+    // Road network for driving distances, null to estimate from the straight line
+    private RoadNetwork roadNetwork;
+    
     // State
     private String selectedRideType = "Economy"; // Default selection
     private Stage stage;
@@ -289,7 +293,8 @@ public class RequestRideController implements Initializable {
     }
 
     /**
-     * Calculate distance between two locations (simplified)
+     * Calculate distance between two locations
+     * Uses the driving distance when a road network is set, a rough straight-line estimate otherwise
      */
     private double calculateDistance(String pickup, String dropoff) {
         // For "Current Location", use Zürich HB as default
@@ -300,6 +305,14 @@ public class RequestRideController implements Initializable {
         double[] pickupCoords = KNOWN_LOCATIONS.getOrDefault(pickup, new double[]{47.3779, 8.5403});
         double[] dropoffCoords = KNOWN_LOCATIONS.getOrDefault(dropoff, new double[]{47.3779, 8.5403});
         
+        if (roadNetwork != null) {
+            double roadDistance = roadNetwork.distanceKm(
+                new Location(pickupCoords[0], pickupCoords[1], pickup),
+                new Location(dropoffCoords[0], dropoffCoords[1], dropoff)
+            );
+            return Math.max(2.0, roadDistance); // Minimum 2km
+        }
+        
         // Simple distance calculation (not accurate, for demo purposes)
         double latDiff = pickupCoords[0] - dropoffCoords[0];
         double lonDiff = pickupCoords[1] - dropoffCoords[1];
@@ -486,6 +499,11 @@ public class RequestRideController implements Initializable {
         this.rideManager = rideManager;
     }
 
+    public void setRoadNetwork(RoadNetwork roadNetwork) {
+        this.roadNetwork = roadNetwork;
+        updateAllFareEstimates();
+    }
+
     public void setStage(Stage stage) {
         this.stage = stage;
     }
@@ -1,17 +1,34 @@
 package com.quickride.manager;
 
+import java.io.IOException;
+import java.time.Clock;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 import com.quickride.exception.InvalidTaxiException;
 import com.quickride.exception.NoTaxiAvailableException;
+import com.quickride.metrics.Metrics;
+import com.quickride.metrics.RideAssignmentEvent;
+import com.quickride.metrics.RideStatusEvent;
 import com.quickride.model.Location;
 import com.quickride.model.Ride;
 import com.quickride.model.RideStatus;
 import com.quickride.model.Taxi;
+import com.quickride.persistence.RideArchive;
+import com.quickride.persistence.StateJournal;
+import com.quickride.util.FxUtil;
+import com.quickride.util.UiUpdatePump;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -19,13 +36,23 @@ import javafx.collections.ObservableList;
 /**
  * Manager class for ride operations
  * Demonstrates different data structures and their time complexities
+ *
+ * Ride collections are guarded by this manager's monitor; taxi dispatch and
+ * release happen outside it, so concurrent bookings only serialize on the
+ * short bookkeeping step and not on the taxi search.
  */
 public class RideManager {
-    // List to store all rides - demonstrate ordered collection
-    private final List<Ride> allRides;
+    // Finished rides kept on heap per status when an archive is attached
+    public static final int DEFAULT_RETAINED_FINISHED_RIDES = 500;
     
-    // Map to store rides by status - demonstrate map usage for O(1) lookup by key
-    private final Map<RideStatus, List<Ride>> ridesByStatus;
+    // Finished rides beyond the retained count are archived in batches of at least this size
+    private static final int ARCHIVE_BATCH_SIZE = 256;
+    
+    // LinkedHashMap of all rides by ID - O(1) lookup while keeping request order
+    private final Map<String, Ride> ridesById;
+    
+    // EnumMap of rides by status - array-backed map with a LinkedHashSet per status for O(1) transitions
+    private final Map<RideStatus, Set<Ride>> ridesByStatus;
     
     // Reference to the taxi manager
     private final TaxiManager taxiManager;
@@ -33,14 +60,37 @@ public class RideManager {
     // Observable list for JavaFX UI binding
     private final ObservableList<Ride> observableRides;
     
+    // Position of each ride in the observable list - FX thread only, enables O(1) row updates
+    private final Map<Ride, Integer> observableIndex = new HashMap<>();
+    
+    // Optional pump that batches observable updates to the FX pulse
+    private volatile UiUpdatePump updatePump;
+    
+    // Optional journal - events are appended under the monitor so the log order matches the state order
+    private volatile StateJournal journal;
+    
+    // Optional archive that old finished rides are moved to, keeping the heap bounded
+    private volatile RideArchive archive;
+    private volatile int retainedFinishedRides = DEFAULT_RETAINED_FINISHED_RIDES;
+    
+    // Rides in the archive when it was attached or after the last batch, and whether a batch is being written - guarded by the monitor
+    private long archivedRides;
+    private boolean archiving;
+    
+    // Source of request, assignment and completion times - a virtual clock in accelerated simulations
+    private volatile Clock clock = Clock.systemDefaultZone();
+    
+    // Optional latency and transition recording
+    private volatile Metrics metrics;
+    
     public RideManager(TaxiManager taxiManager) {
         this.taxiManager = taxiManager;
-        this.allRides = new ArrayList<>();
-        this.ridesByStatus = new HashMap<>();
+        this.ridesById = new LinkedHashMap<>();
+        this.ridesByStatus = new EnumMap<>(RideStatus.class);
         
-        // Initialize the lists for each status
+        // Initialize the sets for each status
         for (RideStatus status : RideStatus.values()) {
-            ridesByStatus.put(status, new ArrayList<>());
+            ridesByStatus.put(status, new LinkedHashSet<>());
         }
         
         this.observableRides = FXCollections.observableArrayList();
@@ -49,13 +99,25 @@ public class RideManager {
     // Request a new ride - O(1) or O(n) depending on taxi selection method
     public Ride requestRide(String customerName, Location pickupLocation, Location dropoffLocation, 
                            boolean useNearestTaxi) throws NoTaxiAvailableException {
+        Metrics currentMetrics = metrics;
+        long start = currentMetrics != null ? System.nanoTime() : 0;
+        RideAssignmentEvent assignment = new RideAssignmentEvent();
+        assignment.begin();
+        
         // Create a new ride
-        Ride ride = new Ride(customerName, pickupLocation, dropoffLocation);
+        LocalDateTime now = LocalDateTime.now(clock);
+        Ride ride = new Ride(UUID.randomUUID().toString(), customerName, pickupLocation, dropoffLocation, now);
         
         // Get a taxi (either next in queue or nearest)
         Taxi assignedTaxi;
+        int candidates = 0;
+        double searchRadiusKm = 0;
         if (useNearestTaxi) {
-            assignedTaxi = taxiManager.getNearestAvailableTaxi(pickupLocation);
+            // Search statistics are only gathered while the event is being recorded
+            TaxiGridIndex.SearchStats search = assignment.isEnabled() ? new TaxiGridIndex.SearchStats() : null;
+            assignedTaxi = taxiManager.getNearestAvailableTaxi(pickupLocation, search);
+            candidates = search != null ? search.getCandidates() : 0;
+            searchRadiusKm = search != null ? search.getRadiusKm() : 0;
         } else {
             assignedTaxi = taxiManager.getNextAvailableTaxi();
         }
@@ -63,112 +125,435 @@ public class RideManager {
         // Assign taxi to ride
         ride.setAssignedTaxi(assignedTaxi);
         ride.setStatus(RideStatus.ASSIGNED);
-        ride.setAssignedTime(LocalDateTime.now());
+        ride.setAssignedTime(now);
+        assignment.finish(ride, useNearestTaxi, candidates, searchRadiusKm);
         
-        // Add to collections
-        allRides.add(ride);
-        ridesByStatus.get(RideStatus.ASSIGNED).add(ride);
+        // Journal the booking, then add it to the collections; a journal that refuses it leaves nothing behind
+        long sequence;
+        try {
+            synchronized (this) {
+                StateJournal currentJournal = journal;
+                sequence = currentJournal != null ? currentJournal.rideRequested(ride) : 0;
+                ridesById.put(ride.getId(), ride);
+                ridesByStatus.get(RideStatus.ASSIGNED).add(ride);
+            }
+        } catch (RuntimeException e) {
+            releaseAssignedTaxi(ride);
+            throw e;
+        }
         
         // Update observable list
-        updateObservableList();
+        updateObservableList(ride);
         
+        // Wait for the booking to be durable outside the monitor so other bookings can share the fsync
+        try {
+            awaitDurable(sequence);
+        } catch (RuntimeException e) {
+            dropFailedBooking(ride);
+            throw e;
+        }
+        
+        RideStatusEvent.emit(ride, RideStatus.REQUESTED, RideStatus.ASSIGNED);
+        if (currentMetrics != null) {
+            currentMetrics.transition(RideStatus.REQUESTED, RideStatus.ASSIGNED);
+            currentMetrics.record(Metrics.Operation.REQUEST_RIDE, start);
+        }
         return ride;
     }
     
     // Start a ride - O(1)
     public void startRide(Ride ride) {
-        if (ride.getStatus() != RideStatus.ASSIGNED) {
-            throw new IllegalStateException("Ride must be in ASSIGNED status to start");
+        Metrics currentMetrics = metrics;
+        long start = currentMetrics != null ? System.nanoTime() : 0;
+        RideState before;
+        long sequence;
+        synchronized (this) {
+            if (ride.getStatus() != RideStatus.ASSIGNED) {
+                throw new IllegalStateException("Ride must be in ASSIGNED status to start");
+            }
+            
+            // Update ride status
+            before = new RideState(ride);
+            ridesByStatus.get(ride.getStatus()).remove(ride);
+            ride.setStatus(RideStatus.IN_PROGRESS);
+            ridesByStatus.get(RideStatus.IN_PROGRESS).add(ride);
+            sequence = logStatusChange(ride, before);
         }
         
-        // Update ride status
-        ridesByStatus.get(ride.getStatus()).remove(ride);
-        ride.setStatus(RideStatus.IN_PROGRESS);
-        ridesByStatus.get(RideStatus.IN_PROGRESS).add(ride);
-        
         // Update observable list
-        updateObservableList();
+        updateObservableList(ride);
+        
+        awaitStatusDurable(sequence, ride, before, RideStatus.IN_PROGRESS);
+        
+        RideStatusEvent.emit(ride, RideStatus.ASSIGNED, RideStatus.IN_PROGRESS);
+        if (currentMetrics != null) {
+            currentMetrics.transition(RideStatus.ASSIGNED, RideStatus.IN_PROGRESS);
+            currentMetrics.record(Metrics.Operation.START_RIDE, start);
+        }
     }
     
-    // Complete a ride - O(n)
+    // Complete a ride - O(1)
     public void completeRide(Ride ride) {
-        if (ride.getStatus() != RideStatus.IN_PROGRESS) {
-            throw new IllegalStateException("Ride must be in IN_PROGRESS status to complete");
+        Metrics currentMetrics = metrics;
+        long start = currentMetrics != null ? System.nanoTime() : 0;
+        RideState before;
+        long sequence;
+        synchronized (this) {
+            if (ride.getStatus() != RideStatus.IN_PROGRESS) {
+                throw new IllegalStateException("Ride must be in IN_PROGRESS status to complete");
+            }
+            
+            // Update ride status
+            before = new RideState(ride);
+            ridesByStatus.get(ride.getStatus()).remove(ride);
+            ride.setStatus(RideStatus.COMPLETED);
+            ride.setCompletedTime(LocalDateTime.now(clock));
+            ridesByStatus.get(RideStatus.COMPLETED).add(ride);
+            sequence = logStatusChange(ride, before);
         }
         
-        // Update ride status
-        ridesByStatus.get(ride.getStatus()).remove(ride);
-        ride.setStatus(RideStatus.COMPLETED);
-        ride.setCompletedTime(LocalDateTime.now());
-        ridesByStatus.get(RideStatus.COMPLETED).add(ride);
+        // Update observable list
+        updateObservableList(ride);
         
-        // Release the taxi back to the available pool
-        try {
-            taxiManager.releaseTaxi(ride.getAssignedTaxi());
-        } catch (IllegalArgumentException e) {
-            // Log error specifically for invalid taxi
-            System.err.println("Invalid taxi during release: " + e.getMessage());
-        } catch (IllegalStateException e) {
-            // Log error specifically for taxi state issues
-            System.err.println("Taxi state error during release: " + e.getMessage());
-        } catch (InvalidTaxiException e) {
-            // Log error for taxi validation issues
-            System.err.println("Invalid taxi exception during release: " + e.getMessage());
-        }
+        awaitStatusDurable(sequence, ride, before, RideStatus.COMPLETED);
         
-        // Update observable list
-        updateObservableList();
+        // Release the taxi back to the available pool once the completion is durable
+        releaseAssignedTaxi(ride);
+        
+        archiveFinishedRides();
+        
+        RideStatusEvent.emit(ride, RideStatus.IN_PROGRESS, RideStatus.COMPLETED);
+        if (currentMetrics != null) {
+            currentMetrics.transition(RideStatus.IN_PROGRESS, RideStatus.COMPLETED);
+            currentMetrics.record(Metrics.Operation.COMPLETE_RIDE, start);
+        }
     }
     
-    // Cancel a ride - O(n)
+    // Cancel a ride - O(1)
     public void cancelRide(Ride ride) {
-        if (ride.getStatus() == RideStatus.COMPLETED || ride.getStatus() == RideStatus.CANCELLED) {
-            throw new IllegalStateException("Cannot cancel a completed or already cancelled ride");
+        Metrics currentMetrics = metrics;
+        long start = currentMetrics != null ? System.nanoTime() : 0;
+        RideStatus previousStatus;
+        RideState before;
+        long sequence;
+        synchronized (this) {
+            if (ride.getStatus() == RideStatus.COMPLETED || ride.getStatus() == RideStatus.CANCELLED) {
+                throw new IllegalStateException("Cannot cancel a completed or already cancelled ride");
+            }
+            
+            // Update ride status
+            previousStatus = ride.getStatus();
+            before = new RideState(ride);
+            ridesByStatus.get(ride.getStatus()).remove(ride);
+            ride.setStatus(RideStatus.CANCELLED);
+            ridesByStatus.get(RideStatus.CANCELLED).add(ride);
+            sequence = logStatusChange(ride, before);
         }
         
-        // Update ride status
-        ridesByStatus.get(ride.getStatus()).remove(ride);
-        ride.setStatus(RideStatus.CANCELLED);
-        ridesByStatus.get(RideStatus.CANCELLED).add(ride);
+        // Update observable list
+        updateObservableList(ride);
+        
+        awaitStatusDurable(sequence, ride, before, RideStatus.CANCELLED);
         
-        // Release the taxi back to the available pool if it was assigned
+        // Release the taxi back to the available pool if it was assigned, once the cancellation is durable
         if (ride.getAssignedTaxi() != null) {
-            try {
-                taxiManager.releaseTaxi(ride.getAssignedTaxi());
-            } catch (IllegalArgumentException e) {
-                // Log error specifically for invalid taxi
-                System.err.println("Invalid taxi during release: " + e.getMessage());
-            } catch (IllegalStateException e) {
-                // Log error specifically for taxi state issues
-                System.err.println("Taxi state error during release: " + e.getMessage());
-            } catch (InvalidTaxiException e) {
-                // Log error for taxi validation issues
-                System.err.println("Invalid taxi exception during release: " + e.getMessage());
+            releaseAssignedTaxi(ride);
+        }
+        
+        archiveFinishedRides();
+        
+        RideStatusEvent.emit(ride, previousStatus, RideStatus.CANCELLED);
+        if (currentMetrics != null) {
+            currentMetrics.transition(previousStatus, RideStatus.CANCELLED);
+            currentMetrics.record(Metrics.Operation.CANCEL_RIDE, start);
+        }
+    }
+    
+    /**
+     * Load rides recovered from the journal without logging them again - O(n)
+     * The observable list is filled with a single change rather than one per ride
+     * @param rides the recovered rides with their final status and timestamps
+     */
+    public void restoreRides(List<Ride> rides) {
+        List<Ride> copy = new ArrayList<>(rides);
+        synchronized (this) {
+            for (Ride ride : copy) {
+                ridesById.put(ride.getId(), ride);
+                ridesByStatus.get(ride.getStatus()).add(ride);
+            }
+        }
+        FxUtil.runOnFxThread(() -> {
+            List<Ride> added = new ArrayList<>(copy.size());
+            for (Ride ride : copy) {
+                if (observableIndex.putIfAbsent(ride, observableRides.size() + added.size()) == null) {
+                    added.add(ride);
+                }
             }
+            observableRides.addAll(added);
+        });
+    }
+    
+    /**
+     * Log bookings and status changes to a journal
+     * @param journal the journal to append to, or null to stop logging
+     */
+    public void setJournal(StateJournal journal) {
+        this.journal = journal;
+    }
+    
+    /**
+     * Move old finished rides out of memory into an archive
+     * Once more than retainedFinishedRides rides of a finished status pile up,
+     * the oldest are written to the archive and dropped from the maps and the table
+     * @param archive the archive to move rides to, or null to keep every ride in memory
+     * @param retainedFinishedRides completed and cancelled rides to keep in memory, per status
+     */
+    public void setArchive(RideArchive archive, int retainedFinishedRides) {
+        if (retainedFinishedRides < 0) {
+            throw new IllegalArgumentException("Retained ride count cannot be negative");
+        }
+        this.retainedFinishedRides = retainedFinishedRides;
+        synchronized (this) {
+            this.archive = archive;
+            archivedRides = archive != null ? archive.size() : 0;
+        }
+    }
+    
+    /**
+     * Take ride timestamps from another clock, e.g. the virtual clock of a headless simulation
+     * @param clock the clock to read request, assignment and completion times from
+     */
+    public void setClock(Clock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock cannot be null");
+        }
+        this.clock = clock;
+    }
+    
+    /**
+     * Record call latencies and status changes
+     * @param metrics the metrics to record to, or null to stop recording
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    public RideArchive getArchive() {
+        return archive;
+    }
+    
+    /**
+     * Archive the oldest finished rides once a batch has built up - amortized O(1) per ride
+     * The batch is picked under the monitor but written and forced outside it,
+     * so bookings never wait on the archive's disk I/O; one batch is in flight
+     * at a time. Rides leave the maps only after they are forced, and the move
+     * is journaled so recovery does not bring them back. After a crash between
+     * the two steps recovery does bring them back, and the archive skips them
+     * when they are archived again
+     */
+    private void archiveFinishedRides() {
+        RideArchive currentArchive = archive;
+        if (currentArchive == null) {
+            return;
         }
         
-        // Update observable list
-        updateObservableList();
+        List<Ride> batch = new ArrayList<>();
+        synchronized (this) {
+            if (archiving) {
+                return;
+            }
+            collectOldest(RideStatus.COMPLETED, batch);
+            collectOldest(RideStatus.CANCELLED, batch);
+            if (batch.isEmpty()) {
+                return;
+            }
+            archiving = true;
+        }
+        
+        boolean written = false;
+        try {
+            currentArchive.append(batch);
+            currentArchive.force();
+            written = true;
+        } catch (IOException e) {
+            // Keep the rides in memory and try again with the next batch
+            System.err.println("Could not archive finished rides: " + e.getMessage());
+        } finally {
+            if (!written) {
+                synchronized (this) {
+                    archiving = false;
+                }
+            }
+        }
+        if (!written) {
+            return;
+        }
+        
+        List<Ride> evicted = new ArrayList<>(batch.size());
+        long sequence;
+        synchronized (this) {
+            // Finished rides do not change status, but only drop what is still the same finished ride
+            for (Ride ride : batch) {
+                RideStatus status = ride.getStatus();
+                if ((status == RideStatus.COMPLETED || status == RideStatus.CANCELLED)
+                        && ridesById.get(ride.getId()) == ride) {
+                    ridesById.remove(ride.getId());
+                    ridesByStatus.get(status).remove(ride);
+                    evicted.add(ride);
+                }
+            }
+            archivedRides = currentArchive.size();
+            archiving = false;
+            StateJournal currentJournal = journal;
+            sequence = currentJournal != null && !evicted.isEmpty() ? currentJournal.ridesArchived(evicted) : 0;
+        }
+        
+        FxUtil.runOnFxThread(() -> removeObservableRides(evicted));
+        awaitDurable(sequence);
     }
     
-    // Get a ride by ID - O(n)
-    public Ride getRideById(String id) {
-        for (Ride ride : allRides) {
-            if (ride.getId().equals(id)) {
-                return ride;
+    // Oldest rides of a finished status beyond the retained count, if a full batch is due - caller holds the monitor
+    private void collectOldest(RideStatus status, List<Ride> target) {
+        Set<Ride> finished = ridesByStatus.get(status);
+        int excess = finished.size() - retainedFinishedRides;
+        if (excess < ARCHIVE_BATCH_SIZE) {
+            return;
+        }
+        Iterator<Ride> oldestFirst = finished.iterator();
+        for (int i = 0; i < excess; i++) {
+            target.add(oldestFirst.next());
+        }
+    }
+    
+    // Drop archived rides from the table with a single change, then rebuild the position index - O(n)
+    private void removeObservableRides(List<Ride> evicted) {
+        Set<Ride> gone = Collections.newSetFromMap(new IdentityHashMap<>());
+        gone.addAll(evicted);
+        observableRides.removeAll(gone);
+        
+        observableIndex.clear();
+        for (int i = 0; i < observableRides.size(); i++) {
+            observableIndex.put(observableRides.get(i), i);
+        }
+    }
+    
+    // Append the ride's new status, putting the ride back as it was if the journal refuses it - caller holds the monitor
+    private long logStatusChange(Ride ride, RideState before) {
+        StateJournal currentJournal = journal;
+        if (currentJournal == null) {
+            return 0;
+        }
+        try {
+            return currentJournal.rideStatusChanged(ride);
+        } catch (RuntimeException e) {
+            before.restore(ride, ridesByStatus);
+            throw e;
+        }
+    }
+    
+    /**
+     * Block until a status change is durable
+     * If the journal fails, the change is undone in memory too, unless the ride
+     * has moved on since, so a failed fsync never leaves a ride ahead of the log
+     */
+    private void awaitStatusDurable(long sequence, Ride ride, RideState before, RideStatus changedTo) {
+        try {
+            awaitDurable(sequence);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                if (ride.getStatus() == changedTo && ridesById.get(ride.getId()) == ride) {
+                    before.restore(ride, ridesByStatus);
+                }
+            }
+            updateObservableList(ride);
+            throw e;
+        }
+    }
+    
+    // Take back a booking the journal failed to make durable and free its taxi, unless the ride has moved on
+    private void dropFailedBooking(Ride ride) {
+        synchronized (this) {
+            if (ride.getStatus() != RideStatus.ASSIGNED || ridesById.get(ride.getId()) != ride) {
+                return;
             }
+            ridesById.remove(ride.getId());
+            ridesByStatus.get(RideStatus.ASSIGNED).remove(ride);
+        }
+        releaseAssignedTaxi(ride);
+        FxUtil.runOnFxThread(() -> removeObservableRides(List.of(ride)));
+    }
+    
+    // Block until the given journal event is durable, no-op without a journal
+    private void awaitDurable(long sequence) {
+        StateJournal currentJournal = journal;
+        if (currentJournal != null && sequence > 0) {
+            currentJournal.awaitDurable(sequence);
         }
-        return null;
     }
     
-    // Get rides by status - O(1)
-    public List<Ride> getRidesByStatus(RideStatus status) {
+    /**
+     * Copy all rides and mark a journal cut in one step under the monitor - O(n)
+     * Ride events are appended under the monitor, so each one is either before
+     * the cut and reflected in the copy, or after it and in the tail. The cut
+     * does no I/O, so bookings only wait for the copy
+     * @param journal the journal to cut
+     */
+    public synchronized JournalCut cutJournal(StateJournal journal) {
+        long tailSegment = journal.cut();
+        return new JournalCut(new ArrayList<>(ridesById.values()), tailSegment);
+    }
+    
+    // Get a ride by ID - O(1)
+    public synchronized Ride getRideById(String id) {
+        return ridesById.get(id);
+    }
+    
+    // Snapshot of all rides in request order - O(n)
+    public synchronized List<Ride> getAllRides() {
+        return new ArrayList<>(ridesById.values());
+    }
+    
+    // Get rides by status - O(k) copy of the k rides in that status
+    public synchronized List<Ride> getRidesByStatus(RideStatus status) {
         return new ArrayList<>(ridesByStatus.get(status));
     }
     
-    // Update observable list for UI
-    private void updateObservableList() {
-        observableRides.setAll(allRides);
+    /**
+     * Route observable list updates through a pump so bursts of bookings
+     * are applied at most once per pulse
+     * @param updatePump the pump to use, or null to update on every change
+     */
+    public void setUpdatePump(UiUpdatePump updatePump) {
+        this.updatePump = updatePump;
+    }
+    
+    // Update observable list for UI - appends a new ride or replaces its row in place, O(1)
+    private void updateObservableList(Ride ride) {
+        UiUpdatePump pump = updatePump;
+        if (pump != null) {
+            // Several transitions of one ride before the next pulse collapse into one row update
+            pump.submit(ride, () -> syncObservableRide(ride));
+        } else {
+            FxUtil.runOnFxThread(() -> syncObservableRide(ride));
+        }
+    }
+    
+    private void syncObservableRide(Ride ride) {
+        // A ride archived before its update reached the FX thread must not be added back
+        synchronized (this) {
+            if (ridesById.get(ride.getId()) != ride) {
+                return;
+            }
+        }
+        
+        Integer position = observableIndex.get(ride);
+        if (position == null) {
+            observableIndex.put(ride, observableRides.size());
+            observableRides.add(ride);
+        } else {
+            // Setting the same element fires a single-row replace so the table redraws that row
+            observableRides.set(position, ride);
+        }
     }
     
     // Get observable list for UI binding
@@ -176,12 +561,15 @@ public class RideManager {
         return observableRides;
     }
     
-    // Get statistics
+    // Get statistics - the total includes rides moved to the archive
     public int getTotalRideCount() {
-        return allRides.size();
+        // Archived rides are counted when they leave the maps, so a batch being written is never counted twice
+        synchronized (this) {
+            return (int) Math.min(Integer.MAX_VALUE, ridesById.size() + archivedRides);
+        }
     }
     
-    public int getRideCountByStatus(RideStatus status) {
+    public synchronized int getRideCountByStatus(RideStatus status) {
         return ridesByStatus.get(status).size();
     }
     
@@ -191,25 +579,45 @@ public class RideManager {
             throw new IllegalArgumentException("Ride cannot be null");
         }
         
-        // Validate state transition
-        validateStatusTransition(ride.getStatus(), newStatus);
+        Metrics currentMetrics = metrics;
+        long start = currentMetrics != null ? System.nanoTime() : 0;
+        RideStatus previousStatus;
+        RideState before;
+        long sequence;
+        synchronized (this) {
+            // Validate state transition
+            previousStatus = ride.getStatus();
+            validateStatusTransition(previousStatus, newStatus);
+            
+            // Update collections
+            before = new RideState(ride);
+            ridesByStatus.get(ride.getStatus()).remove(ride);
+            ride.setStatus(newStatus);
+            ridesByStatus.get(newStatus).add(ride);
+            
+            // Stamp the transition before logging it so the journal records the same times
+            if (newStatus == RideStatus.ASSIGNED) {
+                ride.setAssignedTime(LocalDateTime.now(clock));
+            } else if (newStatus == RideStatus.COMPLETED) {
+                ride.setCompletedTime(LocalDateTime.now(clock));
+            }
+            sequence = logStatusChange(ride, before);
+        }
+        
+        // Update observable list
+        updateObservableList(ride);
         
-        // Update collections
-        ridesByStatus.get(ride.getStatus()).remove(ride);
-        ride.setStatus(newStatus);
-        ridesByStatus.get(newStatus).add(ride);
+        awaitStatusDurable(sequence, ride, before, newStatus);
         
-        // Handle specific transition side effects
+        // Handle specific transition side effects once the change is durable
         switch (newStatus) {
             case ASSIGNED -> {
-                ride.setAssignedTime(LocalDateTime.now());
+                // Assigned time already recorded
             }
             case IN_PROGRESS -> {
                 // Start the ride
             }
             case COMPLETED -> {
-                ride.setCompletedTime(LocalDateTime.now());
-                
                 // Release the taxi back to the available pool
                 releaseAssignedTaxi(ride);
             }
@@ -222,8 +630,15 @@ public class RideManager {
             default -> { /* No action needed */ }
         }
         
-        // Update observable list
-        updateObservableList();
+        if (newStatus == RideStatus.COMPLETED || newStatus == RideStatus.CANCELLED) {
+            archiveFinishedRides();
+        }
+        
+        RideStatusEvent.emit(ride, previousStatus, newStatus);
+        if (currentMetrics != null) {
+            currentMetrics.transition(previousStatus, newStatus);
+            currentMetrics.record(Metrics.Operation.UPDATE_RIDE_STATUS, start);
+        }
     }
     
     // Helper method to validate status transitions
@@ -256,10 +671,33 @@ public class RideManager {
         }
     }
     
+    /**
+     * Rides in request order together with the first journal segment holding events after them
+     */
+    public record JournalCut(List<Ride> rides, long tailSegment) {
+    }
+    
+    // Status and timestamps of a ride before a change, kept to undo the change if the journal fails
+    private record RideState(RideStatus status, LocalDateTime assignedTime, LocalDateTime completedTime) {
+        RideState(Ride ride) {
+            this(ride.getStatus(), ride.getAssignedTime(), ride.getCompletedTime());
+        }
+        
+        // Put the ride back in this state and in this status's set - caller holds the manager's monitor
+        void restore(Ride ride, Map<RideStatus, Set<Ride>> ridesByStatus) {
+            ridesByStatus.get(ride.getStatus()).remove(ride);
+            ride.setStatus(status);
+            ride.setAssignedTime(assignedTime);
+            ride.setCompletedTime(completedTime);
+            ridesByStatus.get(status).add(ride);
+        }
+    }
+    
     // Helper method to handle taxi release with proper error handling
     private void releaseAssignedTaxi(Ride ride) {
         try {
             taxiManager.releaseTaxi(ride.getAssignedTaxi());
+            return;
         } catch (IllegalArgumentException e) {
             // Log error specifically for invalid taxi
             System.err.println("Invalid taxi during release: " + e.getMessage());
@@ -270,5 +708,9 @@ public class RideManager {
             // Log error for taxi validation issues
             System.err.println("Invalid taxi exception during release: " + e.getMessage());
         }
+        Metrics currentMetrics = metrics;
+        if (currentMetrics != null) {
+            currentMetrics.releaseFailed();
+        }
     }
 } 
\ No newline at end of file
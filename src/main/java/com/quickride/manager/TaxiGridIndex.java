@@ -0,0 +1,426 @@
+package com.quickride.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import com.quickride.model.GeoDistance;
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+import com.quickride.util.GridKeys;
+
+/**
+ * Uniform latitude/longitude grid over taxi positions
+ * Each cell is a bucket of taxis, so a nearest-taxi search only has to look at
+ * the cells around the query point instead of the whole fleet
+ *
+ * Thread-safe: cells live in a ConcurrentHashMap, so writers in different
+ * regions never contend, and updates for one taxi are serialized on that taxi.
+ * Queries see a weakly consistent view and may include a taxi that is being
+ * moved or removed concurrently
+ */
+public class TaxiGridIndex {
+    // Default cell edge of 0.01 degrees - roughly 1.1 km north-south
+    public static final double DEFAULT_CELL_SIZE_DEGREES = 0.01;
+    
+    private final double cellSizeDegrees;
+    
+    // Bucket per occupied cell - empty buckets are dropped so the map only holds occupied cells
+    private final Map<Long, Set<Taxi>> cells;
+    
+    // Cell each indexed taxi currently sits in - O(1) removal and move detection
+    private final Map<Taxi, Long> cellOfTaxi;
+    
+    public TaxiGridIndex() {
+        this(DEFAULT_CELL_SIZE_DEGREES);
+    }
+    
+    /**
+     * Creates a grid index
+     * @param cellSizeDegrees edge length of a grid cell in degrees
+     */
+    public TaxiGridIndex(double cellSizeDegrees) {
+        if (!(cellSizeDegrees > 0)) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        this.cellSizeDegrees = cellSizeDegrees;
+        this.cells = new ConcurrentHashMap<>();
+        this.cellOfTaxi = new ConcurrentHashMap<>();
+    }
+    
+    // Add a taxi at its current location - O(1)
+    public void add(Taxi taxi) {
+        synchronized (taxi) {
+            if (cellOfTaxi.containsKey(taxi)) {
+                update(taxi);
+                return;
+            }
+            long key = cellKey(taxi.getCurrentLocation());
+            addToCell(key, taxi);
+            cellOfTaxi.put(taxi, key);
+        }
+    }
+    
+    // Remove a taxi from the index - O(1)
+    public boolean remove(Taxi taxi) {
+        synchronized (taxi) {
+            Long key = cellOfTaxi.remove(taxi);
+            if (key == null) {
+                return false;
+            }
+            removeFromCell(key, taxi);
+            return true;
+        }
+    }
+    
+    /**
+     * Re-bucket a taxi after its location changed - O(1)
+     * @return true if the taxi moved to a different cell
+     */
+    public boolean update(Taxi taxi) {
+        synchronized (taxi) {
+            Long oldKey = cellOfTaxi.get(taxi);
+            if (oldKey == null) {
+                return false;
+            }
+            long newKey = cellKey(taxi.getCurrentLocation());
+            if (oldKey == newKey) {
+                return false;
+            }
+            // Insert before removing so concurrent queries never miss the taxi entirely
+            addToCell(newKey, taxi);
+            removeFromCell(oldKey, taxi);
+            cellOfTaxi.put(taxi, newKey);
+            return true;
+        }
+    }
+    
+    public boolean contains(Taxi taxi) {
+        return cellOfTaxi.containsKey(taxi);
+    }
+    
+    public int size() {
+        return cellOfTaxi.size();
+    }
+    
+    public boolean isEmpty() {
+        return cellOfTaxi.isEmpty();
+    }
+    
+    public double getCellSizeDegrees() {
+        return cellSizeDegrees;
+    }
+    
+    /**
+     * Find the indexed taxi closest to a location
+     * Searches ring by ring outward from the query cell and stops as soon as no
+     * unvisited ring can hold anything closer than the best match so far
+     * @return the nearest taxi, or null if the index is empty
+     */
+    public Taxi findNearest(Location location) {
+        List<Taxi> nearest = findKNearest(location, 1);
+        return nearest.isEmpty() ? null : nearest.get(0);
+    }
+    
+    /**
+     * Find the k indexed taxis closest to a location, nearest first
+     * Keeps a bounded max-heap of the k best candidates while walking the rings,
+     * so the cost depends on k and local density rather than fleet size.
+     * Candidates are ranked by GeoDistance.squaredDegrees around the query
+     * point and only the survivors get their haversine distance, so two taxis
+     * within a few metres of each other may come back in either order
+     * @param k maximum number of taxis to return
+     * @return up to k taxis ordered by increasing distance
+     */
+    public List<Taxi> findKNearest(Location location, int k) {
+        return findKNearest(location, k, taxi -> true);
+    }
+    
+    /**
+     * Find the k closest indexed taxis that match a filter, nearest first
+     * Taxis rejected by the filter do not count towards k
+     * @param filter predicate a taxi must satisfy to be returned
+     * @return up to k matching taxis ordered by increasing distance
+     */
+    public List<Taxi> findKNearest(Location location, int k, Predicate<Taxi> filter) {
+        return findKNearest(location, k, filter, null);
+    }
+    
+    /**
+     * Find the k closest indexed taxis that match a filter, nearest first,
+     * and add what the search looked at to stats
+     * @param stats statistics to add to, or null
+     * @return up to k matching taxis ordered by increasing distance
+     */
+    public List<Taxi> findKNearest(Location location, int k, Predicate<Taxi> filter, SearchStats stats) {
+        if (k <= 0 || cellOfTaxi.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        double latitude = location.getLatitude();
+        double longitude = location.getLongitude();
+        double cosLatitude = GeoDistance.cosLatitude(latitude);
+        
+        // Max-heap on squared flat distance - the root is the worst of the current k best
+        PriorityQueue<Candidate> best = new PriorityQueue<>(
+                Math.min(k, cellOfTaxi.size()) + 1,
+                Comparator.comparingDouble(Candidate::distance).reversed());
+        Consumer<Taxi> offer = taxi -> {
+            if (!filter.test(taxi)) {
+                return;
+            }
+            Location position = taxi.getCurrentLocation();
+            double distance = GeoDistance.squaredDegrees(latitude, longitude,
+                    position.getLatitude(), position.getLongitude(), cosLatitude);
+            if (stats != null) {
+                stats.candidates++;
+            }
+            if (best.size() < k) {
+                best.add(new Candidate(taxi, distance));
+            } else if (distance < best.peek().distance()) {
+                best.poll();
+                best.add(new Candidate(taxi, distance));
+            }
+        };
+        
+        int queryRow = row(latitude);
+        int queryCol = col(longitude);
+        
+        for (int ring = 0; ; ring++) {
+            // Once a ring covers more cells than are occupied, walking the occupied cells is cheaper
+            long ringSpan = 2L * ring + 1;
+            if (ringSpan * ringSpan > cells.size()) {
+                best.clear();
+                cells.values().forEach(bucket -> bucket.forEach(offer));
+                if (stats != null) {
+                    stats.radiusKm = Double.POSITIVE_INFINITY;
+                }
+                break;
+            }
+            
+            visitRing(queryRow, queryCol, ring, offer);
+            
+            // Also a lower bound for the flat distance, whose longitude scale is the query point's
+            double coveredKm = ringLowerBoundKm(latitude, ring);
+            if (stats != null) {
+                stats.radiusKm = Math.max(stats.radiusKm, coveredKm);
+            }
+            if (best.size() == k && GeoDistance.squaredDegreesToKm(best.peek().distance()) <= coveredKm) {
+                break;
+            }
+        }
+        
+        return sortedTaxis(best, location);
+    }
+    
+    /**
+     * Find every indexed taxi within a radius of a location, nearest first
+     * Only the cells overlapping the radius bounding box are visited
+     * @param radiusKm search radius in kilometres
+     * @return taxis within the radius ordered by increasing distance
+     */
+    public List<Taxi> findWithin(Location location, double radiusKm) {
+        return findWithin(location, radiusKm, taxi -> true);
+    }
+    
+    /**
+     * Find every indexed taxi within a radius that matches a filter, nearest first
+     * @param filter predicate a taxi must satisfy to be returned
+     * @return matching taxis within the radius ordered by increasing distance
+     */
+    public List<Taxi> findWithin(Location location, double radiusKm, Predicate<Taxi> filter) {
+        List<Candidate> matches = new ArrayList<>();
+        if (!(radiusKm >= 0) || cellOfTaxi.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        Consumer<Taxi> collect = taxi -> {
+            if (!filter.test(taxi)) {
+                return;
+            }
+            double distance = taxi.getCurrentLocation().distanceTo(location);
+            if (distance <= radiusKm) {
+                matches.add(new Candidate(taxi, distance));
+            }
+        };
+        
+        double latSpan = radiusKm / GeoDistance.KM_PER_DEGREE;
+        double maxLatitude = Math.min(89.0, Math.abs(location.getLatitude()) + latSpan);
+        double lonSpan = radiusKm / (GeoDistance.KM_PER_DEGREE * Math.cos(Math.toRadians(maxLatitude)));
+        
+        int minRow = row(location.getLatitude() - latSpan);
+        int maxRow = row(location.getLatitude() + latSpan);
+        int minCol = col(location.getLongitude() - lonSpan);
+        int maxCol = col(location.getLongitude() + lonSpan);
+        
+        visitBox(minRow, maxRow, minCol, maxCol, collect);
+        
+        matches.sort(Comparator.comparingDouble(Candidate::distance));
+        Set<Taxi> result = new LinkedHashSet<>();
+        for (Candidate candidate : matches) {
+            result.add(candidate.taxi());
+        }
+        return new ArrayList<>(result);
+    }
+    
+    /**
+     * Find every indexed taxi inside a latitude/longitude box that matches a filter
+     * Only the cells overlapping the box are visited, so the cost follows the
+     * number of taxis in view rather than the fleet size
+     * @param filter predicate a taxi must satisfy to be returned
+     * @return matching taxis in no particular order
+     */
+    public List<Taxi> findInBounds(double south, double west, double north, double east, Predicate<Taxi> filter) {
+        Set<Taxi> result = new LinkedHashSet<>();
+        if (cellOfTaxi.isEmpty() || !(north >= south) || !(east >= west)) {
+            return new ArrayList<>();
+        }
+        
+        Consumer<Taxi> collect = taxi -> {
+            Location location = taxi.getCurrentLocation();
+            double latitude = location.getLatitude();
+            double longitude = location.getLongitude();
+            if (latitude >= south && latitude <= north && longitude >= west && longitude <= east && filter.test(taxi)) {
+                result.add(taxi);
+            }
+        };
+        
+        int minRow = row(south);
+        int maxRow = row(north);
+        int minCol = col(west);
+        int maxCol = col(east);
+        
+        visitBox(minRow, maxRow, minCol, maxCol, collect);
+        // The set drops a taxi seen twice while it was moving between cells
+        return new ArrayList<>(result);
+    }
+    
+    /**
+     * Visit every taxi in the cells of a box, or in every occupied cell when that is fewer
+     * Spans are counted in long: a huge or infinite radius or viewport saturates
+     * the rows and columns to the int range, whose span does not fit in an int
+     */
+    private void visitBox(int minRow, int maxRow, int minCol, int maxCol, Consumer<Taxi> visitor) {
+        long occupied = cells.size();
+        long rows = (long) maxRow - minRow + 1;
+        long cols = (long) maxCol - minCol + 1;
+        // Both spans at most the occupied count before multiplying, so the product cannot overflow
+        if (rows > occupied || cols > occupied || rows * cols > occupied) {
+            cells.values().forEach(bucket -> bucket.forEach(visitor));
+            return;
+        }
+        for (long r = minRow; r <= maxRow; r++) {
+            for (long c = minCol; c <= maxCol; c++) {
+                Set<Taxi> bucket = cells.get(GridKeys.key((int) r, (int) c));
+                if (bucket != null) {
+                    bucket.forEach(visitor);
+                }
+            }
+        }
+    }
+    
+    // Visit every taxi in the cells at Chebyshev distance ring from the query cell
+    private void visitRing(int queryRow, int queryCol, int ring, Consumer<Taxi> visitor) {
+        for (int r = queryRow - ring; r <= queryRow + ring; r++) {
+            boolean edgeRow = r == queryRow - ring || r == queryRow + ring;
+            int step = edgeRow ? 1 : 2 * ring;
+            for (int c = queryCol - ring; c <= queryCol + ring; c += step) {
+                Set<Taxi> bucket = cells.get(GridKeys.key(r, c));
+                if (bucket != null) {
+                    bucket.forEach(visitor);
+                }
+            }
+        }
+    }
+    
+    // Order the survivors of a search nearest first by their haversine distance
+    private static List<Taxi> sortedTaxis(PriorityQueue<Candidate> heap, Location location) {
+        Candidate[] ordered = new Candidate[heap.size()];
+        for (int i = 0; i < ordered.length; i++) {
+            Taxi taxi = heap.poll().taxi();
+            ordered[i] = new Candidate(taxi, taxi.getCurrentLocation().distanceTo(location));
+        }
+        Arrays.sort(ordered, Comparator.comparingDouble(Candidate::distance));
+        // A taxi caught mid-move can be seen in two cells - keep its first (nearest) entry
+        Set<Taxi> result = new LinkedHashSet<>();
+        for (Candidate candidate : ordered) {
+            result.add(candidate.taxi());
+        }
+        return new ArrayList<>(result);
+    }
+    
+    /**
+     * Lower bound on the distance from a point inside the query cell to any
+     * point outside the first (ring + 1) rings. Uses the narrowest longitude
+     * spacing in the band so the bound stays conservative away from the equator
+     */
+    private double ringLowerBoundKm(double latitude, int ring) {
+        double gapDegrees = ring * cellSizeDegrees;
+        double maxLatitude = Math.min(89.0, Math.abs(latitude) + (ring + 1) * cellSizeDegrees);
+        return gapDegrees * GeoDistance.KM_PER_DEGREE * Math.cos(Math.toRadians(maxLatitude));
+    }
+    
+    // Per-key compute locks only the affected bin, so writers in other regions run in parallel
+    private void addToCell(long key, Taxi taxi) {
+        cells.compute(key, (k, bucket) -> {
+            Set<Taxi> target = bucket != null ? bucket : ConcurrentHashMap.newKeySet();
+            target.add(taxi);
+            return target;
+        });
+    }
+    
+    private void removeFromCell(long key, Taxi taxi) {
+        cells.computeIfPresent(key, (k, bucket) -> {
+            bucket.remove(taxi);
+            return bucket.isEmpty() ? null : bucket;
+        });
+    }
+    
+    private long cellKey(Location location) {
+        return GridKeys.key(row(location.getLatitude()), col(location.getLongitude()));
+    }
+    
+    private int row(double latitude) {
+        return (int) Math.floor(latitude / cellSizeDegrees);
+    }
+    
+    private int col(double longitude) {
+        return (int) Math.floor(longitude / cellSizeDegrees);
+    }
+    
+    // Taxi paired with its distance to the current query, in km or squared degrees
+    private record Candidate(Taxi taxi, double distance) {
+    }
+    
+    /**
+     * What nearest searches looked at, for diagnostics such as flight recordings
+     * Adds up over the searches it is passed to, e.g. the retries of one dispatch.
+     * Not thread safe
+     */
+    public static final class SearchStats {
+        private int candidates;
+        private double radiusKm;
+        
+        public SearchStats() {
+            // Starts at zero; each search passed this adds to it
+        }
+        
+        // Taxis that passed the filter and had their distance measured
+        public int getCandidates() {
+            return candidates;
+        }
+        
+        // Largest distance around the query point a search fully covered, infinite after a scan of the whole index
+        public double getRadiusKm() {
+            return radiusKm;
+        }
+    }
+}
@@ -1,16 +1,24 @@
 package com.quickride.manager;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.quickride.exception.InvalidTaxiException;
 import com.quickride.exception.NoTaxiAvailableException;
+import com.quickride.metrics.Metrics;
 import com.quickride.model.Location;
 import com.quickride.model.Taxi;
+import com.quickride.persistence.StateJournal;
+import com.quickride.util.FxUtil;
+import com.quickride.util.UiUpdatePump;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -18,25 +26,68 @@ import javafx.collections.ObservableList;
 /**
  * Manager class for taxi operations
  * Demonstrates different data structures and their time complexities
+ *
+ * Safe for concurrent dispatch: there is no global lock. A taxi is claimed by a
+ * compare-and-set on its availability flag, so two dispatcher threads can never
+ * assign the same taxi, and the pool structures are lock-free or striped.
  */
 public class TaxiManager {
-    // Use Queue for available taxis - demonstrate FIFO processing
-    private final Queue<Taxi> availableTaxis;
+    // Number of nearest candidates tried per grid search before searching again
+    private static final int NEAREST_CANDIDATES = 4;
     
-    // Use ArrayList for assigned taxis - demonstrate dynamic arrays
-    private final List<Taxi> assignedTaxis;
+    // Lock-free FIFO of available taxis in release order - O(1) enqueue; a claimed taxi's entry is
+    // not unlinked but goes stale, and is skipped lazily or dropped by compaction
+    private final Queue<QueueEntry> availableTaxis;
     
-    // Use HashSet for all taxis - demonstrate unique collection with O(1) lookup
-    private final Set<Taxi> allTaxis;
+    // Entry each available taxi currently holds in the queue; any other entry for it is stale
+    private final Map<Taxi, QueueEntry> queueEntries;
+    
+    // Entries made stale since the last compaction, an upper bound on the stale entries in the queue
+    private final AtomicInteger staleEntries;
+    
+    // Concurrent set for assigned taxis - O(1) membership and removal on release
+    private final Set<Taxi> assignedTaxis;
+    
+    // Hash indexes over all taxis - O(1) lookup by ID and duplicate plate check
+    private final Map<String, Taxi> taxisById;
+    private final Map<String, Taxi> taxisByLicensePlate;
+    
+    // Grid of available taxis by position - nearest search only visits nearby cells
+    private final TaxiGridIndex availableTaxiGrid;
     
     // Observable lists for JavaFX UI binding
     private final ObservableList<Taxi> observableAvailableTaxis;
     private final ObservableList<Taxi> observableAssignedTaxis;
     
+    // Position of each taxi in the observable lists - FX thread only, enables O(1) removal
+    private final Map<Taxi, Integer> observableAvailableIndex = new HashMap<>();
+    private final Map<Taxi, Integer> observableAssignedIndex = new HashMap<>();
+    
+    // Optional pump that batches observable updates to the FX pulse
+    private volatile UiUpdatePump updatePump;
+    
+    // Optional journal that new taxis are logged to
+    private volatile StateJournal journal;
+    
+    // Optional latency recording of dispatch and release
+    private volatile Metrics metrics;
+    
     public TaxiManager() {
-        this.availableTaxis = new LinkedList<>();
-        this.assignedTaxis = new ArrayList<>();
-        this.allTaxis = new HashSet<>();
+        this(TaxiGridIndex.DEFAULT_CELL_SIZE_DEGREES);
+    }
+    
+    /**
+     * Creates a taxi manager with a custom spatial grid resolution
+     * @param gridCellSizeDegrees edge length of a grid cell in degrees
+     */
+    public TaxiManager(double gridCellSizeDegrees) {
+        this.availableTaxis = new ConcurrentLinkedQueue<>();
+        this.queueEntries = new ConcurrentHashMap<>();
+        this.staleEntries = new AtomicInteger();
+        this.assignedTaxis = ConcurrentHashMap.newKeySet();
+        this.taxisById = new ConcurrentHashMap<>();
+        this.taxisByLicensePlate = new ConcurrentHashMap<>();
+        this.availableTaxiGrid = new TaxiGridIndex(gridCellSizeDegrees);
         
         this.observableAvailableTaxis = FXCollections.observableArrayList();
         this.observableAssignedTaxis = FXCollections.observableArrayList();
@@ -44,6 +95,52 @@ public class TaxiManager {
     
     // Add a new taxi to the system - O(1)
     public void addTaxi(Taxi taxi) throws InvalidTaxiException {
+        // Hide the taxi from dispatch before getTaxiById can return it, so claimTaxi cannot win it
+        // before it is indexed; a taxi that is already registered keeps its flag and is rejected below
+        if (taxi != null && taxisById.get(taxi.getId()) != taxi) {
+            taxi.setAvailable(false);
+        }
+        register(taxi);
+        
+        // Log the taxi and wait until it is durable before it can be dispatched, so no logged ride
+        // references an unknown taxi; if the journal fails, unregister it so it can be added again
+        StateJournal currentJournal = journal;
+        if (currentJournal != null) {
+            try {
+                currentJournal.awaitDurable(currentJournal.taxiAdded(taxi));
+            } catch (RuntimeException e) {
+                taxisById.remove(taxi.getId(), taxi);
+                taxisByLicensePlate.remove(taxi.getLicensePlate(), taxi);
+                throw e;
+            }
+        }
+        
+        publishAvailable(taxi);
+        
+        // Update observable lists
+        updateObservableLists(taxi);
+    }
+    
+    /**
+     * Load a taxi recovered from the journal without logging it again - O(1)
+     * @param taxi the recovered taxi
+     * @param available true to put it in the available pool, false if it is out on a ride
+     */
+    public void restoreTaxi(Taxi taxi, boolean available) throws InvalidTaxiException {
+        register(taxi);
+        
+        taxi.setAvailable(false);
+        if (available) {
+            publishAvailable(taxi);
+        } else {
+            assignedTaxis.add(taxi);
+        }
+        
+        updateObservableLists(taxi);
+    }
+    
+    // Validate a taxi and add it to the ID and plate indexes - O(1)
+    private void register(Taxi taxi) throws InvalidTaxiException {
         // Validate taxi
         if (taxi == null) {
             throw new InvalidTaxiException("Taxi cannot be null");
@@ -57,103 +154,287 @@ public class TaxiManager {
             throw new InvalidTaxiException("License plate cannot be empty");
         }
         
-        // Check if taxi with same license plate already exist
-        for (Taxi existingTaxi : allTaxis) {
-            if (existingTaxi.getLicensePlate().equals(taxi.getLicensePlate())) {
-                throw new InvalidTaxiException("A taxi with license plate " + 
-                                             taxi.getLicensePlate() + " already exists");
-            }
+        // Check if taxi with same license plate already exist - putIfAbsent makes the check atomic
+        if (taxisByLicensePlate.putIfAbsent(taxi.getLicensePlate(), taxi) != null) {
+            throw new InvalidTaxiException("A taxi with license plate " +
+                                         taxi.getLicensePlate() + " already exists");
         }
         
-        // Add to collections
-        allTaxis.add(taxi);
-        availableTaxis.add(taxi);
-        
-        // Update observable lists
-        updateObservableLists();
+        if (taxisById.putIfAbsent(taxi.getId(), taxi) != null) {
+            taxisByLicensePlate.remove(taxi.getLicensePlate(), taxi);
+            throw new InvalidTaxiException("Taxi " + taxi.getId() + " is already registered");
+        }
     }
     
-    // Get the next available taxi - O(1)
+    // Get the next available taxi - amortized O(1), FIFO by release order
     public Taxi getNextAvailableTaxi() throws NoTaxiAvailableException {
-        if (availableTaxis.isEmpty()) {
-            throw new NoTaxiAvailableException();
-        }
+        Metrics currentMetrics = metrics;
+        long start = currentMetrics != null ? System.nanoTime() : 0;
         
-        Taxi taxi = availableTaxis.poll(); // Remove from queue
-        taxi.setAvailable(false);
-        assignedTaxis.add(taxi);
+        // Walk the queue head first, unlinking stale entries on the way; each is unlinked once,
+        // so their cost is paid for by the claims that made them stale
+        Iterator<QueueEntry> entries = availableTaxis.iterator();
+        while (entries.hasNext()) {
+            QueueEntry entry = entries.next();
+            if (!isCurrent(entry)) {
+                entries.remove();
+            } else if (tryClaim(entry.taxi)) {
+                entries.remove();
+                updateObservableLists(entry.taxi);
+                recordSearch(currentMetrics, Metrics.Operation.NEXT_TAXI, start, true);
+                return entry.taxi;
+            }
+            // Otherwise the taxi is being published or claimed by another thread right now
+        }
+        recordSearch(currentMetrics, Metrics.Operation.NEXT_TAXI, start, false);
+        throw new NoTaxiAvailableException();
+    }
+    
+    // Get the nearest available taxi to a location - O(k) where k is the number of taxis in nearby grid cells
+    public Taxi getNearestAvailableTaxi(Location location) throws NoTaxiAvailableException {
+        return getNearestAvailableTaxi(location, null);
+    }
+    
+    /**
+     * Get the nearest available taxi to a location and add what the grid search looked at to stats
+     * @param stats statistics to add to, or null
+     */
+    public Taxi getNearestAvailableTaxi(Location location, TaxiGridIndex.SearchStats stats) throws NoTaxiAvailableException {
+        Metrics currentMetrics = metrics;
+        long start = currentMetrics != null ? System.nanoTime() : 0;
         
-        // Update observable lists
-        updateObservableLists();
+        // Search the grid ring by ring outward from the pickup cell and claim the closest
+        // candidate that is still free; if all were taken concurrently, search again
+        while (!availableTaxiGrid.isEmpty()) {
+            List<Taxi> candidates = availableTaxiGrid.findKNearest(location, NEAREST_CANDIDATES, Taxi::isAvailable, stats);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            for (Taxi candidate : candidates) {
+                if (tryClaim(candidate)) {
+                    updateObservableLists(candidate);
+                    recordSearch(currentMetrics, Metrics.Operation.NEAREST_TAXI, start, true);
+                    return candidate;
+                }
+            }
+        }
+        recordSearch(currentMetrics, Metrics.Operation.NEAREST_TAXI, start, false);
+        throw new NoTaxiAvailableException();
+    }
+    
+    // Record a taxi search, successful or not, if metrics are attached
+    private static void recordSearch(Metrics metrics, Metrics.Operation operation, long start, boolean found) {
+        if (metrics != null) {
+            metrics.record(operation, start);
+            if (!found) {
+                metrics.noTaxiAvailable();
+            }
+        }
+    }
+    
+    // Find the k nearest available taxis without claiming them - O(k log k + c) for c taxis in the searched cells
+    public List<Taxi> findKNearestAvailable(Location location, int k) {
+        return availableTaxiGrid.findKNearest(location, k, Taxi::isAvailable);
+    }
+    
+    // Find all available taxis within a radius without claiming them - O(c) for c taxis in the covered cells
+    public List<Taxi> findAvailableWithin(Location location, double radiusKm) {
+        return availableTaxiGrid.findWithin(location, radiusKm, Taxi::isAvailable);
+    }
+    
+    // Find all available taxis inside a latitude/longitude box, e.g. the visible map area - O(c) for c taxis in the covered cells
+    public List<Taxi> findAvailableInBounds(double south, double west, double north, double east) {
+        return availableTaxiGrid.findInBounds(south, west, north, east, Taxi::isAvailable);
+    }
+    
+    /**
+     * Claim a specific available taxi, typically one picked from
+     * findKNearestAvailable or findAvailableWithin
+     * @param taxi the taxi to move from the available pool to the assigned set
+     * @return the claimed taxi
+     * @throws NoTaxiAvailableException if the taxi is no longer available
+     */
+    public Taxi claimTaxi(Taxi taxi) throws NoTaxiAvailableException {
+        if (taxi == null || !taxisById.containsKey(taxi.getId()) || !tryClaim(taxi)) {
+            throw new NoTaxiAvailableException("Taxi is no longer available");
+        }
         
+        updateObservableLists(taxi);
         return taxi;
     }
     
-    // Get the nearest available taxi to a location - O(n)
-    public Taxi getNearestAvailableTaxi(Location location) throws NoTaxiAvailableException {
-        if (availableTaxis.isEmpty()) {
-            throw new NoTaxiAvailableException();
+    /**
+     * Atomically claim an available taxi - amortized O(1)
+     * The CAS on the availability flag is the single point that decides the
+     * winner; only the winning thread then takes the taxi out of the pool.
+     * Its queue entry goes stale rather than being searched for and unlinked
+     */
+    private boolean tryClaim(Taxi taxi) {
+        if (!taxi.compareAndSetAvailable(true, false)) {
+            return false;
         }
         
-        Taxi nearestTaxi = null;
-        double minDistance = Double.MAX_VALUE;
-        
-        // Find the nearest taxi - O(n) where n is the number of available taxis
-        for (Taxi taxi : availableTaxis) {
-            double distance = taxi.getCurrentLocation().distanceTo(location);
-            if (distance < minDistance) {
-                minDistance = distance;
-                nearestTaxi = taxi;
-            }
+        if (queueEntries.remove(taxi) != null) {
+            staleEntries.incrementAndGet();
         }
-        
-        // Remove from available queue and add to assigned list
-        if (nearestTaxi != null) {
-            availableTaxis.remove(nearestTaxi);
-            nearestTaxi.setAvailable(false);
-            assignedTaxis.add(nearestTaxi);
-            
-            // Update observable lists
-            updateObservableLists();
-            
-            return nearestTaxi;
-        } else {
-            throw new NoTaxiAvailableException("Failed to find nearest taxi");
+        availableTaxiGrid.remove(taxi);
+        assignedTaxis.add(taxi);
+        compactQueueIfMostlyStale();
+        return true;
+    }
+    
+    /**
+     * Drop the stale entries once they outnumber the live ones - O(n), amortized O(1) per claim
+     * Taxis claimed by nearest search never reach the head of the queue, so
+     * without this their entries would pile up between next-taxi dispatches
+     */
+    private void compactQueueIfMostlyStale() {
+        int stale = staleEntries.get();
+        if (stale > queueEntries.size() && staleEntries.compareAndSet(stale, 0)) {
+            availableTaxis.removeIf(entry -> !isCurrent(entry));
         }
     }
     
-    // Release a taxi back to available pool - O(n)
+    // An entry is current while it is the one its taxi holds; once replaced or removed it never is again
+    private boolean isCurrent(QueueEntry entry) {
+        return queueEntries.get(entry.taxi) == entry;
+    }
+    
+    // Index a taxi into the available pool, then flip it available so it becomes claimable - O(1)
+    private void publishAvailable(Taxi taxi) {
+        QueueEntry entry = new QueueEntry(taxi);
+        queueEntries.put(taxi, entry);
+        availableTaxis.add(entry);
+        availableTaxiGrid.add(taxi);
+        taxi.setAvailable(true);
+    }
+    
+    // Release a taxi back to available pool - O(1)
     public void releaseTaxi(Taxi taxi) throws InvalidTaxiException {
+        Metrics currentMetrics = metrics;
+        long start = currentMetrics != null ? System.nanoTime() : 0;
         if (taxi == null) {
             throw new InvalidTaxiException("Taxi cannot be null");
         }
         
-        if (!assignedTaxis.contains(taxi)) {
+        // Removal from the assigned set is atomic, so a double release is rejected
+        if (!assignedTaxis.remove(taxi)) {
             throw new InvalidTaxiException("Taxi is not currently assigned");
         }
         
-        assignedTaxis.remove(taxi);
-        taxi.setAvailable(true);
-        availableTaxis.add(taxi);
+        publishAvailable(taxi);
         
         // Update observable lists
-        updateObservableLists();
+        updateObservableLists(taxi);
+        
+        if (currentMetrics != null) {
+            currentMetrics.record(Metrics.Operation.RELEASE_TAXI, start);
+        }
+    }
+    
+    /**
+     * Notify the manager that a taxi's position changed - O(1)
+     * Keeps the spatial grid in sync with taxis moved by the animator
+     * @param taxi the taxi whose current location was updated
+     */
+    public void updateTaxiLocation(Taxi taxi) {
+        if (taxi != null) {
+            // No-op for taxis that are not in the grid, i.e. currently assigned
+            availableTaxiGrid.update(taxi);
+        }
     }
     
-    // Get a taxi by ID - O(n)
+    // Get a taxi by ID - O(1)
     public Taxi getTaxiById(String id) {
-        for (Taxi taxi : allTaxis) {
-            if (taxi.getId().equals(id)) {
-                return taxi;
+        return taxisById.get(id);
+    }
+    
+    // Get a taxi by license plate - O(1)
+    public Taxi getTaxiByLicensePlate(String licensePlate) {
+        return taxisByLicensePlate.get(licensePlate);
+    }
+    
+    // Snapshot of the available pool in FIFO order - O(n) plus the stale entries
+    public List<Taxi> getAvailableTaxis() {
+        List<Taxi> taxis = new ArrayList<>(queueEntries.size());
+        for (QueueEntry entry : availableTaxis) {
+            if (isCurrent(entry)) {
+                taxis.add(entry.taxi);
             }
         }
-        return null;
+        return taxis;
+    }
+    
+    // Snapshot of every registered taxi, available or not - O(n)
+    public List<Taxi> getAllTaxis() {
+        return new ArrayList<>(taxisById.values());
     }
     
-    // Update observable lists for UI
-    private void updateObservableLists() {
-        observableAvailableTaxis.setAll(availableTaxis);
-        observableAssignedTaxis.setAll(assignedTaxis);
+    /**
+     * Route observable list updates through a pump so bursts of dispatches
+     * are applied at most once per pulse
+     * @param updatePump the pump to use, or null to update on every change
+     */
+    public void setUpdatePump(UiUpdatePump updatePump) {
+        this.updatePump = updatePump;
+    }
+    
+    /**
+     * Log taxi registrations to a journal
+     * @param journal the journal to append to, or null to stop logging
+     */
+    public void setJournal(StateJournal journal) {
+        this.journal = journal;
+    }
+    
+    /**
+     * Record the latency of taxi searches and releases
+     * @param metrics the metrics to record to, or null to stop recording
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    // Update observable lists for UI - one fine-grained change for the taxi that moved pools
+    private void updateObservableLists(Taxi taxi) {
+        UiUpdatePump pump = updatePump;
+        if (pump != null) {
+            // Repeated changes to the same taxi before the next pulse collapse into one sync
+            pump.submit(taxi, () -> syncObservableTaxi(taxi));
+        } else {
+            FxUtil.runOnFxThread(() -> syncObservableTaxi(taxi));
+        }
+    }
+    
+    /**
+     * Bring one taxi's observable list membership in line with the pool - O(1)
+     * Reads the live pool state rather than replaying the triggering change, so
+     * syncs that arrive out of order from different threads still converge
+     */
+    private void syncObservableTaxi(Taxi taxi) {
+        boolean available = queueEntries.containsKey(taxi);
+        boolean assigned = !available && assignedTaxis.contains(taxi);
+        syncMembership(observableAvailableTaxis, observableAvailableIndex, taxi, available);
+        syncMembership(observableAssignedTaxis, observableAssignedIndex, taxi, assigned);
+    }
+    
+    // Append or swap-remove so each change is a single add, or a replace plus a remove at the tail
+    private static void syncMembership(ObservableList<Taxi> list, Map<Taxi, Integer> index,
+                                       Taxi taxi, boolean shouldContain) {
+        Integer position = index.get(taxi);
+        if (shouldContain && position == null) {
+            index.put(taxi, list.size());
+            list.add(taxi);
+        } else if (!shouldContain && position != null) {
+            index.remove(taxi);
+            int last = list.size() - 1;
+            if (position != last) {
+                Taxi moved = list.get(last);
+                list.set(position, moved);
+                index.put(moved, position);
+            }
+            list.remove(last);
+        }
     }
     
     // Get observable lists for UI binding
@@ -167,7 +448,7 @@ public class TaxiManager {
     
     // Get counts for statistics
     public int getAvailableTaxiCount() {
-        return availableTaxis.size();
+        return queueEntries.size();
     }
     
     public int getAssignedTaxiCount() {
@@ -175,6 +456,18 @@ public class TaxiManager {
     }
     
     public int getTotalTaxiCount() {
-        return allTaxis.size();
+        return taxisById.size();
+    }
+    
+    /**
+     * One release of a taxi into the available queue
+     * Compared by identity, so a taxi released again gets an entry distinct from its stale ones
+     */
+    private static final class QueueEntry {
+        final Taxi taxi;
+        
+        QueueEntry(Taxi taxi) {
+            this.taxi = taxi;
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,44 @@
+package com.quickride.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one tick of the taxi animator
+ */
+@Name("com.quickride.AnimatorTick")
+@Label("Animator Tick")
+@Category({"QuickRide", "Map"})
+@Description("The fleet advanced one step and the positions were copied to the taxis")
+@StackTrace(false)
+public final class AnimatorTickEvent extends Event {
+    @Label("Vehicles Moved")
+    private int vehiclesMoved;
+    
+    @Label("New Routes")
+    @Description("Vehicles that reached the end of their route and were given a new one")
+    private int newRoutes;
+    
+    @Label("Vehicles Visible")
+    @Description("Vehicles inside the viewport, to be sent to the map")
+    private int vehiclesVisible;
+    
+    public AnimatorTickEvent() {
+        // Timed with begin() and finish()
+    }
+    
+    // End the tick and record it if enabled
+    public void finish(int vehiclesMoved, int newRoutes, int vehiclesVisible) {
+        end();
+        if (shouldCommit()) {
+            this.vehiclesMoved = vehiclesMoved;
+            this.newRoutes = newRoutes;
+            this.vehiclesVisible = vehiclesVisible;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.quickride.metrics;
+
+/**
+ * Counts of a LatencyHistogram at one moment, with percentiles
+ * Percentiles are the highest value of the bucket they fall in, capped at the
+ * largest value recorded, so they never understate a latency by more than the
+ * bucket width. Immutable
+ */
+public final class HistogramSnapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+    
+    HistogramSnapshot(long[] counts, long count, long sum, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public long getSum() {
+        return sum;
+    }
+    
+    public long getMax() {
+        return max;
+    }
+    
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+    
+    /**
+     * Value at or below which the given share of the recorded values lies
+     * @param percentile between 0 and 100, e.g. 99.9
+     * @return the value, 0 if nothing was recorded
+     */
+    public long valueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.highestValueOf(bucket), max);
+            }
+        }
+        return max;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%d values, mean %.0f, p50 %d, p99 %d, p99.9 %d, max %d",
+                count, getMean(), valueAtPercentile(50), valueAtPercentile(99), valueAtPercentile(99.9), max);
+    }
+}
@@ -0,0 +1,83 @@
+package com.quickride.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the style of HdrHistogram
+ *
+ * Values are counted in buckets that double in width every power of two, each
+ * power of two split into SUB_BUCKETS linear steps, so any recorded value is
+ * known to within 1/SUB_BUCKETS (under 1.6 %) of itself from 0 up to
+ * Long.MAX_VALUE in a fixed array. Recording is a bucket index computed with
+ * a few shifts and one atomic increment: no locks and no allocation, so any
+ * number of threads can record on a hot path. Snapshots copy the counts and
+ * may be taken while recording goes on; a snapshot then holds a value
+ * recorded concurrently or not, but never part of one bucket.
+ */
+public final class LatencyHistogram {
+    // Linear steps per power of two; 64 keeps the relative error below 1/64
+    static final int SUB_BUCKET_BITS = 6;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    
+    // Values below 2 * SUB_BUCKETS are counted exactly; each further power of two adds SUB_BUCKETS buckets
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    public LatencyHistogram() {
+        // All buckets start empty
+    }
+    
+    /**
+     * Record one value, e.g. a call's duration in nanoseconds
+     * Negative values, as from a clock that stepped back, are counted as 0
+     */
+    public void record(long value) {
+        long clamped = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(clamped));
+        sum.addAndGet(clamped);
+        long seen = max.get();
+        while (clamped > seen && !max.compareAndSet(seen, clamped)) {
+            seen = max.get();
+        }
+    }
+    
+    // Record the time since a System.nanoTime() reading
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+    
+    // Copy of the counts so far
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new HistogramSnapshot(copy, count, sum.get(), max.get());
+    }
+    
+    // Bucket of a non-negative value: the exponent above the top SUB_BUCKET_BITS + 1 bits, then the mantissa
+    static int bucketOf(long value) {
+        int shift = Math.max(0, Long.SIZE - SUB_BUCKET_BITS - 1 - Long.numberOfLeadingZeros(value));
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+    
+    // Smallest value counted in a bucket
+    static long lowestValueOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        return (long) (bucket - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+    
+    // Largest value counted in a bucket
+    static long highestValueOf(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowestValueOf(bucket + 1) - 1;
+    }
+}
@@ -0,0 +1,46 @@
+package com.quickride.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a script run in the map page
+ * WebEngine.executeScript runs on the FX thread and blocks it until the page
+ * is done, so long ones show up as UI stalls
+ */
+@Name("com.quickride.MapScript")
+@Label("Map Script")
+@Category({"QuickRide", "Map"})
+@Description("A call of WebEngine.executeScript on the map page")
+@StackTrace(false)
+public final class MapScriptEvent extends Event {
+    // Characters of the script kept as its name, enough for the function called
+    private static final int NAME_LENGTH = 40;
+    
+    @Label("Script")
+    @Description("Start of the script, up to its first parenthesis")
+    private String script;
+    
+    @Label("Payload Size (characters)")
+    private int payloadSize;
+    
+    public MapScriptEvent() {
+        // Timed with begin() and finish()
+    }
+    
+    // End the call and record it if enabled
+    public void finish(String script) {
+        end();
+        if (shouldCommit()) {
+            int paren = script.indexOf('(');
+            int length = paren > 0 ? Math.min(paren, NAME_LENGTH) : Math.min(script.length(), NAME_LENGTH);
+            this.script = script.substring(0, length).strip();
+            this.payloadSize = script.length();
+            commit();
+        }
+    }
+}
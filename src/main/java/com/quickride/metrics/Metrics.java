@@ -0,0 +1,177 @@
+package com.quickride.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.quickride.model.RideStatus;
+
+/**
+ * Latency histograms and counters of the manager operations and map pushes
+ *
+ * Every timed operation has a LatencyHistogram whose count doubles as its
+ * throughput counter; ride status changes are counted per pair of statuses.
+ * Recording is lock-free and allocation-free, so the managers can record on
+ * every call. Components take an optional Metrics and skip recording when it
+ * is null. A snapshot can be exported at any time in the Prometheus text
+ * format, to a file or through a MetricsServer; counts are totals since the
+ * metrics were created, so rates follow from two exports or the uptime.
+ */
+public final class Metrics {
+    /**
+     * The timed operations
+     */
+    public enum Operation {
+        REQUEST_RIDE, START_RIDE, COMPLETE_RIDE, CANCEL_RIDE, UPDATE_RIDE_STATUS,
+        NEAREST_TAXI, NEXT_TAXI, RELEASE_TAXI, MAP_PUSH;
+        
+        // Label value in the export, e.g. request_ride
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+    
+    private static final RideStatus[] STATUSES = RideStatus.values();
+    
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    
+    // Status changes, indexed by from * STATUSES.length + to
+    private final LongAdder[] transitions = new LongAdder[STATUSES.length * STATUSES.length];
+    
+    private final LongAdder noTaxiAvailable = new LongAdder();
+    private final LongAdder releaseFailures = new LongAdder();
+    private final long startNanos = System.nanoTime();
+    
+    public Metrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < transitions.length; i++) {
+            transitions[i] = new LongAdder();
+        }
+    }
+    
+    /**
+     * Record an operation that started at a System.nanoTime() reading and has just ended
+     */
+    public void record(Operation operation, long startNanos) {
+        latencies[operation.ordinal()].recordSince(startNanos);
+    }
+    
+    // Count a ride's change of status
+    public void transition(RideStatus from, RideStatus to) {
+        transitions[from.ordinal() * STATUSES.length + to.ordinal()].increment();
+    }
+    
+    // Count a booking or taxi search that found no free taxi
+    public void noTaxiAvailable() {
+        noTaxiAvailable.increment();
+    }
+    
+    // Count a taxi that could not be released at the end of a ride
+    public void releaseFailed() {
+        releaseFailures.increment();
+    }
+    
+    public HistogramSnapshot snapshot(Operation operation) {
+        return latencies[operation.ordinal()].snapshot();
+    }
+    
+    public long getTransitions(RideStatus from, RideStatus to) {
+        return transitions[from.ordinal() * STATUSES.length + to.ordinal()].sum();
+    }
+    
+    public long getNoTaxiAvailable() {
+        return noTaxiAvailable.sum();
+    }
+    
+    public long getReleaseFailures() {
+        return releaseFailures.sum();
+    }
+    
+    /**
+     * Current values in the Prometheus text format
+     * Latencies are summaries in seconds with the 0.5, 0.9, 0.99 and 0.999 quantiles
+     */
+    public String export() {
+        StringBuilder out = new StringBuilder(8192);
+        out.append("# HELP quickride_operation_seconds Duration of manager operations and map pushes\n");
+        out.append("# TYPE quickride_operation_seconds summary\n");
+        HistogramSnapshot[] snapshots = new HistogramSnapshot[latencies.length];
+        for (Operation operation : Operation.values()) {
+            HistogramSnapshot snapshot = snapshot(operation);
+            snapshots[operation.ordinal()] = snapshot;
+            for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                out.append(String.format(Locale.ROOT, "quickride_operation_seconds{operation=\"%s\",quantile=\"%s\"} %s%n",
+                        operation.label(), quantile, seconds(snapshot.valueAtPercentile(quantile * 100))));
+            }
+            out.append(String.format(Locale.ROOT, "quickride_operation_seconds_sum{operation=\"%s\"} %s%n",
+                    operation.label(), seconds(snapshot.getSum())));
+            out.append(String.format(Locale.ROOT, "quickride_operation_seconds_count{operation=\"%s\"} %d%n",
+                    operation.label(), snapshot.getCount()));
+        }
+        
+        out.append("# HELP quickride_operation_max_seconds Longest duration of each operation\n");
+        out.append("# TYPE quickride_operation_max_seconds gauge\n");
+        for (Operation operation : Operation.values()) {
+            out.append(String.format(Locale.ROOT, "quickride_operation_max_seconds{operation=\"%s\"} %s%n",
+                    operation.label(), seconds(snapshots[operation.ordinal()].getMax())));
+        }
+        
+        out.append("# HELP quickride_ride_transitions_total Ride status changes\n");
+        out.append("# TYPE quickride_ride_transitions_total counter\n");
+        for (RideStatus from : STATUSES) {
+            for (RideStatus to : STATUSES) {
+                long count = getTransitions(from, to);
+                if (count > 0) {
+                    out.append(String.format(Locale.ROOT, "quickride_ride_transitions_total{from=\"%s\",to=\"%s\"} %d%n",
+                            from.name().toLowerCase(Locale.ROOT), to.name().toLowerCase(Locale.ROOT), count));
+                }
+            }
+        }
+        
+        out.append("# HELP quickride_no_taxi_available_total Taxi searches that found no free taxi\n");
+        out.append("# TYPE quickride_no_taxi_available_total counter\n");
+        out.append("quickride_no_taxi_available_total ").append(getNoTaxiAvailable()).append('\n');
+        out.append("# HELP quickride_taxi_release_failures_total Taxis that could not be released after a ride\n");
+        out.append("# TYPE quickride_taxi_release_failures_total counter\n");
+        out.append("quickride_taxi_release_failures_total ").append(getReleaseFailures()).append('\n');
+        out.append("# HELP quickride_uptime_seconds Time since the metrics were created\n");
+        out.append("# TYPE quickride_uptime_seconds gauge\n");
+        out.append("quickride_uptime_seconds ").append(seconds(System.nanoTime() - startNanos)).append('\n');
+        return out.toString();
+    }
+    
+    /**
+     * Write the current values to a file, replacing it atomically
+     * so a reader never sees half an export
+     */
+    public void writeTo(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(temporary, export(), StandardCharsets.UTF_8);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+    
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+    
+    @Override
+    public String toString() {
+        HistogramSnapshot requests = snapshot(Operation.REQUEST_RIDE);
+        HistogramSnapshot pushes = snapshot(Operation.MAP_PUSH);
+        return String.format("%d ride requests (p99 %.0f us), %d without a taxi, %d map pushes (p99 %.0f us)",
+                requests.getCount(), requests.valueAtPercentile(99) / 1e3, getNoTaxiAvailable(),
+                pushes.getCount(), pushes.valueAtPercentile(99) / 1e3);
+    }
+}
@@ -0,0 +1,81 @@
+package com.quickride.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP endpoint serving a fresh metrics export at /metrics
+ * Listens on the loopback interface only, so a scraper or curl on the same
+ * machine can read it. One daemon thread serves requests; exports are built
+ * on request, recording never waits for them
+ */
+public final class MetricsServer implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(MetricsServer.class.getName());
+    
+    private static final String METRICS_PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    
+    private final Metrics metrics;
+    private final HttpServer server;
+    private final ExecutorService handler;
+    
+    private MetricsServer(Metrics metrics, int port) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.handler = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Start serving the metrics
+     * @param port port to listen on, or 0 for one picked by the system
+     */
+    public static MetricsServer start(Metrics metrics, int port) throws IOException {
+        MetricsServer metricsServer = new MetricsServer(metrics, port);
+        metricsServer.server.createContext(METRICS_PATH, metricsServer::handleMetrics);
+        metricsServer.server.setExecutor(metricsServer.handler);
+        metricsServer.server.start();
+        LOGGER.info(() -> "Metrics available at " + metricsServer.getUrl());
+        return metricsServer;
+    }
+    
+    // URL of the export
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + METRICS_PATH;
+    }
+    
+    @Override
+    public void close() {
+        server.stop(0);
+        handler.shutdownNow();
+    }
+    
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.export().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
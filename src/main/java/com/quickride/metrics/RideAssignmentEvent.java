@@ -0,0 +1,69 @@
+package com.quickride.metrics;
+
+import com.quickride.model.Location;
+import com.quickride.model.Ride;
+import com.quickride.model.Taxi;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a booking, from the request to the assigned taxi
+ * Fields are only filled in when the event is recorded
+ */
+@Name("com.quickride.RideAssignment")
+@Label("Ride Assignment")
+@Category({"QuickRide", "Dispatch"})
+@Description("A ride request and the search for its taxi")
+@StackTrace(false)
+public final class RideAssignmentEvent extends Event {
+    @Label("Ride")
+    private String rideId;
+    
+    @Label("Taxi")
+    private String taxiId;
+    
+    @Label("Nearest Taxi")
+    @Description("Searched for the nearest taxi rather than taking the next in the queue")
+    private boolean nearest;
+    
+    @Label("Candidates")
+    @Description("Available taxis whose distance to the pickup was measured")
+    private int candidates;
+    
+    @Label("Search Radius (km)")
+    @Description("Distance around the pickup the search fully covered; infinite if it scanned the whole fleet")
+    private double searchRadiusKm;
+    
+    @Label("Chosen Distance (km)")
+    @Description("Straight-line distance from the assigned taxi to the pickup")
+    private double chosenDistanceKm;
+    
+    public RideAssignmentEvent() {
+        // Timed with begin() and finish()
+    }
+    
+    /**
+     * End the event with the booked ride and record it if enabled
+     * @param candidates taxis measured by the search, 0 for the queue
+     * @param searchRadiusKm radius the search covered, 0 for the queue
+     */
+    public void finish(Ride ride, boolean nearest, int candidates, double searchRadiusKm) {
+        end();
+        if (shouldCommit()) {
+            Taxi taxi = ride.getAssignedTaxi();
+            Location pickup = ride.getPickupLocation();
+            this.rideId = ride.getId();
+            this.taxiId = taxi.getId();
+            this.nearest = nearest;
+            this.candidates = candidates;
+            this.searchRadiusKm = searchRadiusKm;
+            this.chosenDistanceKm = taxi.getCurrentLocation().distanceTo(pickup);
+            commit();
+        }
+    }
+}
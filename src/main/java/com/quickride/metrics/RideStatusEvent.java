@@ -0,0 +1,45 @@
+package com.quickride.metrics;
+
+import com.quickride.model.Ride;
+import com.quickride.model.RideStatus;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a ride changing status
+ */
+@Name("com.quickride.RideStatus")
+@Label("Ride Status Change")
+@Category({"QuickRide", "Dispatch"})
+@Description("A ride moved from one status to another")
+@StackTrace(false)
+public final class RideStatusEvent extends Event {
+    @Label("Ride")
+    private String rideId;
+    
+    @Label("From")
+    private String from;
+    
+    @Label("To")
+    private String to;
+    
+    private RideStatusEvent() {
+        // Committed through emit only
+    }
+    
+    // Record a status change if the event is enabled
+    public static void emit(Ride ride, RideStatus from, RideStatus to) {
+        RideStatusEvent event = new RideStatusEvent();
+        if (event.shouldCommit()) {
+            event.rideId = ride.getId();
+            event.from = from.name();
+            event.to = to.name();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.quickride.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a flush of batched UI updates
+ * Covers the observable list and table updates of the managers and the
+ * map refreshes queued by them, all on the FX thread
+ */
+@Name("com.quickride.UiFlush")
+@Label("UI Update Flush")
+@Category({"QuickRide", "UI"})
+@Description("Pending observable list, table and map updates applied on the FX thread")
+@StackTrace(false)
+public final class UiFlushEvent extends Event {
+    @Label("Updates Applied")
+    private int updatesApplied;
+    
+    @Label("Updates Pending")
+    @Description("Updates left for the next flush")
+    private int updatesPending;
+    
+    public UiFlushEvent() {
+        // Timed with begin() and finish()
+    }
+    
+    // End the flush and record it if enabled
+    public void finish(int updatesApplied, int updatesPending) {
+        end();
+        if (shouldCommit()) {
+            this.updatesApplied = updatesApplied;
+            this.updatesPending = updatesPending;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.quickride.model;
+
+/**
+ * Distance kernels on plain coordinates, free of allocation
+ *
+ * Three kinds, from exact to cheapest, all on a sphere of radius 6371 km:
+ * - haversineKm: great-circle distance, four trig calls plus atan2 and two sqrt
+ * - equirectangularKm: the sphere flattened around the pair, one cos and one sqrt,
+ *   or no trig at all with a cosine from cosLatitude computed once per area
+ * - squaredDegrees: the same flat distance squared, in degrees; no trig and no sqrt,
+ *   for ranking candidates against one query point
+ *
+ * Error bounds of the flat distances against haversineKm, measured by
+ * DistanceBenchmark: with the cosine of the pair's mean latitude, below
+ * 0.0001 % up to 10 km and 0.01 % up to 100 km at latitudes up to 60 degrees.
+ * With a cosine fixed at a reference latitude, such as the query point's,
+ * the error grows with the latitude difference from the reference: at Swiss
+ * latitudes below 0.025 % for points within 5 km of the reference and 0.25 %
+ * within 50 km. Ranking by the flat distance can therefore swap two
+ * candidates whose distances differ by less than that; compute haversineKm
+ * for the final pick. Longitudes are not wrapped, so the flat distances are
+ * wrong across the antimeridian.
+ */
+public final class GeoDistance {
+    // Mean Earth radius
+    public static final double EARTH_RADIUS_KM = 6371;
+    
+    // Kilometres per degree of latitude, and of longitude at the equator
+    public static final double KM_PER_DEGREE = EARTH_RADIUS_KM * Math.PI / 180;
+    
+    private GeoDistance() {
+        // Static helpers only
+    }
+    
+    // Great-circle distance in km (haversine formula)
+    public static double haversineKm(double lat1, double lon1, double lat2, double lon2) {
+        double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double a = sinLat * sinLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+        return EARTH_RADIUS_KM * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+    
+    // Flat distance in km, scaling longitude by the cosine of the pair's mean latitude
+    public static double equirectangularKm(double lat1, double lon1, double lat2, double lon2) {
+        return equirectangularKm(lat1, lon1, lat2, lon2, cosLatitude((lat1 + lat2) / 2));
+    }
+    
+    /**
+     * Flat distance in km with a precomputed longitude scale
+     * @param cosLatitude cosLatitude of a latitude near both points, e.g. the query point's
+     */
+    public static double equirectangularKm(double lat1, double lon1, double lat2, double lon2, double cosLatitude) {
+        return Math.sqrt(squaredDegrees(lat1, lon1, lat2, lon2, cosLatitude)) * KM_PER_DEGREE;
+    }
+    
+    /**
+     * Squared flat distance in degrees of latitude
+     * Orders points the same way as equirectangularKm with the same cosine
+     * @param cosLatitude cosLatitude of a latitude near both points, e.g. the query point's
+     */
+    public static double squaredDegrees(double lat1, double lon1, double lat2, double lon2, double cosLatitude) {
+        double dLat = lat2 - lat1;
+        double dLon = (lon2 - lon1) * cosLatitude;
+        return dLat * dLat + dLon * dLon;
+    }
+    
+    // Kilometres of a squaredDegrees value
+    public static double squaredDegreesToKm(double squaredDegrees) {
+        return Math.sqrt(squaredDegrees) * KM_PER_DEGREE;
+    }
+    
+    // Longitude scale at a latitude, for the flat kernels
+    public static double cosLatitude(double latitude) {
+        return Math.cos(Math.toRadians(latitude));
+    }
+}
@@ -2,10 +2,12 @@ package com.quickride.model;
 
 /**
  * A simple class to represent locations
+ * Immutable, so a taxi that moves is given a new Location and other threads
+ * reading its position never see half of an update
  */
 public class Location {
-    private double latitude;
-    private double longitude;
+    private final double latitude;
+    private final double longitude;
     private final String address;
     
     public Location(double latitude, double longitude, String address) {
@@ -29,45 +31,25 @@ public class Location {
         return latitude;
     }
     
-    /**
-     * Sets the latitude coordinate
-     * @param latitude the new latitude
-     */
-    public void setLatitude(double latitude) {
-        this.latitude = latitude;
-    }
-    
     public double getLongitude() {
         return longitude;
     }
     
-    /**
-     * Sets the longitude coordinate
-     * @param longitude the new longitude
-     */
-    public void setLongitude(double longitude) {
-        this.longitude = longitude;
-    }
-    
     public String getAddress() {
         return address;
     }
     
     // Calculate distance between two locations (using Haversine formula)
     public double distanceTo(Location other) {
-        // Earth radius in kilometers
-        final int R = 6371;
-        
-        double latDistance = Math.toRadians(other.latitude - this.latitude);
-        double lonDistance = Math.toRadians(other.longitude - this.longitude);
-        
-        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(this.latitude)) * Math.cos(Math.toRadians(other.latitude))
-                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
-        
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        
-        return R * c;
+        return GeoDistance.haversineKm(latitude, longitude, other.latitude, other.longitude);
+    }
+    
+    /**
+     * Flat approximation of distanceTo, cheaper and within 0.01% up to 100 km
+     * See GeoDistance for the error bounds
+     */
+    public double approximateDistanceTo(Location other) {
+        return GeoDistance.equirectangularKm(latitude, longitude, other.latitude, other.longitude);
     }
     
     @Override
@@ -18,11 +18,20 @@ public class Ride {
     private RideStatus status;
     
     public Ride(String customerName, Location pickupLocation, Location dropoffLocation) {
-        this.id = UUID.randomUUID().toString();
+        this(UUID.randomUUID().toString(), customerName, pickupLocation, dropoffLocation, LocalDateTime.now());
+    }
+    
+    /**
+     * Recreate a ride with a known ID and request time, e.g. when loading it from the journal
+     * The ride starts in REQUESTED status
+     */
+    public Ride(String id, String customerName, Location pickupLocation, Location dropoffLocation,
+                LocalDateTime requestTime) {
+        this.id = id;
         this.customerName = customerName;
         this.pickupLocation = pickupLocation;
         this.dropoffLocation = dropoffLocation;
-        this.requestTime = LocalDateTime.now();
+        this.requestTime = requestTime;
         this.status = RideStatus.REQUESTED;
     }
     
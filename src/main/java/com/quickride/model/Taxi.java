@@ -1,6 +1,7 @@
 package com.quickride.model;
 
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Class representing a taxi with various properties
@@ -10,16 +11,25 @@ public class Taxi {
     private final String driverName;
     private final String licensePlate;
     private final String carModel;
-    private Location currentLocation;
-    private boolean available;
+    private volatile Location currentLocation;
+    
+    // Atomic so concurrent dispatchers can claim a taxi with a single compare-and-set
+    private final AtomicBoolean available;
     
     public Taxi(String driverName, String licensePlate, String carModel, Location currentLocation) {
-        this.id = UUID.randomUUID().toString();
+        this(UUID.randomUUID().toString(), driverName, licensePlate, carModel, currentLocation);
+    }
+    
+    /**
+     * Recreate a taxi with a known ID, e.g. when loading it from the journal
+     */
+    public Taxi(String id, String driverName, String licensePlate, String carModel, Location currentLocation) {
+        this.id = id;
         this.driverName = driverName;
         this.licensePlate = licensePlate;
         this.carModel = carModel;
         this.currentLocation = currentLocation;
-        this.available = true;
+        this.available = new AtomicBoolean(true);
     }
     
     // Getters and setters
@@ -48,11 +58,21 @@ public class Taxi {
     }
     
     public boolean isAvailable() {
-        return available;
+        return available.get();
     }
     
     public void setAvailable(boolean available) {
-        this.available = available;
+        this.available.set(available);
+    }
+    
+    /**
+     * Atomically change availability if it currently has the expected value
+     * @param expected the availability the caller believes the taxi has
+     * @param newValue the availability to set
+     * @return true if the swap happened, false if another thread changed it first
+     */
+    public boolean compareAndSetAvailable(boolean expected, boolean newValue) {
+        return available.compareAndSet(expected, newValue);
     }
     
     @Override
@@ -0,0 +1,148 @@
+package com.quickride.persistence;
+
+import java.nio.MappedByteBuffer;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import com.quickride.model.RideStatus;
+
+/**
+ * Forward-only cursor over archived ride records
+ *
+ * The cursor is a flyweight: next() moves it to the following matching record
+ * and the getters read that record's fields directly from the mapped file.
+ * Nothing is copied unless a getter has to build an object, such as the UUID
+ * or an Instant.
+ */
+public final class ArchivedRideCursor {
+    private static final RideStatus[] STATUSES = RideStatus.values();
+    
+    private final RideArchive archive;
+    private final List<RideArchive.Segment> segments;
+    private final long fromMillis;
+    private final long toMillis;
+    
+    // Current segment, its mapping and the number of records it had when the cursor reached it
+    private int segmentIndex = -1;
+    private MappedByteBuffer buffer;
+    private long limit;
+    private long record = -1;
+    private int offset;
+    
+    ArchivedRideCursor(RideArchive archive, List<RideArchive.Segment> segments, long fromMillis, long toMillis) {
+        this.archive = archive;
+        this.segments = segments;
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+    }
+    
+    /**
+     * Advance to the next ride that ended in the queried range
+     * @return false when there are no more matching records
+     */
+    public boolean next() {
+        while (true) {
+            record++;
+            if (buffer == null || record >= limit) {
+                if (!nextSegment()) {
+                    return false;
+                }
+            }
+            offset = (int) (RideArchive.HEADER_SIZE + record * RideArchive.RECORD_SIZE);
+            long end = buffer.getLong(offset + RideArchive.END_TIME);
+            if (end >= fromMillis && end < toMillis) {
+                return true;
+            }
+        }
+    }
+    
+    private boolean nextSegment() {
+        while (++segmentIndex < segments.size()) {
+            RideArchive.Segment segment = segments.get(segmentIndex);
+            // Read the count before the buffer; the buffer seen is then at least as new as the count
+            limit = segment.count();
+            buffer = segment.buffer();
+            record = 0;
+            if (limit > 0) {
+                return true;
+            }
+        }
+        buffer = null;
+        return false;
+    }
+    
+    public UUID getId() {
+        return new UUID(buffer.getLong(offset + RideArchive.ID_MSB), buffer.getLong(offset + RideArchive.ID_LSB));
+    }
+    
+    public long getIdMostSignificantBits() {
+        return buffer.getLong(offset + RideArchive.ID_MSB);
+    }
+    
+    public long getIdLeastSignificantBits() {
+        return buffer.getLong(offset + RideArchive.ID_LSB);
+    }
+    
+    // Null if the ride never had a taxi
+    public UUID getTaxiId() {
+        long msb = buffer.getLong(offset + RideArchive.TAXI_MSB);
+        long lsb = buffer.getLong(offset + RideArchive.TAXI_LSB);
+        return msb == 0 && lsb == 0 ? null : new UUID(msb, lsb);
+    }
+    
+    public RideStatus getStatus() {
+        return STATUSES[buffer.get(offset + RideArchive.STATUS)];
+    }
+    
+    // Timestamps in epoch milliseconds, Long.MIN_VALUE when not set
+    public long getRequestTimeMillis() {
+        return buffer.getLong(offset + RideArchive.REQUEST_TIME);
+    }
+    
+    public long getAssignedTimeMillis() {
+        return buffer.getLong(offset + RideArchive.ASSIGNED_TIME);
+    }
+    
+    public long getCompletedTimeMillis() {
+        return buffer.getLong(offset + RideArchive.COMPLETED_TIME);
+    }
+    
+    // Completion time, or the last known timestamp of a ride that was cancelled
+    public long getEndTimeMillis() {
+        return buffer.getLong(offset + RideArchive.END_TIME);
+    }
+    
+    public Instant getEndTime() {
+        return Instant.ofEpochMilli(getEndTimeMillis());
+    }
+    
+    public double getPickupLatitude() {
+        return buffer.getDouble(offset + RideArchive.PICKUP_LAT);
+    }
+    
+    public double getPickupLongitude() {
+        return buffer.getDouble(offset + RideArchive.PICKUP_LON);
+    }
+    
+    public double getDropoffLatitude() {
+        return buffer.getDouble(offset + RideArchive.DROPOFF_LAT);
+    }
+    
+    public double getDropoffLongitude() {
+        return buffer.getDouble(offset + RideArchive.DROPOFF_LON);
+    }
+    
+    // Strings come from the shared dictionary, so the same instance is returned for every record using it
+    public String getCustomerName() {
+        return archive.string(buffer.getInt(offset + RideArchive.CUSTOMER));
+    }
+    
+    public String getPickupAddress() {
+        return archive.string(buffer.getInt(offset + RideArchive.PICKUP_ADDRESS));
+    }
+    
+    public String getDropoffAddress() {
+        return archive.string(buffer.getInt(offset + RideArchive.DROPOFF_ADDRESS));
+    }
+}
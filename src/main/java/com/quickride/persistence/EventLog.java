@@ -0,0 +1,659 @@
+package com.quickride.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of framed records written through a FileChannel
+ *
+ * Each record is stored as [int length][int crc32][body]. A torn or corrupt
+ * tail left by a crash is detected by the length and checksum and cut off
+ * when the log is opened.
+ *
+ * Appends go into an in-memory buffer under a short lock. Under GROUP_COMMIT,
+ * callers then wait in awaitDurable: one of them leads and writes and fsyncs
+ * everything buffered so far, while the others wait for that fsync or, if
+ * they appended after it started, for the next one.
+ *
+ * The log is split into numbered segment files. Rolling to a new segment marks
+ * a cut that a snapshot can refer to, after which older segments can be deleted.
+ * A cut only marks the buffer and does no I/O, so it can be taken under
+ * another lock; the next write moves to the new segment at the mark
+ *
+ * A failed write or force fails the log: the records it held are not durable,
+ * so from then on every append, flush and awaitDurable of a record that was
+ * not yet durable throws. Nothing is written after the failure, so a record
+ * torn by it can only be the tail that open cuts off
+ */
+public class EventLog implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(EventLog.class.getName());
+    
+    // File header: magic "QRLG" and format version
+    private static final int MAGIC = 0x51524C47;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    
+    // Record header: body length and CRC32 of the body
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    
+    // Read size used when scanning segments
+    private static final int READ_CHUNK_SIZE = 1 << 20;
+    
+    private static final String SEGMENT_PREFIX = "events-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    
+    // Buffered bytes at which appenders write the buffer out without waiting for a flush
+    private static final int WRITE_THRESHOLD_BYTES = 1 << 20;
+    
+    // Default background flush interval for PERIODIC and NEVER
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 50;
+    
+    private final Path directory;
+    private final FsyncPolicy policy;
+    
+    // Segment currently appended to - guarded by flushLock
+    private FileChannel channel;
+    private long activeSegment;
+    
+    // Appended but not yet written records - guarded by appendLock
+    private final Object appendLock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+    private long appendedSequence = 0;
+    
+    // Segment new appends belong to, and where in pending the next segment starts, or -1 - guarded by appendLock
+    private long appendSegment;
+    private int cutOffset = -1;
+    
+    // Only one thread writes and forces at a time
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private volatile long durableSequence = 0;
+    
+    // Group commit leader election - guarded by commitMonitor
+    private final Object commitMonitor = new Object();
+    private boolean commitInProgress = false;
+    
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService backgroundFlusher;
+    private volatile boolean closed = false;
+    
+    // First write or force failure, after which the log accepts nothing
+    private volatile IOException failure;
+    
+    private EventLog(Path directory, FsyncPolicy policy, FileChannel channel, long activeSegment,
+                     long flushIntervalMs) {
+        this.directory = directory;
+        this.policy = policy;
+        this.channel = channel;
+        this.activeSegment = activeSegment;
+        this.appendSegment = activeSegment;
+        
+        if (policy == FsyncPolicy.PERIODIC || policy == FsyncPolicy.NEVER) {
+            backgroundFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "event-log-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            backgroundFlusher.scheduleWithFixedDelay(this::backgroundFlush,
+                    flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            backgroundFlusher = null;
+        }
+    }
+    
+    /**
+     * Open (or create) the log in a directory and position it for appending
+     * @param directory directory holding the log segments
+     * @param policy when appended records are forced to disk
+     */
+    public static EventLog open(Path directory, FsyncPolicy policy) throws IOException {
+        return open(directory, policy, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+    
+    /**
+     * Open (or create) the log with a custom background flush interval
+     * @param flushIntervalMs interval for PERIODIC and NEVER policies
+     */
+    public static EventLog open(Path directory, FsyncPolicy policy, long flushIntervalMs) throws IOException {
+        Files.createDirectories(directory);
+        
+        List<Path> segments = listSegments(directory);
+        Path active = segments.isEmpty() ? segmentPath(directory, 1) : segments.get(segments.size() - 1);
+        
+        FileChannel channel = FileChannel.open(active,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < FILE_HEADER_SIZE) {
+                writeFileHeader(channel);
+            } else {
+                long end = scan(channel, null);
+                if (end < channel.size()) {
+                    LOGGER.warning(() -> "Truncating torn tail of " + active + " at byte " + end);
+                    channel.truncate(end);
+                }
+            }
+            channel.position(channel.size());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        
+        return new EventLog(directory, policy, channel, segmentNumber(active), flushIntervalMs);
+    }
+    
+    /**
+     * Append one record
+     * Under EVERY_WRITE the record is durable when this returns; otherwise it is
+     * buffered and the returned sequence can be passed to awaitDurable
+     * @param body record contents, read from position to limit
+     * @return sequence number of the record within this log session
+     */
+    public long append(ByteBuffer body) {
+        int length = body.remaining();
+        if (length == 0 || length > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Record size out of range: " + length);
+        }
+        
+        if (policy == FsyncPolicy.EVERY_WRITE) {
+            flushLock.lock();
+            try {
+                long sequence = appendToBuffer(body, length);
+                writePending(true);
+                return sequence;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write event log", e);
+            } finally {
+                flushLock.unlock();
+            }
+        }
+        
+        long sequence = appendToBuffer(body, length);
+        
+        // Backpressure - when appends outrun the flusher, the appender writes the buffer out itself
+        if (bufferedBytes() >= WRITE_THRESHOLD_BYTES) {
+            flushLock.lock();
+            try {
+                writePending(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write event log", e);
+            } finally {
+                flushLock.unlock();
+            }
+        }
+        return sequence;
+    }
+    
+    private int bufferedBytes() {
+        synchronized (appendLock) {
+            return pending.position();
+        }
+    }
+    
+    private long appendToBuffer(ByteBuffer body, int length) {
+        synchronized (appendLock) {
+            ensureOpen();
+            ensureNotFailed();
+            
+            if (pending.remaining() < RECORD_HEADER_SIZE + length) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+                        pending.position() + RECORD_HEADER_SIZE + length));
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+            
+            crc.reset();
+            crc.update(body.duplicate());
+            pending.putInt(length);
+            pending.putInt((int) crc.getValue());
+            pending.put(body);
+            
+            return ++appendedSequence;
+        }
+    }
+    
+    /**
+     * Block until the record with the given sequence is durable under this log's policy
+     * Returns immediately for PERIODIC and NEVER, which trade durability for latency
+     * @param sequence a sequence returned by append
+     */
+    public void awaitDurable(long sequence) {
+        if (durableSequence >= sequence) {
+            return;
+        }
+        ensureNotFailed();
+        if (policy != FsyncPolicy.GROUP_COMMIT) {
+            return;
+        }
+        
+        // Followers park until a flush covers them; the first caller with no flush running leads the next one
+        synchronized (commitMonitor) {
+            while (durableSequence < sequence) {
+                // A leader that failed wakes everyone - nobody it did not cover may return normally
+                ensureNotFailed();
+                if (!commitInProgress) {
+                    commitInProgress = true;
+                    break;
+                }
+                waitForCommit();
+            }
+            if (durableSequence >= sequence) {
+                return;
+            }
+        }
+        
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to flush event log", e);
+        } finally {
+            // Wake every follower at once rather than handing a lock from thread to thread
+            synchronized (commitMonitor) {
+                commitInProgress = false;
+                commitMonitor.notifyAll();
+            }
+        }
+    }
+    
+    private void waitForCommit() {
+        try {
+            commitMonitor.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the event log", e);
+        }
+    }
+    
+    /**
+     * Write and force everything appended so far
+     */
+    public void flush() throws IOException {
+        flushLock.lock();
+        try {
+            writePending(policy != FsyncPolicy.NEVER);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+    
+    /**
+     * Swap the pending buffer out under the append lock, then write it without blocking appenders
+     * Records before a cut go to the active segment, which is forced, and the
+     * rest to the next one. On failure the swapped-out records are lost, so the
+     * log is failed before durableSequence could move past them
+     */
+    private void writePending(boolean force) throws IOException {
+        if (failure != null) {
+            throw new IOException("Event log failed earlier", failure);
+        }
+        ByteBuffer toWrite;
+        long upTo;
+        int cutAt;
+        synchronized (appendLock) {
+            toWrite = pending;
+            upTo = appendedSequence;
+            cutAt = cutOffset;
+            cutOffset = -1;
+            spare.clear();
+            pending = spare;
+            spare = toWrite;
+        }
+        
+        // Unknown until the position is read; a failure before that leaves nothing to cut off
+        long start = -1;
+        try {
+            start = channel.position();
+            toWrite.flip();
+            if (cutAt >= 0) {
+                ByteBuffer rest = toWrite.slice(cutAt, toWrite.limit() - cutAt);
+                toWrite.limit(cutAt);
+                writeFully(toWrite);
+                if (policy != FsyncPolicy.NEVER) {
+                    channel.force(false);
+                }
+                openNextSegment();
+                start = channel.position();
+                toWrite = rest;
+            }
+            writeFully(toWrite);
+            if (force) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            fail(e, start);
+            throw e;
+        }
+        if (force) {
+            durableSequence = upTo;
+        }
+    }
+    
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+    
+    // Close the active segment and continue in a new one with a fresh header - caller holds flushLock
+    private void openNextSegment() throws IOException {
+        long next = activeSegment + 1;
+        FileChannel nextChannel = FileChannel.open(segmentPath(directory, next),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            writeFileHeader(nextChannel);
+            nextChannel.position(FILE_HEADER_SIZE);
+        } catch (IOException e) {
+            nextChannel.close();
+            throw e;
+        }
+        channel.close();
+        channel = nextChannel;
+        activeSegment = next;
+    }
+    
+    // Refuse all further appends, and cut a partly written batch off the segment if the file still allows it
+    private void fail(IOException cause, long batchStart) {
+        failure = cause;
+        LOGGER.log(Level.SEVERE, "Event log write failed, refusing further appends", cause);
+        if (batchStart < 0) {
+            return;
+        }
+        try {
+            channel.truncate(batchStart);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+    
+    /**
+     * Close the active segment and continue in a new one
+     * Records appended before this call end up in the old segment, later ones in the new segment
+     * @return number of the new segment
+     */
+    public long roll() throws IOException {
+        flushLock.lock();
+        try {
+            ensureOpen();
+            long next = cut();
+            writePending(policy != FsyncPolicy.NEVER);
+            return next;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+    
+    /**
+     * Mark a segment boundary after the records appended so far, without any I/O
+     * Later records go to the new segment once the buffer is next written, by
+     * a flush, a group commit or the background flusher. If a cut is still
+     * waiting for that, it is returned instead: its segment then starts a
+     * little earlier, which replay tolerates since it only repeats records
+     * @return number of the segment that starts at the cut
+     */
+    public long cut() {
+        synchronized (appendLock) {
+            ensureOpen();
+            ensureNotFailed();
+            if (cutOffset < 0) {
+                cutOffset = pending.position();
+                appendSegment++;
+            }
+            return appendSegment;
+        }
+    }
+    
+    /**
+     * Delete every segment older than the given one, e.g. once a snapshot covers them
+     * The active segment is never deleted
+     * @return number of segments deleted
+     */
+    public int deleteSegmentsBefore(long segment) throws IOException {
+        long limit = Math.min(segment, getActiveSegment());
+        int deleted = 0;
+        for (Path path : listSegments(directory)) {
+            if (segmentNumber(path) < limit && Files.deleteIfExists(path)) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+    
+    public long getActiveSegment() {
+        flushLock.lock();
+        try {
+            return activeSegment;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+    
+    private void backgroundFlush() {
+        if (failure != null) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Background flush of event log failed", e);
+        }
+    }
+    
+    /**
+     * Visit every valid record from the oldest segment to the newest
+     * Call before appending; records still buffered are not visited
+     * @param visitor receives a read-only view of each record body, valid only during the call
+     * @return number of records visited
+     */
+    public long replay(Consumer<ByteBuffer> visitor) throws IOException {
+        return replay(0, visitor);
+    }
+    
+    /**
+     * Visit every valid record in the given segment and the ones after it
+     * @param fromSegment first segment to visit, e.g. the tail start recorded with a snapshot
+     * @return number of records visited
+     */
+    public long replay(long fromSegment, Consumer<ByteBuffer> visitor) throws IOException {
+        long count = 0;
+        for (Path segment : listSegments(directory)) {
+            if (segmentNumber(segment) < fromSegment) {
+                continue;
+            }
+            try (FileChannel reader = FileChannel.open(segment, StandardOpenOption.READ)) {
+                long[] visited = new long[1];
+                scan(reader, body -> {
+                    visited[0]++;
+                    visitor.accept(body);
+                });
+                count += visited[0];
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Walk the records of one segment, stopping at the first torn or corrupt record
+     * @return byte offset just past the last valid record
+     */
+    private static long scan(FileChannel reader, Consumer<ByteBuffer> visitor) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        if (readFully(reader, header, 0) < FILE_HEADER_SIZE) {
+            return 0;
+        }
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a QuickRide event log segment");
+        }
+        
+        long position = FILE_HEADER_SIZE;
+        long size = reader.size();
+        CRC32 checksum = new CRC32();
+        
+        // Read in large chunks - one positional read per record costs a system call each
+        ByteBuffer chunk = ByteBuffer.allocate(READ_CHUNK_SIZE);
+        chunk.limit(0);
+        long chunkStart = position;
+        
+        while (position + RECORD_HEADER_SIZE <= size) {
+            if (chunk.remaining() < RECORD_HEADER_SIZE) {
+                chunkStart = refill(reader, chunk, position, size);
+            }
+            int length = chunk.getInt(chunk.position());
+            int expectedCrc = chunk.getInt(chunk.position() + 4);
+            
+            if (length <= 0 || length > MAX_RECORD_SIZE || position + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            
+            int recordSize = RECORD_HEADER_SIZE + length;
+            if (chunk.remaining() < recordSize) {
+                if (chunk.capacity() < recordSize) {
+                    chunk = ByteBuffer.allocate(recordSize);
+                }
+                chunkStart = refill(reader, chunk, position, size);
+            }
+            
+            ByteBuffer body = chunk.slice(chunk.position() + RECORD_HEADER_SIZE, length);
+            checksum.reset();
+            checksum.update(body.duplicate());
+            if ((int) checksum.getValue() != expectedCrc) {
+                break;
+            }
+            
+            if (visitor != null) {
+                visitor.accept(body.asReadOnlyBuffer());
+            }
+            position += recordSize;
+            chunk.position((int) (position - chunkStart));
+        }
+        return position;
+    }
+    
+    // Load the file from position into the chunk, as far as it fits
+    private static long refill(FileChannel reader, ByteBuffer chunk, long position, long size) throws IOException {
+        chunk.clear();
+        chunk.limit((int) Math.min(chunk.capacity(), size - position));
+        readFully(reader, chunk, position);
+        chunk.flip();
+        return position;
+    }
+    
+    private static int readFully(FileChannel reader, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = reader.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+    
+    private static void writeFileHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        channel.truncate(0);
+        while (header.hasRemaining()) {
+            channel.write(header, FILE_HEADER_SIZE - header.remaining());
+        }
+        channel.force(true);
+    }
+    
+    // Segments sorted by their numeric suffix
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        segments.sort((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)));
+        return segments;
+    }
+    
+    private static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+    
+    private static Path segmentPath(Path directory, long number) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+    
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Event log is closed");
+        }
+    }
+    
+    private void ensureNotFailed() {
+        IOException cause = failure;
+        if (cause != null) {
+            throw new UncheckedIOException("Event log failed, records after the failure are not durable", cause);
+        }
+    }
+    
+    // True once a write or force failed
+    public boolean isFailed() {
+        return failure != null;
+    }
+    
+    public FsyncPolicy getPolicy() {
+        return policy;
+    }
+    
+    public Path getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * Flush outstanding records and close the log
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (backgroundFlusher != null) {
+            backgroundFlusher.shutdown();
+            try {
+                backgroundFlusher.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushLock.lock();
+        try {
+            closed = true;
+            if (failure == null) {
+                writePending(policy != FsyncPolicy.NEVER);
+            }
+        } finally {
+            channel.close();
+            flushLock.unlock();
+        }
+    }
+}
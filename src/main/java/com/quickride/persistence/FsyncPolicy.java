@@ -0,0 +1,31 @@
+package com.quickride.persistence;
+
+/**
+ * When the event log forces appended records to stable storage
+ */
+public enum FsyncPolicy {
+    /**
+     * Write and fsync every record before the append returns.
+     * Nothing acknowledged is ever lost, but every booking pays a full fsync.
+     */
+    EVERY_WRITE,
+    
+    /**
+     * Callers wait until their record is durable, but one fsync covers every
+     * record appended while the previous fsync was running.
+     * Same guarantee as EVERY_WRITE at a fraction of the fsyncs under load.
+     */
+    GROUP_COMMIT,
+    
+    /**
+     * A background thread writes and fsyncs on a fixed interval; appends never wait.
+     * A crash can lose up to one interval of events.
+     */
+    PERIODIC,
+    
+    /**
+     * A background thread writes on a fixed interval and leaves flushing to the OS.
+     * Survives a process crash but not a power loss or kernel panic.
+     */
+    NEVER
+}
@@ -0,0 +1,516 @@
+package com.quickride.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import com.quickride.model.Ride;
+import com.quickride.model.RideStatus;
+
+/**
+ * On-disk archive of finished rides in fixed-width records
+ *
+ * Records live in memory-mapped files, one per day of the ride's end time, so
+ * finished rides can leave the heap while staying queryable. Each record is
+ * RECORD_SIZE bytes: UUIDs as two longs, timestamps as epoch milliseconds,
+ * coordinates as doubles and strings as indexes into a shared dictionary file.
+ *
+ * Queries walk the mapped records through an ArchivedRideCursor, which reads
+ * fields straight from the mapping without creating Ride objects.
+ *
+ * Appends are serialized on the archive; queries may run concurrently and see
+ * every record appended before they started.
+ *
+ * Appending is idempotent: a ride already in its day file is skipped, so a
+ * batch that is archived again after a crash, because the journal never
+ * recorded that it left memory, is still stored once
+ */
+public class RideArchive implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(RideArchive.class.getName());
+    
+    // Segment header: magic "QRRA", version, record size, record count
+    private static final int MAGIC = 0x51525241;
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    private static final int COUNT_OFFSET = 16;
+    
+    // Record layout
+    static final int RECORD_SIZE = 112;
+    static final int ID_MSB = 0;
+    static final int ID_LSB = 8;
+    static final int TAXI_MSB = 16;
+    static final int TAXI_LSB = 24;
+    static final int REQUEST_TIME = 32;
+    static final int ASSIGNED_TIME = 40;
+    static final int COMPLETED_TIME = 48;
+    static final int END_TIME = 56;
+    static final int PICKUP_LAT = 64;
+    static final int PICKUP_LON = 72;
+    static final int DROPOFF_LAT = 80;
+    static final int DROPOFF_LON = 88;
+    static final int CUSTOMER = 96;
+    static final int PICKUP_ADDRESS = 100;
+    static final int DROPOFF_ADDRESS = 104;
+    static final int STATUS = 108;
+    
+    // Marker for a missing timestamp or string
+    static final long NO_TIME = Long.MIN_VALUE;
+    static final int NO_STRING = -1;
+    
+    // Records a new day file has room for before it is remapped larger
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+    
+    private static final String SEGMENT_PREFIX = "rides-";
+    private static final String SEGMENT_SUFFIX = ".arc";
+    private static final String DICTIONARY_FILE = "strings.dat";
+    
+    // Day files whose ride IDs are kept in memory for the duplicate check
+    private static final int INDEXED_DAYS = 3;
+    
+    private final Path directory;
+    private final ZoneId zone;
+    
+    // Day files by date - the map is guarded by this archive, segments publish their own state
+    private final NavigableMap<LocalDate, Segment> segments = new TreeMap<>();
+    
+    // Day files with their ride IDs loaded, least recently appended to first - guarded by this archive
+    private final Map<LocalDate, Segment> indexedSegments = new LinkedHashMap<>(16, 0.75f, true);
+    
+    // Shared string dictionary - appends are guarded by this archive; cursors read the table
+    // without locking, since a record is only published after the strings it refers to
+    private volatile String[] strings = new String[256];
+    private int stringCount = 0;
+    private final Map<String, Integer> stringIndex = new HashMap<>();
+    private final FileChannel dictionary;
+    
+    private RideArchive(Path directory, ZoneId zone, FileChannel dictionary) {
+        this.directory = directory;
+        this.zone = zone;
+        this.dictionary = dictionary;
+    }
+    
+    /**
+     * Open (or create) an archive in a directory
+     * Ride timestamps are local date-times and are converted to instants in the system zone
+     */
+    public static RideArchive open(Path directory) throws IOException {
+        return open(directory, ZoneId.systemDefault());
+    }
+    
+    /**
+     * Open (or create) an archive that interprets ride timestamps in the given zone
+     */
+    public static RideArchive open(Path directory, ZoneId zone) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel dictionary = FileChannel.open(directory.resolve(DICTIONARY_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        RideArchive archive = new RideArchive(directory, zone, dictionary);
+        try {
+            archive.loadDictionary();
+            archive.loadSegments();
+        } catch (IOException | RuntimeException e) {
+            archive.close();
+            throw e;
+        }
+        return archive;
+    }
+    
+    /**
+     * Append finished rides, skipping any that are already archived
+     * Each ride goes into the file for the day it ended; the record count in each
+     * file is only raised after its records are written
+     * @return number of rides written
+     */
+    public synchronized int append(List<Ride> rides) throws IOException {
+        int written = 0;
+        for (Ride ride : rides) {
+            long endMillis = endTimeMillis(ride);
+            LocalDate day = Instant.ofEpochMilli(endMillis).atZone(zone).toLocalDate();
+            Segment segment = segmentFor(day);
+            keepIndexed(day, segment);
+            if (segment.append(ride, endMillis)) {
+                written++;
+            }
+        }
+        return written;
+    }
+    
+    /**
+     * Force appended records and new dictionary strings to disk
+     */
+    public synchronized void force() throws IOException {
+        dictionary.force(false);
+        for (Segment segment : segments.values()) {
+            segment.force();
+        }
+    }
+    
+    /**
+     * Open a cursor over rides that ended in [from, to)
+     * Only the day files overlapping the range are visited; a range whose from
+     * is not before its to is empty
+     */
+    public ArchivedRideCursor query(Instant from, Instant to) {
+        if (!from.isBefore(to)) {
+            return new ArchivedRideCursor(this, List.of(), 0, 0);
+        }
+        List<Segment> overlapping;
+        synchronized (this) {
+            LocalDate firstDay = from.atZone(zone).toLocalDate();
+            LocalDate lastDay = to.atZone(zone).toLocalDate();
+            overlapping = new ArrayList<>(segments.subMap(firstDay, true, lastDay, true).values());
+        }
+        return new ArchivedRideCursor(this, overlapping, from.toEpochMilli(), to.toEpochMilli());
+    }
+    
+    /**
+     * Visit every archived ride that ended in [from, to)
+     * The cursor passed to the visitor is reused and only valid during the call
+     */
+    public void forEachBetween(Instant from, Instant to, Consumer<ArchivedRideCursor> visitor) {
+        ArchivedRideCursor cursor = query(from, to);
+        while (cursor.next()) {
+            visitor.accept(cursor);
+        }
+    }
+    
+    /**
+     * Count rides with a given status that ended in [from, to)
+     */
+    public long countBetween(Instant from, Instant to, RideStatus status) {
+        ArchivedRideCursor cursor = query(from, to);
+        long count = 0;
+        while (cursor.next()) {
+            if (cursor.getStatus() == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    // Total number of archived rides
+    public synchronized long size() {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.count();
+        }
+        return total;
+    }
+    
+    // Days that have archived rides, oldest first
+    public synchronized List<LocalDate> getDays() {
+        return new ArrayList<>(segments.keySet());
+    }
+    
+    // Dictionary lookup for cursors
+    String string(int index) {
+        return index == NO_STRING ? null : strings[index];
+    }
+    
+    // Finished rides are filed under their completion time; cancelled rides have none and use their last timestamp
+    private long endTimeMillis(Ride ride) {
+        LocalDateTime end = ride.getCompletedTime();
+        if (end == null) {
+            end = ride.getAssignedTime() != null ? ride.getAssignedTime() : ride.getRequestTime();
+        }
+        return toMillis(end);
+    }
+    
+    long toMillis(LocalDateTime time) {
+        return time == null ? NO_TIME : time.atZone(zone).toInstant().toEpochMilli();
+    }
+    
+    private Segment segmentFor(LocalDate day) throws IOException {
+        Segment segment = segments.get(day);
+        if (segment == null) {
+            segment = Segment.open(this, segmentPath(day));
+            segments.put(day, segment);
+        }
+        return segment;
+    }
+    
+    /**
+     * Keep the ride IDs of the day files appended to most recently in memory - O(1)
+     * Rides are archived soon after they end, so only the last few days see
+     * appends, and the IDs of older days are dropped to keep the heap bounded
+     */
+    private void keepIndexed(LocalDate day, Segment segment) {
+        indexedSegments.put(day, segment);
+        if (indexedSegments.size() > INDEXED_DAYS) {
+            Iterator<Segment> eldest = indexedSegments.values().iterator();
+            eldest.next().dropIds();
+            eldest.remove();
+        }
+    }
+    
+    private Path segmentPath(LocalDate day) {
+        return directory.resolve(SEGMENT_PREFIX + day + SEGMENT_SUFFIX);
+    }
+    
+    // Intern a string into the dictionary, writing it to disk the first time it is seen
+    private int intern(String value) throws IOException {
+        if (value == null) {
+            return NO_STRING;
+        }
+        Integer index = stringIndex.get(value);
+        if (index != null) {
+            return index;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+        entry.putInt(bytes.length).put(bytes).flip();
+        while (entry.hasRemaining()) {
+            dictionary.write(entry, dictionary.size());
+        }
+        return addString(value);
+    }
+    
+    // Add to the in-memory table, growing it by doubling
+    private int addString(String value) {
+        String[] table = strings;
+        if (stringCount == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        int index = stringCount++;
+        table[index] = value;
+        strings = table;
+        stringIndex.put(value, index);
+        return index;
+    }
+    
+    private void loadDictionary() throws IOException {
+        long size = dictionary.size();
+        if (size == 0) {
+            return;
+        }
+        MappedByteBuffer map = dictionary.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        while (map.remaining() >= Integer.BYTES) {
+            int length = map.getInt(map.position());
+            if (length < 0 || length > map.remaining() - Integer.BYTES) {
+                break;
+            }
+            map.position(map.position() + Integer.BYTES);
+            byte[] bytes = new byte[length];
+            map.get(bytes);
+            addString(new String(bytes, StandardCharsets.UTF_8));
+        }
+        
+        if (map.position() < size) {
+            long end = map.position();
+            LOGGER.warning(() -> "Truncating torn tail of the ride archive dictionary at byte " + end);
+            dictionary.truncate(end);
+        }
+    }
+    
+    private void loadSegments() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                LocalDate day = LocalDate.parse(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(day, Segment.open(this, path));
+            }
+        }
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (Segment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        segments.clear();
+        indexedSegments.clear();
+        dictionary.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    /**
+     * One day file, mapped read-write and remapped larger when it fills up
+     */
+    final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        
+        // Readers take the buffer and count without locking; appends only ever grow them
+        private volatile MappedByteBuffer buffer;
+        private volatile long count;
+        
+        // IDs of the rides in this file, read on the first append after it was opened or dropped - guarded by the archive
+        private Set<UUID> ids;
+        
+        private Segment(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+        
+        static Segment open(RideArchive archive, Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = archive.new Segment(path, channel);
+            try {
+                segment.load();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            return segment;
+        }
+        
+        private void load() throws IOException {
+            if (channel.size() < HEADER_SIZE) {
+                map(INITIAL_CAPACITY);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, RECORD_SIZE);
+                buffer.putLong(COUNT_OFFSET, 0);
+                return;
+            }
+            
+            long records = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+            map(Math.max(records, INITIAL_CAPACITY));
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_SIZE) {
+                throw new IOException("Not a QuickRide ride archive: " + path);
+            }
+            // Records past the stored count were written but never committed
+            count = Math.min(buffer.getLong(COUNT_OFFSET), records);
+        }
+        
+        private void map(long records) throws IOException {
+            long bytes = HEADER_SIZE + records * RECORD_SIZE;
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IOException("Ride archive day file is full: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        }
+        
+        long capacity() {
+            return (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+        }
+        
+        /**
+         * Write one record, then publish it by raising the count - caller holds the archive lock
+         * @return false if the ride is already in this file and nothing was written
+         */
+        boolean append(Ride ride, long endMillis) throws IOException {
+            UUID id = toUuid(ride.getId());
+            if (ids().contains(id)) {
+                return false;
+            }
+            if (count == capacity()) {
+                map(capacity() * 2);
+            }
+            
+            int customer = intern(ride.getCustomerName());
+            int pickupAddress = intern(ride.getPickupLocation().getAddress());
+            int dropoffAddress = intern(ride.getDropoffLocation().getAddress());
+            
+            MappedByteBuffer target = buffer;
+            int offset = (int) (HEADER_SIZE + count * RECORD_SIZE);
+            target.putLong(offset + ID_MSB, id.getMostSignificantBits());
+            target.putLong(offset + ID_LSB, id.getLeastSignificantBits());
+            UUID taxi = ride.getAssignedTaxi() != null ? toUuid(ride.getAssignedTaxi().getId()) : null;
+            target.putLong(offset + TAXI_MSB, taxi != null ? taxi.getMostSignificantBits() : 0);
+            target.putLong(offset + TAXI_LSB, taxi != null ? taxi.getLeastSignificantBits() : 0);
+            target.putLong(offset + REQUEST_TIME, toMillis(ride.getRequestTime()));
+            target.putLong(offset + ASSIGNED_TIME, toMillis(ride.getAssignedTime()));
+            target.putLong(offset + COMPLETED_TIME, toMillis(ride.getCompletedTime()));
+            target.putLong(offset + END_TIME, endMillis);
+            target.putDouble(offset + PICKUP_LAT, ride.getPickupLocation().getLatitude());
+            target.putDouble(offset + PICKUP_LON, ride.getPickupLocation().getLongitude());
+            target.putDouble(offset + DROPOFF_LAT, ride.getDropoffLocation().getLatitude());
+            target.putDouble(offset + DROPOFF_LON, ride.getDropoffLocation().getLongitude());
+            target.putInt(offset + CUSTOMER, customer);
+            target.putInt(offset + PICKUP_ADDRESS, pickupAddress);
+            target.putInt(offset + DROPOFF_ADDRESS, dropoffAddress);
+            target.put(offset + STATUS, (byte) ride.getStatus().ordinal());
+            
+            count++;
+            target.putLong(COUNT_OFFSET, count);
+            ids.add(id);
+            return true;
+        }
+        
+        // Ride IDs in this file, read from the records the first time they are needed - O(n) once
+        private Set<UUID> ids() {
+            if (ids == null) {
+                MappedByteBuffer source = buffer;
+                Set<UUID> loaded = new HashSet<>((int) Math.min(count * 4 / 3 + 16, Integer.MAX_VALUE));
+                for (long record = 0; record < count; record++) {
+                    int offset = (int) (HEADER_SIZE + record * RECORD_SIZE);
+                    loaded.add(new UUID(source.getLong(offset + ID_MSB), source.getLong(offset + ID_LSB)));
+                }
+                ids = loaded;
+            }
+            return ids;
+        }
+        
+        void dropIds() {
+            ids = null;
+        }
+        
+        MappedByteBuffer buffer() {
+            return buffer;
+        }
+        
+        long count() {
+            return count;
+        }
+        
+        void force() {
+            buffer.force();
+        }
+        
+        void close() throws IOException {
+            force();
+            channel.close();
+        }
+    }
+    
+    /**
+     * Ride ids are UUIDs; any other id is mapped to a name-based UUID so it still fits the fixed-width record
+     */
+    static UUID toUuid(String id) {
+        try {
+            UUID uuid = UUID.fromString(id);
+            if (uuid.toString().equals(id)) {
+                return uuid;
+            }
+        } catch (IllegalArgumentException e) {
+            // Fall through to the name-based form
+        }
+        return UUID.nameUUIDFromBytes(id.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,423 @@
+package com.quickride.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.quickride.exception.InvalidTaxiException;
+import com.quickride.manager.RideManager;
+import com.quickride.manager.TaxiManager;
+import com.quickride.model.Location;
+import com.quickride.model.Ride;
+import com.quickride.model.RideStatus;
+import com.quickride.model.Taxi;
+
+/**
+ * Journal of fleet and booking events on top of an EventLog
+ *
+ * Taxi registrations, ride requests and ride status changes are logged; taxi
+ * assignment is not logged separately because it follows from the rides: a
+ * taxi is busy exactly when an ASSIGNED or IN_PROGRESS ride references it.
+ * Taxi positions are not logged either, a recovered taxi starts from its
+ * position in the last snapshot, or where it was registered.
+ *
+ * Rides moved to the RideArchive are logged as archived and dropped on replay.
+ *
+ * Snapshots bound restart time: recovery loads the newest snapshot and only
+ * replays the log segments written after it, and segments that no kept
+ * snapshot needs are deleted
+ */
+public class StateJournal implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(StateJournal.class.getName());
+    
+    // Record types
+    private static final byte TAXI_ADDED = 1;
+    private static final byte RIDE_REQUESTED = 2;
+    private static final byte RIDE_STATUS = 3;
+    private static final byte RIDES_ARCHIVED = 4;
+    
+    // Snapshots kept on disk - the older one is a fallback if the newest cannot be read
+    private static final int SNAPSHOTS_KEPT = 2;
+    
+    private final Path directory;
+    private final EventLog log;
+    
+    // Serializes snapshots; the scheduler is created on demand
+    private final Object snapshotLock = new Object();
+    private ScheduledExecutorService snapshotScheduler;
+    
+    private StateJournal(Path directory, EventLog log) {
+        this.directory = directory;
+        this.log = log;
+    }
+    
+    /**
+     * Open the journal stored in a directory
+     * @param directory directory holding the log segments
+     * @param policy when appended events are forced to disk
+     */
+    public static StateJournal open(Path directory, FsyncPolicy policy) throws IOException {
+        return new StateJournal(directory, EventLog.open(directory, policy));
+    }
+    
+    // Log a newly registered taxi
+    public long taxiAdded(Taxi taxi) {
+        return append(TAXI_ADDED, out -> {
+            out.writeUTF(taxi.getId());
+            out.writeUTF(taxi.getDriverName());
+            out.writeUTF(taxi.getLicensePlate());
+            writeNullableString(out, taxi.getCarModel());
+            writeLocation(out, taxi.getCurrentLocation());
+        });
+    }
+    
+    // Log a ride together with the taxi it was assigned to
+    public long rideRequested(Ride ride) {
+        return append(RIDE_REQUESTED, out -> {
+            out.writeUTF(ride.getId());
+            out.writeUTF(ride.getCustomerName());
+            writeLocation(out, ride.getPickupLocation());
+            writeLocation(out, ride.getDropoffLocation());
+            writeTime(out, ride.getRequestTime());
+            writeNullableString(out, ride.getAssignedTaxi() != null ? ride.getAssignedTaxi().getId() : null);
+            out.writeByte(ride.getStatus().ordinal());
+            writeTime(out, ride.getAssignedTime());
+        });
+    }
+    
+    // Log the current status and timestamps of a ride
+    public long rideStatusChanged(Ride ride) {
+        return append(RIDE_STATUS, out -> {
+            out.writeUTF(ride.getId());
+            out.writeByte(ride.getStatus().ordinal());
+            writeTime(out, ride.getAssignedTime());
+            writeTime(out, ride.getCompletedTime());
+        });
+    }
+    
+    // Log that finished rides were moved to the ride archive and left memory
+    public long ridesArchived(List<Ride> rides) {
+        return append(RIDES_ARCHIVED, out -> {
+            out.writeInt(rides.size());
+            for (Ride ride : rides) {
+                out.writeUTF(ride.getId());
+            }
+        });
+    }
+    
+    /**
+     * Mark where the tail of a snapshot starts, after every event appended so far
+     * Does no I/O, so it can be called while holding the lock that orders the
+     * events; see EventLog.cut
+     * @return the first log segment of the tail
+     */
+    public long cut() {
+        return log.cut();
+    }
+    
+    /**
+     * Block until an appended event is durable under the journal's fsync policy
+     * @param sequence the value returned when the event was appended
+     */
+    public void awaitDurable(long sequence) {
+        log.awaitDurable(sequence);
+    }
+    
+    /**
+     * Rebuild taxis and rides and load them into empty managers
+     * Starts from the newest readable snapshot and replays only the log written
+     * after it, so restart time depends on the snapshot interval rather than on
+     * the length of the history
+     * Must be called before the managers start appending to this journal
+     * @return number of events replayed
+     */
+    public long recover(TaxiManager taxiManager, RideManager rideManager) throws IOException {
+        StateSnapshot snapshot = loadLatestSnapshot();
+        
+        // Sized for the snapshot so loading it does not rehash repeatedly
+        int taxiCapacity = snapshot != null ? snapshot.getTaxis().size() * 4 / 3 + 16 : 16;
+        int rideCapacity = snapshot != null ? snapshot.getRides().size() * 4 / 3 + 16 : 16;
+        Map<String, Taxi> taxis = new LinkedHashMap<>(taxiCapacity);
+        Map<String, Ride> rides = new LinkedHashMap<>(rideCapacity);
+        
+        long fromSegment = 0;
+        if (snapshot != null) {
+            snapshot.getTaxis().forEach(taxi -> taxis.put(taxi.getId(), taxi));
+            snapshot.getRides().forEach(ride -> rides.put(ride.getId(), ride));
+            fromSegment = snapshot.getTailSegment();
+        }
+        
+        long events = log.replay(fromSegment, body -> {
+            try {
+                apply(body, taxis, rides);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Corrupt journal event", e);
+            }
+        });
+        
+        // Taxis referenced by a ride that has not finished are still out on that ride
+        Set<Taxi> busy = new HashSet<>();
+        for (Ride ride : rides.values()) {
+            if (ride.getAssignedTaxi() != null
+                    && (ride.getStatus() == RideStatus.ASSIGNED || ride.getStatus() == RideStatus.IN_PROGRESS)) {
+                busy.add(ride.getAssignedTaxi());
+            }
+        }
+        
+        try {
+            for (Taxi taxi : taxis.values()) {
+                taxiManager.restoreTaxi(taxi, !busy.contains(taxi));
+            }
+        } catch (InvalidTaxiException e) {
+            throw new IOException("Journal holds an invalid taxi: " + e.getMessage(), e);
+        }
+        rideManager.restoreRides(new ArrayList<>(rides.values()));
+        
+        boolean fromSnapshot = snapshot != null;
+        LOGGER.info(() -> "Recovered " + taxis.size() + " taxis and " + rides.size() + " rides from "
+                + (fromSnapshot ? "a snapshot and " : "") + events + " journal events");
+        return events;
+    }
+    
+    /**
+     * Write a snapshot of all taxis and rides and drop log segments it makes redundant
+     * Dispatch keeps running: the ride manager copies its rides and marks the
+     * cut in one step that does no I/O, and the roll to the new segment, its
+     * fsync and the serialization all happen afterwards. A ride that changes
+     * while it is being written is corrected by replaying the tail, which
+     * starts at the cut
+     * @return the snapshot file
+     */
+    public Path snapshot(TaxiManager taxiManager, RideManager rideManager) throws IOException {
+        synchronized (snapshotLock) {
+            RideManager.JournalCut cut = rideManager.cutJournal(this);
+            long tailSegment = cut.tailSegment();
+            List<Ride> rides = cut.rides();
+            // Writes the records before the cut to the old segment, forces it and opens the tail segment
+            log.flush();
+            // Taxis are registered before they are logged, so any taxi logged before the cut is listed
+            List<Taxi> taxis = taxiManager.getAllTaxis();
+            
+            long start = System.nanoTime();
+            Path file = new StateSnapshot(tailSegment, taxis, rides).write(directory);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            LOGGER.info(() -> "Wrote snapshot of " + taxis.size() + " taxis and " + rides.size()
+                    + " rides to " + file.getFileName() + " in " + millis + " ms");
+            
+            pruneSnapshots();
+            return file;
+        }
+    }
+    
+    /**
+     * Take a snapshot at a fixed interval on a background thread
+     * @param intervalSeconds time between snapshots
+     */
+    public void startPeriodicSnapshots(TaxiManager taxiManager, RideManager rideManager, long intervalSeconds) {
+        synchronized (snapshotLock) {
+            if (snapshotScheduler != null) {
+                return;
+            }
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        snapshotScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(taxiManager, rideManager);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Periodic snapshot failed", e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+    
+    // Newest snapshot that reads back cleanly, or null if there is none
+    private StateSnapshot loadLatestSnapshot() throws IOException {
+        for (Path file : StateSnapshot.list(directory)) {
+            try {
+                return StateSnapshot.read(file);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Skipping unreadable snapshot " + file, e);
+            }
+        }
+        return null;
+    }
+    
+    // Keep the newest snapshots and the log segments the oldest kept one still needs;
+    // runs under the snapshot lock, so no temporary file left here is still being written
+    private void pruneSnapshots() throws IOException {
+        StateSnapshot.deleteTemporaryFiles(directory);
+        List<Path> snapshots = StateSnapshot.list(directory);
+        if (snapshots.size() < SNAPSHOTS_KEPT) {
+            return;
+        }
+        for (Path old : snapshots.subList(SNAPSHOTS_KEPT, snapshots.size())) {
+            Files.deleteIfExists(old);
+        }
+        log.deleteSegmentsBefore(StateSnapshot.tailSegmentOf(snapshots.get(SNAPSHOTS_KEPT - 1)));
+    }
+    
+    private static void apply(ByteBuffer body, Map<String, Taxi> taxis, Map<String, Ride> rides) throws IOException {
+        byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        
+        byte type = in.readByte();
+        switch (type) {
+            case TAXI_ADDED -> {
+                String id = in.readUTF();
+                String driverName = in.readUTF();
+                String licensePlate = in.readUTF();
+                String carModel = readNullableString(in);
+                Location location = readLocation(in);
+                // A taxi registered during a snapshot can be in both the snapshot and the tail
+                taxis.putIfAbsent(id, new Taxi(id, driverName, licensePlate, carModel, location));
+            }
+            case RIDE_REQUESTED -> {
+                String id = in.readUTF();
+                String customerName = in.readUTF();
+                Location pickup = readLocation(in);
+                Location dropoff = readLocation(in);
+                LocalDateTime requestTime = readTime(in);
+                String taxiId = readNullableString(in);
+                RideStatus status = readStatus(in);
+                LocalDateTime assignedTime = readTime(in);
+                
+                // Events carry absolute state, so applying one to a ride the snapshot already holds is safe
+                Ride ride = rides.computeIfAbsent(id,
+                        key -> new Ride(key, customerName, pickup, dropoff, requestTime));
+                ride.setAssignedTaxi(taxiId != null ? taxis.get(taxiId) : null);
+                ride.setStatus(status);
+                ride.setAssignedTime(assignedTime);
+            }
+            case RIDE_STATUS -> {
+                String id = in.readUTF();
+                RideStatus status = readStatus(in);
+                LocalDateTime assignedTime = readTime(in);
+                LocalDateTime completedTime = readTime(in);
+                
+                Ride ride = rides.get(id);
+                if (ride == null) {
+                    LOGGER.warning(() -> "Status change for unknown ride " + id + " ignored");
+                    return;
+                }
+                ride.setStatus(status);
+                ride.setAssignedTime(assignedTime);
+                ride.setCompletedTime(completedTime);
+            }
+            case RIDES_ARCHIVED -> {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    rides.remove(in.readUTF());
+                }
+            }
+            default -> throw new IOException("Unknown journal event type " + type);
+        }
+    }
+    
+    // Encode one event and append it; encoding errors cannot happen on an in-memory stream
+    private long append(byte type, EventWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            writer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return log.append(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+    
+    private static void writeLocation(DataOutputStream out, Location location) throws IOException {
+        out.writeDouble(location.getLatitude());
+        out.writeDouble(location.getLongitude());
+        writeNullableString(out, location.getAddress());
+    }
+    
+    private static Location readLocation(DataInput in) throws IOException {
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        return new Location(latitude, longitude, readNullableString(in));
+    }
+    
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+    
+    private static String readNullableString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    // Timestamps are wall-clock local times, stored field for field as seconds and nanos
+    static void writeTime(DataOutputStream out, LocalDateTime time) throws IOException {
+        out.writeBoolean(time != null);
+        if (time != null) {
+            out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(time.getNano());
+        }
+    }
+    
+    static LocalDateTime readTime(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        long seconds = in.readLong();
+        int nanos = in.readInt();
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+    
+    private static RideStatus readStatus(DataInput in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        RideStatus[] statuses = RideStatus.values();
+        if (ordinal >= statuses.length) {
+            throw new IOException("Unknown ride status " + ordinal);
+        }
+        return statuses[ordinal];
+    }
+    
+    public EventLog getLog() {
+        return log;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        synchronized (snapshotLock) {
+            if (snapshotScheduler != null) {
+                snapshotScheduler.shutdownNow();
+            }
+        }
+        log.close();
+    }
+    
+    // Writes the fields of one event
+    @FunctionalInterface
+    private interface EventWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
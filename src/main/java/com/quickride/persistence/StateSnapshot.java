@@ -0,0 +1,379 @@
+package com.quickride.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import com.quickride.model.Location;
+import com.quickride.model.Ride;
+import com.quickride.model.RideStatus;
+import com.quickride.model.Taxi;
+
+/**
+ * Compact binary image of all taxis and rides
+ *
+ * Coordinates are stored as raw doubles and timestamps as primitive fields.
+ * Repeated strings such as driver names, car models, addresses and customer
+ * names are written once and referenced by index afterwards, and UUID ids are
+ * stored as two longs. The file ends with a CRC32 so a partly written
+ * snapshot is rejected on load.
+ *
+ * Each snapshot records the first log segment that is not covered by it;
+ * recovery loads the snapshot and replays only that segment and later ones
+ */
+public final class StateSnapshot {
+    private static final int MAGIC = 0x51525353;
+    private static final int VERSION = 1;
+    
+    private static final String FILE_PREFIX = "snapshot-";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    // Markers for ids and string references
+    private static final byte ID_UUID = 0;
+    private static final byte ID_STRING = 1;
+    private static final int NULL_STRING = -1;
+    
+    private final long tailSegment;
+    private final List<Taxi> taxis;
+    private final List<Ride> rides;
+    
+    StateSnapshot(long tailSegment, List<Taxi> taxis, List<Ride> rides) {
+        this.tailSegment = tailSegment;
+        this.taxis = taxis;
+        this.rides = rides;
+    }
+    
+    // First log segment written after this snapshot's cut
+    public long getTailSegment() {
+        return tailSegment;
+    }
+    
+    public List<Taxi> getTaxis() {
+        return taxis;
+    }
+    
+    public List<Ride> getRides() {
+        return rides;
+    }
+    
+    /**
+     * Write the snapshot into a directory
+     * The file is written under a temporary name and renamed once it is on disk,
+     * so a crash never leaves a half-written snapshot under the final name
+     * @return the path of the new snapshot
+     */
+    Path write(Path directory) throws IOException {
+        Path target = snapshotPath(directory, tailSegment);
+        Path temp = directory.resolve(target.getFileName() + TEMP_SUFFIX);
+        
+        CRC32 crc = new CRC32();
+        // Buffer above the checksum so the CRC is updated in blocks rather than byte by byte
+        try (OutputStream file = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     new CheckedOutputStream(file, crc), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(tailSegment);
+            
+            StringTableWriter strings = new StringTableWriter(out);
+            Map<Taxi, Integer> taxiIndex = new IdentityHashMap<>();
+            
+            out.writeInt(taxis.size());
+            for (Taxi taxi : taxis) {
+                taxiIndex.put(taxi, taxiIndex.size());
+                writeId(out, taxi.getId());
+                strings.write(taxi.getDriverName());
+                out.writeUTF(taxi.getLicensePlate());
+                strings.write(taxi.getCarModel());
+                writeLocation(out, strings, taxi.getCurrentLocation());
+            }
+            
+            out.writeInt(rides.size());
+            for (Ride ride : rides) {
+                writeId(out, ride.getId());
+                strings.write(ride.getCustomerName());
+                writeLocation(out, strings, ride.getPickupLocation());
+                writeLocation(out, strings, ride.getDropoffLocation());
+                out.writeByte(ride.getStatus().ordinal());
+                Integer taxi = ride.getAssignedTaxi() != null ? taxiIndex.get(ride.getAssignedTaxi()) : null;
+                out.writeInt(taxi != null ? taxi : -1);
+                StateJournal.writeTime(out, ride.getRequestTime());
+                StateJournal.writeTime(out, ride.getAssignedTime());
+                StateJournal.writeTime(out, ride.getCompletedTime());
+            }
+            
+            // Trailer covers everything above
+            out.flush();
+            new DataOutputStream(file).writeLong(crc.getValue());
+        }
+        
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return target;
+    }
+    
+    /**
+     * Read a snapshot file
+     * @throws IOException if the file is truncated, corrupt or of an unknown version
+     */
+    static StateSnapshot read(Path file) throws IOException {
+        long size = Files.size(file);
+        if (size < Long.BYTES) {
+            throw new IOException("Snapshot too short: " + file);
+        }
+        
+        CRC32 crc = new CRC32();
+        try (InputStream raw = Files.newInputStream(file)) {
+            // Limit the checked stream to the body so the trailer is read separately
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new CheckedInputStream(new BoundedInputStream(raw, size - Long.BYTES), crc), 64 * 1024));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a QuickRide snapshot: " + file);
+            }
+            long tailSegment = in.readLong();
+            
+            StringTableReader strings = new StringTableReader(in);
+            
+            int taxiCount = in.readInt();
+            List<Taxi> taxis = new ArrayList<>(taxiCount);
+            for (int i = 0; i < taxiCount; i++) {
+                String id = readId(in);
+                String driverName = strings.read();
+                String licensePlate = in.readUTF();
+                String carModel = strings.read();
+                Location location = readLocation(in, strings);
+                taxis.add(new Taxi(id, driverName, licensePlate, carModel, location));
+            }
+            
+            int rideCount = in.readInt();
+            List<Ride> rides = new ArrayList<>(rideCount);
+            RideStatus[] statuses = RideStatus.values();
+            for (int i = 0; i < rideCount; i++) {
+                String id = readId(in);
+                String customerName = strings.read();
+                Location pickup = readLocation(in, strings);
+                Location dropoff = readLocation(in, strings);
+                int status = in.readUnsignedByte();
+                int taxi = in.readInt();
+                LocalDateTime requestTime = StateJournal.readTime(in);
+                LocalDateTime assignedTime = StateJournal.readTime(in);
+                LocalDateTime completedTime = StateJournal.readTime(in);
+                
+                if (status >= statuses.length || taxi >= taxis.size()) {
+                    throw new IOException("Corrupt ride record in snapshot: " + file);
+                }
+                Ride ride = new Ride(id, customerName, pickup, dropoff, requestTime);
+                ride.setStatus(statuses[status]);
+                ride.setAssignedTaxi(taxi >= 0 ? taxis.get(taxi) : null);
+                ride.setAssignedTime(assignedTime);
+                ride.setCompletedTime(completedTime);
+                rides.add(ride);
+            }
+            
+            long expected = new DataInputStream(raw).readLong();
+            if (expected != crc.getValue()) {
+                throw new IOException("Snapshot checksum mismatch: " + file);
+            }
+            return new StateSnapshot(tailSegment, taxis, rides);
+        }
+    }
+    
+    // Snapshot files in a directory, newest first
+    static List<Path> list(Path directory) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path path : stream) {
+                snapshots.add(path);
+            }
+        }
+        snapshots.sort((a, b) -> Long.compare(tailSegmentOf(b), tailSegmentOf(a)));
+        return snapshots;
+    }
+    
+    // Remove temporary files left by snapshots that crashed before their rename
+    static void deleteTemporaryFiles(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                FILE_PREFIX + "*" + FILE_SUFFIX + TEMP_SUFFIX)) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+    
+    static long tailSegmentOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+    }
+    
+    private static Path snapshotPath(Path directory, long tailSegment) {
+        return directory.resolve(String.format("%s%06d%s", FILE_PREFIX, tailSegment, FILE_SUFFIX));
+    }
+    
+    private static void writeLocation(DataOutputStream out, StringTableWriter strings, Location location) throws IOException {
+        out.writeDouble(location.getLatitude());
+        out.writeDouble(location.getLongitude());
+        strings.write(location.getAddress());
+    }
+    
+    private static Location readLocation(DataInputStream in, StringTableReader strings) throws IOException {
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        return new Location(latitude, longitude, strings.read());
+    }
+    
+    // UUID ids take 17 bytes instead of 38; anything else is stored as a string
+    private static void writeId(DataOutputStream out, String id) throws IOException {
+        UUID uuid = parseUuid(id);
+        if (uuid != null) {
+            out.writeByte(ID_UUID);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        } else {
+            out.writeByte(ID_STRING);
+            out.writeUTF(id);
+        }
+    }
+    
+    private static String readId(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        if (kind == ID_UUID) {
+            return new UUID(in.readLong(), in.readLong()).toString();
+        }
+        if (kind == ID_STRING) {
+            return in.readUTF();
+        }
+        throw new IOException("Unknown id encoding " + kind);
+    }
+    
+    private static UUID parseUuid(String id) {
+        if (id.length() != 36) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(id);
+            // Only use the compact form if it round-trips to the same text
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Writes each distinct string once; later occurrences are written as its index
+     * A reference equal to the number of strings seen so far introduces a new string
+     */
+    private static final class StringTableWriter {
+        private final DataOutputStream out;
+        private final Map<String, Integer> table = new HashMap<>();
+        
+        StringTableWriter(DataOutputStream out) {
+            this.out = out;
+        }
+        
+        void write(String value) throws IOException {
+            if (value == null) {
+                out.writeInt(NULL_STRING);
+                return;
+            }
+            Integer index = table.get(value);
+            if (index != null) {
+                out.writeInt(index);
+            } else {
+                int next = table.size();
+                table.put(value, next);
+                out.writeInt(next);
+                out.writeUTF(value);
+            }
+        }
+    }
+    
+    // Reader side of StringTableWriter - shared strings come back as the same interned instance
+    private static final class StringTableReader {
+        private final DataInputStream in;
+        private final List<String> table = new ArrayList<>();
+        
+        StringTableReader(DataInputStream in) {
+            this.in = in;
+        }
+        
+        String read() throws IOException {
+            int index = in.readInt();
+            if (index == NULL_STRING) {
+                return null;
+            }
+            if (index == table.size()) {
+                String value = in.readUTF();
+                table.add(value);
+                return value;
+            }
+            if (index < 0 || index > table.size()) {
+                throw new IOException("Corrupt string reference " + index);
+            }
+            return table.get(index);
+        }
+    }
+    
+    // Stops reading at a fixed length so the trailing checksum is not fed to the CRC
+    private static final class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+        
+        BoundedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int value = in.read();
+            if (value >= 0) {
+                remaining--;
+            }
+            return value;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+}
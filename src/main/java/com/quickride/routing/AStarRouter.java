@@ -0,0 +1,192 @@
+package com.quickride.routing;
+
+import java.util.Arrays;
+
+/**
+ * Shortest paths on a RoadGraph with A*, or plain Dijkstra for comparison
+ *
+ * The heuristic is a straight-line distance that never exceeds the road
+ * distance, so A* returns the same lengths as Dijkstra while settling far
+ * fewer nodes. All search state lives in arrays sized to the graph and
+ * reused across queries: a query stamp marks which entries belong to the
+ * current search, so nothing is cleared or allocated per query apart from
+ * the returned path. The priority queue is a binary heap of node ids with
+ * duplicate entries instead of decrease-key; stale entries are skipped.
+ *
+ * One router per thread; RoadNetwork hands them out
+ */
+public final class AStarRouter {
+    private final RoadGraph graph;
+    
+    // Best known distance to each node in metres and the node it was reached from, valid where reached == query
+    private final double[] distance;
+    private final int[] parent;
+    private final int[] reached;
+    private final int[] settled;
+    private int query;
+    
+    // Binary min-heap of (key, node) pairs
+    private double[] heapKeys = new double[256];
+    private int[] heapNodes = new int[256];
+    private int heapSize;
+    
+    private int lastSettled;
+    
+    public AStarRouter(RoadGraph graph) {
+        this.graph = graph;
+        int nodes = graph.nodeCount();
+        this.distance = new double[nodes];
+        this.parent = new int[nodes];
+        this.reached = new int[nodes];
+        this.settled = new int[nodes];
+    }
+    
+    /**
+     * Length of the shortest road path between two nodes
+     * @return the length in metres, or Double.POSITIVE_INFINITY if the target cannot be reached
+     */
+    public double distanceMetres(int source, int target) {
+        return search(source, target, true) ? distance[target] : Double.POSITIVE_INFINITY;
+    }
+    
+    /**
+     * Same as distanceMetres, searching without the heuristic
+     * Only useful to compare against; the lengths are identical
+     */
+    public double dijkstraMetres(int source, int target) {
+        return search(source, target, false) ? distance[target] : Double.POSITIVE_INFINITY;
+    }
+    
+    /**
+     * The nodes of the shortest road path between two nodes, both ends included
+     * @return the path, or null if the target cannot be reached
+     */
+    public int[] path(int source, int target) {
+        if (!search(source, target, true)) {
+            return null;
+        }
+        int length = 1;
+        for (int node = target; node != source; node = parent[node]) {
+            length++;
+        }
+        int[] path = new int[length];
+        int node = target;
+        for (int i = length - 1; i >= 0; i--) {
+            path[i] = node;
+            node = parent[node];
+        }
+        return path;
+    }
+    
+    // Nodes settled by the last query, a measure of its work
+    public int getLastSettled() {
+        return lastSettled;
+    }
+    
+    public RoadGraph getGraph() {
+        return graph;
+    }
+    
+    // Run one search; true if the target was settled
+    private boolean search(int source, int target, boolean directed) {
+        if (source < 0 || source >= graph.nodeCount() || target < 0 || target >= graph.nodeCount()) {
+            throw new IndexOutOfBoundsException("No node " + source + " or " + target + " in " + graph);
+        }
+        nextQuery();
+        double targetLat = graph.latitude(target);
+        double targetLon = graph.longitude(target);
+        heapSize = 0;
+        lastSettled = 0;
+        
+        distance[source] = 0;
+        parent[source] = source;
+        reached[source] = query;
+        push(directed ? graph.lowerBoundMetres(source, targetLat, targetLon) : 0, source);
+        
+        while (heapSize > 0) {
+            int node = heapNodes[0];
+            pop();
+            if (settled[node] == query) {
+                // A stale duplicate of a node settled earlier
+                continue;
+            }
+            settled[node] = query;
+            lastSettled++;
+            if (node == target) {
+                return true;
+            }
+            
+            double base = distance[node];
+            for (int arc = graph.firstArc(node), end = graph.firstArc(node + 1); arc < end; arc++) {
+                int next = graph.arcTarget(arc);
+                if (settled[next] == query) {
+                    continue;
+                }
+                double candidate = base + graph.arcLength(arc);
+                if (reached[next] != query || candidate < distance[next]) {
+                    distance[next] = candidate;
+                    parent[next] = node;
+                    reached[next] = query;
+                    push(directed ? candidate + graph.lowerBoundMetres(next, targetLat, targetLon) : candidate, next);
+                }
+            }
+        }
+        return false;
+    }
+    
+    // Start a new query stamp, clearing the stamps once in 2^31 queries when they wrap
+    private void nextQuery() {
+        if (++query == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            query = 1;
+        }
+    }
+    
+    private void push(double key, int node) {
+        if (heapSize == heapKeys.length) {
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int up = (i - 1) >>> 1;
+            if (heapKeys[up] <= key) {
+                break;
+            }
+            heapKeys[i] = heapKeys[up];
+            heapNodes[i] = heapNodes[up];
+            i = up;
+        }
+        heapKeys[i] = key;
+        heapNodes[i] = node;
+    }
+    
+    // Remove the smallest entry
+    private void pop() {
+        int last = --heapSize;
+        if (last == 0) {
+            return;
+        }
+        double key = heapKeys[last];
+        int node = heapNodes[last];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= last) {
+                break;
+            }
+            if (child + 1 < last && heapKeys[child + 1] < heapKeys[child]) {
+                child++;
+            }
+            if (heapKeys[child] >= key) {
+                break;
+            }
+            heapKeys[i] = heapKeys[child];
+            heapNodes[i] = heapNodes[child];
+            i = child;
+        }
+        heapKeys[i] = key;
+        heapNodes[i] = node;
+    }
+}
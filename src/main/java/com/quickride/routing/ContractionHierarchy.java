@@ -0,0 +1,208 @@
+package com.quickride.routing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A contraction hierarchy over a RoadGraph, read straight from a memory-mapped file
+ *
+ * Every node has a rank. Its forward arcs lead to higher-ranked nodes and its
+ * backward arcs come from higher-ranked nodes; together they contain a
+ * shortest path between any two nodes that only climbs and then descends in
+ * rank, so a search from each end only ever goes up and settles a few hundred
+ * nodes even across the country. An arc with a middle node is a shortcut for
+ * the two arcs through it, which is how paths are unpacked again.
+ *
+ * The file holds a header (magic, version, node and arc counts and the
+ * fingerprint of the graph it was built from), then the ranks and both arc
+ * sets in CSR form as big-endian ints. Opening maps it and reads nothing
+ * else, so startup costs the same for any size; queries read the mapping
+ * directly. Building it is the offline step:
+ *
+ * Usage: ContractionHierarchy [roads file]
+ * builds the hierarchy next to the roads file, default ~/.quickride/roads.bin,
+ * generating the road network there first if needed
+ */
+public final class ContractionHierarchy {
+    private static final int MAGIC = 0x51524348;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    
+    // Suffix of the hierarchy file next to its road graph file
+    public static final String FILE_SUFFIX = ".ch";
+    
+    private final int nodes;
+    private final int forwardArcs;
+    private final int backwardArcs;
+    private final IntBuffer ints;
+    
+    // Offsets in ints of each section of the mapping
+    private final int rankStart;
+    private final int firstForwardStart;
+    private final int forwardTargetStart;
+    private final int forwardWeightStart;
+    private final int forwardViaStart;
+    private final int firstBackwardStart;
+    private final int backwardSourceStart;
+    private final int backwardWeightStart;
+    private final int backwardViaStart;
+    
+    private ContractionHierarchy(MappedByteBuffer buffer) {
+        this.nodes = buffer.getInt(8);
+        this.forwardArcs = buffer.getInt(12);
+        this.backwardArcs = buffer.getInt(16);
+        buffer.position(HEADER_SIZE);
+        this.ints = buffer.asIntBuffer();
+        this.rankStart = 0;
+        this.firstForwardStart = rankStart + nodes;
+        this.forwardTargetStart = firstForwardStart + nodes + 1;
+        this.forwardWeightStart = forwardTargetStart + forwardArcs;
+        this.forwardViaStart = forwardWeightStart + forwardArcs;
+        this.firstBackwardStart = forwardViaStart + forwardArcs;
+        this.backwardSourceStart = firstBackwardStart + nodes + 1;
+        this.backwardWeightStart = backwardSourceStart + backwardArcs;
+        this.backwardViaStart = backwardWeightStart + backwardArcs;
+    }
+    
+    public static void main(String[] args) throws IOException {
+        Path roads = Paths.get(args.length > 0 ? args[0]
+                : Paths.get(System.getProperty("user.home"), ".quickride", "roads.bin").toString());
+        RoadGraph graph = RoadNetwork.openOrGenerate(roads).getGraph();
+        long start = System.nanoTime();
+        int shortcuts = build(graph, fileFor(roads));
+        System.out.printf("Contracted %s with %d shortcuts in %.1f s into %s%n",
+                graph, shortcuts, (System.nanoTime() - start) / 1e9, fileFor(roads));
+    }
+    
+    // Where the hierarchy of a road graph file is kept
+    public static Path fileFor(Path roadsFile) {
+        return roadsFile.resolveSibling(roadsFile.getFileName() + FILE_SUFFIX);
+    }
+    
+    /**
+     * Contract a graph and write the hierarchy to a file, replacing it atomically
+     * Takes seconds for a country-sized graph
+     * @return the number of shortcuts added
+     */
+    public static int build(RoadGraph graph, Path file) throws IOException {
+        ContractionHierarchyBuilder builder = new ContractionHierarchyBuilder(graph);
+        int[][] sections = builder.build();
+        int nodes = graph.nodeCount();
+        int forwardArcs = sections[2].length;
+        int backwardArcs = sections[6].length;
+        
+        long size = HEADER_SIZE;
+        for (int[] section : sections) {
+            size += 4L * section.length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Hierarchy too large for one file: " + size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(nodes).putInt(forwardArcs).putInt(backwardArcs)
+              .putLong(graph.fingerprint());
+        buffer.position(HEADER_SIZE);
+        IntBuffer ints = buffer.asIntBuffer();
+        for (int[] section : sections) {
+            ints.put(section);
+        }
+        
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, buffer.array());
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return builder.getShortcuts();
+    }
+    
+    /**
+     * Map a hierarchy file built for the given graph
+     * @throws IOException if the file cannot be read, is not a hierarchy, or was built from another graph
+     */
+    public static ContractionHierarchy open(Path file, RoadGraph graph) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a QuickRide contraction hierarchy: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int nodes = buffer.getInt(8);
+            long forwardArcs = buffer.getInt(12);
+            long backwardArcs = buffer.getInt(16);
+            long expected = HEADER_SIZE + 4 * (3L * nodes + 2 + 3 * forwardArcs + 3 * backwardArcs);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || size != expected) {
+                throw new IOException("Not a QuickRide contraction hierarchy: " + file);
+            }
+            if (nodes != graph.nodeCount() || buffer.getLong(20) != graph.fingerprint()) {
+                throw new IOException("Contraction hierarchy " + file + " was built from another road graph");
+            }
+            return new ContractionHierarchy(buffer);
+        }
+    }
+    
+    public int nodeCount() {
+        return nodes;
+    }
+    
+    public int rank(int node) {
+        return ints.get(rankStart + node);
+    }
+    
+    int firstForward(int node) {
+        return ints.get(firstForwardStart + node);
+    }
+    
+    int forwardTarget(int arc) {
+        return ints.get(forwardTargetStart + arc);
+    }
+    
+    // Arc weight in decimetres
+    int forwardWeight(int arc) {
+        return ints.get(forwardWeightStart + arc);
+    }
+    
+    // Middle node of a shortcut, -1 for a road of the graph
+    int forwardVia(int arc) {
+        return ints.get(forwardViaStart + arc);
+    }
+    
+    int firstBackward(int node) {
+        return ints.get(firstBackwardStart + node);
+    }
+    
+    int backwardSource(int arc) {
+        return ints.get(backwardSourceStart + arc);
+    }
+    
+    int backwardWeight(int arc) {
+        return ints.get(backwardWeightStart + arc);
+    }
+    
+    int backwardVia(int arc) {
+        return ints.get(backwardViaStart + arc);
+    }
+    
+    // Upward arcs of both directions, shortcuts included
+    public long arcCount() {
+        return (long) forwardArcs + backwardArcs;
+    }
+    
+    @Override
+    public String toString() {
+        return "ContractionHierarchy[" + nodes + " nodes, " + forwardArcs + " forward and "
+                + backwardArcs + " backward arcs]";
+    }
+}
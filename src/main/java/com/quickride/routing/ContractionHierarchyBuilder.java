@@ -0,0 +1,476 @@
+package com.quickride.routing;
+
+import java.util.Arrays;
+
+/**
+ * Offline preprocessing of a RoadGraph into a contraction hierarchy
+ *
+ * Nodes are contracted one at a time, least important first. Contracting a
+ * node removes it from the remaining graph, and for every pair of neighbours
+ * u -> v -> w whose shortest path ran through it a shortcut u -> w is added,
+ * unless a local witness search finds a path at least as short around it.
+ * Importance is the edge difference (shortcuts added minus arcs removed)
+ * plus the number of neighbours already contracted and the node's depth in
+ * the hierarchy, kept up to date lazily: a node taken off the queue is
+ * re-evaluated and put back if it is no longer the least important.
+ *
+ * The arcs a node still has when it is contracted all lead to more important
+ * nodes; they are its upward arcs in the finished hierarchy. Weights are the
+ * graph's arc lengths in decimetres, so path lengths add up exactly.
+ * Single use and not thread safe
+ */
+final class ContractionHierarchyBuilder {
+    // Nodes a witness search may settle before giving up and keeping the shortcut
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    private static final int SIMULATION_SETTLE_LIMIT = 100;
+    
+    private final RoadGraph graph;
+    private final int nodes;
+    
+    // Remaining graph: per node, growable lists of outgoing and incoming arcs with their weight and middle node
+    private final int[][] outTarget;
+    private final int[][] outWeight;
+    private final int[][] outVia;
+    private final int[] outCount;
+    private final int[][] inSource;
+    private final int[][] inWeight;
+    private final int[][] inVia;
+    private final int[] inCount;
+    
+    private final boolean[] contracted;
+    private final int[] contractedNeighbours;
+    private final int[] depth;
+    private final int[] rank;
+    
+    // Upward arcs recorded as nodes are contracted
+    private final ArcList forward = new ArcList();
+    private final ArcList backward = new ArcList();
+    
+    // Witness search state, stamped per search
+    private final int[] witnessDistance;
+    private final int[] witnessReached;
+    private final int[] witnessSettled;
+    private int witnessSearch;
+    private int[] heapKeys = new int[256];
+    private int[] heapNodes = new int[256];
+    private int heapSize;
+    
+    private int shortcuts;
+    
+    ContractionHierarchyBuilder(RoadGraph graph) {
+        this.graph = graph;
+        this.nodes = graph.nodeCount();
+        this.outTarget = new int[nodes][];
+        this.outWeight = new int[nodes][];
+        this.outVia = new int[nodes][];
+        this.outCount = new int[nodes];
+        this.inSource = new int[nodes][];
+        this.inWeight = new int[nodes][];
+        this.inVia = new int[nodes][];
+        this.inCount = new int[nodes];
+        this.contracted = new boolean[nodes];
+        this.contractedNeighbours = new int[nodes];
+        this.depth = new int[nodes];
+        this.rank = new int[nodes];
+        this.witnessDistance = new int[nodes];
+        this.witnessReached = new int[nodes];
+        this.witnessSettled = new int[nodes];
+        
+        for (int n = 0; n < nodes; n++) {
+            int degree = graph.firstArc(n + 1) - graph.firstArc(n);
+            outTarget[n] = new int[Math.max(4, degree)];
+            outWeight[n] = new int[outTarget[n].length];
+            outVia[n] = new int[outTarget[n].length];
+            inSource[n] = new int[Math.max(4, degree)];
+            inWeight[n] = new int[inSource[n].length];
+            inVia[n] = new int[inSource[n].length];
+        }
+        for (int n = 0; n < nodes; n++) {
+            for (int arc = graph.firstArc(n); arc < graph.firstArc(n + 1); arc++) {
+                addArc(n, graph.arcTarget(arc), graph.arcLengthDecimetres(arc), -1);
+            }
+        }
+    }
+    
+    /**
+     * Contract every node and return the hierarchy's upward arcs, in CSR form per node
+     * @return {rank, firstForward, forwardTarget, forwardWeight, forwardVia,
+     *         firstBackward, backwardSource, backwardWeight, backwardVia}
+     */
+    int[][] build() {
+        // Min-heap of (priority, node) with lazy re-evaluation; priorities are ints
+        long[] queue = new long[nodes];
+        for (int n = 0; n < nodes; n++) {
+            queue[n] = pack(priority(n), n);
+        }
+        Arrays.sort(queue);
+        LongHeap heap = new LongHeap(queue);
+        
+        int next = 0;
+        while (!heap.isEmpty()) {
+            int node = (int) heap.poll();
+            int current = priority(node);
+            if (!heap.isEmpty() && current > (int) (heap.peek() >> 32)) {
+                heap.add(pack(current, node));
+                continue;
+            }
+            rank[node] = next++;
+            contract(node);
+        }
+        
+        return new int[][] {
+            rank,
+            forward.offsets(nodes), forward.targets(), forward.weights(), forward.vias(),
+            backward.offsets(nodes), backward.targets(), backward.weights(), backward.vias()
+        };
+    }
+    
+    // Shortcuts added to the graph during build()
+    int getShortcuts() {
+        return shortcuts;
+    }
+    
+    // Edge difference plus contracted neighbours plus depth, from a simulated contraction
+    private int priority(int node) {
+        int removed = 0;
+        for (int i = 0; i < inCount[node]; i++) {
+            if (!contracted[inSource[node][i]]) {
+                removed++;
+            }
+        }
+        for (int i = 0; i < outCount[node]; i++) {
+            if (!contracted[outTarget[node][i]]) {
+                removed++;
+            }
+        }
+        int added = shortcutsFor(node, false);
+        return 2 * (added - removed) + contractedNeighbours[node] + depth[node];
+    }
+    
+    private void contract(int node) {
+        // Its remaining arcs all lead to nodes contracted later, so they are the upward ones
+        for (int i = 0; i < outCount[node]; i++) {
+            int target = outTarget[node][i];
+            if (!contracted[target]) {
+                forward.add(node, target, outWeight[node][i], outVia[node][i]);
+            }
+        }
+        for (int i = 0; i < inCount[node]; i++) {
+            int source = inSource[node][i];
+            if (!contracted[source]) {
+                backward.add(node, source, inWeight[node][i], inVia[node][i]);
+            }
+        }
+        
+        shortcutsFor(node, true);
+        contracted[node] = true;
+        
+        for (int i = 0; i < outCount[node]; i++) {
+            touchNeighbour(node, outTarget[node][i]);
+        }
+        for (int i = 0; i < inCount[node]; i++) {
+            touchNeighbour(node, inSource[node][i]);
+        }
+    }
+    
+    private void touchNeighbour(int node, int neighbour) {
+        if (!contracted[neighbour]) {
+            contractedNeighbours[neighbour]++;
+            depth[neighbour] = Math.max(depth[neighbour], depth[node] + 1);
+        }
+    }
+    
+    /**
+     * Find the shortcuts contracting a node needs, adding them if asked to
+     * @return the number of shortcuts
+     */
+    private int shortcutsFor(int node, boolean add) {
+        int count = 0;
+        for (int i = 0; i < inCount[node]; i++) {
+            int source = inSource[node][i];
+            if (contracted[source]) {
+                continue;
+            }
+            int inLength = inWeight[node][i];
+            int limit = 0;
+            for (int j = 0; j < outCount[node]; j++) {
+                int target = outTarget[node][j];
+                if (!contracted[target] && target != source) {
+                    limit = Math.max(limit, inLength + outWeight[node][j]);
+                }
+            }
+            if (limit == 0) {
+                continue;
+            }
+            witnessSearch(source, node, limit, add ? WITNESS_SETTLE_LIMIT : SIMULATION_SETTLE_LIMIT);
+            for (int j = 0; j < outCount[node]; j++) {
+                int target = outTarget[node][j];
+                if (contracted[target] || target == source) {
+                    continue;
+                }
+                int viaLength = inLength + outWeight[node][j];
+                boolean witnessed = witnessReached[target] == witnessSearch && witnessDistance[target] <= viaLength;
+                if (!witnessed) {
+                    count++;
+                    if (add) {
+                        addArc(source, target, viaLength, node);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+    
+    // Dijkstra from source over the remaining graph without the given node, up to a distance or a number of settled nodes
+    private void witnessSearch(int source, int avoid, int limit, int settleLimit) {
+        if (++witnessSearch == Integer.MAX_VALUE) {
+            Arrays.fill(witnessReached, 0);
+            Arrays.fill(witnessSettled, 0);
+            witnessSearch = 1;
+        }
+        heapSize = 0;
+        witnessDistance[source] = 0;
+        witnessReached[source] = witnessSearch;
+        push(0, source);
+        int settled = 0;
+        while (heapSize > 0) {
+            int key = heapKeys[0];
+            int node = heapNodes[0];
+            pop();
+            if (witnessSettled[node] == witnessSearch) {
+                continue;
+            }
+            if (key > limit || settled++ >= settleLimit) {
+                return;
+            }
+            witnessSettled[node] = witnessSearch;
+            for (int i = 0; i < outCount[node]; i++) {
+                int target = outTarget[node][i];
+                if (target == avoid || contracted[target] || witnessSettled[target] == witnessSearch) {
+                    continue;
+                }
+                int candidate = key + outWeight[node][i];
+                if (candidate <= limit && (witnessReached[target] != witnessSearch || candidate < witnessDistance[target])) {
+                    witnessDistance[target] = candidate;
+                    witnessReached[target] = witnessSearch;
+                    push(candidate, target);
+                }
+            }
+        }
+    }
+    
+    // Add an arc or shorten an existing one between the same nodes
+    private void addArc(int from, int to, int weight, int via) {
+        for (int i = 0; i < outCount[from]; i++) {
+            if (outTarget[from][i] == to) {
+                if (weight < outWeight[from][i]) {
+                    outWeight[from][i] = weight;
+                    outVia[from][i] = via;
+                    for (int j = 0; j < inCount[to]; j++) {
+                        if (inSource[to][j] == from) {
+                            inWeight[to][j] = weight;
+                            inVia[to][j] = via;
+                        }
+                    }
+                }
+                return;
+            }
+        }
+        if (via >= 0) {
+            shortcuts++;
+        }
+        if (outCount[from] == outTarget[from].length) {
+            int capacity = outCount[from] * 2;
+            outTarget[from] = Arrays.copyOf(outTarget[from], capacity);
+            outWeight[from] = Arrays.copyOf(outWeight[from], capacity);
+            outVia[from] = Arrays.copyOf(outVia[from], capacity);
+        }
+        outTarget[from][outCount[from]] = to;
+        outWeight[from][outCount[from]] = weight;
+        outVia[from][outCount[from]++] = via;
+        
+        if (inCount[to] == inSource[to].length) {
+            int capacity = inCount[to] * 2;
+            inSource[to] = Arrays.copyOf(inSource[to], capacity);
+            inWeight[to] = Arrays.copyOf(inWeight[to], capacity);
+            inVia[to] = Arrays.copyOf(inVia[to], capacity);
+        }
+        inSource[to][inCount[to]] = from;
+        inWeight[to][inCount[to]] = weight;
+        inVia[to][inCount[to]++] = via;
+    }
+    
+    private static long pack(int priority, int node) {
+        return (long) priority << 32 | (node & 0xFFFFFFFFL);
+    }
+    
+    private void push(int key, int node) {
+        if (heapSize == heapKeys.length) {
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int up = (i - 1) >>> 1;
+            if (heapKeys[up] <= key) {
+                break;
+            }
+            heapKeys[i] = heapKeys[up];
+            heapNodes[i] = heapNodes[up];
+            i = up;
+        }
+        heapKeys[i] = key;
+        heapNodes[i] = node;
+    }
+    
+    private void pop() {
+        int last = --heapSize;
+        if (last == 0) {
+            return;
+        }
+        int key = heapKeys[last];
+        int node = heapNodes[last];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= last) {
+                break;
+            }
+            if (child + 1 < last && heapKeys[child + 1] < heapKeys[child]) {
+                child++;
+            }
+            if (heapKeys[child] >= key) {
+                break;
+            }
+            heapKeys[i] = heapKeys[child];
+            heapNodes[i] = heapNodes[child];
+            i = child;
+        }
+        heapKeys[i] = key;
+        heapNodes[i] = node;
+    }
+    
+    /**
+     * Binary min-heap of longs, started from a sorted array
+     */
+    private static final class LongHeap {
+        private long[] values;
+        private int size;
+        
+        LongHeap(long[] sorted) {
+            this.values = sorted;
+            this.size = sorted.length;
+        }
+        
+        boolean isEmpty() {
+            return size == 0;
+        }
+        
+        long peek() {
+            return values[0];
+        }
+        
+        long poll() {
+            long top = values[0];
+            long last = values[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && values[child + 1] < values[child]) {
+                    child++;
+                }
+                if (values[child] >= last) {
+                    break;
+                }
+                values[i] = values[child];
+                i = child;
+            }
+            if (size > 0) {
+                values[i] = last;
+            }
+            return top;
+        }
+        
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(16, size * 2));
+            }
+            int i = size++;
+            while (i > 0) {
+                int up = (i - 1) >>> 1;
+                if (values[up] <= value) {
+                    break;
+                }
+                values[i] = values[up];
+                i = up;
+            }
+            values[i] = value;
+        }
+    }
+    
+    /**
+     * Arcs collected per owning node in any order, packed into CSR form at the end
+     */
+    private static final class ArcList {
+        private int[] owners = new int[1024];
+        private int[] targets = new int[1024];
+        private int[] weights = new int[1024];
+        private int[] vias = new int[1024];
+        private int size;
+        private int[] order;
+        
+        void add(int owner, int target, int weight, int via) {
+            if (size == owners.length) {
+                owners = Arrays.copyOf(owners, size * 2);
+                targets = Arrays.copyOf(targets, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+                vias = Arrays.copyOf(vias, size * 2);
+            }
+            owners[size] = owner;
+            targets[size] = target;
+            weights[size] = weight;
+            vias[size] = via;
+            size++;
+        }
+        
+        // Row offsets per owner; also fixes the order the other arrays are returned in
+        int[] offsets(int nodes) {
+            int[] offsets = new int[nodes + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[owners[i] + 1]++;
+            }
+            for (int n = 0; n < nodes; n++) {
+                offsets[n + 1] += offsets[n];
+            }
+            int[] next = Arrays.copyOf(offsets, nodes);
+            order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[next[owners[i]]++] = i;
+            }
+            return offsets;
+        }
+        
+        int[] targets() {
+            return reorder(targets);
+        }
+        
+        int[] weights() {
+            return reorder(weights);
+        }
+        
+        int[] vias() {
+            return reorder(vias);
+        }
+        
+        private int[] reorder(int[] values) {
+            int[] sorted = new int[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = values[order[i]];
+            }
+            return sorted;
+        }
+    }
+}
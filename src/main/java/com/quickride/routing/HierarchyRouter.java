@@ -0,0 +1,341 @@
+package com.quickride.routing;
+
+import java.util.Arrays;
+
+/**
+ * Shortest paths on a ContractionHierarchy with a bidirectional upward search
+ *
+ * The forward search from the source follows forward arcs and the backward
+ * search from the target follows backward arcs, taking turns; a node settled
+ * by both is a candidate meeting point, and a side stops once its smallest
+ * key is no better than the best meeting found. A node that a higher node
+ * reaches more cheaply than its own search did is stalled: its arcs cannot
+ * be on a shortest path, so they are not relaxed. Search state is reused
+ * across queries as in AStarRouter; lengths are exact integer decimetres and
+ * match AStarRouter's.
+ *
+ * One router per thread; RoadNetwork hands them out
+ */
+public final class HierarchyRouter {
+    private final ContractionHierarchy hierarchy;
+    private final Side forward;
+    private final Side backward;
+    private int query;
+    private int lastSettled;
+    
+    public HierarchyRouter(ContractionHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+        this.forward = new Side(hierarchy.nodeCount());
+        this.backward = new Side(hierarchy.nodeCount());
+    }
+    
+    /**
+     * Length of the shortest road path between two nodes
+     * @return the length in metres, or Double.POSITIVE_INFINITY if the target cannot be reached
+     */
+    public double distanceMetres(int source, int target) {
+        int meeting = search(source, target);
+        return meeting < 0 ? Double.POSITIVE_INFINITY : (forward.distance[meeting] + (long) backward.distance[meeting]) / 10.0;
+    }
+    
+    /**
+     * The nodes of the shortest road path between two nodes, both ends included, with every shortcut unpacked
+     * @return the path, or null if the target cannot be reached
+     */
+    public int[] path(int source, int target) {
+        int meeting = search(source, target);
+        if (meeting < 0) {
+            return null;
+        }
+        IntList path = new IntList();
+        path.add(source);
+        
+        // Nodes from the meeting node back down to the source, unpacked in travel order
+        IntList up = new IntList();
+        for (int node = meeting; node != source; node = forward.parent[node]) {
+            up.add(node);
+        }
+        for (int i = up.size() - 1; i >= 0; i--) {
+            int node = up.get(i);
+            unpack(forward.parent[node], node, hierarchy.forwardVia(forward.parentArc[node]), path);
+        }
+        
+        // Arcs from the meeting node down to the target
+        for (int node = meeting; node != target; node = backward.parent[node]) {
+            int arc = backward.parentArc[node];
+            unpack(node, backward.parent[node], hierarchy.backwardVia(arc), path);
+        }
+        return path.toArray();
+    }
+    
+    // Nodes settled by both sides of the last query, a measure of its work
+    public int getLastSettled() {
+        return lastSettled;
+    }
+    
+    // Run one query; the meeting node of the shortest path, or -1 if there is none
+    private int search(int source, int target) {
+        int nodes = hierarchy.nodeCount();
+        if (source < 0 || source >= nodes || target < 0 || target >= nodes) {
+            throw new IndexOutOfBoundsException("No node " + source + " or " + target + " in " + hierarchy);
+        }
+        if (++query == Integer.MAX_VALUE) {
+            forward.reset();
+            backward.reset();
+            query = 1;
+        }
+        forward.start(source, query);
+        backward.start(target, query);
+        lastSettled = 0;
+        
+        long best = Long.MAX_VALUE;
+        int meeting = -1;
+        boolean forwardTurn = true;
+        while (true) {
+            boolean forwardOpen = forward.size > 0 && forward.keys[0] < best;
+            boolean backwardOpen = backward.size > 0 && backward.keys[0] < best;
+            if (!forwardOpen && !backwardOpen) {
+                break;
+            }
+            boolean useForward = forwardOpen && (forwardTurn || !backwardOpen);
+            forwardTurn = !forwardTurn;
+            Side side = useForward ? forward : backward;
+            Side other = useForward ? backward : forward;
+            
+            int node = side.nodes[0];
+            int key = side.keys[0];
+            side.pop();
+            if (side.settled[node] == query) {
+                continue;
+            }
+            side.settled[node] = query;
+            lastSettled++;
+            
+            if (other.reached[node] == query) {
+                long total = (long) key + other.distance[node];
+                if (total < best) {
+                    best = total;
+                    meeting = node;
+                }
+            }
+            if (useForward ? stalledForward(node, key) : stalledBackward(node, key)) {
+                continue;
+            }
+            if (useForward) {
+                for (int arc = hierarchy.firstForward(node), end = hierarchy.firstForward(node + 1); arc < end; arc++) {
+                    side.relax(hierarchy.forwardTarget(arc), key + hierarchy.forwardWeight(arc), node, arc, query);
+                }
+            } else {
+                for (int arc = hierarchy.firstBackward(node), end = hierarchy.firstBackward(node + 1); arc < end; arc++) {
+                    side.relax(hierarchy.backwardSource(arc), key + hierarchy.backwardWeight(arc), node, arc, query);
+                }
+            }
+        }
+        return meeting;
+    }
+    
+    // True if a higher node the forward search reached has a cheaper way down to this one
+    private boolean stalledForward(int node, int key) {
+        for (int arc = hierarchy.firstBackward(node), end = hierarchy.firstBackward(node + 1); arc < end; arc++) {
+            int higher = hierarchy.backwardSource(arc);
+            if (forward.reached[higher] == query && forward.distance[higher] + hierarchy.backwardWeight(arc) < key) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // True if a higher node the backward search reached is a cheaper way on from this one
+    private boolean stalledBackward(int node, int key) {
+        for (int arc = hierarchy.firstForward(node), end = hierarchy.firstForward(node + 1); arc < end; arc++) {
+            int higher = hierarchy.forwardTarget(arc);
+            if (backward.reached[higher] == query && backward.distance[higher] + hierarchy.forwardWeight(arc) < key) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Append the nodes after from on the arc from -> to, replacing shortcuts by the two arcs they stand for
+     * Both halves of a shortcut are stored at its middle node, which ranks below both ends
+     */
+    private void unpack(int from, int to, int via, IntList path) {
+        IntList stack = new IntList();
+        stack.add(from);
+        stack.add(to);
+        stack.add(via);
+        while (stack.size() > 0) {
+            int middle = stack.pop();
+            int end = stack.pop();
+            int start = stack.pop();
+            if (middle < 0) {
+                path.add(end);
+                continue;
+            }
+            // Push the second half first so the first half comes off the stack first
+            stack.add(middle);
+            stack.add(end);
+            stack.add(forwardViaOf(middle, end));
+            stack.add(start);
+            stack.add(middle);
+            stack.add(backwardViaOf(start, middle));
+        }
+    }
+    
+    // Middle node of the cheapest arc from a node up to a higher one
+    private int forwardViaOf(int node, int higher) {
+        int best = -1;
+        int bestWeight = Integer.MAX_VALUE;
+        for (int arc = hierarchy.firstForward(node), end = hierarchy.firstForward(node + 1); arc < end; arc++) {
+            if (hierarchy.forwardTarget(arc) == higher && hierarchy.forwardWeight(arc) < bestWeight) {
+                bestWeight = hierarchy.forwardWeight(arc);
+                best = arc;
+            }
+        }
+        if (best < 0) {
+            throw new IllegalStateException("Hierarchy has no arc " + node + " -> " + higher);
+        }
+        return hierarchy.forwardVia(best);
+    }
+    
+    // Middle node of the cheapest arc from a higher node down to a node
+    private int backwardViaOf(int higher, int node) {
+        int best = -1;
+        int bestWeight = Integer.MAX_VALUE;
+        for (int arc = hierarchy.firstBackward(node), end = hierarchy.firstBackward(node + 1); arc < end; arc++) {
+            if (hierarchy.backwardSource(arc) == higher && hierarchy.backwardWeight(arc) < bestWeight) {
+                bestWeight = hierarchy.backwardWeight(arc);
+                best = arc;
+            }
+        }
+        if (best < 0) {
+            throw new IllegalStateException("Hierarchy has no arc " + higher + " -> " + node);
+        }
+        return hierarchy.backwardVia(best);
+    }
+    
+    /**
+     * State of one search direction: distances, parents and a binary heap with duplicate entries
+     */
+    private static final class Side {
+        final int[] distance;
+        final int[] parent;
+        final int[] parentArc;
+        final int[] reached;
+        final int[] settled;
+        int[] keys = new int[64];
+        int[] nodes = new int[64];
+        int size;
+        
+        Side(int nodeCount) {
+            distance = new int[nodeCount];
+            parent = new int[nodeCount];
+            parentArc = new int[nodeCount];
+            reached = new int[nodeCount];
+            settled = new int[nodeCount];
+        }
+        
+        void reset() {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+        }
+        
+        void start(int node, int query) {
+            size = 0;
+            distance[node] = 0;
+            parent[node] = node;
+            parentArc[node] = -1;
+            reached[node] = query;
+            push(0, node);
+        }
+        
+        void relax(int node, int candidate, int from, int arc, int query) {
+            if (settled[node] == query || (reached[node] == query && candidate >= distance[node])) {
+                return;
+            }
+            distance[node] = candidate;
+            parent[node] = from;
+            parentArc[node] = arc;
+            reached[node] = query;
+            push(candidate, node);
+        }
+        
+        void push(int key, int node) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int up = (i - 1) >>> 1;
+                if (keys[up] <= key) {
+                    break;
+                }
+                keys[i] = keys[up];
+                nodes[i] = nodes[up];
+                i = up;
+            }
+            keys[i] = key;
+            nodes[i] = node;
+        }
+        
+        void pop() {
+            int last = --size;
+            if (last == 0) {
+                return;
+            }
+            int key = keys[last];
+            int node = nodes[last];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= last) {
+                    break;
+                }
+                if (child + 1 < last && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (keys[child] >= key) {
+                    break;
+                }
+                keys[i] = keys[child];
+                nodes[i] = nodes[child];
+                i = child;
+            }
+            keys[i] = key;
+            nodes[i] = node;
+        }
+    }
+    
+    /**
+     * Growable int array used as a list and a stack
+     */
+    private static final class IntList {
+        private int[] values = new int[32];
+        private int size;
+        
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+        
+        int get(int index) {
+            return values[index];
+        }
+        
+        int pop() {
+            return values[--size];
+        }
+        
+        int size() {
+            return size;
+        }
+        
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
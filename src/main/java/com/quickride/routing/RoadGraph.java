@@ -0,0 +1,329 @@
+package com.quickride.routing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Directed road network in compressed sparse row (CSR) form
+ *
+ * Node n has coordinates latitude(n), longitude(n), and its outgoing arcs are
+ * firstArc(n) up to firstArc(n + 1) - 1, each with a target node and a length
+ * in metres. A two-way road is two arcs. Everything lives in a handful of
+ * primitive arrays, so a search touches no objects.
+ *
+ * On disk the graph is one file: a header (magic, version, node and arc
+ * counts) followed by the coordinates in 1e-7 degree fixed point, the row
+ * offsets, the arc targets and the arc lengths in decimetres, all big-endian
+ * ints. The file is mapped and copied into the arrays in bulk on load.
+ *
+ * A coarse grid over the nodes, built on load, finds the node nearest to a
+ * point. Immutable and safe to share between threads
+ */
+public final class RoadGraph {
+    private static final int MAGIC = 0x51525247;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    
+    // Coordinates are stored as integer multiples of this many degrees
+    private static final double COORDINATE_SCALE = 1e-7;
+    
+    // Arc lengths are stored in decimetres
+    private static final double LENGTH_SCALE = 0.1;
+    
+    // Size of the nearest-node grid cells in degrees, about 1 km
+    private static final double CELL_DEGREES = 0.01;
+    
+    // Rings of cells searched for the nearest node before scanning every node instead
+    private static final int MAX_NEAREST_RINGS = 32;
+    
+    static final double EARTH_RADIUS_METRES = 6_371_000;
+    
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final int[] firstArc;
+    private final int[] arcTarget;
+    private final int[] arcLength;
+    
+    // Nearest-node grid: sorted cell keys, where each cell's nodes start in cellNodes, and the nodes by cell
+    private final long[] cellKeys;
+    private final int[] cellStart;
+    private final int[] cellNodes;
+    
+    // Cosine of the latitude furthest from the equator; scaling longitude differences by it never overestimates
+    private final double minCosLatitude;
+    
+    /**
+     * Wrap arrays in CSR form; RoadGraphBuilder is the usual way to get them
+     * @param latitudes node latitudes in degrees
+     * @param longitudes node longitudes in degrees
+     * @param firstArc nodes + 1 row offsets into the arc arrays, starting at 0
+     * @param arcTarget target node of each arc
+     * @param arcLength length of each arc in decimetres
+     */
+    RoadGraph(double[] latitudes, double[] longitudes, int[] firstArc, int[] arcTarget, int[] arcLength) {
+        if (latitudes.length != longitudes.length || firstArc.length != latitudes.length + 1
+                || firstArc[0] != 0 || firstArc[latitudes.length] != arcTarget.length
+                || arcTarget.length != arcLength.length) {
+            throw new IllegalArgumentException("Inconsistent road graph arrays");
+        }
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.firstArc = firstArc;
+        this.arcTarget = arcTarget;
+        this.arcLength = arcLength;
+        
+        double maxAbsLatitude = 0;
+        for (double latitude : latitudes) {
+            maxAbsLatitude = Math.max(maxAbsLatitude, Math.abs(latitude));
+        }
+        this.minCosLatitude = Math.cos(Math.toRadians(maxAbsLatitude));
+        
+        // Sort the nodes by grid cell so each cell's nodes are one run of cellNodes
+        int nodes = latitudes.length;
+        long[] keyed = new long[nodes];
+        for (int n = 0; n < nodes; n++) {
+            // Node ids fit in the low 32 bits; the cell key above them orders the runs
+            keyed[n] = cellKey(latitudes[n], longitudes[n]) << 32 | n;
+        }
+        Arrays.sort(keyed);
+        this.cellNodes = new int[nodes];
+        long[] keys = new long[nodes];
+        int[] starts = new int[nodes + 1];
+        int cells = 0;
+        for (int i = 0; i < nodes; i++) {
+            long key = keyed[i] >>> 32;
+            cellNodes[i] = (int) keyed[i];
+            if (cells == 0 || keys[cells - 1] != key) {
+                keys[cells] = key;
+                starts[cells] = i;
+                cells++;
+            }
+        }
+        starts[cells] = nodes;
+        this.cellKeys = Arrays.copyOf(keys, cells);
+        this.cellStart = Arrays.copyOf(starts, cells + 1);
+    }
+    
+    /**
+     * Load a graph written by write()
+     * @throws IOException if the file cannot be read or is not a road graph
+     */
+    public static RoadGraph load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a QuickRide road graph: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int nodes = buffer.getInt(8);
+            int arcs = buffer.getInt(12);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || nodes < 0 || arcs < 0
+                    || size != fileSize(nodes, arcs)) {
+                throw new IOException("Not a QuickRide road graph: " + file);
+            }
+            
+            buffer.position(HEADER_SIZE);
+            int[] fixedLatitudes = new int[nodes];
+            int[] fixedLongitudes = new int[nodes];
+            int[] firstArc = new int[nodes + 1];
+            int[] arcTarget = new int[arcs];
+            int[] arcLength = new int[arcs];
+            buffer.asIntBuffer().get(fixedLatitudes).get(fixedLongitudes).get(firstArc).get(arcTarget).get(arcLength);
+            
+            double[] latitudes = new double[nodes];
+            double[] longitudes = new double[nodes];
+            for (int n = 0; n < nodes; n++) {
+                latitudes[n] = fromFixed(fixedLatitudes[n]);
+                longitudes[n] = fromFixed(fixedLongitudes[n]);
+            }
+            try {
+                return new RoadGraph(latitudes, longitudes, firstArc, arcTarget, arcLength);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt road graph: " + file, e);
+            }
+        }
+    }
+    
+    /**
+     * Write the graph to a file, replacing it atomically
+     */
+    public void write(Path file) throws IOException {
+        int nodes = nodeCount();
+        int arcs = arcCount();
+        ByteBuffer buffer = ByteBuffer.allocate((int) fileSize(nodes, arcs));
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(nodes).putInt(arcs);
+        for (int n = 0; n < nodes; n++) {
+            buffer.putInt(toFixed(latitudes[n]));
+        }
+        for (int n = 0; n < nodes; n++) {
+            buffer.putInt(toFixed(longitudes[n]));
+        }
+        buffer.asIntBuffer().put(firstArc).put(arcTarget).put(arcLength);
+        
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, buffer.array());
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+    
+    /**
+     * Find the node nearest to a point by straight-line distance
+     * Searches rings of grid cells outward until no node further out can be closer;
+     * points far from every node fall back to a scan of all nodes
+     * @return the node, or -1 if the graph has no nodes
+     */
+    public int nearestNode(double latitude, double longitude) {
+        int row = cellIndex(latitude);
+        int column = cellIndex(longitude);
+        int best = -1;
+        double bestSquared = Double.MAX_VALUE;
+        // Every node in ring r is at least r - 1 cells away along one axis
+        double cellDistance = CELL_DEGREES * minCosLatitude;
+        for (int ring = 0; ring <= MAX_NEAREST_RINGS; ring++) {
+            double reach = Math.max(0, ring - 1) * cellDistance;
+            if (best >= 0 && reach * reach > bestSquared) {
+                return best;
+            }
+            for (int r = row - ring; r <= row + ring; r++) {
+                // Inner rows of the ring only have its two edge columns
+                int step = r == row - ring || r == row + ring ? 1 : Math.max(1, 2 * ring);
+                for (int c = column - ring; c <= column + ring; c += step) {
+                    int cell = Arrays.binarySearch(cellKeys, packCell(r, c));
+                    if (cell < 0) {
+                        continue;
+                    }
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        int node = cellNodes[i];
+                        double squared = squaredDegrees(latitude, longitude, node);
+                        if (squared < bestSquared) {
+                            bestSquared = squared;
+                            best = node;
+                        }
+                    }
+                }
+            }
+        }
+        
+        // Too far out for rings to pay off
+        for (int node = 0; node < nodeCount(); node++) {
+            double squared = squaredDegrees(latitude, longitude, node);
+            if (squared < bestSquared) {
+                bestSquared = squared;
+                best = node;
+            }
+        }
+        return best;
+    }
+    
+    // Squared equirectangular distance in degrees of latitude, for ranking only
+    private double squaredDegrees(double latitude, double longitude, int node) {
+        double dLat = latitudes[node] - latitude;
+        double dLon = (longitudes[node] - longitude) * minCosLatitude;
+        return dLat * dLat + dLon * dLon;
+    }
+    
+    /**
+     * Straight-line distance in metres from a node to a point that never exceeds the great-circle distance
+     * Used as the A* heuristic, so it has to be a lower bound on any road between them
+     */
+    double lowerBoundMetres(int node, double latitude, double longitude) {
+        double dLat = Math.toRadians(latitudes[node] - latitude);
+        double dLon = Math.toRadians(longitudes[node] - longitude) * minCosLatitude;
+        // The flat-earth distance with the smallest cosine undershoots the sphere; the margin covers what remains
+        return 0.995 * EARTH_RADIUS_METRES * Math.sqrt(dLat * dLat + dLon * dLon);
+    }
+    
+    public int nodeCount() {
+        return latitudes.length;
+    }
+    
+    // Number of directed arcs; a two-way road counts twice
+    public int arcCount() {
+        return arcTarget.length;
+    }
+    
+    public double latitude(int node) {
+        return latitudes[node];
+    }
+    
+    public double longitude(int node) {
+        return longitudes[node];
+    }
+    
+    public int firstArc(int node) {
+        return firstArc[node];
+    }
+    
+    public int arcTarget(int arc) {
+        return arcTarget[arc];
+    }
+    
+    // Arc length in metres
+    public double arcLength(int arc) {
+        return arcLength[arc] * LENGTH_SCALE;
+    }
+    
+    // Arc length in decimetres, as stored
+    int arcLengthDecimetres(int arc) {
+        return arcLength[arc];
+    }
+    
+    /**
+     * Hash of the nodes and arcs, so files derived from a graph can tell whether they still match it
+     */
+    public long fingerprint() {
+        long hash = (long) nodeCount() << 32 | arcCount();
+        hash = hash * 31 + Arrays.hashCode(latitudes);
+        hash = hash * 31 + Arrays.hashCode(longitudes);
+        hash = hash * 31 + Arrays.hashCode(firstArc);
+        hash = hash * 31 + Arrays.hashCode(arcTarget);
+        return hash * 31 + Arrays.hashCode(arcLength);
+    }
+    
+    @Override
+    public String toString() {
+        return "RoadGraph[" + nodeCount() + " nodes, " + arcCount() + " arcs, " + fileSize(nodeCount(), arcCount()) / 1024 + " KB]";
+    }
+    
+    // File size of a graph with the given counts
+    static long fileSize(int nodes, int arcs) {
+        return HEADER_SIZE + 4L * (3L * nodes + 1 + 2L * arcs);
+    }
+    
+    static int toFixed(double degrees) {
+        return (int) Math.round(degrees / COORDINATE_SCALE);
+    }
+    
+    static double fromFixed(int fixed) {
+        return fixed * COORDINATE_SCALE;
+    }
+    
+    static int toDecimetres(double metres) {
+        return (int) Math.ceil(metres / LENGTH_SCALE);
+    }
+    
+    private static int cellIndex(double degrees) {
+        return (int) Math.floor(degrees / CELL_DEGREES);
+    }
+    
+    private static long cellKey(double latitude, double longitude) {
+        return packCell(cellIndex(latitude), cellIndex(longitude));
+    }
+    
+    // Row above column, both offset to stay non-negative, so keys sort by row then column and fit in 31 bits
+    private static long packCell(int row, int column) {
+        return (long) (row + (1 << 14)) << 16 | (column + (1 << 15));
+    }
+}
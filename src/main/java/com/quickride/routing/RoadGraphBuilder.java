@@ -0,0 +1,110 @@
+package com.quickride.routing;
+
+import java.util.Arrays;
+
+import com.quickride.model.GeoDistance;
+
+/**
+ * Collects nodes and roads and packs them into a RoadGraph
+ * Coordinates are rounded to the file's fixed point as they are added, and
+ * arc lengths are great-circle distances between the rounded coordinates,
+ * rounded up, so a loaded graph is the same graph and no arc is shorter than
+ * the straight line between its ends. Not thread safe
+ */
+public final class RoadGraphBuilder {
+    private double[] latitudes = new double[1024];
+    private double[] longitudes = new double[1024];
+    private int nodes;
+    
+    // Arcs as parallel arrays in the order they were added
+    private int[] arcSource = new int[4096];
+    private int[] arcTarget = new int[4096];
+    private int[] arcLength = new int[4096];
+    private int arcs;
+    
+    public RoadGraphBuilder() {
+        // Starts empty; the arrays grow as nodes and roads are added
+    }
+    
+    /**
+     * Add a node
+     * @return the node's id, counting up from 0
+     */
+    public int addNode(double latitude, double longitude) {
+        if (nodes == latitudes.length) {
+            latitudes = Arrays.copyOf(latitudes, nodes * 2);
+            longitudes = Arrays.copyOf(longitudes, nodes * 2);
+        }
+        latitudes[nodes] = RoadGraph.fromFixed(RoadGraph.toFixed(latitude));
+        longitudes[nodes] = RoadGraph.fromFixed(RoadGraph.toFixed(longitude));
+        return nodes++;
+    }
+    
+    // Add a road that can be driven both ways
+    public void addRoad(int from, int to) {
+        addArc(from, to);
+        addArc(to, from);
+    }
+    
+    // Add a road that can only be driven from one end to the other
+    public void addOneWay(int from, int to) {
+        addArc(from, to);
+    }
+    
+    private void addArc(int from, int to) {
+        if (from < 0 || from >= nodes || to < 0 || to >= nodes) {
+            throw new IndexOutOfBoundsException("No node " + from + " or " + to + " among " + nodes);
+        }
+        if (from == to) {
+            return;
+        }
+        if (arcs == arcSource.length) {
+            arcSource = Arrays.copyOf(arcSource, arcs * 2);
+            arcTarget = Arrays.copyOf(arcTarget, arcs * 2);
+            arcLength = Arrays.copyOf(arcLength, arcs * 2);
+        }
+        arcSource[arcs] = from;
+        arcTarget[arcs] = to;
+        arcLength[arcs] = RoadGraph.toDecimetres(distanceMetres(from, to));
+        arcs++;
+    }
+    
+    // Great-circle distance between two added nodes in metres
+    public double distanceMetres(int from, int to) {
+        return GeoDistance.haversineKm(latitudes[from], longitudes[from], latitudes[to], longitudes[to]) * 1000;
+    }
+    
+    public int nodeCount() {
+        return nodes;
+    }
+    
+    public double latitude(int node) {
+        return latitudes[node];
+    }
+    
+    public double longitude(int node) {
+        return longitudes[node];
+    }
+    
+    /**
+     * Pack the nodes and arcs into CSR form with a counting sort by source node - O(nodes + arcs)
+     */
+    public RoadGraph build() {
+        int[] firstArc = new int[nodes + 1];
+        for (int a = 0; a < arcs; a++) {
+            firstArc[arcSource[a] + 1]++;
+        }
+        for (int n = 0; n < nodes; n++) {
+            firstArc[n + 1] += firstArc[n];
+        }
+        int[] next = Arrays.copyOf(firstArc, nodes);
+        int[] targets = new int[arcs];
+        int[] lengths = new int[arcs];
+        for (int a = 0; a < arcs; a++) {
+            int slot = next[arcSource[a]]++;
+            targets[slot] = arcTarget[a];
+            lengths[slot] = arcLength[a];
+        }
+        return new RoadGraph(Arrays.copyOf(latitudes, nodes), Arrays.copyOf(longitudes, nodes), firstArc, targets, lengths);
+    }
+}
@@ -0,0 +1,203 @@
+package com.quickride.routing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.quickride.model.Location;
+import com.quickride.simulation.RouteTable;
+
+/**
+ * Road distances and routes between arbitrary points, on top of a RoadGraph
+ * A point is snapped to its nearest node and the straight line to that node
+ * is added to the road length. Queries use the contraction hierarchy when
+ * there is one and A* otherwise; each thread gets its own router, so the
+ * network can be queried from any thread
+ */
+public final class RoadNetwork {
+    // Seed of the generated network, fixed so every installation routes the same
+    private static final long GENERATED_SEED = 42;
+    
+    // Waypoints closer than this to the line through their neighbours are dropped from animation routes
+    private static final double ROUTE_TOLERANCE_METRES = 75;
+    
+    private static final Logger LOGGER = Logger.getLogger(RoadNetwork.class.getName());
+    
+    private final RoadGraph graph;
+    private final ContractionHierarchy hierarchy;
+    private final ThreadLocal<AStarRouter> routers;
+    private final ThreadLocal<HierarchyRouter> hierarchyRouters;
+    
+    public RoadNetwork(RoadGraph graph) {
+        this(graph, null);
+    }
+    
+    /**
+     * A network that answers queries with a contraction hierarchy of the graph, or with A* if it is null
+     */
+    public RoadNetwork(RoadGraph graph, ContractionHierarchy hierarchy) {
+        this.graph = graph;
+        this.hierarchy = hierarchy;
+        this.routers = ThreadLocal.withInitial(() -> new AStarRouter(graph));
+        this.hierarchyRouters = hierarchy == null ? null : ThreadLocal.withInitial(() -> new HierarchyRouter(hierarchy));
+    }
+    
+    /**
+     * Load the road graph from a file, generating the synthetic Swiss network there first if the file does not exist
+     * The contraction hierarchy next to it is mapped as well if it was built from this graph;
+     * without one queries fall back to A*. Building it is the offline step, see ContractionHierarchy
+     * @throws IOException if the file cannot be read or written
+     */
+    public static RoadNetwork openOrGenerate(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            SwissRoadNetwork.generate(GENERATED_SEED).write(file);
+        }
+        RoadGraph graph = RoadGraph.load(file);
+        Path hierarchyFile = ContractionHierarchy.fileFor(file);
+        if (!Files.exists(hierarchyFile)) {
+            LOGGER.info(() -> "No contraction hierarchy at " + hierarchyFile + ", routing with A*");
+            return new RoadNetwork(graph);
+        }
+        try {
+            return new RoadNetwork(graph, ContractionHierarchy.open(hierarchyFile, graph));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not open contraction hierarchy " + hierarchyFile + ", routing with A*", e);
+            return new RoadNetwork(graph);
+        }
+    }
+    
+    /**
+     * Driving distance between two points
+     * @return the distance in km, or the straight-line distance if no road connects them
+     */
+    public double distanceKm(Location from, Location to) {
+        int source = graph.nearestNode(from.getLatitude(), from.getLongitude());
+        int target = graph.nearestNode(to.getLatitude(), to.getLongitude());
+        double road = hierarchyRouters != null ? hierarchyRouters.get().distanceMetres(source, target)
+                : routers.get().distanceMetres(source, target);
+        if (Double.isInfinite(road)) {
+            return from.distanceTo(to);
+        }
+        return road / 1000 + from.distanceTo(nodeLocation(source)) + to.distanceTo(nodeLocation(target));
+    }
+    
+    /**
+     * Waypoints of the shortest road path between two points, both points included
+     * Waypoints that barely change the line are dropped, within the given tolerance
+     * @return [lat, lon] waypoints, or null if no road connects the points
+     */
+    public double[][] route(double fromLat, double fromLon, double toLat, double toLon, double toleranceMetres) {
+        int source = graph.nearestNode(fromLat, fromLon);
+        int target = graph.nearestNode(toLat, toLon);
+        int[] path = hierarchyRouters != null ? hierarchyRouters.get().path(source, target)
+                : routers.get().path(source, target);
+        if (path == null) {
+            return null;
+        }
+        double[][] points = new double[path.length + 2][];
+        points[0] = new double[] {fromLat, fromLon};
+        for (int i = 0; i < path.length; i++) {
+            points[i + 1] = new double[] {graph.latitude(path[i]), graph.longitude(path[i])};
+        }
+        points[path.length + 1] = new double[] {toLat, toLon};
+        return simplify(points, toleranceMetres);
+    }
+    
+    /**
+     * Routes between the same ends as a template's routes, following the roads
+     * A route with no road between its ends keeps the template's polyline
+     */
+    public RouteTable followRoads(RouteTable template) {
+        List<double[][]> routes = new ArrayList<>(template.size());
+        List<String> startNames = new ArrayList<>(template.size());
+        for (int r = 0; r < template.size(); r++) {
+            int first = template.firstWaypoint(r);
+            int last = first + template.segmentCount(r);
+            double[][] route = route(template.latitude(first), template.longitude(first),
+                    template.latitude(last), template.longitude(last), ROUTE_TOLERANCE_METRES);
+            if (route == null) {
+                route = new double[last - first + 1][];
+                for (int w = first; w <= last; w++) {
+                    route[w - first] = new double[] {template.latitude(w), template.longitude(w)};
+                }
+            }
+            routes.add(route);
+            startNames.add(template.startName(r));
+        }
+        return new RouteTable(routes, startNames);
+    }
+    
+    public RoadGraph getGraph() {
+        return graph;
+    }
+    
+    // The contraction hierarchy queries use, or null if they use A*
+    public ContractionHierarchy getHierarchy() {
+        return hierarchy;
+    }
+    
+    private Location nodeLocation(int node) {
+        return new Location(graph.latitude(node), graph.longitude(node), "");
+    }
+    
+    /**
+     * Douglas-Peucker line simplification with an explicit stack - O(n log n) typical
+     * Distances are measured on a local flat projection, which is plenty at this tolerance
+     */
+    private static double[][] simplify(double[][] points, double toleranceMetres) {
+        int n = points.length;
+        if (n <= 2) {
+            return points;
+        }
+        double metresPerDegree = Math.toRadians(RoadGraph.EARTH_RADIUS_METRES);
+        double lonScale = Math.cos(Math.toRadians(points[0][0]));
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        int[] stack = new int[2 * n];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+            double ax = points[start][1] * lonScale;
+            double ay = points[start][0];
+            double dx = points[end][1] * lonScale - ax;
+            double dy = points[end][0] - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            int farthest = -1;
+            double farthestDistance = 0;
+            for (int i = start + 1; i < end; i++) {
+                double px = points[i][1] * lonScale - ax;
+                double py = points[i][0] - ay;
+                double t = lengthSquared > 0 ? Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared)) : 0;
+                double ex = px - t * dx;
+                double ey = py - t * dy;
+                double distance = Math.sqrt(ex * ex + ey * ey) * metresPerDegree;
+                if (distance > farthestDistance) {
+                    farthestDistance = distance;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0 && farthestDistance > toleranceMetres) {
+                keep[farthest] = true;
+                stack[top++] = start;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = end;
+            }
+        }
+        List<double[]> kept = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                kept.add(points[i]);
+            }
+        }
+        return kept.toArray(new double[0][]);
+    }
+}
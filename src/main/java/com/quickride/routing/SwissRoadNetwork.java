@@ -0,0 +1,187 @@
+package com.quickride.routing;
+
+import java.util.SplittableRandom;
+
+import com.quickride.simulation.RouteTable;
+
+/**
+ * Generates a synthetic road graph of Switzerland, for when no converted map extract is at hand
+ *
+ * Three layers, all deterministic for a seed:
+ * - country roads: a jittered lattice of about 2 km over the whole country,
+ *   with some diagonal links so paths are not all staircases
+ * - city streets: a grid of about 130 m around each city centre, where every
+ *   other east-west street is one way, alternating in direction
+ * - motorways: the intercity polylines the animator has always used, with a
+ *   node about every kilometre and ramps to the country roads
+ * The layers are linked so every node can reach every other one.
+ */
+public final class SwissRoadNetwork {
+    // Country lattice bounds and spacing in degrees
+    private static final double SOUTH = 45.82;
+    private static final double NORTH = 47.81;
+    private static final double WEST = 5.96;
+    private static final double EAST = 10.49;
+    private static final double LATTICE_LAT_STEP = 0.02;
+    private static final double LATTICE_LON_STEP = 0.03;
+    private static final double DIAGONAL_ODDS = 0.3;
+    
+    // City street grids: streets per side and spacing in degrees
+    private static final int CITY_STREETS = 41;
+    private static final double STREET_LAT_STEP = 0.0012;
+    private static final double STREET_LON_STEP = 0.0018;
+    
+    // Every this many border streets of a city connect to the country roads
+    private static final int CITY_EXIT_SPACING = 5;
+    
+    // Spacing of motorway nodes in metres, and every this many nodes a ramp to the country roads
+    private static final double MOTORWAY_NODE_SPACING = 1000;
+    private static final int RAMP_SPACING = 5;
+    
+    // City centres the street grids are laid around
+    private static final double[][] CITIES = {
+        {47.3769, 8.5417},   // Zurich
+        {46.2044, 6.1432},   // Geneva
+        {46.9480, 7.4474},   // Bern
+        {47.5596, 7.5886},   // Basel
+        {46.5197, 6.6323},   // Lausanne
+        {47.0502, 8.3093},   // Lucerne
+        {46.2018, 6.8785},   // Montreux
+        {46.3834, 6.2347},   // Nyon
+        {47.4245, 9.3767},   // St. Gallen
+        {46.6864, 7.8632}    // Interlaken
+    };
+    
+    private final RoadGraphBuilder builder = new RoadGraphBuilder();
+    private final SplittableRandom random;
+    private int latticeRows;
+    private int latticeColumns;
+    
+    private SwissRoadNetwork(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+    
+    /**
+     * Generate the network
+     * @param seed seed of the jitter and the choice of diagonals and one-way directions
+     */
+    public static RoadGraph generate(long seed) {
+        SwissRoadNetwork network = new SwissRoadNetwork(seed);
+        network.addCountryRoads();
+        for (double[] city : CITIES) {
+            network.addCityStreets(city[0], city[1]);
+        }
+        network.addMotorways(RouteTable.swissIntercity());
+        return network.builder.build();
+    }
+    
+    // Lattice node ids are row * columns + column, so they come first and need no lookup table
+    private void addCountryRoads() {
+        latticeRows = (int) Math.round((NORTH - SOUTH) / LATTICE_LAT_STEP) + 1;
+        latticeColumns = (int) Math.round((EAST - WEST) / LATTICE_LON_STEP) + 1;
+        for (int row = 0; row < latticeRows; row++) {
+            for (int column = 0; column < latticeColumns; column++) {
+                builder.addNode(SOUTH + (row + jitter(0.3)) * LATTICE_LAT_STEP,
+                        WEST + (column + jitter(0.3)) * LATTICE_LON_STEP);
+            }
+        }
+        for (int row = 0; row < latticeRows; row++) {
+            for (int column = 0; column < latticeColumns; column++) {
+                int node = row * latticeColumns + column;
+                if (column + 1 < latticeColumns) {
+                    builder.addRoad(node, node + 1);
+                }
+                if (row + 1 < latticeRows) {
+                    builder.addRoad(node, node + latticeColumns);
+                    if (column + 1 < latticeColumns && random.nextDouble() < DIAGONAL_ODDS) {
+                        // One of the two diagonals of the square, at random
+                        if (random.nextBoolean()) {
+                            builder.addRoad(node, node + latticeColumns + 1);
+                        } else {
+                            builder.addRoad(node + 1, node + latticeColumns);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    // Lay a street grid around a city centre and link its border to the country roads
+    private void addCityStreets(double latitude, double longitude) {
+        int half = CITY_STREETS / 2;
+        int first = builder.nodeCount();
+        for (int row = 0; row < CITY_STREETS; row++) {
+            for (int column = 0; column < CITY_STREETS; column++) {
+                builder.addNode(latitude + (row - half + jitter(0.15)) * STREET_LAT_STEP,
+                        longitude + (column - half + jitter(0.15)) * STREET_LON_STEP);
+            }
+        }
+        for (int row = 0; row < CITY_STREETS; row++) {
+            // Odd streets are one way, alternating east and west; the north-south streets are all two way
+            boolean oneWay = row % 2 == 1;
+            boolean eastbound = row % 4 == 1;
+            for (int column = 0; column < CITY_STREETS; column++) {
+                int node = first + row * CITY_STREETS + column;
+                if (column + 1 < CITY_STREETS) {
+                    if (!oneWay) {
+                        builder.addRoad(node, node + 1);
+                    } else if (eastbound) {
+                        builder.addOneWay(node, node + 1);
+                    } else {
+                        builder.addOneWay(node + 1, node);
+                    }
+                }
+                if (row + 1 < CITY_STREETS) {
+                    builder.addRoad(node, node + CITY_STREETS);
+                }
+                boolean border = row == 0 || column == 0 || row == CITY_STREETS - 1 || column == CITY_STREETS - 1;
+                if (border && (row + column) % CITY_EXIT_SPACING == 0) {
+                    builder.addRoad(node, nearestLatticeNode(builder.latitude(node), builder.longitude(node)));
+                }
+            }
+        }
+    }
+    
+    // Lay each polyline as a motorway, starting and ending at the streets nearest its ends
+    private void addMotorways(RouteTable routes) {
+        RoadGraph streets = builder.build();
+        for (int route = 0; route < routes.size(); route++) {
+            int firstWaypoint = routes.firstWaypoint(route);
+            int previous = streets.nearestNode(routes.latitude(firstWaypoint), routes.longitude(firstWaypoint));
+            int placed = 0;
+            for (int segment = 0; segment < routes.segmentCount(route); segment++) {
+                int waypoint = firstWaypoint + segment;
+                double startLat = routes.latitude(waypoint);
+                double startLon = routes.longitude(waypoint);
+                double endLat = routes.latitude(waypoint + 1);
+                double endLon = routes.longitude(waypoint + 1);
+                int pieces = Math.max(1, (int) Math.round(routes.segmentLength(waypoint) * 1000 / MOTORWAY_NODE_SPACING));
+                for (int piece = 1; piece <= pieces; piece++) {
+                    double t = (double) piece / pieces;
+                    int node = builder.addNode(startLat + (endLat - startLat) * t, startLon + (endLon - startLon) * t);
+                    builder.addRoad(previous, node);
+                    if (++placed % RAMP_SPACING == 0) {
+                        builder.addRoad(node, nearestLatticeNode(builder.latitude(node), builder.longitude(node)));
+                    }
+                    previous = node;
+                }
+            }
+            int lastWaypoint = firstWaypoint + routes.segmentCount(route);
+            builder.addRoad(previous, streets.nearestNode(routes.latitude(lastWaypoint), routes.longitude(lastWaypoint)));
+        }
+    }
+    
+    // The lattice node whose unjittered position is nearest, which is close enough for a link
+    private int nearestLatticeNode(double latitude, double longitude) {
+        int row = (int) Math.round((latitude - SOUTH) / LATTICE_LAT_STEP);
+        int column = (int) Math.round((longitude - WEST) / LATTICE_LON_STEP);
+        row = Math.max(0, Math.min(latticeRows - 1, row));
+        column = Math.max(0, Math.min(latticeColumns - 1, column));
+        return row * latticeColumns + column;
+    }
+    
+    // Random offset of up to the given fraction of a step either way
+    private double jitter(double fraction) {
+        return (random.nextDouble() * 2 - 1) * fraction;
+    }
+}
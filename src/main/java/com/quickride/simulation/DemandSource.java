@@ -0,0 +1,15 @@
+package com.quickride.simulation;
+
+/**
+ * Generator of ride requests for a simulation
+ * Requests come in order of their request time, and a source seeded the same
+ * way produces the same requests, so a simulated day can be repeated
+ */
+public interface DemandSource {
+    
+    /**
+     * The next request, not earlier than the one before
+     * @return the request, or null once the source has no more
+     */
+    TripRequest next();
+}
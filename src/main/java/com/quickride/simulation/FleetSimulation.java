@@ -0,0 +1,330 @@
+package com.quickride.simulation;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Movement of a taxi fleet along a RouteTable, with all vehicle state in parallel primitive arrays
+ *
+ * Vehicle i is entry i of every array: its route, the step it is at, the
+ * steps its route takes in total, the segment it is on and its position.
+ * When a vehicle starts a route its steps are split among the route's
+ * segments in proportion to their length and stored as running totals, so a
+ * tick only compares the step against the end of the current segment instead
+ * of summing the segments again. A tick reads and writes the arrays in order
+ * and allocates nothing.
+ *
+ * Each tick a vehicle advances one step with a chance of two in three and
+ * gets a small positional jitter, as the animator's movement always had; at
+ * the end of its route it starts a new random route from that route's start.
+ * Vehicles are removed by moving the last one into the freed index.
+ *
+ * In parallel mode the fleet is cut into a fixed number of partitions that a
+ * ForkJoinPool advances concurrently, each drawing from its own
+ * SplittableRandom split off the simulation's, so there is no shared random
+ * state and a run with the same seed and partition count repeats exactly.
+ * tick() joins every partition before it returns, so whoever reads the
+ * positions afterwards sees one consistent tick. Not thread safe otherwise
+ */
+public final class FleetSimulation {
+    // Steps for a whole route: 1500 to 2000, about 15-20 minutes at the animator's 2 s per tick
+    public static final int MIN_ROUTE_STEPS = 1500;
+    public static final int ROUTE_STEP_SPREAD = 500;
+    
+    // A vehicle advances unless nextInt(STEP_ODDS) is 0, so it moves on two ticks in three
+    private static final int STEP_ODDS = 3;
+    
+    // Largest random offset added to a position, in degrees (about 5 m)
+    private static final double JITTER = 0.00005;
+    
+    private final RouteTable routes;
+    
+    // Entries per vehicle in prefixSteps
+    private final int stride;
+    
+    private int size;
+    private int[] route;
+    private int[] step;
+    private int[] totalSteps;
+    private int[] segment;
+    
+    // Steps from the start of the route to the end of each of its segments, stride entries per vehicle
+    private int[] prefixSteps;
+    
+    private double[] latitude;
+    private double[] longitude;
+    
+    // Set for a vehicle that started a new route during the last tick
+    private boolean[] restarted;
+    
+    private final SplittableRandom random;
+    private long ticks;
+    
+    // Parallel mode: the pool and one random number generator per partition, null when sequential
+    private ForkJoinPool pool;
+    private SplittableRandom[] partitionRandoms;
+    
+    // Smallest partition worth a task of its own
+    private static final int MIN_PARTITION_SIZE = 2048;
+    
+    /**
+     * Create an empty simulation
+     * @param seed seed of the random numbers, so a run can be repeated
+     */
+    public FleetSimulation(RouteTable routes, int initialCapacity, long seed) {
+        this.routes = routes;
+        this.stride = routes.maxSegments();
+        this.random = new SplittableRandom(seed);
+        allocate(Math.max(initialCapacity, 16));
+    }
+    
+    /**
+     * Add a vehicle at the start of a random route
+     * @return the vehicle's index
+     */
+    public int add() {
+        if (size == route.length) {
+            grow(size * 2);
+        }
+        int index = size++;
+        startRoute(index, random);
+        restarted[index] = false;
+        return index;
+    }
+    
+    /**
+     * Remove a vehicle by moving the last vehicle into its index
+     * @return the former index of the vehicle that moved into the freed index, or -1 if it was the last one
+     */
+    public int remove(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No vehicle " + index + " in a fleet of " + size);
+        }
+        int last = --size;
+        if (index == last) {
+            return -1;
+        }
+        route[index] = route[last];
+        step[index] = step[last];
+        totalSteps[index] = totalSteps[last];
+        segment[index] = segment[last];
+        System.arraycopy(prefixSteps, last * stride, prefixSteps, index * stride, stride);
+        latitude[index] = latitude[last];
+        longitude[index] = longitude[last];
+        restarted[index] = restarted[last];
+        return last;
+    }
+    
+    // Remove every vehicle
+    public void clear() {
+        size = 0;
+    }
+    
+    /**
+     * Advance every vehicle by one tick
+     * In parallel mode this returns once every partition has been advanced
+     */
+    public void tick() {
+        int partitions = pool == null ? 1 : Math.min(partitionRandoms.length, size / MIN_PARTITION_SIZE);
+        if (partitions <= 1) {
+            advance(0, size, pool == null ? random : partitionRandoms[0]);
+        } else {
+            pool.invoke(new PartitionTask(0, partitions, partitions));
+        }
+        ticks++;
+    }
+    
+    /**
+     * Advance the fleet in partitions on a pool from now on
+     * Fleets too small to give every partition MIN_PARTITION_SIZE vehicles use fewer partitions
+     * @param pool pool to run the partitions on
+     * @param partitions number of partitions, usually a small multiple of the pool's parallelism
+     */
+    public void setParallel(ForkJoinPool pool, int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Need at least one partition: " + partitions);
+        }
+        this.pool = pool;
+        this.partitionRandoms = new SplittableRandom[partitions];
+        for (int p = 0; p < partitions; p++) {
+            partitionRandoms[p] = random.split();
+        }
+    }
+    
+    // Advance the fleet on the calling thread from now on
+    public void setSequential() {
+        pool = null;
+        partitionRandoms = null;
+    }
+    
+    // Number of partitions in parallel mode, 0 when sequential
+    public int getPartitions() {
+        return partitionRandoms == null ? 0 : partitionRandoms.length;
+    }
+    
+    /**
+     * Advances partitions [first, last) of a fleet cut into count partitions, splitting in halves down to one
+     */
+    private final class PartitionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final int first;
+        private final int last;
+        private final int count;
+        
+        PartitionTask(int first, int last, int count) {
+            this.first = first;
+            this.last = last;
+            this.count = count;
+        }
+        
+        @Override
+        protected void compute() {
+            if (last - first == 1) {
+                advance((int) ((long) size * first / count), (int) ((long) size * last / count), partitionRandoms[first]);
+                return;
+            }
+            int middle = (first + last) >>> 1;
+            invokeAll(new PartitionTask(first, middle, count), new PartitionTask(middle, last, count));
+        }
+    }
+    
+    /**
+     * Advance the vehicles in [from, to) by one tick, drawing from the given random numbers
+     * Used to advance parts of the fleet on different threads
+     */
+    void advance(int from, int to, SplittableRandom random) {
+        final int[] route = this.route;
+        final int[] step = this.step;
+        final int[] totalSteps = this.totalSteps;
+        final int[] segment = this.segment;
+        final int[] prefixSteps = this.prefixSteps;
+        final double[] latitude = this.latitude;
+        final double[] longitude = this.longitude;
+        final boolean[] restarted = this.restarted;
+        
+        for (int i = from; i < to; i++) {
+            int s = step[i];
+            if (random.nextInt(STEP_ODDS) > 0) {
+                s++;
+            }
+            if (s >= totalSteps[i]) {
+                startRoute(i, random);
+                restarted[i] = true;
+                continue;
+            }
+            step[i] = s;
+            restarted[i] = false;
+            
+            // Move on to the segment the step falls in; only ever forward
+            int base = i * stride;
+            int seg = segment[i];
+            int lastSegment = routes.segmentCount(route[i]) - 1;
+            while (seg < lastSegment && s > prefixSteps[base + seg]) {
+                seg++;
+            }
+            segment[i] = seg;
+            
+            int segmentStart = seg == 0 ? 0 : prefixSteps[base + seg - 1];
+            int segmentSteps = prefixSteps[base + seg] - segmentStart;
+            double progress = segmentSteps > 0 ? (double) (s - segmentStart) / segmentSteps : 1;
+            
+            int waypoint = routes.firstWaypoint(route[i]) + seg;
+            double startLat = routes.latitude(waypoint);
+            double startLon = routes.longitude(waypoint);
+            latitude[i] = startLat + (routes.latitude(waypoint + 1) - startLat) * progress
+                    + (random.nextDouble() * 2 - 1) * JITTER;
+            longitude[i] = startLon + (routes.longitude(waypoint + 1) - startLon) * progress
+                    + (random.nextDouble() * 2 - 1) * JITTER;
+        }
+    }
+    
+    // Put a vehicle at the start of a random route and split the route's steps among its segments
+    private void startRoute(int i, SplittableRandom random) {
+        int r = random.nextInt(routes.size());
+        int total = MIN_ROUTE_STEPS + random.nextInt(ROUTE_STEP_SPREAD);
+        route[i] = r;
+        totalSteps[i] = total;
+        step[i] = 0;
+        segment[i] = 0;
+        
+        int first = routes.firstWaypoint(r);
+        int segments = routes.segmentCount(r);
+        double length = routes.routeLength(r);
+        int base = i * stride;
+        double cumulative = 0;
+        for (int s = 0; s < segments; s++) {
+            // Rounded from the length so far rather than per segment, so rounding cannot pile up:
+            // the prefixes never decrease and the last one is exactly the total
+            cumulative += routes.segmentLength(first + s);
+            prefixSteps[base + s] = s == segments - 1 ? total
+                    : (int) Math.min(total, Math.round(cumulative / length * total));
+        }
+        
+        latitude[i] = routes.latitude(first);
+        longitude[i] = routes.longitude(first);
+    }
+    
+    // Number of vehicles
+    public int size() {
+        return size;
+    }
+    
+    // Ticks run through tick()
+    public long getTicks() {
+        return ticks;
+    }
+    
+    public RouteTable getRoutes() {
+        return routes;
+    }
+    
+    public double latitude(int index) {
+        return latitude[index];
+    }
+    
+    public double longitude(int index) {
+        return longitude[index];
+    }
+    
+    public int routeOf(int index) {
+        return route[index];
+    }
+    
+    public int stepOf(int index) {
+        return step[index];
+    }
+    
+    public int segmentOf(int index) {
+        return segment[index];
+    }
+    
+    // True if the vehicle started a new route during the last tick
+    public boolean isRestarted(int index) {
+        return restarted[index];
+    }
+    
+    private void allocate(int capacity) {
+        route = new int[capacity];
+        step = new int[capacity];
+        totalSteps = new int[capacity];
+        segment = new int[capacity];
+        prefixSteps = new int[capacity * stride];
+        latitude = new double[capacity];
+        longitude = new double[capacity];
+        restarted = new boolean[capacity];
+    }
+    
+    private void grow(int capacity) {
+        route = Arrays.copyOf(route, capacity);
+        step = Arrays.copyOf(step, capacity);
+        totalSteps = Arrays.copyOf(totalSteps, capacity);
+        segment = Arrays.copyOf(segment, capacity);
+        prefixSteps = Arrays.copyOf(prefixSteps, capacity * stride);
+        latitude = Arrays.copyOf(latitude, capacity);
+        longitude = Arrays.copyOf(longitude, capacity);
+        restarted = Arrays.copyOf(restarted, capacity);
+    }
+}
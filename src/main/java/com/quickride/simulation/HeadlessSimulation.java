@@ -0,0 +1,218 @@
+package com.quickride.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.quickride.exception.InvalidTaxiException;
+import com.quickride.manager.RideManager;
+import com.quickride.manager.TaxiManager;
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+
+/**
+ * Runs the fleet and the ride managers on a virtual clock, as fast as the CPU allows
+ *
+ * Each step moves the clock on by one tick of the animator's movement model
+ * (2 s by default). Requests from the demand source that fall in the step are
+ * booked through RideManager at their own simulated time, and rides whose
+ * pickup or drop-off falls in it are started or completed, so the managers go
+ * through the same calls as with the UI. Then the fleet advances one tick and
+ * the free taxis' positions are copied in and reported to TaxiManager, as
+ * TaxiAnimator does. Nothing here touches JavaFX; the managers' observable
+ * lists are updated inline when no FX toolkit is running.
+ *
+ * A booked taxi leaves its cruise: it drives straight to the pickup and on to
+ * the drop-off at TRIP_SPEED_KMH, and when the ride completes it is released
+ * at the drop-off. From the next tick on it cruises again with its vehicle in
+ * the fleet. Not thread safe; drive it from one thread
+ */
+public final class HeadlessSimulation {
+    // Simulated time per step, the animator's tick period
+    public static final long DEFAULT_TICK_MILLIS = 2000;
+    
+    // Average speed of a taxi on its way to a pickup and on a ride, in km/h
+    public static final double TRIP_SPEED_KMH = 30;
+    
+    private static final double MILLIS_PER_HOUR = 3_600_000;
+    
+    private final TaxiManager taxiManager;
+    private final FleetSimulation fleet;
+    private final DemandSource demand;
+    private final VirtualClock clock;
+    private final long tickMillis;
+    
+    // Taxi i is vehicle i of the fleet
+    private final List<Taxi> taxis = new ArrayList<>();
+    
+    // Pickups and drop-offs still to come
+    private final TripSchedule trips;
+    
+    // The first request from the demand source that is not yet due, or null when it ran dry
+    private TripRequest nextRequest;
+    
+    private long requested;
+    private long unserved;
+    private long started;
+    private long completed;
+    private long simulatedMillis;
+    private long wallNanos;
+    
+    /**
+     * Create a simulation and point the ride manager's timestamps at its clock
+     * @param fleet movement model the free taxis cruise with, usually empty; taxis added here get a vehicle each
+     * @param demand source of the ride requests
+     * @param clock the virtual clock, standing at the simulation start
+     * @param tickMillis simulated time per step
+     */
+    public HeadlessSimulation(TaxiManager taxiManager, RideManager rideManager, FleetSimulation fleet,
+                              DemandSource demand, VirtualClock clock, long tickMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick must be positive: " + tickMillis);
+        }
+        this.taxiManager = taxiManager;
+        this.fleet = fleet;
+        this.demand = demand;
+        this.clock = clock;
+        this.tickMillis = tickMillis;
+        this.trips = new TripSchedule(rideManager, clock);
+        this.nextRequest = demand.next();
+        rideManager.setClock(clock);
+    }
+    
+    /**
+     * Register a taxi with the taxi manager and let it cruise at the start of a random route
+     * @throws InvalidTaxiException if the taxi manager rejects the taxi
+     */
+    public void addTaxi(Taxi taxi) throws InvalidTaxiException {
+        int vehicle = fleet.add();
+        taxi.setCurrentLocation(new Location(fleet.latitude(vehicle), fleet.longitude(vehicle),
+                fleet.getRoutes().startName(fleet.routeOf(vehicle))));
+        try {
+            taxiManager.addTaxi(taxi);
+        } catch (InvalidTaxiException e) {
+            fleet.remove(vehicle);
+            throw e;
+        }
+        taxis.add(taxi);
+    }
+    
+    /**
+     * Run until the virtual clock has moved on by the given simulated time
+     * Whole ticks only, so the run may go up to one tick beyond
+     */
+    public void run(long durationMillis) {
+        long end = clock.millis() + durationMillis;
+        long start = System.nanoTime();
+        while (clock.millis() < end) {
+            step();
+        }
+        wallNanos += System.nanoTime() - start;
+    }
+    
+    /**
+     * Simulate one tick: handle the requests and trip events due in it, then move the fleet
+     */
+    public void step() {
+        long tickEnd = clock.millis() + tickMillis;
+        
+        // Requests and trip events in time order, each at its own simulated time
+        while (true) {
+            long requestAt = nextRequest != null ? nextRequest.getRequestMillis() : Long.MAX_VALUE;
+            long eventAt = trips.nextMillis();
+            if (Math.min(requestAt, eventAt) > tickEnd) {
+                break;
+            }
+            if (eventAt <= requestAt) {
+                clock.advanceTo(Math.max(eventAt, clock.millis()));
+                if (trips.runNext()) {
+                    started++;
+                } else {
+                    completed++;
+                }
+            } else {
+                clock.advanceTo(Math.max(requestAt, clock.millis()));
+                book(nextRequest);
+                nextRequest = demand.next();
+            }
+        }
+        
+        clock.advanceTo(tickEnd);
+        fleet.tick();
+        simulatedMillis += tickMillis;
+        
+        // Only free taxis follow the fleet; booked ones are on their trip
+        for (int i = 0; i < taxis.size(); i++) {
+            Taxi taxi = taxis.get(i);
+            if (!taxi.isAvailable()) {
+                continue;
+            }
+            if (fleet.isRestarted(i)) {
+                taxi.setCurrentLocation(new Location(fleet.latitude(i), fleet.longitude(i),
+                        fleet.getRoutes().startName(fleet.routeOf(i))));
+            } else {
+                Location location = taxi.getCurrentLocation();
+                taxi.setCurrentLocation(new Location(fleet.latitude(i), fleet.longitude(i), location.getAddress()));
+            }
+            taxiManager.updateTaxiLocation(taxi);
+        }
+    }
+    
+    private void book(TripRequest request) {
+        requested++;
+        if (trips.book(request) == null) {
+            unserved++;
+        }
+    }
+    
+    // Simulated hours per second of wall-clock time spent in run()
+    public double getSimulatedHoursPerSecond() {
+        return wallNanos == 0 ? 0 : (simulatedMillis / MILLIS_PER_HOUR) / (wallNanos / 1e9);
+    }
+    
+    public long getRequested() {
+        return requested;
+    }
+    
+    // Requests that found no free taxi
+    public long getUnserved() {
+        return unserved;
+    }
+    
+    public long getStarted() {
+        return started;
+    }
+    
+    public long getCompleted() {
+        return completed;
+    }
+    
+    // Rides booked but not yet completed
+    public int getRidesInFlight() {
+        return (int) (requested - unserved - completed);
+    }
+    
+    // Simulated time run so far, in milliseconds
+    public long getSimulatedMillis() {
+        return simulatedMillis;
+    }
+    
+    public long getWallNanos() {
+        return wallNanos;
+    }
+    
+    public int getTaxiCount() {
+        return taxis.size();
+    }
+    
+    public VirtualClock getClock() {
+        return clock;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("HeadlessSimulation[%d taxis, %.1f h simulated, %d requested, %d unserved, "
+                + "%d completed, %d in flight, %.0f simulated h/s]",
+                taxis.size(), simulatedMillis / MILLIS_PER_HOUR, requested, unserved, completed,
+                getRidesInFlight(), getSimulatedHoursPerSecond());
+    }
+}
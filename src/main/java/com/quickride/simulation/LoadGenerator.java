@@ -0,0 +1,232 @@
+package com.quickride.simulation;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import com.quickride.manager.RideManager;
+
+/**
+ * Drives RideManager through whole ride lifecycles at the pace of a demand source
+ *
+ * Unlike HeadlessSimulation, which runs as fast as it can, this keeps to the
+ * wall clock: simulated time passes timeScale times faster than real time,
+ * and each request is booked, each ride started at its pickup and completed
+ * at its drop-off, when its moment comes round. That holds the managers at a
+ * target rate and shows how they cope with it. Every call is timed, and so
+ * is how late it started against its schedule; if the managers cannot keep
+ * up the lag grows instead of the rate quietly dropping.
+ *
+ * Trips take as long as HeadlessSimulation's: the taxi drives straight to the
+ * pickup and on to the drop-off at its TRIP_SPEED_KMH, and is released at the
+ * drop-off. Calls are made from the thread that runs the generator, one at a
+ * time. Not thread safe
+ */
+public final class LoadGenerator {
+    /**
+     * The timed RideManager calls
+     */
+    public enum Operation {
+        REQUEST, START, COMPLETE
+    }
+    
+    private static final double MILLIS_PER_HOUR = 3_600_000;
+    
+    private final DemandSource demand;
+    private final VirtualClock clock;
+    private final double timeScale;
+    private final long startMillis;
+    
+    // Pickups and drop-offs still to come
+    private final TripSchedule trips;
+    private TripRequest nextRequest;
+    
+    // Nanoseconds each call took, per operation, and how late each call started
+    private final Samples[] latencies = new Samples[Operation.values().length];
+    private final Samples lag = new Samples();
+    
+    private long[] requestsPerHour = new long[24];
+    private long requested;
+    private long unserved;
+    private long completed;
+    private long wallNanos;
+    
+    /**
+     * Create a generator and point the ride manager's timestamps at its clock
+     * @param demand source of the ride requests
+     * @param clock the virtual clock, standing at the start of the demand
+     * @param timeScale simulated milliseconds per wall-clock millisecond
+     */
+    public LoadGenerator(RideManager rideManager, DemandSource demand, VirtualClock clock, double timeScale) {
+        if (!(timeScale > 0)) {
+            throw new IllegalArgumentException("Time scale must be positive: " + timeScale);
+        }
+        this.demand = demand;
+        this.clock = clock;
+        this.timeScale = timeScale;
+        this.startMillis = clock.millis();
+        this.trips = new TripSchedule(rideManager, clock);
+        this.nextRequest = demand.next();
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new Samples();
+        }
+        rideManager.setClock(clock);
+    }
+    
+    /**
+     * Run until the given simulated time has passed, which takes that time divided by the time scale
+     * Rides still under way at the end are left in flight
+     */
+    public void run(long durationMillis) {
+        long end = clock.millis() + durationMillis;
+        long wallStart = System.nanoTime() - toWallNanos(clock.millis());
+        long runStart = System.nanoTime();
+        while (true) {
+            long requestAt = nextRequest != null ? nextRequest.getRequestMillis() : Long.MAX_VALUE;
+            long eventAt = trips.nextMillis();
+            long due = Math.min(requestAt, eventAt);
+            if (due > end) {
+                break;
+            }
+            
+            // Sleep until the call is due, or note how far behind it is
+            long dueNanos = wallStart + toWallNanos(due);
+            long now = System.nanoTime();
+            while (now < dueNanos) {
+                LockSupport.parkNanos(dueNanos - now);
+                now = System.nanoTime();
+            }
+            lag.add(now - dueNanos);
+            
+            clock.advanceTo(Math.max(due, clock.millis()));
+            if (eventAt <= requestAt) {
+                runTrip();
+            } else {
+                book(nextRequest);
+                nextRequest = demand.next();
+            }
+        }
+        clock.advanceTo(Math.max(end, clock.millis()));
+        wallNanos += System.nanoTime() - runStart;
+    }
+    
+    // Wall-clock nanoseconds from the start of the demand to a simulated time
+    private long toWallNanos(long millis) {
+        return (long) ((millis - startMillis) / timeScale * 1e6);
+    }
+    
+    private void book(TripRequest request) {
+        requested++;
+        int hour = (int) ((request.getRequestMillis() - startMillis) / (long) MILLIS_PER_HOUR);
+        if (hour >= requestsPerHour.length) {
+            requestsPerHour = Arrays.copyOf(requestsPerHour, Math.max(hour + 1, requestsPerHour.length * 2));
+        }
+        requestsPerHour[hour]++;
+        
+        long start = System.nanoTime();
+        boolean booked = trips.book(request) != null;
+        latencies[Operation.REQUEST.ordinal()].add(System.nanoTime() - start);
+        if (!booked) {
+            unserved++;
+        }
+    }
+    
+    // Start or complete the ride whose pickup or drop-off is due
+    private void runTrip() {
+        long start = System.nanoTime();
+        boolean pickup = trips.runNext();
+        long nanos = System.nanoTime() - start;
+        if (pickup) {
+            latencies[Operation.START.ordinal()].add(nanos);
+        } else {
+            latencies[Operation.COMPLETE.ordinal()].add(nanos);
+            completed++;
+        }
+    }
+    
+    // Calls of an operation made so far
+    public int count(Operation operation) {
+        return latencies[operation.ordinal()].size();
+    }
+    
+    /**
+     * Time a call of an operation took, at a percentile
+     * @param percentile between 0 and 100, e.g. 99.9
+     * @return the latency in nanoseconds, 0 if there were no calls
+     */
+    public long latencyNanos(Operation operation, double percentile) {
+        return latencies[operation.ordinal()].percentile(percentile);
+    }
+    
+    // How late calls started against their schedule, at a percentile, in nanoseconds
+    public long lagNanos(double percentile) {
+        return lag.percentile(percentile);
+    }
+    
+    // Calls of an operation per second of wall-clock time spent in run()
+    public double throughput(Operation operation) {
+        return wallNanos == 0 ? 0 : count(operation) / (wallNanos / 1e9);
+    }
+    
+    // Requests made in a simulated hour, counted from the start of the demand
+    public long getRequestsInHour(int hour) {
+        return hour < requestsPerHour.length ? requestsPerHour[hour] : 0;
+    }
+    
+    public long getRequested() {
+        return requested;
+    }
+    
+    // Requests that found no free taxi
+    public long getUnserved() {
+        return unserved;
+    }
+    
+    public long getCompleted() {
+        return completed;
+    }
+    
+    // Rides booked but not yet completed
+    public int getRidesInFlight() {
+        return (int) (requested - unserved - completed);
+    }
+    
+    public long getWallNanos() {
+        return wallNanos;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("LoadGenerator[%d requested, %d unserved, %d completed, %d in flight, "
+                + "%.0f completions/s, p99 lag %.2f ms]",
+                requested, unserved, completed, getRidesInFlight(), throughput(Operation.COMPLETE), lagNanos(99) / 1e6);
+    }
+    
+    /**
+     * Growable list of nanosecond timings with percentiles
+     */
+    private static final class Samples {
+        private long[] values = new long[1024];
+        private int size;
+        
+        void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+        
+        int size() {
+            return size;
+        }
+        
+        long percentile(double percentile) {
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100 * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, rank))];
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.quickride.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.quickride.model.Location;
+
+/**
+ * Ride requests arriving as a Poisson process whose rate follows the time of day
+ *
+ * The rate in each hour is the base rate times that hour's factor in a daily
+ * profile, hour 0 being the first hour after the start time. Arrivals are
+ * drawn at the peak rate and thinned to the rate of the moment, which gives
+ * an exact non-homogeneous Poisson process. Each request starts near a city
+ * or, with a share set by its weight, near a hot spot such as a station or
+ * an airport, and ends somewhere in the same area. Deterministic for a seed
+ */
+public final class PoissonDemand implements DemandSource {
+    // A working day: quiet nights, a morning and an evening rush, and a busy late evening; averages 1
+    private static final double[] COMMUTER_DAY = {
+        0.45, 0.25, 0.15, 0.10, 0.10, 0.25, 0.70, 1.60, 2.00, 1.30, 1.10, 0.90,
+        1.10, 1.20, 0.90, 1.20, 1.30, 1.90, 2.10, 1.50, 1.10, 1.00, 0.90, 0.90
+    };
+    
+    // Largest offset of a dropoff, or a pickup around a city centre, in degrees (about 2 km)
+    private static final double CITY_RADIUS = 0.02;
+    
+    // Largest offset of a pickup around a hot spot, in degrees (about 300 m)
+    private static final double HOT_SPOT_RADIUS = 0.003;
+    
+    private static final double MILLIS_PER_HOUR = 3_600_000;
+    
+    private final double[] hourlyRates;
+    private final double peakRate;
+    private final long startMillis;
+    private final SplittableRandom random;
+    
+    // Areas requests start in: cities first, then hot spots, with cumulative weights for picking one
+    private final List<Location> areas = new ArrayList<>();
+    private final List<Boolean> hotSpots = new ArrayList<>();
+    private double[] cumulativeWeights = new double[0];
+    
+    private double nextMillis;
+    private long issued;
+    
+    /**
+     * @param cities city centres requests start around, each with weight 1
+     * @param ridesPerHour average requests per simulated hour over a day, before the profile
+     * @param dailyProfile 24 factors for the rate in each hour after the start, e.g. commuterDay()
+     * @param startMillis simulated time of the start of the day
+     * @param seed seed of the random numbers, so the requests can be repeated
+     */
+    public PoissonDemand(List<Location> cities, double ridesPerHour, double[] dailyProfile, long startMillis, long seed) {
+        if (!(ridesPerHour > 0)) {
+            throw new IllegalArgumentException("Ride rate must be positive: " + ridesPerHour);
+        }
+        if (dailyProfile.length != 24) {
+            throw new IllegalArgumentException("Daily profile needs 24 hours, not " + dailyProfile.length);
+        }
+        if (cities.isEmpty()) {
+            throw new IllegalArgumentException("Demand needs at least one city");
+        }
+        this.hourlyRates = new double[24];
+        for (int hour = 0; hour < 24; hour++) {
+            if (!(dailyProfile[hour] >= 0)) {
+                throw new IllegalArgumentException("Profile factors cannot be negative: " + dailyProfile[hour]);
+            }
+            hourlyRates[hour] = ridesPerHour * dailyProfile[hour];
+        }
+        this.peakRate = Arrays.stream(hourlyRates).max().getAsDouble();
+        if (!(peakRate > 0)) {
+            throw new IllegalArgumentException("Daily profile has no demand");
+        }
+        this.startMillis = startMillis;
+        this.random = new SplittableRandom(seed);
+        this.nextMillis = startMillis;
+        for (Location city : cities) {
+            addArea(city, 1, false);
+        }
+    }
+    
+    /**
+     * Add a place requests cluster around, within about 300 m
+     * @param weight share of requests starting here, relative to a city's weight of 1
+     */
+    public void addHotSpot(Location centre, double weight) {
+        if (!(weight > 0)) {
+            throw new IllegalArgumentException("Hot spot weight must be positive: " + weight);
+        }
+        addArea(centre, weight, true);
+    }
+    
+    // Hourly factors of a working day, averaging 1
+    public static double[] commuterDay() {
+        return COMMUTER_DAY.clone();
+    }
+    
+    // Hourly factors of a day with the same rate throughout
+    public static double[] flatDay() {
+        double[] day = new double[24];
+        Arrays.fill(day, 1);
+        return day;
+    }
+    
+    private void addArea(Location centre, double weight, boolean hotSpot) {
+        areas.add(centre);
+        hotSpots.add(hotSpot);
+        int n = cumulativeWeights.length;
+        cumulativeWeights = Arrays.copyOf(cumulativeWeights, n + 1);
+        cumulativeWeights[n] = (n > 0 ? cumulativeWeights[n - 1] : 0) + weight;
+    }
+    
+    @Override
+    public TripRequest next() {
+        // Thinning: candidates at the peak rate, each kept with the current rate's share of it
+        while (true) {
+            nextMillis += -Math.log(1 - random.nextDouble()) / peakRate * MILLIS_PER_HOUR;
+            if (random.nextDouble() * peakRate < rateAt((long) nextMillis)) {
+                break;
+            }
+        }
+        
+        int area = pickArea();
+        Location centre = areas.get(area);
+        double pickupRadius = hotSpots.get(area) ? HOT_SPOT_RADIUS : CITY_RADIUS;
+        issued++;
+        return new TripRequest((long) nextMillis, "Customer " + issued,
+                near(centre, pickupRadius), near(centre, CITY_RADIUS));
+    }
+    
+    // Requests per hour at a simulated time
+    public double rateAt(long millis) {
+        int hour = (int) Math.floorMod(Math.floorDiv(millis - startMillis, (long) MILLIS_PER_HOUR), 24L);
+        return hourlyRates[hour];
+    }
+    
+    private int pickArea() {
+        double x = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+        int index = Arrays.binarySearch(cumulativeWeights, x);
+        return index >= 0 ? Math.min(index + 1, cumulativeWeights.length - 1) : -index - 1;
+    }
+    
+    private Location near(Location centre, double radius) {
+        return new Location(
+            centre.getLatitude() + (random.nextDouble() * 2 - 1) * radius,
+            centre.getLongitude() + (random.nextDouble() * 2 - 1) * radius,
+            centre.getAddress()
+        );
+    }
+}
@@ -0,0 +1,165 @@
+package com.quickride.simulation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.quickride.model.GeoDistance;
+
+/**
+ * Routes the simulated taxis drive, with all waypoints flattened into primitive arrays
+ *
+ * The waypoints of route r are the entries firstWaypoint(r) up to
+ * firstWaypoint(r + 1) - 1 of the latitude and longitude arrays, and segment s
+ * of the route runs from waypoint firstWaypoint(r) + s to the next one. Segment
+ * lengths are computed once here, so vehicles on the route only have to split
+ * their steps among them. Immutable
+ */
+public final class RouteTable {
+    // Swiss cities the built-in routes start and end at
+    private static final String[] CITY_NAMES = {
+        "Zurich", "Geneva", "Bern", "Basel", "Lausanne",
+        "Lucerne", "Montreux", "Nyon", "St. Gallen", "Interlaken"
+    };
+    
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final int[] firstWaypoint;
+    
+    // Length in km of the segment starting at each waypoint; 0 for a route's last waypoint
+    private final double[] segmentLengths;
+    private final double[] routeLengths;
+    
+    private final String[] startNames;
+    private final int maxSegments;
+    
+    /**
+     * Build a table from routes given as [lat, lon] waypoints
+     * @param routes waypoints of each route, at least two per route
+     * @param startNames a name for the start of each route, used as the address of taxis placed there
+     */
+    public RouteTable(List<double[][]> routes, List<String> startNames) {
+        if (routes.isEmpty() || routes.size() != startNames.size()) {
+            throw new IllegalArgumentException("Need at least one route and one start name per route");
+        }
+        int waypoints = 0;
+        int longest = 0;
+        for (double[][] route : routes) {
+            if (route.length < 2) {
+                throw new IllegalArgumentException("A route needs at least two waypoints");
+            }
+            waypoints += route.length;
+            longest = Math.max(longest, route.length - 1);
+        }
+        
+        this.latitudes = new double[waypoints];
+        this.longitudes = new double[waypoints];
+        this.segmentLengths = new double[waypoints];
+        this.firstWaypoint = new int[routes.size() + 1];
+        this.routeLengths = new double[routes.size()];
+        this.startNames = startNames.toArray(new String[0]);
+        this.maxSegments = longest;
+        
+        int next = 0;
+        for (int r = 0; r < routes.size(); r++) {
+            double[][] route = routes.get(r);
+            firstWaypoint[r] = next;
+            for (int w = 0; w < route.length; w++) {
+                latitudes[next + w] = route[w][0];
+                longitudes[next + w] = route[w][1];
+                if (w > 0) {
+                    double length = GeoDistance.haversineKm(route[w - 1][0], route[w - 1][1], route[w][0], route[w][1]);
+                    segmentLengths[next + w - 1] = length;
+                    routeLengths[r] += length;
+                }
+            }
+            next += route.length;
+        }
+        firstWaypoint[routes.size()] = next;
+    }
+    
+    /**
+     * The intercity routes the animator has always used, following the main roads around lakes and mountains
+     */
+    public static RouteTable swissIntercity() {
+        double[][] cities = {
+            {47.3769, 8.5417},   // 0: Zurich
+            {46.2044, 6.1432},   // 1: Geneva
+            {46.9480, 7.4474},   // 2: Bern
+            {47.5596, 7.5886},   // 3: Basel
+            {46.5197, 6.6323},   // 4: Lausanne
+            {47.0502, 8.3093},   // 5: Lucerne
+            {46.2018, 6.8785},   // 6: Montreux
+            {46.3834, 6.2347},   // 7: Nyon
+            {47.4245, 9.3767},   // 8: St. Gallen
+            {46.6864, 7.8632},   // 9: Interlaken
+        };
+        int[] starts = {0, 2, 0, 2, 1, 0, 4, 1, 0, 2};
+        List<double[][]> routes = List.of(
+            // Zurich to Bern - avoiding lakes
+            new double[][] {cities[0], {47.2931, 8.4424}, {47.1814, 8.4638}, {47.0784, 8.3065}, {46.8987, 7.9868}, cities[2]},
+            // Bern to Geneva - following A1
+            new double[][] {cities[2], {46.8030, 7.1511}, {46.5180, 6.6326}, {46.3834, 6.2347}, cities[1]},
+            // Zurich to Basel - following A3/A1
+            new double[][] {cities[0], {47.4789, 8.3093}, {47.5128, 7.9877}, cities[3]},
+            // Bern to Lausanne - following A1
+            new double[][] {cities[2], {46.8030, 7.1511}, {46.6784, 6.9002}, cities[4]},
+            // Geneva to Lausanne - following the lake shore
+            new double[][] {cities[1], {46.3080, 6.2280}, {46.3834, 6.2347}, {46.4670, 6.3410}, cities[4]},
+            // Zurich to Lucerne - avoiding lake obstacles
+            new double[][] {cities[0], {47.2780, 8.5220}, {47.1814, 8.4638}, cities[5]},
+            // Lausanne to Montreux - following the lake shore
+            new double[][] {cities[4], {46.4560, 6.8510}, cities[6]},
+            // Geneva to Nyon - following the lake
+            new double[][] {cities[1], {46.2910, 6.1700}, cities[7]},
+            // Zurich to St. Gallen - following A1
+            new double[][] {cities[0], {47.4500, 8.8500}, {47.4800, 9.0500}, cities[8]},
+            // Bern to Interlaken
+            new double[][] {cities[2], {46.7550, 7.6303}, cities[9]}
+        );
+        String[] names = new String[starts.length];
+        for (int i = 0; i < starts.length; i++) {
+            names[i] = CITY_NAMES[starts[i]] + ", Switzerland";
+        }
+        return new RouteTable(routes, Arrays.asList(names));
+    }
+    
+    // Number of routes
+    public int size() {
+        return routeLengths.length;
+    }
+    
+    // Most segments any route has
+    public int maxSegments() {
+        return maxSegments;
+    }
+    
+    public int firstWaypoint(int route) {
+        return firstWaypoint[route];
+    }
+    
+    public int segmentCount(int route) {
+        return firstWaypoint[route + 1] - firstWaypoint[route] - 1;
+    }
+    
+    public double latitude(int waypoint) {
+        return latitudes[waypoint];
+    }
+    
+    public double longitude(int waypoint) {
+        return longitudes[waypoint];
+    }
+    
+    // Length in km of the segment starting at a waypoint
+    public double segmentLength(int waypoint) {
+        return segmentLengths[waypoint];
+    }
+    
+    // Length of a route in km
+    public double routeLength(int route) {
+        return routeLengths[route];
+    }
+    
+    public String startName(int route) {
+        return startNames[route];
+    }
+}
@@ -0,0 +1,56 @@
+package com.quickride.simulation;
+
+import java.util.SplittableRandom;
+
+import com.quickride.model.Location;
+
+/**
+ * Ride requests at a constant rate, spread evenly over the cities a RouteTable starts from
+ * Each request is a short trip inside one city: pickup and dropoff are
+ * random points within about 2 km of the city centre. Deterministic for a seed
+ */
+public final class SteadyDemand implements DemandSource {
+    // Largest offset of a pickup or dropoff from the city centre, in degrees (about 2 km)
+    private static final double CITY_RADIUS = 0.02;
+    
+    private final RouteTable routes;
+    private final double intervalMillis;
+    private final SplittableRandom random;
+    private double nextMillis;
+    private long issued;
+    
+    /**
+     * @param routes routes whose start points are the cities requests come from
+     * @param ridesPerHour requests per simulated hour
+     * @param startMillis simulated time of the first request
+     * @param seed seed of the random numbers, so the requests can be repeated
+     */
+    public SteadyDemand(RouteTable routes, double ridesPerHour, long startMillis, long seed) {
+        if (!(ridesPerHour > 0)) {
+            throw new IllegalArgumentException("Ride rate must be positive: " + ridesPerHour);
+        }
+        this.routes = routes;
+        this.intervalMillis = 3_600_000 / ridesPerHour;
+        this.random = new SplittableRandom(seed);
+        this.nextMillis = startMillis;
+    }
+    
+    @Override
+    public TripRequest next() {
+        int route = random.nextInt(routes.size());
+        int city = routes.firstWaypoint(route);
+        String name = routes.startName(route);
+        long at = (long) nextMillis;
+        nextMillis += intervalMillis;
+        issued++;
+        return new TripRequest(at, "Customer " + issued, near(city, name), near(city, name));
+    }
+    
+    private Location near(int waypoint, String name) {
+        return new Location(
+            routes.latitude(waypoint) + (random.nextDouble() * 2 - 1) * CITY_RADIUS,
+            routes.longitude(waypoint) + (random.nextDouble() * 2 - 1) * CITY_RADIUS,
+            name
+        );
+    }
+}
@@ -0,0 +1,43 @@
+package com.quickride.simulation;
+
+import com.quickride.model.Location;
+
+/**
+ * One generated ride request: who, from where to where, and when in simulated time
+ * Immutable
+ */
+public final class TripRequest {
+    private final long requestMillis;
+    private final String customerName;
+    private final Location pickup;
+    private final Location dropoff;
+    
+    public TripRequest(long requestMillis, String customerName, Location pickup, Location dropoff) {
+        this.requestMillis = requestMillis;
+        this.customerName = customerName;
+        this.pickup = pickup;
+        this.dropoff = dropoff;
+    }
+    
+    // Simulated time of the request in epoch milliseconds
+    public long getRequestMillis() {
+        return requestMillis;
+    }
+    
+    public String getCustomerName() {
+        return customerName;
+    }
+    
+    public Location getPickup() {
+        return pickup;
+    }
+    
+    public Location getDropoff() {
+        return dropoff;
+    }
+    
+    @Override
+    public String toString() {
+        return "TripRequest[" + customerName + " at " + requestMillis + ": " + pickup + " -> " + dropoff + "]";
+    }
+}
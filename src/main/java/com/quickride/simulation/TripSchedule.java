@@ -0,0 +1,103 @@
+package com.quickride.simulation;
+
+import java.util.PriorityQueue;
+
+import com.quickride.exception.NoTaxiAvailableException;
+import com.quickride.manager.RideManager;
+import com.quickride.model.Ride;
+import com.quickride.model.Taxi;
+
+/**
+ * Books requests and plays the rides through RideManager at their simulated pickup and drop-off times
+ *
+ * A booked taxi drives straight to the pickup and on to the drop-off at
+ * HeadlessSimulation.TRIP_SPEED_KMH. The ride is started at the pickup and
+ * completed at the drop-off, where the taxi is released. Shared by
+ * HeadlessSimulation and LoadGenerator, which only decide when the due
+ * events run. Not thread safe
+ */
+final class TripSchedule {
+    private static final double MILLIS_PER_HOUR = 3_600_000;
+    
+    private final RideManager rideManager;
+    private final VirtualClock clock;
+    
+    // Pickups and drop-offs still to come, earliest first
+    private final PriorityQueue<TripEvent> events = new PriorityQueue<>();
+    private long eventSequence;
+    
+    TripSchedule(RideManager rideManager, VirtualClock clock) {
+        this.rideManager = rideManager;
+        this.clock = clock;
+    }
+    
+    /**
+     * Book a request with the nearest free taxi at the current simulated time and schedule its pickup
+     * @return the booked ride, or null if no taxi was free
+     */
+    Ride book(TripRequest request) {
+        Ride ride;
+        try {
+            ride = rideManager.requestRide(request.getCustomerName(), request.getPickup(), request.getDropoff(), true);
+        } catch (NoTaxiAvailableException e) {
+            return null;
+        }
+        double approachKm = ride.getAssignedTaxi().getCurrentLocation().distanceTo(request.getPickup());
+        events.add(new TripEvent(clock.millis() + travelMillis(approachKm), ride, true, eventSequence++));
+        return ride;
+    }
+    
+    // Simulated time of the earliest pickup or drop-off, or Long.MAX_VALUE if none is scheduled
+    long nextMillis() {
+        TripEvent event = events.peek();
+        return event != null ? event.atMillis : Long.MAX_VALUE;
+    }
+    
+    /**
+     * Run the earliest pickup or drop-off at the current simulated time
+     * A pickup starts the ride and schedules its drop-off; a drop-off completes it
+     * @return true for a pickup, false for a drop-off
+     */
+    boolean runNext() {
+        TripEvent event = events.poll();
+        Ride ride = event.ride;
+        Taxi taxi = ride.getAssignedTaxi();
+        if (event.pickup) {
+            taxi.setCurrentLocation(ride.getPickupLocation());
+            rideManager.startRide(ride);
+            events.add(new TripEvent(clock.millis() + travelMillis(ride.calculateDistance()), ride, false, eventSequence++));
+        } else {
+            // Moved before the release so the taxi is indexed at the drop-off
+            taxi.setCurrentLocation(ride.getDropoffLocation());
+            rideManager.completeRide(ride);
+        }
+        return event.pickup;
+    }
+    
+    private static long travelMillis(double km) {
+        return (long) (km / HeadlessSimulation.TRIP_SPEED_KMH * MILLIS_PER_HOUR);
+    }
+    
+    /**
+     * A pickup or drop-off due at a simulated time; the sequence keeps ties in the order they were scheduled
+     */
+    private static final class TripEvent implements Comparable<TripEvent> {
+        final long atMillis;
+        final Ride ride;
+        final boolean pickup;
+        final long sequence;
+        
+        TripEvent(long atMillis, Ride ride, boolean pickup, long sequence) {
+            this.atMillis = atMillis;
+            this.ride = ride;
+            this.pickup = pickup;
+            this.sequence = sequence;
+        }
+        
+        @Override
+        public int compareTo(TripEvent other) {
+            int byTime = Long.compare(atMillis, other.atMillis);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
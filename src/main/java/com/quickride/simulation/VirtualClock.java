@@ -0,0 +1,71 @@
+package com.quickride.simulation;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * A clock that only moves when it is told to, for running simulations faster than real time
+ * Managers given this clock stamp rides with simulated time. Time never goes
+ * backwards; reads are safe from any thread
+ */
+public final class VirtualClock extends Clock {
+    private final ZoneId zone;
+    private volatile long millis;
+    
+    /**
+     * Create a clock standing at the given instant
+     * @param start the simulated time to start at
+     * @param zone the time zone local times are read in
+     */
+    public VirtualClock(Instant start, ZoneId zone) {
+        this(start.toEpochMilli(), zone);
+    }
+    
+    private VirtualClock(long millis, ZoneId zone) {
+        this.millis = millis;
+        this.zone = zone;
+    }
+    
+    /**
+     * Move the clock forward to a simulated time
+     * @param targetMillis epoch milliseconds, not before the current time
+     */
+    public void advanceTo(long targetMillis) {
+        if (targetMillis < millis) {
+            throw new IllegalArgumentException("Virtual time cannot go backwards: " + targetMillis + " < " + millis);
+        }
+        millis = targetMillis;
+    }
+    
+    // Move the clock forward by a number of milliseconds
+    public void advance(long deltaMillis) {
+        advanceTo(millis + deltaMillis);
+    }
+    
+    @Override
+    public long millis() {
+        return millis;
+    }
+    
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+    
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+    
+    // A frozen copy in another zone - it does not follow this clock
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return Clock.fixed(instant(), zone);
+    }
+    
+    @Override
+    public String toString() {
+        return "VirtualClock[" + instant() + "," + zone + "]";
+    }
+}
@@ -0,0 +1,64 @@
+package com.quickride.tiles;
+
+/**
+ * Tile sources the map can show, with the upstream server each one is fetched from
+ * The id is the layer's path segment on the local tile server and in seed directories
+ */
+public enum TileLayer {
+    STREET("street", "https://a.tile.openstreetmap.org/{z}/{x}/{y}.png", 19),
+    SATELLITE("satellite", "https://server.arcgisonline.com/ArcGIS/rest/services/World_Imagery/MapServer/tile/{z}/{y}/{x}", 18),
+    SATELLITE_ALT("satellite-alt", "https://mt1.google.com/vt/lyrs=s&x={x}&y={y}&z={z}", 20),
+    LABELS("labels", "https://a.basemaps.cartocdn.com/light_only_labels/{z}/{x}/{y}.png", 19);
+    
+    private final String id;
+    private final String urlTemplate;
+    private final int maxZoom;
+    
+    TileLayer(String id, String urlTemplate, int maxZoom) {
+        this.id = id;
+        this.urlTemplate = urlTemplate;
+        this.maxZoom = maxZoom;
+    }
+    
+    /**
+     * Find a layer by its id
+     * @return the layer, or null if there is none with that id
+     */
+    public static TileLayer fromId(String id) {
+        for (TileLayer layer : values()) {
+            if (layer.id.equals(id)) {
+                return layer;
+            }
+        }
+        return null;
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    // Leaflet URL template of the upstream server
+    public String getUrlTemplate() {
+        return urlTemplate;
+    }
+    
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+    
+    // Upstream URL of one tile
+    public String url(int zoom, int x, int y) {
+        return urlTemplate.replace("{z}", Integer.toString(zoom))
+                          .replace("{x}", Integer.toString(x))
+                          .replace("{y}", Integer.toString(y));
+    }
+    
+    // True if the tile coordinates exist at this layer's zoom levels
+    public boolean isValid(int zoom, int x, int y) {
+        if (zoom < 0 || zoom > maxZoom) {
+            return false;
+        }
+        int tiles = 1 << zoom;
+        return x >= 0 && x < tiles && y >= 0 && y < tiles;
+    }
+}
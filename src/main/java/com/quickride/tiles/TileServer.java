@@ -0,0 +1,368 @@
+package com.quickride.tiles;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP endpoint the map page loads Leaflet and its tiles from
+ *
+ * Serves the bundled Leaflet files under /leaflet/ and tiles under
+ * /tiles/{layer}/{z}/{x}/{y}. A tile comes from the TileStore if it is cached;
+ * otherwise it is fetched from the layer's upstream server, stored and
+ * returned, unless the server runs offline, in which case a miss is a 404.
+ * Concurrent requests for the same missing tile share one upstream fetch.
+ *
+ * After each tile request the eight neighbouring tiles of the same zoom level
+ * are prefetched in the background: cached ones have their pages faulted in.
+ * Missing ones are only fetched if upstream prefetch was asked for, since the
+ * public tile servers forbid bulk downloading and every request would
+ * otherwise start up to eight downloads. The prefetch queue is bounded and
+ * drops its oldest work first, since the map has usually moved on by then.
+ *
+ * Listens on the loopback interface only, on a port picked by the system
+ */
+public final class TileServer implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(TileServer.class.getName());
+    
+    private static final String LEAFLET_PATH = "/leaflet/";
+    private static final String TILES_PATH = "/tiles/";
+    
+    // The WebView opens a handful of connections per host
+    private static final int HANDLER_THREADS = 4;
+    private static final int PREFETCH_QUEUE_SIZE = 256;
+    
+    private static final Duration UPSTREAM_TIMEOUT = Duration.ofSeconds(10);
+    // The OpenStreetMap tile policy asks for an application name and a way to reach its maintainers
+    private static final String USER_AGENT = "QuickRide/1.0 (offline tile cache; +https://github.com/TheoHeija/QuickRide)";
+    
+    // Tiles change rarely; lets the WebView keep its own copy for a day
+    private static final String TILE_CACHE_CONTROL = "max-age=86400";
+    
+    private static final int[][] NEIGHBOURS = {
+        {-1, -1}, {0, -1}, {1, -1}, {-1, 0}, {1, 0}, {-1, 1}, {0, 1}, {1, 1}
+    };
+    
+    private final TileStore store;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ThreadPoolExecutor prefetcher;
+    
+    // Null when offline
+    private final HttpClient client;
+    private final boolean prefetchUpstream;
+    
+    // Upstream fetches in progress, so concurrent misses of one tile share a download
+    private final Map<Long, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    
+    // Leaflet files, loaded from the classpath on first use
+    private final Map<String, byte[]> resources = new ConcurrentHashMap<>();
+    
+    private final LongAdder tileRequests = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder upstreamFetches = new LongAdder();
+    private final LongAdder upstreamFailures = new LongAdder();
+    private final LongAdder notFound = new LongAdder();
+    private final LongAdder prefetched = new LongAdder();
+    
+    static {
+        // The JDK server writes headers and body separately; with Nagle's algorithm on, the
+        // delayed ACK of the headers holds every small response back by about 40 ms.
+        // The setting is read when the first server is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+    
+    private TileServer(TileStore store, boolean offline, boolean prefetchUpstream) throws IOException {
+        this.store = store;
+        this.prefetchUpstream = prefetchUpstream && !offline;
+        this.client = offline ? null : HttpClient.newBuilder()
+                .connectTimeout(UPSTREAM_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.handlers = Executors.newFixedThreadPool(HANDLER_THREADS, daemonThreads("tile-server"));
+        this.prefetcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(PREFETCH_QUEUE_SIZE), daemonThreads("tile-prefetch"),
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    }
+    
+    /**
+     * Start serving tiles from a store, prefetching only neighbours that are already cached
+     * @param offline true to never contact the upstream servers; missing tiles are then not found
+     */
+    public static TileServer start(TileStore store, boolean offline) throws IOException {
+        return start(store, offline, false);
+    }
+    
+    /**
+     * Start serving tiles from a store
+     * @param offline true to never contact the upstream servers; missing tiles are then not found
+     * @param prefetchUpstream true to also download missing neighbours of requested tiles when online
+     */
+    public static TileServer start(TileStore store, boolean offline, boolean prefetchUpstream) throws IOException {
+        TileServer tileServer = new TileServer(store, offline, prefetchUpstream);
+        tileServer.server.createContext(LEAFLET_PATH, tileServer::handleLeaflet);
+        tileServer.server.createContext(TILES_PATH, tileServer::handleTile);
+        tileServer.server.setExecutor(tileServer.handlers);
+        tileServer.server.start();
+        LOGGER.info(() -> "Tile server listening on " + tileServer.getBaseUrl() + (offline ? " (offline)" : ""));
+        return tileServer;
+    }
+    
+    // Base URL of the server, without a trailing slash
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+    
+    // URL of a bundled Leaflet file, e.g. "leaflet.js"
+    public String leafletUrl(String file) {
+        return getBaseUrl() + LEAFLET_PATH + file;
+    }
+    
+    // Leaflet URL template of a layer's tiles on this server
+    public String tileUrlTemplate(TileLayer layer) {
+        return getBaseUrl() + TILES_PATH + layer.getId() + "/{z}/{x}/{y}";
+    }
+    
+    public boolean isOffline() {
+        return client == null;
+    }
+    
+    public TileStore getStore() {
+        return store;
+    }
+    
+    /**
+     * Look up a tile the way a request does: the store first, then upstream unless offline
+     * Does not prefetch neighbours
+     * @return the tile's bytes, or null if it is not available
+     */
+    public byte[] getTile(TileLayer layer, int zoom, int x, int y) {
+        long key = TileStore.key(layer, zoom, x, y);
+        byte[] data = store.get(key);
+        if (data != null) {
+            cacheHits.increment();
+            return data;
+        }
+        return fetch(layer, zoom, x, y, key);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%d tile requests, %d cache hits, %d upstream fetches (%d failed), %d not found, %d prefetched",
+                tileRequests.sum(), cacheHits.sum(), upstreamFetches.sum(), upstreamFailures.sum(),
+                notFound.sum(), prefetched.sum());
+    }
+    
+    /**
+     * Stop serving and wait briefly for running requests
+     * The store is left open; it belongs to the caller
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        prefetcher.shutdownNow();
+        handlers.shutdown();
+        try {
+            handlers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        handlers.shutdownNow();
+    }
+    
+    private void handleTile(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            // /tiles/{layer}/{z}/{x}/{y}, optionally with an extension
+            String[] parts = exchange.getRequestURI().getPath().substring(TILES_PATH.length()).split("/");
+            TileLayer layer = parts.length == 4 ? TileLayer.fromId(parts[0]) : null;
+            int zoom;
+            int x;
+            int y;
+            try {
+                zoom = Integer.parseInt(parts[1]);
+                x = Integer.parseInt(parts[2]);
+                int dot = parts[3].indexOf('.');
+                y = Integer.parseInt(dot >= 0 ? parts[3].substring(0, dot) : parts[3]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            if (layer == null || !layer.isValid(zoom, x, y)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            
+            tileRequests.increment();
+            byte[] data = getTile(layer, zoom, x, y);
+            prefetchNeighbours(layer, zoom, x, y);
+            if (data == null) {
+                notFound.increment();
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", imageType(data));
+            exchange.getResponseHeaders().set("Cache-Control", TILE_CACHE_CONTROL);
+            send(exchange, data);
+        }
+    }
+    
+    private void handleLeaflet(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String file = exchange.getRequestURI().getPath().substring(LEAFLET_PATH.length());
+            byte[] data = file.contains("..") ? null : resources.computeIfAbsent(file, TileServer::loadResource);
+            if (data == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", contentType(file));
+            send(exchange, data);
+        }
+    }
+    
+    private static void send(HttpExchange exchange, byte[] data) throws IOException {
+        exchange.sendResponseHeaders(200, data.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(data);
+        }
+    }
+    
+    // Fetch a missing tile from upstream and cache it; null when offline or the fetch failed
+    private byte[] fetch(TileLayer layer, int zoom, int x, int y, long key) {
+        if (client == null) {
+            return null;
+        }
+        CompletableFuture<byte[]> download = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, download);
+        if (running != null) {
+            return running.join();
+        }
+        
+        byte[] data = null;
+        try {
+            data = download(layer.url(zoom, x, y));
+            if (data != null) {
+                store.put(key, data);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not cache tile " + layer.getId() + "/" + zoom + "/" + x + "/" + y, e);
+        } finally {
+            inFlight.remove(key);
+            download.complete(data);
+        }
+        return data;
+    }
+    
+    private byte[] download(String url) {
+        upstreamFetches.increment();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(UPSTREAM_TIMEOUT)
+                .header("User-Agent", USER_AGENT)
+                .GET()
+                .build();
+        try {
+            HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() == 200 && response.body().length > 0) {
+                return response.body();
+            }
+            LOGGER.fine(() -> "Upstream returned " + response.statusCode() + " for " + url);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Upstream fetch failed for " + url, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        upstreamFailures.increment();
+        return null;
+    }
+    
+    private void prefetchNeighbours(TileLayer layer, int zoom, int x, int y) {
+        int tiles = 1 << zoom;
+        for (int[] offset : NEIGHBOURS) {
+            int neighbourY = y + offset[1];
+            if (neighbourY < 0 || neighbourY >= tiles) {
+                continue;
+            }
+            // The map wraps around horizontally
+            int neighbourX = Math.floorMod(x + offset[0], tiles);
+            if (neighbourX == x && neighbourY == y) {
+                continue;
+            }
+            prefetcher.execute(() -> prefetch(layer, zoom, neighbourX, neighbourY));
+        }
+    }
+    
+    private void prefetch(TileLayer layer, int zoom, int x, int y) {
+        long key = TileStore.key(layer, zoom, x, y);
+        if (store.warm(key) || !prefetchUpstream || inFlight.containsKey(key)) {
+            return;
+        }
+        if (fetch(layer, zoom, x, y, key) != null) {
+            prefetched.increment();
+        }
+    }
+    
+    private static byte[] loadResource(String file) {
+        try (InputStream in = TileServer.class.getResourceAsStream(LEAFLET_PATH + file)) {
+            return in != null ? in.readAllBytes() : null;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read bundled Leaflet file " + file, e);
+            return null;
+        }
+    }
+    
+    private static String contentType(String file) {
+        if (file.endsWith(".js")) {
+            return "application/javascript";
+        } else if (file.endsWith(".css")) {
+            return "text/css";
+        } else if (file.endsWith(".png")) {
+            return "image/png";
+        }
+        return "application/octet-stream";
+    }
+    
+    // Upstream servers send PNG or JPEG; the type is taken from the file's signature
+    private static String imageType(byte[] data) {
+        if (data.length > 3 && (data[0] & 0xff) == 0xff && (data[1] & 0xff) == 0xd8) {
+            return "image/jpeg";
+        } else if (data.length > 3 && data[0] == 'R' && data[1] == 'I' && data[2] == 'F' && data[3] == 'F') {
+            return "image/webp";
+        }
+        return "image/png";
+    }
+    
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
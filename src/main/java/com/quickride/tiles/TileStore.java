@@ -0,0 +1,590 @@
+package com.quickride.tiles;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Disk cache of map tiles in memory-mapped segment files, evicting the least recently used tiles
+ *
+ * Tiles are appended to fixed-size segment files as records of
+ * [state][length][key][crc][bytes], padded to 8 bytes. An index maps each
+ * tile key to its record, so a lookup is one hash probe and a copy out of the
+ * mapping; its entries are also linked in order of use, and the head of that
+ * list is the tile to evict.
+ * Evicted or replaced tiles are marked dead in place. A segment whose tiles
+ * are all dead is deleted; when the store runs out of segments, the one with
+ * the fewest live bytes is copied forward into a fresh segment and deleted.
+ * The files take up to about twice the capacity on disk.
+ *
+ * Reopening the store scans the segments in order, so tiles in older segments
+ * count as less recently used. A record's state is written last and its bytes
+ * carry a CRC, so a record torn by a crash is skipped. Thread safe; every
+ * operation holds the store's lock
+ */
+public final class TileStore implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(TileStore.class.getName());
+    
+    public static final long DEFAULT_CAPACITY = 256L << 20;
+    public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+    
+    // Segment header: magic "QRTS", version, segment size
+    private static final int MAGIC = 0x51525453;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    
+    // Record header: state, payload length, tile key, CRC-32 of the payload, padding
+    private static final int RECORD_HEADER = 24;
+    private static final int STATE_OFFSET = 0;
+    private static final int LENGTH_OFFSET = 4;
+    private static final int KEY_OFFSET = 8;
+    private static final int CRC_OFFSET = 16;
+    
+    // Record states; a zero state marks the end of the written part of a segment
+    private static final int STATE_END = 0;
+    private static final int STATE_LIVE = 1;
+    private static final int STATE_DEAD = 2;
+    
+    private static final int PAGE_SIZE = 4096;
+    
+    private static final String SEGMENT_PREFIX = "tiles-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    
+    private final Path directory;
+    private final long capacity;
+    private final int segmentSize;
+    private final int maxSegments;
+    
+    // Tiles by key, and the same entries linked from least to most recently used
+    private final Map<Long, Entry> index = new HashMap<>(1024);
+    private Entry eldest;
+    private Entry newest;
+    
+    // Segments oldest first; the last one takes new records
+    private final List<Segment> segments = new ArrayList<>();
+    private int nextSegmentNumber;
+    private long liveBytes;
+    
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long compactions;
+    
+    private final CRC32 crc = new CRC32();
+    
+    private static final class Entry {
+        final long key;
+        Segment segment;
+        int offset;
+        final int length;
+        Entry older;
+        Entry newer;
+        
+        Entry(long key, Segment segment, int offset, int length) {
+            this.key = key;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+        
+        int recordSize() {
+            return TileStore.recordSize(length);
+        }
+    }
+    
+    private TileStore(Path directory, long capacity, int segmentSize) {
+        this.directory = directory;
+        this.capacity = capacity;
+        this.segmentSize = segmentSize;
+        // Twice the segments the capacity needs, so the emptiest one is at most half full
+        this.maxSegments = (int) (2 * ((capacity + segmentSize - 1) / segmentSize) + 1);
+    }
+    
+    /**
+     * Open (or create) a store in a directory with the default segment size
+     * @param capacity bytes of tiles to keep before the least recently used are evicted
+     */
+    public static TileStore open(Path directory, long capacity) throws IOException {
+        return open(directory, capacity, DEFAULT_SEGMENT_SIZE);
+    }
+    
+    /**
+     * Open (or create) a store in a directory
+     * Existing segments keep the size they were written with; new ones get segmentSize
+     */
+    public static TileStore open(Path directory, long capacity, int segmentSize) throws IOException {
+        if (segmentSize < 64 * 1024) {
+            throw new IllegalArgumentException("Segment size must be at least 64 KB: " + segmentSize);
+        }
+        if (capacity < segmentSize) {
+            throw new IllegalArgumentException("Capacity must be at least one segment: " + capacity);
+        }
+        Files.createDirectories(directory);
+        TileStore store = new TileStore(directory, capacity, segmentSize);
+        try {
+            store.loadSegments();
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+    
+    /**
+     * Key of a tile: layer, zoom and coordinates packed into one long
+     * Zoom levels up to 24 fit, which is beyond every layer's maximum
+     */
+    public static long key(TileLayer layer, int zoom, int x, int y) {
+        return ((long) layer.ordinal() << 53) | ((long) zoom << 48) | ((long) x << 24) | y;
+    }
+    
+    /**
+     * Read a tile and mark it as recently used
+     * @return a copy of the tile's bytes, or null if it is not cached
+     */
+    public synchronized byte[] get(long key) {
+        Entry entry = index.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        unlink(entry);
+        linkNewest(entry);
+        byte[] data = new byte[entry.length];
+        entry.segment.buffer.get(entry.offset + RECORD_HEADER, data);
+        return data;
+    }
+    
+    // True if the tile is cached; does not count as a use
+    public synchronized boolean contains(long key) {
+        return index.containsKey(key);
+    }
+    
+    /**
+     * Fault a cached tile's pages into memory without marking it as used
+     * Used to prefetch the neighbours of a requested tile
+     * @return true if the tile is cached
+     */
+    public synchronized boolean warm(long key) {
+        Entry entry = index.get(key);
+        if (entry == null) {
+            return false;
+        }
+        MappedByteBuffer buffer = entry.segment.buffer;
+        int end = entry.offset + entry.recordSize();
+        for (int position = entry.offset; position < end; position += PAGE_SIZE) {
+            buffer.get(position);
+        }
+        return true;
+    }
+    
+    /**
+     * Store a tile, replacing any cached version and evicting the least recently used tiles if needed
+     * @return false if the tile is too large to cache
+     */
+    public synchronized boolean put(long key, byte[] data) throws IOException {
+        int size = recordSize(data.length);
+        if (size > maxRecordSize()) {
+            return false;
+        }
+        Entry old = index.remove(key);
+        if (old != null) {
+            unlink(old);
+            kill(old);
+        }
+        while (liveBytes + size > capacity && !index.isEmpty()) {
+            evictEldest();
+        }
+        
+        Segment target = writableSegment(size);
+        int offset = target.append(key, data, 0, data.length, checksum(data, 0, data.length));
+        Entry entry = new Entry(key, target, offset, data.length);
+        index.put(key, entry);
+        linkNewest(entry);
+        target.liveBytes += size;
+        liveBytes += size;
+        return true;
+    }
+    
+    /**
+     * Add the tiles of a {layer}/{z}/{x}/{y}.png directory tree, as written by common tile downloaders
+     * Tiles already in the store and files of unknown layers are skipped
+     * @return the number of tiles added
+     */
+    public int importDirectory(Path root) throws IOException {
+        int added = 0;
+        try (Stream<Path> files = Files.walk(root, 4)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Path relative = root.relativize(file);
+                if (relative.getNameCount() != 4) {
+                    continue;
+                }
+                TileLayer layer = TileLayer.fromId(relative.getName(0).toString());
+                String name = relative.getName(3).toString();
+                int dot = name.indexOf('.');
+                int zoom;
+                int x;
+                int y;
+                try {
+                    zoom = Integer.parseInt(relative.getName(1).toString());
+                    x = Integer.parseInt(relative.getName(2).toString());
+                    y = Integer.parseInt(dot >= 0 ? name.substring(0, dot) : name);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (layer == null || !layer.isValid(zoom, x, y)) {
+                    continue;
+                }
+                long key = key(layer, zoom, x, y);
+                if (!contains(key) && put(key, Files.readAllBytes(file))) {
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+    
+    // Number of cached tiles
+    public synchronized int size() {
+        return index.size();
+    }
+    
+    // Bytes of cached tiles, including record headers
+    public synchronized long liveBytes() {
+        return liveBytes;
+    }
+    
+    public long getCapacity() {
+        return capacity;
+    }
+    
+    public synchronized long getHits() {
+        return hits;
+    }
+    
+    public synchronized long getMisses() {
+        return misses;
+    }
+    
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+    
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+    
+    // Number of segment files
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+    
+    /**
+     * Force written tiles to disk
+     * Not needed for correctness - a tile lost in a crash is fetched again
+     */
+    public synchronized void force() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return String.format("%d tiles, %d KB of %d KB, %d segments, %d hits, %d misses, %d evictions, %d compactions",
+                index.size(), liveBytes / 1024, capacity / 1024, segments.size(), hits, misses, evictions, compactions);
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (Segment segment : segments) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        segments.clear();
+        index.clear();
+        eldest = null;
+        newest = null;
+        liveBytes = 0;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    // Largest record accepted, so copying the emptiest segment forward always leaves room for one
+    private int maxRecordSize() {
+        return (segmentSize - HEADER_SIZE) / 4;
+    }
+    
+    private static int recordSize(int length) {
+        return (RECORD_HEADER + length + 7) & ~7;
+    }
+    
+    private int checksum(byte[] data, int offset, int length) {
+        crc.reset();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+    
+    private void evictEldest() throws IOException {
+        Entry entry = eldest;
+        index.remove(entry.key);
+        unlink(entry);
+        kill(entry);
+        evictions++;
+    }
+    
+    private void linkNewest(Entry entry) {
+        entry.older = newest;
+        entry.newer = null;
+        if (newest != null) {
+            newest.newer = entry;
+        } else {
+            eldest = entry;
+        }
+        newest = entry;
+    }
+    
+    private void unlink(Entry entry) {
+        if (entry.older != null) {
+            entry.older.newer = entry.newer;
+        } else {
+            eldest = entry.newer;
+        }
+        if (entry.newer != null) {
+            entry.newer.older = entry.older;
+        } else {
+            newest = entry.older;
+        }
+        entry.older = null;
+        entry.newer = null;
+    }
+    
+    // Mark a record dead; a sealed segment without live records is deleted
+    private void kill(Entry entry) throws IOException {
+        Segment segment = entry.segment;
+        segment.buffer.putInt(entry.offset + STATE_OFFSET, STATE_DEAD);
+        segment.liveBytes -= entry.recordSize();
+        liveBytes -= entry.recordSize();
+        if (segment.liveBytes == 0 && segment != activeSegment()) {
+            deleteSegment(segment);
+        }
+    }
+    
+    private Segment activeSegment() {
+        return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    }
+    
+    private Segment writableSegment(int size) throws IOException {
+        Segment active = activeSegment();
+        if (active != null && active.remaining() >= size) {
+            return active;
+        }
+        if (active != null && active.liveBytes == 0) {
+            deleteSegment(active);
+        }
+        if (segments.size() < maxSegments) {
+            return createSegment();
+        }
+        
+        // Out of segments: copy the emptiest one forward, which frees at least half a segment
+        Segment victim = segments.get(0);
+        for (Segment segment : segments) {
+            if (segment.liveBytes < victim.liveBytes) {
+                victim = segment;
+            }
+        }
+        Segment target = createSegment();
+        compact(victim, target);
+        return target;
+    }
+    
+    // Copy the live records of a segment to the end of another and delete it
+    private void compact(Segment source, Segment target) throws IOException {
+        MappedByteBuffer buffer = source.buffer;
+        for (int offset = HEADER_SIZE; offset < source.writeOffset;) {
+            int length = buffer.getInt(offset + LENGTH_OFFSET);
+            if (buffer.getInt(offset + STATE_OFFSET) == STATE_LIVE) {
+                long key = buffer.getLong(offset + KEY_OFFSET);
+                Entry entry = index.get(key);
+                if (entry != null && entry.segment == source && entry.offset == offset) {
+                    if (target.remaining() < entry.recordSize()) {
+                        // Only when segments were written larger than they are now
+                        index.remove(key);
+                        unlink(entry);
+                        source.liveBytes -= entry.recordSize();
+                        liveBytes -= entry.recordSize();
+                        evictions++;
+                        offset += recordSize(length);
+                        continue;
+                    }
+                    byte[] data = new byte[length];
+                    buffer.get(offset + RECORD_HEADER, data);
+                    entry.offset = target.append(key, data, 0, length, buffer.getInt(offset + CRC_OFFSET));
+                    entry.segment = target;
+                    target.liveBytes += entry.recordSize();
+                }
+            }
+            offset += recordSize(length);
+        }
+        deleteSegment(source);
+        compactions++;
+    }
+    
+    private Segment createSegment() throws IOException {
+        Path path = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, nextSegmentNumber++, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, segmentSize);
+            Segment segment = new Segment(path, channel, buffer);
+            segments.add(segment);
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    private void deleteSegment(Segment segment) throws IOException {
+        segments.remove(segment);
+        segment.channel.close();
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            // Some platforms refuse to delete a file that is still mapped; it holds no live tiles,
+            // so the next open deletes it
+            LOGGER.log(Level.FINE, "Could not delete tile segment " + segment.path, e);
+        }
+    }
+    
+    private void loadSegments() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        // Zero-padded numbers sort in creation order
+        paths.sort(null);
+        
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            nextSegmentNumber = Math.max(nextSegmentNumber, number + 1);
+            
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment;
+            try {
+                long size = channel.size();
+                MappedByteBuffer buffer = size >= HEADER_SIZE && size <= Integer.MAX_VALUE
+                        ? channel.map(FileChannel.MapMode.READ_WRITE, 0, size) : null;
+                if (buffer == null || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new IOException("Not a QuickRide tile segment: " + path);
+                }
+                segment = new Segment(path, channel, buffer);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            segments.add(segment);
+            scan(segment);
+        }
+        
+        // Drop segments left without live tiles, except the last, which new tiles go to
+        for (Segment segment : new ArrayList<>(segments)) {
+            if (segment.liveBytes == 0 && segment != activeSegment()) {
+                deleteSegment(segment);
+            }
+        }
+        while (liveBytes > capacity) {
+            evictEldest();
+        }
+    }
+    
+    // Rebuild the index entries of one segment and find where its written part ends
+    private void scan(Segment segment) throws IOException {
+        MappedByteBuffer buffer = segment.buffer;
+        int limit = buffer.capacity();
+        int offset = HEADER_SIZE;
+        while (offset + RECORD_HEADER <= limit) {
+            int state = buffer.getInt(offset + STATE_OFFSET);
+            int length = buffer.getInt(offset + LENGTH_OFFSET);
+            if (state == STATE_END || length < 0 || length > limit - offset - RECORD_HEADER) {
+                break;
+            }
+            if (state == STATE_LIVE) {
+                byte[] data = new byte[length];
+                buffer.get(offset + RECORD_HEADER, data);
+                if (checksum(data, 0, length) == buffer.getInt(offset + CRC_OFFSET)) {
+                    Entry entry = new Entry(buffer.getLong(offset + KEY_OFFSET), segment, offset, length);
+                    Entry old = index.put(entry.key, entry);
+                    if (old != null) {
+                        unlink(old);
+                        kill(old);
+                    }
+                    linkNewest(entry);
+                    segment.liveBytes += entry.recordSize();
+                    liveBytes += entry.recordSize();
+                } else {
+                    buffer.putInt(offset + STATE_OFFSET, STATE_DEAD);
+                }
+            }
+            offset += recordSize(length);
+        }
+        segment.writeOffset = Math.min(offset, limit);
+    }
+    
+    /**
+     * One mapped segment file
+     */
+    private static final class Segment {
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writeOffset = HEADER_SIZE;
+        long liveBytes;
+        
+        Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+        
+        int remaining() {
+            return buffer.capacity() - writeOffset;
+        }
+        
+        // Write a record and publish it by setting its state last; returns its offset
+        int append(long key, byte[] data, int start, int length, int checksum) {
+            int offset = writeOffset;
+            buffer.putInt(offset + LENGTH_OFFSET, length);
+            buffer.putLong(offset + KEY_OFFSET, key);
+            buffer.putInt(offset + CRC_OFFSET, checksum);
+            buffer.put(offset + RECORD_HEADER, data, start, length);
+            buffer.putInt(offset + STATE_OFFSET, STATE_LIVE);
+            writeOffset = offset + recordSize(length);
+            return offset;
+        }
+    }
+}
@@ -41,8 +41,8 @@ public class Constants {
     public static final String TAXI_ADDED = "Taxi added successfully";
     
     // Big O time complexity descriptions
-    public static final String ADD_TAXI_COMPLEXITY = "O(1) - Constant time";
-    public static final String GET_NEXT_TAXI_COMPLEXITY = "O(1) - Constant time (queue poll operation)";
-    public static final String GET_NEAREST_TAXI_COMPLEXITY = "O(n) - Linear time where n is the number of available taxis";
-    public static final String RELEASE_TAXI_COMPLEXITY = "O(n) - Linear time to find and remove from assigned list";
+    public static final String ADD_TAXI_COMPLEXITY = "O(log n) - Hash index insert plus skip-list queue insert";
+    public static final String GET_NEXT_TAXI_COMPLEXITY = "O(log n) - Lock-free skip-list queue head claimed with a CAS";
+    public static final String GET_NEAREST_TAXI_COMPLEXITY = "O(k) - Grid search over the cells nearest the pickup, independent of fleet size";
+    public static final String RELEASE_TAXI_COMPLEXITY = "O(log n) - Concurrent set removal plus skip-list queue insert";
 } 
\ No newline at end of file
@@ -0,0 +1,56 @@
+package com.quickride.util;
+
+import javafx.application.Platform;
+
+/**
+ * Helpers for handing work to the JavaFX application thread
+ * Managers are called from background threads, but observable lists bound to
+ * the UI must only be changed on the FX thread
+ */
+public final class FxUtil {
+    
+    // Serializes direct runs when no FX toolkit is present (headless use)
+    private static final Object HEADLESS_LOCK = new Object();
+    
+    private static volatile boolean toolkitRunning = false;
+    private static volatile boolean toolkitUnavailable = false;
+    
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private FxUtil() {
+        // Utility class, not meant to be instantiated
+    }
+    
+    /**
+     * Run an action on the FX application thread
+     * Runs inline when already on the FX thread, and runs inline under a lock
+     * when the FX toolkit was never started (for example in headless runs)
+     * @param action the action to run
+     */
+    public static void runOnFxThread(Runnable action) {
+        if (toolkitUnavailable) {
+            synchronized (HEADLESS_LOCK) {
+                action.run();
+            }
+            return;
+        }
+        
+        // Only ask about the FX thread once the toolkit is known to be up - asking earlier starts it
+        if (toolkitRunning && Platform.isFxApplicationThread()) {
+            action.run();
+            return;
+        }
+        
+        try {
+            Platform.runLater(action);
+            toolkitRunning = true;
+        } catch (IllegalStateException e) {
+            // Toolkit not initialized - no UI to protect
+            toolkitUnavailable = true;
+            synchronized (HEADLESS_LOCK) {
+                action.run();
+            }
+        }
+    }
+}
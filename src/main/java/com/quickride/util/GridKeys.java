@@ -0,0 +1,25 @@
+package com.quickride.util;
+
+/**
+ * Hash map keys for the cells of a grid
+ * Shared by the taxi grid index and the map clustering
+ */
+public final class GridKeys {
+    
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private GridKeys() {
+        // Utility class, not meant to be instantiated
+    }
+    
+    /**
+     * Pack two cell coordinates into one key, scrambled by an odd multiplier
+     * The multiplication is a bijection, so keys stay unique. Unscrambled,
+     * Long.hashCode() and HashMap's spreading reduce them to x ^ y, which
+     * collides along every diagonal of a contiguous block of cells
+     */
+    public static long key(int x, int y) {
+        return (((long) x << 32) | (y & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+    }
+}
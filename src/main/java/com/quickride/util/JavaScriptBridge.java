@@ -50,6 +50,21 @@ public class JavaScriptBridge {
         }
     }
     
+    /**
+     * Report the visible map area after a pan or zoom
+     * Called from JavaScript with "zoom,south,west,north,east"
+     * @param bounds The zoom level and bounds in degrees
+     */
+    public void viewportChanged(String bounds) {
+        try {
+            if (mapViewer != null) {
+                mapViewer.onViewportChanged(bounds);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Error in viewportChanged " + bounds, e);
+        }
+    }
+    
     /**
      * Log a message from JavaScript to Java
      * @param message The message to log
@@ -0,0 +1,85 @@
+package com.quickride.util;
+
+import com.quickride.model.Location;
+
+/**
+ * Visible area of the map as reported by the page: zoom level and bounds in degrees
+ * Immutable, so it can be handed to background threads such as the animator
+ */
+public final class MapViewport {
+    private final int zoom;
+    private final double south;
+    private final double west;
+    private final double north;
+    private final double east;
+    
+    public MapViewport(int zoom, double south, double west, double north, double east) {
+        this.zoom = zoom;
+        this.south = south;
+        this.west = west;
+        this.north = north;
+        this.east = east;
+    }
+    
+    /**
+     * Parse the "zoom,south,west,north,east" form sent over the JavaScript bridge
+     * @throws IllegalArgumentException if the text is malformed
+     */
+    public static MapViewport parse(String text) {
+        String[] parts = text.split(",");
+        if (parts.length != 5) {
+            throw new IllegalArgumentException("Expected zoom,south,west,north,east: " + text);
+        }
+        return new MapViewport(
+                (int) Math.round(Double.parseDouble(parts[0])),
+                Double.parseDouble(parts[1]),
+                Double.parseDouble(parts[2]),
+                Double.parseDouble(parts[3]),
+                Double.parseDouble(parts[4]));
+    }
+    
+    /**
+     * The same viewport grown on every side by a fraction of its height and width
+     * A margin lets small pans show taxis that were already sent
+     */
+    public MapViewport expand(double fraction) {
+        double latMargin = (north - south) * fraction;
+        double lonMargin = (east - west) * fraction;
+        return new MapViewport(zoom,
+                Math.max(-90, south - latMargin), west - lonMargin,
+                Math.min(90, north + latMargin), east + lonMargin);
+    }
+    
+    public boolean contains(double latitude, double longitude) {
+        return latitude >= south && latitude <= north && longitude >= west && longitude <= east;
+    }
+    
+    public boolean contains(Location location) {
+        return contains(location.getLatitude(), location.getLongitude());
+    }
+    
+    public int getZoom() {
+        return zoom;
+    }
+    
+    public double getSouth() {
+        return south;
+    }
+    
+    public double getWest() {
+        return west;
+    }
+    
+    public double getNorth() {
+        return north;
+    }
+    
+    public double getEast() {
+        return east;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("zoom %d [%.5f, %.5f] - [%.5f, %.5f]", zoom, south, west, north, east);
+    }
+}
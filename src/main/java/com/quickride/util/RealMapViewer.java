@@ -7,11 +7,17 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.quickride.metrics.MapScriptEvent;
+import com.quickride.metrics.Metrics;
 import com.quickride.model.Location;
 import com.quickride.model.Taxi;
+import com.quickride.tiles.TileLayer;
+import com.quickride.tiles.TileServer;
 
 import javafx.application.Platform;
 import javafx.geometry.Insets;
@@ -41,9 +47,18 @@ public class RealMapViewer {
     private static final double DEFAULT_LON = 8.2275;
     private static final int DEFAULT_ZOOM = 8;
     
+    // Taxis this far outside the visible area, as a fraction of its size, are still sent
+    private static final double VIEWPORT_MARGIN = 0.25;
+    
+    // Leaflet release bundled under /leaflet, used from the CDN when there is no tile server
+    private static final String LEAFLET_CDN = "https://unpkg.com/leaflet@1.9.4/dist/";
+    
     private WebView webView;
     private WebEngine webEngine;
     private final Pane parentPane;
+    
+    // Local server for Leaflet and the map tiles, null to load both from the internet
+    private final TileServer tileServer;
     private List<Taxi> taxis = new ArrayList<>();
     private VBox infoBox;
     
@@ -53,6 +68,19 @@ public class RealMapViewer {
     // Cache for the taxi icon
     private String taxiIconDataUrl;
     
+    // Marker state of the loaded page; only touched on the FX thread
+    private final TaxiDeltaEncoder deltaEncoder = new TaxiDeltaEncoder();
+    private final TaxiClusterIndex clusterIndex = new TaxiClusterIndex();
+    private boolean mapReady;
+    private int zoom = DEFAULT_ZOOM;
+    
+    // Visible area plus margin as last reported by the page, null until the first report
+    private volatile MapViewport viewport;
+    private final List<Consumer<MapViewport>> viewportListeners = new CopyOnWriteArrayList<>();
+    
+    // Optional latency recording of taxi pushes to the page
+    private volatile Metrics metrics;
+    
     // Static initializer to avoid "this" escape
     private static final class MapInitializer {
         private final RealMapViewer viewer;
@@ -83,7 +111,7 @@ public class RealMapViewer {
                 if (newState == javafx.concurrent.Worker.State.SUCCEEDED) {
                     try {
                         // Create JavaScript bridge using safe method
-                        viewer.webEngine.executeScript(
+                        viewer.executeScript(
                             "window.javaConnector = {"
                             + "  showTaxiInfo: function(taxiId) {"
                             + "    window.location.href = 'java-callback:showTaxiInfo:' + taxiId;"
@@ -91,6 +119,9 @@ public class RealMapViewer {
                             + "  clearSelectedTaxi: function() {"
                             + "    window.location.href = 'java-callback:clearSelectedTaxi';"
                             + "  },"
+                            + "  viewportChanged: function(zoom, south, west, north, east) {"
+                            + "    window.location.href = 'java-callback:viewportChanged:' + [zoom, south, west, north, east].join(',');"
+                            + "  },"
                             + "  log: function(message) {"
                             + "    window.location.href = 'java-callback:log:' + message;"
                             + "  },"
@@ -110,6 +141,8 @@ public class RealMapViewer {
                                     viewer.showTaxiInfo(taxiId);
                                 } else if (command.equals("clearSelectedTaxi")) {
                                     viewer.clearSelectedTaxi();
+                                } else if (command.startsWith("viewportChanged:")) {
+                                    viewer.onViewportChanged(command.substring("viewportChanged:".length()));
                                 } else if (command.startsWith("log:")) {
                                     String message = command.substring("log:".length());
                                     LOGGER.info(() -> "JavaScript log: " + message);
@@ -124,7 +157,7 @@ public class RealMapViewer {
                         });
                         
                         // Add global error handler
-                        viewer.webEngine.executeScript(
+                        viewer.executeScript(
                             "window.onerror = function(message, source, lineno, colno, error) { " +
                             "  if (window.javaConnector) { " +
                             "    window.javaConnector.reportError(message); " +
@@ -135,9 +168,17 @@ public class RealMapViewer {
                         );
                         
                         // Test if JavaScript bridge is working
-                        viewer.webEngine.executeScript("if (window.javaConnector) { window.javaConnector.log('JavaScript bridge initialized'); }");
+                        viewer.executeScript("if (window.javaConnector) { window.javaConnector.log('JavaScript bridge initialized'); }");
                         
+                        // Fresh page without markers or clusters
+                        viewer.deltaEncoder.reset();
+                        viewer.clusterIndex.deactivate();
+                        viewer.zoom = DEFAULT_ZOOM;
+                        viewer.mapReady = true;
                         viewer.updateTaxis(viewer.taxis);
+                        
+                        // Send the initial bounds; later ones follow every pan and zoom
+                        viewer.executeScript("reportViewport();");
                     } catch (Exception e) {
                         LOGGER.log(Level.SEVERE, "Error initializing JavaScript bridge", e);
                     }
@@ -147,11 +188,21 @@ public class RealMapViewer {
     }
     
     /**
-     * Constructs a new map viewer
+     * Constructs a new map viewer that loads Leaflet and the tiles from the internet
      * @param parentPane the JavaFX pane to add the map to
      */
     public RealMapViewer(Pane parentPane) {
+        this(parentPane, null);
+    }
+    
+    /**
+     * Constructs a new map viewer
+     * @param parentPane the JavaFX pane to add the map to
+     * @param tileServer local server to load Leaflet and the tiles from, or null to use the internet
+     */
+    public RealMapViewer(Pane parentPane, TileServer tileServer) {
         this.parentPane = parentPane;
+        this.tileServer = tileServer;
         
         // Initialize the web view properly without "this" escape
         MapInitializer initializer = new MapInitializer(this);
@@ -185,15 +236,9 @@ public class RealMapViewer {
                 .append("            box-shadow: 0 0 15px rgba(0,0,0,0.2);\n")
                 .append("            border-radius: 5px;\n")
                 .append("        }\n")
-                .append("        .selected-taxi {\n")
-                .append("            z-index: 1000 !important;\n")
-                .append("            filter: drop-shadow(0 0 10px #ff9800) brightness(1.3);\n")
-                .append("            transform: scale(1.3);\n")
-                .append("            transition: all 0.3s ease;\n")
-                .append("        }\n")
                 .append("    </style>\n")
-                .append("    <link rel=\"stylesheet\" href=\"https://unpkg.com/leaflet@1.9.4/dist/leaflet.css\" />\n")
-                .append("    <script src=\"https://unpkg.com/leaflet@1.9.4/dist/leaflet.js\"></script>\n")
+                .append("    <link rel=\"stylesheet\" href=\"").append(leafletUrl("leaflet.css")).append("\" />\n")
+                .append("    <script src=\"").append(leafletUrl("leaflet.js")).append("\"></script>\n")
                 .append("</head>\n")
                 .append("<body>\n")
                 .append("    <div id=\"map\"></div>\n")
@@ -209,25 +254,25 @@ public class RealMapViewer {
                 .append(");\n")
                 .append("        \n")
                 .append("        // Define base maps\n")
-                .append("        var street = L.tileLayer('https://{s}.tile.openstreetmap.org/{z}/{x}/{y}.png', {\n")
+                .append("        var street = L.tileLayer('").append(tileUrl(TileLayer.STREET)).append("', {\n")
                 .append("            attribution: '&copy; <a href=\"https://www.openstreetmap.org/copyright\">OpenStreetMap</a> contributors',\n")
                 .append("            maxZoom: 19\n")
                 .append("        });\n")
                 .append("        \n")
                 .append("        // Using a more reliable satellite imagery source\n")
-                .append("        var satellite = L.tileLayer('https://server.arcgisonline.com/ArcGIS/rest/services/World_Imagery/MapServer/tile/{z}/{y}/{x}', {\n")
+                .append("        var satellite = L.tileLayer('").append(tileUrl(TileLayer.SATELLITE)).append("', {\n")
                 .append("            attribution: 'Tiles &copy; Esri &mdash; Source: Esri, i-cubed, USDA, USGS, AEX, GeoEye, Getmapping, Aerogrid, IGN, IGP, UPR-EGP, and the GIS User Community',\n")
                 .append("            maxZoom: 18\n")
                 .append("        });\n")
                 .append("        \n")
                 .append("        // Alternative satellite source in case the first one fails\n")
-                .append("        var satelliteAlt = L.tileLayer('https://mt1.google.com/vt/lyrs=s&x={x}&y={y}&z={z}', {\n")
+                .append("        var satelliteAlt = L.tileLayer('").append(tileUrl(TileLayer.SATELLITE_ALT)).append("', {\n")
                 .append("            attribution: 'Map data &copy; Google',\n")
                 .append("            maxZoom: 20\n")
                 .append("        });\n")
                 .append("        \n")
                 .append("        // Add city labels layer for satellite view\n")
-                .append("        var cityLabels = L.tileLayer('https://{s}.basemaps.cartocdn.com/light_only_labels/{z}/{x}/{y}{r}.png', {\n")
+                .append("        var cityLabels = L.tileLayer('").append(tileUrl(TileLayer.LABELS)).append("', {\n")
                 .append("            attribution: '&copy; <a href=\"https://www.openstreetmap.org/copyright\">OpenStreetMap</a> contributors &copy; <a href=\"https://carto.com/attributions\">CARTO</a>',\n")
                 .append("            subdomains: 'abcd',\n")
                 .append("            maxZoom: 19\n")
@@ -249,117 +294,386 @@ public class RealMapViewer {
                 .append("        \n")
                 .append("        L.control.layers(baseMaps, overlayMaps, {position: 'topright'}).addTo(map);\n")
                 .append("        \n")
-                .append("        // Object to store markers\n")
-                .append("        var taxiMarkers = {};\n")
+                .append("        // Taxis are drawn on one canvas instead of a DOM marker each.\n")
+                .append("        // Per-handle state lives in typed arrays; handles come from TaxiDeltaEncoder\n")
+                .append("        var taxiCapacity = 0;\n")
+                .append("        var taxiCount = 0;\n")
+                .append("        var taxiLat, taxiLon, taxiWorldX, taxiWorldY, taxiScreenX, taxiScreenY, taxiAlive;\n")
+                .append("        var taxiIds = [];\n")
+                .append("        var taxiDrivers = [];\n")
+                .append("        var taxiHandles = {};\n")
                 .append("        var selectedTaxiId = null;\n")
+                .append("        var selectedLat = null;\n")
+                .append("        var selectedLon = null;\n")
+                .append("        var hoveredHandle = -1;\n")
+                .append("        \n")
+                .append("        // Below this zoom Java sends clusters from TaxiClusterIndex instead of taxis\n")
+                .append("        var CLUSTER_MAX_ZOOM = ").append(TaxiClusterIndex.MAX_CLUSTER_ZOOM).append(";\n")
+                .append("        var clusterMode = false;\n")
+                .append("        var clusters = new Map();\n")
+                .append("        var hoveredCluster = null;\n")
+                .append("        \n")
+                .append("        var TAXI_ICON_SIZE = 32;\n")
+                .append("        var TAXI_HIT_RADIUS = 16;\n")
+                .append("        var taxiIcon = new Image();\n")
+                .append("        taxiIcon.onload = function() { scheduleTaxiDraw(); };\n")
+                .append("        taxiIcon.src = '").append(loadTaxiIconAsDataUrl()).append("';\n")
+                .append("        \n")
+                .append("        function ensureTaxiCapacity(handle) {\n")
+                .append("            if (handle < taxiCapacity) return;\n")
+                .append("            var capacity = Math.max(1024, taxiCapacity);\n")
+                .append("            while (capacity <= handle) capacity *= 2;\n")
+                .append("            taxiLat = growArray(taxiLat, new Float64Array(capacity));\n")
+                .append("            taxiLon = growArray(taxiLon, new Float64Array(capacity));\n")
+                .append("            taxiWorldX = growArray(taxiWorldX, new Float64Array(capacity));\n")
+                .append("            taxiWorldY = growArray(taxiWorldY, new Float64Array(capacity));\n")
+                .append("            taxiScreenX = growArray(taxiScreenX, new Float32Array(capacity));\n")
+                .append("            taxiScreenY = growArray(taxiScreenY, new Float32Array(capacity));\n")
+                .append("            taxiAlive = growArray(taxiAlive, new Uint8Array(capacity));\n")
+                .append("            taxiCapacity = capacity;\n")
+                .append("        }\n")
+                .append("        \n")
+                .append("        function growArray(oldArray, newArray) {\n")
+                .append("            if (oldArray) newArray.set(oldArray);\n")
+                .append("            return newArray;\n")
+                .append("        }\n")
+                .append("        \n")
+                .append("        // Web Mercator position in [0, 1), scaled by 256 * 2^zoom when drawing\n")
+                .append("        function worldX(lon) {\n")
+                .append("            return (lon + 180) / 360;\n")
+                .append("        }\n")
+                .append("        \n")
+                .append("        function worldY(lat) {\n")
+                .append("            var sin = Math.sin(lat * Math.PI / 180);\n")
+                .append("            sin = Math.max(Math.min(sin, 0.9999), -0.9999);\n")
+                .append("            return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);\n")
+                .append("        }\n")
+                .append("        \n")
+                .append("        function setTaxiPosition(handle, lat, lon) {\n")
+                .append("            taxiLat[handle] = lat;\n")
+                .append("            taxiLon[handle] = lon;\n")
+                .append("            taxiWorldX[handle] = worldX(lon);\n")
+                .append("            taxiWorldY[handle] = worldY(lat);\n")
+                .append("        }\n")
+                .append("        \n")
+                .append("        // Canvas laid over the map panes and under the controls; it does not take mouse events itself\n")
+                .append("        var taxiCanvas = document.createElement('canvas');\n")
+                .append("        taxiCanvas.style.position = 'absolute';\n")
+                .append("        taxiCanvas.style.left = '0';\n")
+                .append("        taxiCanvas.style.top = '0';\n")
+                .append("        taxiCanvas.style.zIndex = 450;\n")
+                .append("        taxiCanvas.style.pointerEvents = 'none';\n")
+                .append("        map.getContainer().appendChild(taxiCanvas);\n")
+                .append("        var taxiContext = taxiCanvas.getContext('2d');\n")
+                .append("        var taxiDrawPending = false;\n")
                 .append("        \n")
-                .append("        // Function to add or update taxi markers\n")
-                .append("        function updateTaxis(taxiData) {\n")
-                .append("            // Parse the JSON data\n")
-                .append("            var taxis = JSON.parse(taxiData);\n")
+                .append("        function scheduleTaxiDraw() {\n")
+                .append("            if (taxiDrawPending) return;\n")
+                .append("            taxiDrawPending = true;\n")
+                .append("            window.requestAnimationFrame(drawTaxis);\n")
+                .append("        }\n")
+                .append("        \n")
+                .append("        function drawTaxis() {\n")
+                .append("            taxiDrawPending = false;\n")
+                .append("            var size = map.getSize();\n")
+                .append("            var ratio = window.devicePixelRatio || 1;\n")
+                .append("            if (taxiCanvas.width !== size.x * ratio || taxiCanvas.height !== size.y * ratio) {\n")
+                .append("                taxiCanvas.width = size.x * ratio;\n")
+                .append("                taxiCanvas.height = size.y * ratio;\n")
+                .append("                taxiCanvas.style.width = size.x + 'px';\n")
+                .append("                taxiCanvas.style.height = size.y + 'px';\n")
+                .append("            }\n")
+                .append("            taxiContext.setTransform(ratio, 0, 0, ratio, 0, 0);\n")
+                .append("            taxiContext.clearRect(0, 0, size.x, size.y);\n")
                 .append("            \n")
-                .append("            // Keep track of processed taxis to remove stale markers\n")
-                .append("            var processedIds = [];\n")
+                .append("            var zoom = map.getZoom();\n")
+                .append("            var scale = 256 * Math.pow(2, zoom);\n")
+                .append("            var topLeft = map.project(map.getCenter(), zoom).subtract(size.divideBy(2));\n")
+                .append("            var half = TAXI_ICON_SIZE / 2;\n")
+                .append("            var iconReady = taxiIcon.complete && taxiIcon.naturalWidth > 0;\n")
+                .append("            var selected = selectedTaxiId !== null && taxiHandles[selectedTaxiId] !== undefined ? taxiHandles[selectedTaxiId] : -1;\n")
                 .append("            \n")
-                .append("            // Add/update markers for each taxi\n")
-                .append("            taxis.forEach(function(taxi) {\n")
-                .append("                processedIds.push(taxi.id);\n")
-                .append("                \n")
-                .append("                // Skip taxis without valid coordinates\n")
-                .append("                if (taxi.lat === 0 && taxi.lon === 0) return;\n")
-                .append("                \n")
-                .append("                // Check if marker already exists\n")
-                .append("                if (taxiMarkers[taxi.id]) {\n")
-                .append("                    // Update existing marker\n")
-                .append("                    taxiMarkers[taxi.id].setLatLng([taxi.lat, taxi.lon]);\n")
+                .append("            if (clusterMode) {\n")
+                .append("                drawClusters(scale, topLeft, size, iconReady);\n")
+                .append("            } else {\n")
+                .append("                for (var h = 0; h < taxiCount; h++) {\n")
+                .append("                    if (!taxiAlive[h]) continue;\n")
+                .append("                    var x = taxiWorldX[h] * scale - topLeft.x;\n")
+                .append("                    var y = taxiWorldY[h] * scale - topLeft.y;\n")
+                .append("                    taxiScreenX[h] = x;\n")
+                .append("                    taxiScreenY[h] = y;\n")
+                .append("                    if (h === selected || x < -half || y < -half || x > size.x + half || y > size.y + half) continue;\n")
+                .append("                    drawTaxiIcon(x, y, TAXI_ICON_SIZE, iconReady);\n")
+                .append("                }\n")
+                .append("            }\n")
+                .append("            \n")
+                .append("            // Selected taxi last, enlarged and with a glow, so it stays on top\n")
+                .append("            if (selectedTaxiId !== null) {\n")
+                .append("                var sx, sy;\n")
+                .append("                if (selected >= 0 && !clusterMode) {\n")
+                .append("                    sx = taxiScreenX[selected];\n")
+                .append("                    sy = taxiScreenY[selected];\n")
+                .append("                } else if (selectedLat !== null) {\n")
+                .append("                    // Taxis are not tracked one by one while clustered; use the position sent with the selection\n")
+                .append("                    sx = worldX(selectedLon) * scale - topLeft.x;\n")
+                .append("                    sy = worldY(selectedLat) * scale - topLeft.y;\n")
                 .append("                } else {\n")
-                .append("                    // Create new marker with taxi icon\n")
-                .append("                    var taxiIcon = L.icon({\n")
-                .append("                        iconUrl: '").append(loadTaxiIconAsDataUrl()).append("',\n")
-                .append("                        iconSize: [32, 32],\n")
-                .append("                        iconAnchor: [16, 16],\n")
-                .append("                        popupAnchor: [0, -16]\n")
-                .append("                    });\n")
-                .append("                    \n")
-                .append("                    var marker = L.marker([taxi.lat, taxi.lon], {icon: taxiIcon})\n")
-                .append("                        .addTo(map)\n")
-                .append("                        .bindTooltip(taxi.driver);\n")
-                .append("                        \n")
-                .append("                    marker.on('click', function() {\n")
-                .append("                        // Call Java method when taxi is clicked\n")
-                .append("                        try {\n")
-                .append("                            if (window.javaConnector) {\n")
-                .append("                                window.javaConnector.showTaxiInfo(taxi.id);\n")
-                .append("                                selectTaxi(taxi.id);\n")
-                .append("                            }\n")
-                .append("                        } catch (err) {\n")
-                .append("                            console.error('Error calling Java: ' + err);\n")
-                .append("                        }\n")
-                .append("                    });\n")
-                .append("                    \n")
-                .append("                    taxiMarkers[taxi.id] = marker;\n")
+                .append("                    return;\n")
+                .append("                }\n")
+                .append("                var big = TAXI_ICON_SIZE * 1.3;\n")
+                .append("                taxiContext.save();\n")
+                .append("                taxiContext.shadowColor = '#ff9800';\n")
+                .append("                taxiContext.shadowBlur = 10;\n")
+                .append("                taxiContext.beginPath();\n")
+                .append("                taxiContext.arc(sx, sy, big / 2, 0, 2 * Math.PI);\n")
+                .append("                taxiContext.fillStyle = 'rgba(255, 152, 0, 0.35)';\n")
+                .append("                taxiContext.fill();\n")
+                .append("                drawTaxiIcon(sx, sy, big, iconReady);\n")
+                .append("                taxiContext.restore();\n")
+                .append("            }\n")
+                .append("        }\n")
+                .append("        \n")
+                .append("        function drawTaxiIcon(x, y, iconSize, iconReady) {\n")
+                .append("            if (iconReady) {\n")
+                .append("                taxiContext.drawImage(taxiIcon, x - iconSize / 2, y - iconSize / 2, iconSize, iconSize);\n")
+                .append("            } else {\n")
+                .append("                taxiContext.fillStyle = '#ffc107';\n")
+                .append("                taxiContext.fillRect(x - 6, y - 6, 12, 12);\n")
+                .append("            }\n")
+                .append("        }\n")
+                .append("        \n")
+                .append("        // Single taxis keep their icon; larger clusters are a circle with the count, growing with its log\n")
+                .append("        function drawClusters(scale, topLeft, size, iconReady) {\n")
+                .append("            taxiContext.textAlign = 'center';\n")
+                .append("            taxiContext.textBaseline = 'middle';\n")
+                .append("            taxiContext.font = 'bold 12px sans-serif';\n")
+                .append("            clusters.forEach(function(cluster) {\n")
+                .append("                var x = cluster.x * scale - topLeft.x;\n")
+                .append("                var y = cluster.y * scale - topLeft.y;\n")
+                .append("                cluster.sx = x;\n")
+                .append("                cluster.sy = y;\n")
+                .append("                cluster.radius = cluster.count === 1 ? TAXI_HIT_RADIUS : 12 + 4 * Math.log(cluster.count) / Math.LN10;\n")
+                .append("                if (x < -cluster.radius || y < -cluster.radius || x > size.x + cluster.radius || y > size.y + cluster.radius) return;\n")
+                .append("                if (cluster.count === 1) {\n")
+                .append("                    drawTaxiIcon(x, y, TAXI_ICON_SIZE, iconReady);\n")
+                .append("                    return;\n")
                 .append("                }\n")
+                .append("                taxiContext.beginPath();\n")
+                .append("                taxiContext.arc(x, y, cluster.radius, 0, 2 * Math.PI);\n")
+                .append("                taxiContext.fillStyle = cluster.count < 10 ? 'rgba(255, 193, 7, 0.85)' : cluster.count < 100 ? 'rgba(255, 152, 0, 0.85)' : 'rgba(230, 81, 0, 0.85)';\n")
+                .append("                taxiContext.fill();\n")
+                .append("                taxiContext.lineWidth = 2;\n")
+                .append("                taxiContext.strokeStyle = 'white';\n")
+                .append("                taxiContext.stroke();\n")
+                .append("                taxiContext.fillStyle = 'black';\n")
+                .append("                taxiContext.fillText(String(cluster.count), x, y);\n")
                 .append("            });\n")
-                .append("            \n")
-                .append("            // Remove markers for taxis that are no longer present\n")
-                .append("            Object.keys(taxiMarkers).forEach(function(id) {\n")
-                .append("                if (!processedIds.includes(id)) {\n")
-                .append("                    map.removeLayer(taxiMarkers[id]);\n")
-                .append("                    delete taxiMarkers[id];\n")
+                .append("        }\n")
+                .append("        \n")
+                .append("        // Nearest taxi within the hit radius of a container point, or -1\n")
+                .append("        function taxiAt(point) {\n")
+                .append("            var best = -1;\n")
+                .append("            var bestDistance = TAXI_HIT_RADIUS * TAXI_HIT_RADIUS;\n")
+                .append("            for (var h = 0; h < taxiCount; h++) {\n")
+                .append("                if (!taxiAlive[h]) continue;\n")
+                .append("                var dx = taxiScreenX[h] - point.x;\n")
+                .append("                var dy = taxiScreenY[h] - point.y;\n")
+                .append("                var distance = dx * dx + dy * dy;\n")
+                .append("                if (distance <= bestDistance) {\n")
+                .append("                    best = h;\n")
+                .append("                    bestDistance = distance;\n")
+                .append("                }\n")
+                .append("            }\n")
+                .append("            return best;\n")
+                .append("        }\n")
+                .append("        \n")
+                .append("        // Cluster under a container point, or null\n")
+                .append("        function clusterAt(point) {\n")
+                .append("            var best = null;\n")
+                .append("            var bestDistance = Infinity;\n")
+                .append("            clusters.forEach(function(cluster) {\n")
+                .append("                var dx = cluster.sx - point.x;\n")
+                .append("                var dy = cluster.sy - point.y;\n")
+                .append("                var distance = dx * dx + dy * dy;\n")
+                .append("                if (distance <= cluster.radius * cluster.radius && distance < bestDistance) {\n")
+                .append("                    best = cluster;\n")
+                .append("                    bestDistance = distance;\n")
                 .append("                }\n")
                 .append("            });\n")
+                .append("            return best;\n")
                 .append("        }\n")
                 .append("        \n")
-                .append("        // Function to select a taxi and highlight it\n")
-                .append("        function selectTaxi(taxiId) {\n")
-                .append("            // Remove highlight from previously selected taxi\n")
-                .append("            if (selectedTaxiId && taxiMarkers[selectedTaxiId]) {\n")
-                .append("                var element = taxiMarkers[selectedTaxiId].getElement();\n")
-                .append("                if (element) {\n")
-                .append("                    element.classList.remove('selected-taxi');\n")
+                .append("        // Positions are only valid between zoom levels, so hide the canvas while a zoom animates\n")
+                .append("        map.on('zoomstart', function() { taxiCanvas.style.visibility = 'hidden'; });\n")
+                .append("        map.on('zoomend', function() { taxiCanvas.style.visibility = 'visible'; scheduleTaxiDraw(); });\n")
+                .append("        map.on('move resize', scheduleTaxiDraw);\n")
+                .append("        \n")
+                .append("        // Java culls taxis to the visible area and picks clusters or single taxis by zoom level.\n")
+                .append("        // moveend also fires at the end of every zoom\n")
+                .append("        function reportViewport() {\n")
+                .append("            if (window.javaConnector) {\n")
+                .append("                var bounds = map.getBounds();\n")
+                .append("                window.javaConnector.viewportChanged(map.getZoom(), bounds.getSouth(), bounds.getWest(), bounds.getNorth(), bounds.getEast());\n")
+                .append("            }\n")
+                .append("        }\n")
+                .append("        map.on('moveend', reportViewport);\n")
+                .append("        \n")
+                .append("        // Driver name on hover, like the marker tooltips had\n")
+                .append("        var taxiTooltip = L.tooltip({direction: 'top', offset: [0, -TAXI_ICON_SIZE / 2]});\n")
+                .append("        map.on('mousemove', function(e) {\n")
+                .append("            if (clusterMode) {\n")
+                .append("                var cluster = clusterAt(e.containerPoint);\n")
+                .append("                if (cluster === hoveredCluster) return;\n")
+                .append("                hoveredCluster = cluster;\n")
+                .append("                if (cluster) {\n")
+                .append("                    taxiTooltip.setLatLng([cluster.lat, cluster.lon]).setContent(cluster.count === 1 ? '1 taxi' : cluster.count + ' taxis');\n")
+                .append("                    map.openTooltip(taxiTooltip);\n")
+                .append("                    map.getContainer().style.cursor = 'pointer';\n")
+                .append("                } else {\n")
+                .append("                    map.closeTooltip(taxiTooltip);\n")
+                .append("                    map.getContainer().style.cursor = '';\n")
+                .append("                }\n")
+                .append("                return;\n")
+                .append("            }\n")
+                .append("            var h = taxiAt(e.containerPoint);\n")
+                .append("            if (h === hoveredHandle) return;\n")
+                .append("            hoveredHandle = h;\n")
+                .append("            if (h >= 0) {\n")
+                .append("                taxiTooltip.setLatLng([taxiLat[h], taxiLon[h]]).setContent(taxiDrivers[h]);\n")
+                .append("                map.openTooltip(taxiTooltip);\n")
+                .append("                map.getContainer().style.cursor = 'pointer';\n")
+                .append("            } else {\n")
+                .append("                map.closeTooltip(taxiTooltip);\n")
+                .append("                map.getContainer().style.cursor = '';\n")
+                .append("            }\n")
+                .append("        });\n")
+                .append("        \n")
+                .append("        // Apply a position delta: removed = [h...], created = [h, id, driver, lat, lon...], moved = [h, lat, lon...]\n")
+                .append("        // Coordinates are integer micro-degrees\n")
+                .append("        function applyTaxiDelta(removed, created, moved) {\n")
+                .append("            var i, h;\n")
+                .append("            for (i = 0; i < removed.length; i++) {\n")
+                .append("                h = removed[i];\n")
+                .append("                taxiAlive[h] = 0;\n")
+                .append("                delete taxiHandles[taxiIds[h]];\n")
+                .append("                taxiIds[h] = null;\n")
+                .append("                taxiDrivers[h] = null;\n")
+                .append("                if (h === hoveredHandle) {\n")
+                .append("                    hoveredHandle = -1;\n")
+                .append("                    map.closeTooltip(taxiTooltip);\n")
                 .append("                }\n")
                 .append("            }\n")
                 .append("            \n")
-                .append("            // Set new selected taxi\n")
-                .append("            selectedTaxiId = taxiId;\n")
+                .append("            for (i = 0; i < created.length; i += 5) {\n")
+                .append("                h = created[i];\n")
+                .append("                ensureTaxiCapacity(h);\n")
+                .append("                taxiIds[h] = created[i + 1];\n")
+                .append("                taxiDrivers[h] = created[i + 2];\n")
+                .append("                taxiHandles[created[i + 1]] = h;\n")
+                .append("                setTaxiPosition(h, created[i + 3] / 1e6, created[i + 4] / 1e6);\n")
+                .append("                taxiAlive[h] = 1;\n")
+                .append("                taxiCount = Math.max(taxiCount, h + 1);\n")
+                .append("            }\n")
+                .append("            \n")
+                .append("            for (i = 0; i < moved.length; i += 3) {\n")
+                .append("                setTaxiPosition(moved[i], moved[i + 1] / 1e6, moved[i + 2] / 1e6);\n")
+                .append("            }\n")
                 .append("            \n")
-                .append("            // Highlight the selected taxi\n")
-                .append("            if (taxiMarkers[taxiId]) {\n")
-                .append("                var element = taxiMarkers[taxiId].getElement();\n")
-                .append("                if (element) {\n")
-                .append("                    element.classList.add('selected-taxi');\n")
+                .append("            scheduleTaxiDraw();\n")
+                .append("        }\n")
+                .append("        \n")
+                .append("        // Replace the clusters shown: cells = [cellX, cellY, lat, lon, count...], a count of 0 removes the cell\n")
+                .append("        function applyClusterDelta(reset, cells) {\n")
+                .append("            if (reset) {\n")
+                .append("                clusters.clear();\n")
+                .append("            }\n")
+                .append("            clusterMode = true;\n")
+                .append("            hoveredCluster = null;\n")
+                .append("            for (var i = 0; i < cells.length; i += 5) {\n")
+                .append("                var key = cells[i] + ':' + cells[i + 1];\n")
+                .append("                var count = cells[i + 4];\n")
+                .append("                if (count === 0) {\n")
+                .append("                    clusters.delete(key);\n")
+                .append("                    continue;\n")
                 .append("                }\n")
-                .append("                \n")
+                .append("                var cluster = clusters.get(key);\n")
+                .append("                if (!cluster) {\n")
+                .append("                    cluster = {sx: -1e9, sy: -1e9, radius: 0};\n")
+                .append("                    clusters.set(key, cluster);\n")
+                .append("                }\n")
+                .append("                cluster.lat = cells[i + 2] / 1e6;\n")
+                .append("                cluster.lon = cells[i + 3] / 1e6;\n")
+                .append("                cluster.x = worldX(cluster.lon);\n")
+                .append("                cluster.y = worldY(cluster.lat);\n")
+                .append("                cluster.count = count;\n")
+                .append("            }\n")
+                .append("            scheduleTaxiDraw();\n")
+                .append("        }\n")
+                .append("        \n")
+                .append("        // Back to single taxis\n")
+                .append("        function clearClusters() {\n")
+                .append("            clusters.clear();\n")
+                .append("            clusterMode = false;\n")
+                .append("            hoveredCluster = null;\n")
+                .append("            scheduleTaxiDraw();\n")
+                .append("        }\n")
+                .append("        \n")
+                .append("        // Function to select a taxi and highlight it\n")
+                .append("        // Java passes the current position in micro-degrees; clicks on the map select without one\n")
+                .append("        function selectTaxi(taxiId, lat, lon) {\n")
+                .append("            selectedTaxiId = taxiId;\n")
+                .append("            var h = taxiHandles[taxiId];\n")
+                .append("            if (lat !== undefined) {\n")
+                .append("                selectedLat = lat / 1e6;\n")
+                .append("                selectedLon = lon / 1e6;\n")
+                .append("            } else if (h !== undefined) {\n")
+                .append("                selectedLat = taxiLat[h];\n")
+                .append("                selectedLon = taxiLon[h];\n")
+                .append("            }\n")
+                .append("            if (selectedLat !== null) {\n")
                 .append("                // Center map on the selected taxi\n")
-                .append("                map.panTo(taxiMarkers[taxiId].getLatLng(), {\n")
+                .append("                map.panTo([selectedLat, selectedLon], {\n")
                 .append("                    animate: true,\n")
                 .append("                    duration: 0.5\n")
                 .append("                });\n")
                 .append("            }\n")
+                .append("            scheduleTaxiDraw();\n")
                 .append("        }\n")
                 .append("        \n")
                 .append("        // Function to clear the selected taxi\n")
                 .append("        function clearSelectedTaxi() {\n")
-                .append("            if (selectedTaxiId && taxiMarkers[selectedTaxiId]) {\n")
-                .append("                var element = taxiMarkers[selectedTaxiId].getElement();\n")
-                .append("                if (element) {\n")
-                .append("                    element.classList.remove('selected-taxi');\n")
-                .append("                }\n")
-                .append("                selectedTaxiId = null;\n")
-                .append("            }\n")
+                .append("            selectedTaxiId = null;\n")
+                .append("            selectedLat = null;\n")
+                .append("            selectedLon = null;\n")
+                .append("            scheduleTaxiDraw();\n")
                 .append("        }\n")
                 .append("        \n")
-                .append("        // Add map click handler to unselect taxi\n")
+                .append("        // Clicks on a taxi select it, clicks elsewhere unselect the current taxi\n")
                 .append("        map.on('click', function(e) {\n")
-                .append("            // Only call Java if we had something selected previously\n")
-                .append("            if (selectedTaxiId) {\n")
-                .append("                try {\n")
+                .append("            if (clusterMode) {\n")
+                .append("                var cluster = clusterAt(e.containerPoint);\n")
+                .append("                if (cluster) {\n")
+                .append("                    // Zoom into the cluster; a single taxi goes straight to the first level without clusters\n")
+                .append("                    var zoom = cluster.count === 1 ? CLUSTER_MAX_ZOOM + 1 : Math.min(map.getZoom() + 2, CLUSTER_MAX_ZOOM + 1);\n")
+                .append("                    map.setView([cluster.lat, cluster.lon], zoom);\n")
+                .append("                    return;\n")
+                .append("                }\n")
+                .append("            }\n")
+                .append("            var h = clusterMode ? -1 : taxiAt(e.containerPoint);\n")
+                .append("            try {\n")
+                .append("                if (h >= 0) {\n")
                 .append("                    if (window.javaConnector) {\n")
-                .append("                        window.javaConnector.clearSelectedTaxi();\n")
+                .append("                        window.javaConnector.showTaxiInfo(taxiIds[h]);\n")
+                .append("                        selectTaxi(taxiIds[h]);\n")
                 .append("                    }\n")
-                .append("                } catch (err) {\n")
-                .append("                    console.error('Error calling Java: ' + err);\n")
+                .append("                    return;\n")
+                .append("                }\n")
+                .append("                // Only call Java if we had something selected previously\n")
+                .append("                if (selectedTaxiId && window.javaConnector) {\n")
+                .append("                    window.javaConnector.clearSelectedTaxi();\n")
                 .append("                }\n")
+                .append("            } catch (err) {\n")
+                .append("                console.error('Error calling Java: ' + err);\n")
                 .append("            }\n")
                 .append("            clearSelectedTaxi();\n")
                 .append("        });\n")
@@ -395,6 +709,16 @@ public class RealMapViewer {
         }
     }
     
+    // Bundled Leaflet file on the tile server, or the same release from the CDN without one
+    private String leafletUrl(String file) {
+        return tileServer != null ? tileServer.leafletUrl(file) : LEAFLET_CDN + file;
+    }
+    
+    // Tile URL template for Leaflet: the local cache if there is a tile server, else the upstream server
+    private String tileUrl(TileLayer layer) {
+        return tileServer != null ? tileServer.tileUrlTemplate(layer) : layer.getUrlTemplate();
+    }
+    
     /**
      * Focus on a specific taxi
      * @param taxi The taxi to focus on
@@ -409,13 +733,16 @@ public class RealMapViewer {
         Platform.runLater(() -> {
             try {
                 // Check if selectTaxi function exists
-                Boolean functionExists = (Boolean) webEngine.executeScript(
+                Boolean functionExists = (Boolean) executeScript(
                     "typeof selectTaxi === 'function'"
                 );
                 
                 if (Boolean.TRUE.equals(functionExists)) {
-                    String script = "selectTaxi('" + escapeJavaScript(taxi.getId()) + "');";
-                    webEngine.executeScript(script);
+                    Location location = taxi.getCurrentLocation();
+                    String script = "selectTaxi('" + escapeJavaScript(taxi.getId()) + "', "
+                            + TaxiDeltaEncoder.toMicroDegrees(location.getLatitude()) + ", "
+                            + TaxiDeltaEncoder.toMicroDegrees(location.getLongitude()) + ");";
+                    executeScript(script);
                 } else {
                     LOGGER.warning("selectTaxi function not available yet, skipping taxi focus");
                 }
@@ -427,73 +754,131 @@ public class RealMapViewer {
     
     /**
      * Update the map with a list of taxis to display
+     * Only the difference to the previous update is sent to the page: new
+     * markers with their driver name, moved positions and removed taxis, or
+     * the changed clusters when the map is zoomed out
      */
     public void updateTaxis(List<Taxi> taxis) {
         this.taxis = new ArrayList<>(taxis); // Store a copy of the taxis
         
         Platform.runLater(() -> {
             try {
-                if (webEngine == null) {
-                    return; // WebEngine not initialized yet
-                }
-                
-                // Check if map is loaded and updateTaxis function exists
-                Boolean functionExists = false;
-                try {
-                    functionExists = (Boolean) webEngine.executeScript(
-                        "typeof updateTaxis === 'function'"
-                    );
-                } catch (Exception e) {
-                    // Function check failed, assume function doesn't exist
-                    LOGGER.log(Level.WARNING, "Failed to check if updateTaxis function exists", e);
-                }
-                
-                if (!Boolean.TRUE.equals(functionExists)) {
-                    LOGGER.warning("updateTaxis function not available yet, skipping update");
-                    return;
-                }
-                
-                StringBuilder taxiJson = new StringBuilder("[");
-                boolean first = true;
-                
-                for (Taxi taxi : taxis) {
-                    if (!first) {
-                        taxiJson.append(",");
-                    }
-                    
-                    // Format location for taxi
-                    Location location = taxi.getCurrentLocation();
-                    double lat = location.getLatitude();
-                    double lon = location.getLongitude();
-                    
-                    // Create JSON object for this taxi
-                    taxiJson.append("{")
-                           .append("\"id\":\"").append(escapeJavaScript(taxi.getId())).append("\",")
-                           .append("\"driver\":\"").append(escapeJavaScript(taxi.getDriverName())).append("\",")
-                           .append("\"lat\":").append(COORD_FORMAT.format(lat)).append(",")
-                           .append("\"lon\":").append(COORD_FORMAT.format(lon)).append("}")
-                    ;
-                    
-                    first = false;
-                }
-                
-                taxiJson.append("]");
-                
-                // Update map with taxi data
-                String script = "updateTaxis('" + taxiJson.toString() + "');";
-                webEngine.executeScript(script);
-                
-                // If there's a selected taxi, keep it selected
-                if (selectedTaxi != null) {
-                    focusOnTaxi(selectedTaxi);
-                }
-                
+                pushTaxis();
             } catch (Exception e) {
                 LOGGER.log(Level.SEVERE, "Error updating taxis on map", e);
             }
         });
     }
     
+    /**
+     * Run a script in the page, recorded as a flight recorder event; must run on the FX thread
+     */
+    private Object executeScript(String script) {
+        MapScriptEvent event = new MapScriptEvent();
+        event.begin();
+        Object result = webEngine.executeScript(script);
+        event.finish(script);
+        return result;
+    }
+    
+    /**
+     * Send the current taxis to the page; must run on the FX thread
+     */
+    private void pushTaxis() {
+        if (webEngine == null || !mapReady) {
+            return; // Map not loaded yet - the load handler sends the full fleet
+        }
+        
+        Metrics currentMetrics = metrics;
+        long start = currentMetrics != null ? System.nanoTime() : 0;
+        List<Taxi> visible = cullToViewport(taxis);
+        String script;
+        if (zoom <= TaxiClusterIndex.MAX_CLUSTER_ZOOM) {
+            clusterIndex.update(visible);
+            script = clusterIndex.encode(zoom);
+        } else {
+            if (clusterIndex.isActive()) {
+                clusterIndex.deactivate();
+                executeScript("clearClusters();");
+            }
+            script = deltaEncoder.encode(visible);
+        }
+        if (script == null) {
+            return; // Nothing moved
+        }
+        executeScript(script);
+        if (currentMetrics != null) {
+            currentMetrics.record(Metrics.Operation.MAP_PUSH, start);
+        }
+        
+        // If there's a selected taxi, keep it selected
+        if (selectedTaxi != null) {
+            focusOnTaxi(selectedTaxi);
+        }
+    }
+    
+    /**
+     * Taxis inside the viewport, or all of them before the page reported one
+     * Taxis that leave it are removed from the page like taxis that left the fleet
+     */
+    private List<Taxi> cullToViewport(List<Taxi> candidates) {
+        MapViewport area = viewport;
+        if (area == null) {
+            return candidates;
+        }
+        List<Taxi> visible = new ArrayList<>();
+        for (Taxi taxi : candidates) {
+            if (area.contains(taxi.getCurrentLocation())) {
+                visible.add(taxi);
+            }
+        }
+        return visible;
+    }
+    
+    /**
+     * Called by the page after every pan and zoom with "zoom,south,west,north,east"
+     * Re-sends the taxis for the new area and lets listeners supply fresh ones
+     */
+    void onViewportChanged(String bounds) {
+        MapViewport reported;
+        try {
+            reported = MapViewport.parse(bounds);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning(() -> "Invalid viewport from map: " + bounds);
+            return;
+        }
+        zoom = reported.getZoom();
+        viewport = reported.expand(VIEWPORT_MARGIN);
+        pushTaxis();
+        for (Consumer<MapViewport> listener : viewportListeners) {
+            listener.accept(viewport);
+        }
+    }
+    
+    /**
+     * Visible map area including the margin that is sent along with it
+     * Callers with a spatial index can use it to pass only the taxis in view
+     * @return the viewport, or null if the page has not reported one yet
+     */
+    public MapViewport getViewport() {
+        return viewport;
+    }
+    
+    /**
+     * Register a listener called on the FX thread after the map was panned or zoomed
+     */
+    public void addViewportListener(Consumer<MapViewport> listener) {
+        viewportListeners.add(listener);
+    }
+    
+    /**
+     * Record how long each push of changed taxis to the page takes, encoding included
+     * @param metrics the metrics to record to, or null to stop recording
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+    
     /**
      * Display taxi information when a taxi marker is clicked
      */
@@ -621,12 +1006,12 @@ public class RealMapViewer {
             Platform.runLater(() -> {
                 try {
                     // Check if centerMap function exists
-                    Boolean functionExists = (Boolean) webEngine.executeScript(
+                    Boolean functionExists = (Boolean) executeScript(
                         "typeof centerMap === 'function'"
                     );
                     
                     if (Boolean.TRUE.equals(functionExists)) {
-                        webEngine.executeScript("centerMap(" + latitude + ", " + longitude + ", " + zoom + ")");
+                        executeScript("centerMap(" + latitude + ", " + longitude + ", " + zoom + ")");
                     } else {
                         LOGGER.warning("centerMap function not available yet, skipping map centering");
                     }
@@ -643,6 +1028,7 @@ public class RealMapViewer {
     public void dispose() {
         Platform.runLater(() -> {
             if (webView != null) {
+                mapReady = false;
                 webEngine.load("about:blank");
                 webView = null;
                 webEngine = null;
@@ -659,12 +1045,12 @@ public class RealMapViewer {
             Platform.runLater(() -> {
                 try {
                     // Check if setMapType function exists
-                    Boolean functionExists = (Boolean) webEngine.executeScript(
+                    Boolean functionExists = (Boolean) executeScript(
                         "typeof setMapType === 'function'"
                     );
                     
                     if (Boolean.TRUE.equals(functionExists)) {
-                        webEngine.executeScript("setMapType('" + mapType + "')");
+                        executeScript("setMapType('" + mapType + "')");
                     } else {
                         LOGGER.warning("setMapType function not available yet, skipping map type change");
                     }
@@ -705,13 +1091,13 @@ public class RealMapViewer {
         Platform.runLater(() -> {
             try {
                 // Check if clearSelectedTaxi function exists
-                Boolean functionExists = (Boolean) webEngine.executeScript(
+                Boolean functionExists = (Boolean) executeScript(
                     "typeof clearSelectedTaxi === 'function'"
                 );
                 
                 if (Boolean.TRUE.equals(functionExists)) {
                     String script = "clearSelectedTaxi();";
-                    webEngine.executeScript(script);
+                    executeScript(script);
                 } else {
                     LOGGER.warning("clearSelectedTaxi function not available yet, skipping taxi deselection");
                 }
@@ -0,0 +1,282 @@
+package com.quickride.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+
+/**
+ * Grid clustering of taxi positions for the zoom level shown on the map
+ *
+ * At zoom levels up to MAX_CLUSTER_ZOOM the Web Mercator world is cut into
+ * cells of CELL_SIZE_PIXELS screen pixels, and a cluster is the count and
+ * centroid of the taxis in one cell. The clusters are kept up to date
+ * incrementally: update() only touches the taxis whose position changed, and a
+ * taxi that stays in its cell only shifts that cell's centroid. The cells that
+ * changed are remembered so encode() sends only those. A level is built once,
+ * from the tracked positions, when the map zooms to it.
+ *
+ * The generated call is applyClusterDelta(reset, cells) where cells is
+ * [cellX, cellY, lat, lon, count, ...] with coordinates in micro-degrees and a
+ * count of 0 for a cell that became empty. Not thread safe - use from the FX thread.
+ */
+public final class TaxiClusterIndex {
+    // Zoom levels above this show individual taxis
+    public static final int MAX_CLUSTER_ZOOM = 13;
+    
+    // Cell edge on screen; roughly two taxi icons
+    public static final int CELL_SIZE_PIXELS = 64;
+    
+    private static final double TILE_SIZE = 256;
+    
+    private final Map<String, TaxiState> taxis = new HashMap<>();
+    
+    // Cells of the level shown on the map, -1 if none, and the ones changed since the last encode()
+    private int activeLevel = -1;
+    private double cellsPerSide;
+    private final Map<Long, Cell> cells = new HashMap<>();
+    private final List<Cell> dirty = new ArrayList<>();
+    private boolean resetPending;
+    
+    private int generation;
+    private final StringBuilder script = new StringBuilder(4096);
+    
+    public TaxiClusterIndex() {
+        // No level is active until the map zooms out to one
+    }
+    
+    private static final class TaxiState {
+        double x;
+        double y;
+        int generation;
+        Cell cell;
+    }
+    
+    private static final class Cell {
+        final int cellX;
+        final int cellY;
+        int count;
+        double sumX;
+        double sumY;
+        boolean dirty;
+        
+        Cell(int cellX, int cellY) {
+            this.cellX = cellX;
+            this.cellY = cellY;
+        }
+    }
+    
+    /**
+     * Bring the clusters in line with the given taxis
+     * Taxis not in the list are removed; taxis without coordinates (0, 0) are ignored
+     */
+    public void update(List<Taxi> fleet) {
+        int stamp = ++generation;
+        int seen = 0;
+        for (Taxi taxi : fleet) {
+            Location location = taxi.getCurrentLocation();
+            double lat = location.getLatitude();
+            double lon = location.getLongitude();
+            if (lat == 0 && lon == 0) {
+                continue;
+            }
+            double x = worldX(lon);
+            double y = worldY(lat);
+            
+            TaxiState state = taxis.get(taxi.getId());
+            if (state == null) {
+                state = new TaxiState();
+                taxis.put(taxi.getId(), state);
+                state.x = x;
+                state.y = y;
+                if (activeLevel >= 0) {
+                    enter(state);
+                }
+            } else if (state.generation == stamp) {
+                continue;
+            } else if (state.x != x || state.y != y) {
+                move(state, x, y);
+            }
+            state.generation = stamp;
+            seen++;
+        }
+        
+        if (seen < taxis.size()) {
+            for (Iterator<TaxiState> it = taxis.values().iterator(); it.hasNext();) {
+                TaxiState state = it.next();
+                if (state.generation != stamp) {
+                    it.remove();
+                    if (state.cell != null) {
+                        leave(state);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Build the update of the clusters shown at a zoom level
+     * Switching to another level sends all of its clusters with reset set, so
+     * the map drops the clusters of the previous level
+     * @return the script to run, or null if no cluster at this level changed
+     */
+    public String encode(int zoom) {
+        int level = Math.max(0, Math.min(zoom, MAX_CLUSTER_ZOOM));
+        if (level != activeLevel) {
+            buildLevel(level);
+        }
+        boolean reset = resetPending;
+        resetPending = false;
+        if (reset) {
+            clearDirty();
+            dirty.addAll(cells.values());
+        } else if (dirty.isEmpty()) {
+            return null;
+        }
+        
+        script.setLength(0);
+        script.append("applyClusterDelta(").append(reset).append(",[");
+        boolean first = true;
+        for (Cell cell : dirty) {
+            if (!first) {
+                script.append(',');
+            }
+            first = false;
+            script.append(cell.cellX).append(',').append(cell.cellY).append(',');
+            if (cell.count > 0) {
+                script.append(TaxiDeltaEncoder.toMicroDegrees(latitude(cell.sumY / cell.count))).append(',')
+                      .append(TaxiDeltaEncoder.toMicroDegrees(longitude(cell.sumX / cell.count)));
+            } else {
+                script.append("0,0");
+            }
+            script.append(',').append(cell.count);
+        }
+        script.append("]);");
+        clearDirty();
+        return script.toString();
+    }
+    
+    /**
+     * Drop the clusters, e.g. when the map shows individual taxis or was reloaded
+     * Taxi positions are still tracked; the next encode() builds its level again
+     */
+    public void deactivate() {
+        activeLevel = -1;
+        clearDirty();
+        cells.clear();
+        for (TaxiState state : taxis.values()) {
+            state.cell = null;
+        }
+    }
+    
+    // True while clusters are kept for a zoom level
+    public boolean isActive() {
+        return activeLevel >= 0;
+    }
+    
+    // Number of clusters at the active level
+    public int clusterCount() {
+        return cells.size();
+    }
+    
+    // Number of taxis in the index
+    public int size() {
+        return taxis.size();
+    }
+    
+    private void buildLevel(int level) {
+        deactivate();
+        activeLevel = level;
+        cellsPerSide = TILE_SIZE * (1 << level) / CELL_SIZE_PIXELS;
+        for (TaxiState state : taxis.values()) {
+            enter(state);
+        }
+        resetPending = true;
+    }
+    
+    private void move(TaxiState state, double x, double y) {
+        Cell cell = state.cell;
+        if (cell != null && (int) (x * cellsPerSide) == cell.cellX && (int) (y * cellsPerSide) == cell.cellY) {
+            // Still in the same cell - only the centroid moves
+            cell.sumX += x - state.x;
+            cell.sumY += y - state.y;
+            state.x = x;
+            state.y = y;
+            markDirty(cell);
+            return;
+        }
+        if (cell != null) {
+            leave(state);
+        }
+        state.x = x;
+        state.y = y;
+        if (activeLevel >= 0) {
+            enter(state);
+        }
+    }
+    
+    private void enter(TaxiState state) {
+        int cellX = (int) (state.x * cellsPerSide);
+        int cellY = (int) (state.y * cellsPerSide);
+        Cell cell = cells.computeIfAbsent(GridKeys.key(cellX, cellY), k -> new Cell(cellX, cellY));
+        cell.count++;
+        cell.sumX += state.x;
+        cell.sumY += state.y;
+        state.cell = cell;
+        markDirty(cell);
+    }
+    
+    private void leave(TaxiState state) {
+        Cell cell = state.cell;
+        state.cell = null;
+        cell.count--;
+        if (cell.count == 0) {
+            // Reset the sums so floating point drift does not carry over to the next taxi
+            cell.sumX = 0;
+            cell.sumY = 0;
+            cells.remove(GridKeys.key(cell.cellX, cell.cellY));
+        } else {
+            cell.sumX -= state.x;
+            cell.sumY -= state.y;
+        }
+        markDirty(cell);
+    }
+    
+    // A cell that became empty stays in the list, so the map is told to drop it
+    private void markDirty(Cell cell) {
+        if (!cell.dirty) {
+            cell.dirty = true;
+            dirty.add(cell);
+        }
+    }
+    
+    private void clearDirty() {
+        for (Cell cell : dirty) {
+            cell.dirty = false;
+        }
+        dirty.clear();
+    }
+    
+    // Web Mercator position in [0, 1), the same projection Leaflet uses
+    static double worldX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+    
+    static double worldY(double latitude) {
+        double sin = Math.sin(Math.toRadians(latitude));
+        sin = Math.max(Math.min(sin, 0.9999), -0.9999);
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+    
+    static double longitude(double x) {
+        return x * 360 - 180;
+    }
+    
+    static double latitude(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    }
+}
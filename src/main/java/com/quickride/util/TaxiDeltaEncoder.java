@@ -0,0 +1,199 @@
+package com.quickride.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+
+/**
+ * Turns the current taxi list into the smallest script that brings the map up to date
+ *
+ * Every taxi shown on the map gets a small integer handle. The driver name and
+ * id are sent once, when the marker is created; after that a taxi only appears
+ * in an update if its position changed, as a handle followed by latitude and
+ * longitude in micro-degrees. Taxis that left the list are sent as removed
+ * handles, and their handles are reused by later taxis so the arrays on the
+ * page stay dense.
+ *
+ * The generated call is applyTaxiDelta(removed, created, moved) where
+ * removed is [handle, ...], created is [handle, id, driver, lat, lon, ...] and
+ * moved is [handle, lat, lon, ...]. Not thread safe - use from the FX thread.
+ */
+public final class TaxiDeltaEncoder {
+    // Micro-degrees, about 11 cm - the same precision the full JSON payload used
+    public static final double COORDINATE_SCALE = 1_000_000d;
+    
+    // Last position sent for each taxi on the map, by taxi id
+    private final Map<String, Slot> slots = new HashMap<>();
+    
+    // Released handles, reused before new ones are handed out
+    private int[] freeHandles = new int[16];
+    private int freeCount;
+    private int nextHandle;
+    
+    // Stamp of the current encode() call, used to find taxis that were not in the list
+    private int generation;
+    
+    // Reused between calls; only the removed handles need an intermediate list
+    private final StringBuilder script = new StringBuilder(4096);
+    private final StringBuilder created = new StringBuilder(1024);
+    private final StringBuilder moved = new StringBuilder(4096);
+    private int[] removed = new int[16];
+    
+    public TaxiDeltaEncoder() {
+        // Starts with no taxis on the map, so the first encode creates every marker
+    }
+    
+    private static final class Slot {
+        final int handle;
+        int latitude;
+        int longitude;
+        int generation;
+        
+        Slot(int handle) {
+            this.handle = handle;
+        }
+    }
+    
+    /**
+     * Build the update for the given taxis
+     * Taxis without coordinates (0, 0) are treated as not on the map
+     * @return the script to run, or null if nothing changed since the last call
+     */
+    public String encode(List<Taxi> taxis) {
+        int stamp = ++generation;
+        int seen = 0;
+        int createdCount = 0;
+        int movedCount = 0;
+        created.setLength(0);
+        moved.setLength(0);
+        
+        for (Taxi taxi : taxis) {
+            Location location = taxi.getCurrentLocation();
+            double lat = location.getLatitude();
+            double lon = location.getLongitude();
+            if (lat == 0 && lon == 0) {
+                continue;
+            }
+            int latitude = toMicroDegrees(lat);
+            int longitude = toMicroDegrees(lon);
+            
+            Slot slot = slots.get(taxi.getId());
+            if (slot == null) {
+                slot = new Slot(acquireHandle());
+                slots.put(taxi.getId(), slot);
+                appendSeparator(created, createdCount++);
+                created.append(slot.handle).append(',');
+                appendString(created, taxi.getId());
+                created.append(',');
+                appendString(created, taxi.getDriverName());
+                created.append(',').append(latitude).append(',').append(longitude);
+            } else if (slot.generation == stamp) {
+                // Same taxi listed twice
+                continue;
+            } else if (slot.latitude != latitude || slot.longitude != longitude) {
+                appendSeparator(moved, movedCount++);
+                moved.append(slot.handle).append(',').append(latitude).append(',').append(longitude);
+            }
+            slot.latitude = latitude;
+            slot.longitude = longitude;
+            slot.generation = stamp;
+            seen++;
+        }
+        
+        // Only walk the slots if some taxi was missing from the list
+        int removedCount = 0;
+        if (seen < slots.size()) {
+            for (Iterator<Slot> it = slots.values().iterator(); it.hasNext();) {
+                Slot slot = it.next();
+                if (slot.generation != stamp) {
+                    it.remove();
+                    if (removedCount == removed.length) {
+                        removed = Arrays.copyOf(removed, removedCount * 2);
+                    }
+                    removed[removedCount++] = slot.handle;
+                }
+            }
+        }
+        
+        if (removedCount == 0 && createdCount == 0 && movedCount == 0) {
+            return null;
+        }
+        
+        script.setLength(0);
+        script.append("applyTaxiDelta([");
+        for (int i = 0; i < removedCount; i++) {
+            appendSeparator(script, i);
+            script.append(removed[i]);
+            // Handles freed here are only reused from the next update on
+            releaseHandle(removed[i]);
+        }
+        script.append("],[").append(created).append("],[").append(moved).append("]);");
+        return script.toString();
+    }
+    
+    /**
+     * Forget everything that was sent, e.g. after the page was reloaded
+     * The next encode() recreates every marker
+     */
+    public void reset() {
+        slots.clear();
+        freeCount = 0;
+        nextHandle = 0;
+    }
+    
+    // Number of taxis currently on the map
+    public int size() {
+        return slots.size();
+    }
+    
+    public static int toMicroDegrees(double degrees) {
+        return (int) Math.round(degrees * COORDINATE_SCALE);
+    }
+    
+    private int acquireHandle() {
+        return freeCount > 0 ? freeHandles[--freeCount] : nextHandle++;
+    }
+    
+    private void releaseHandle(int handle) {
+        if (freeCount == freeHandles.length) {
+            freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+        }
+        freeHandles[freeCount++] = handle;
+    }
+    
+    private static void appendSeparator(StringBuilder out, int index) {
+        if (index > 0) {
+            out.append(',');
+        }
+    }
+    
+    // Double-quoted JavaScript string literal
+    private static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"': out.append("\\\""); break;
+                    case '\\': out.append("\\\\"); break;
+                    case '\n': out.append("\\n"); break;
+                    case '\r': out.append("\\r"); break;
+                    case '\u2028': out.append("\\u2028"); break;
+                    case '\u2029': out.append("\\u2029"); break;
+                    default:
+                        if (c < 0x20) {
+                            out.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.append(c);
+                        }
+                }
+            }
+        }
+        out.append('"');
+    }
+}
@@ -1,5 +1,7 @@
 package com.quickride.util;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import com.quickride.model.Location;
@@ -30,17 +32,17 @@ public class TaxiFactory {
         "Zurich", "Geneva", "Bern", "Basel", "Lausanne",
         "Lucerne", "Montreux", "Nyon", "St. Gallen", "Interlaken"
     };
-
+    
     private static final String[] DRIVER_NAMES = {
         "Thomas Müller", "Anna Schmidt", "Lukas Weber", "Sarah Keller", "Michael Brunner",
         "Sophie Meier", "Daniel Fischer", "Emma Schneider", "Nicolas Huber", "Laura Zimmermann"
     };
-
+    
     private static final String[] CAR_MODELS = {
         "Mercedes E-Class", "BMW 5 Series", "Tesla Model 3", "Volvo V60", "Audi A6",
         "VW Passat", "Skoda Octavia", "Renault Megane", "Toyota Prius", "Hyundai Ioniq"
     };
-
+    
     private static final String[] STREET_NAMES = {
         "Bahnhofstrasse", "Hauptstrasse", "Seestrasse", "Dorfstrasse", "Bergstrasse",
         "Rosenweg", "Kirchgasse", "Schulstrasse", "Gartenweg", "Seeblick",
@@ -54,6 +56,18 @@ public class TaxiFactory {
         // Private constructor to prevent instantiation
     }
     
+    /**
+     * The city centres taxis are placed around, named "City, Switzerland"
+     * @return a new list each call
+     */
+    public static List<Location> swissCities() {
+        List<Location> cities = new ArrayList<>(SWISS_CITIES.length);
+        for (int i = 0; i < SWISS_CITIES.length; i++) {
+            cities.add(new Location(SWISS_CITIES[i][0], SWISS_CITIES[i][1], SWISS_CITY_NAMES[i] + ", Switzerland"));
+        }
+        return cities;
+    }
+    
     /**
      * Create random taxis for the demo
      * @param count number of taxis to create
@@ -0,0 +1,177 @@
+package com.quickride.util;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.quickride.metrics.UiFlushEvent;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Batches UI updates and applies them on the FX thread at a bounded rate
+ * Updates are keyed: submitting again for a key that is still pending replaces
+ * the pending update, so a burst of changes to the same taxi, ride or map view
+ * collapses into a single update per pulse
+ */
+public class UiUpdatePump {
+    private static final Logger LOGGER = Logger.getLogger(UiUpdatePump.class.getName());
+    
+    // Default flush rate - the FX pulse runs at 60 Hz, every second pulse is enough for tables and the map
+    public static final int DEFAULT_MAX_RATE_HZ = 30;
+    
+    // Updates submitted while flushing (e.g. list listeners asking for a map refresh) get one more pass
+    private static final int MAX_PASSES_PER_FLUSH = 2;
+    
+    // Latest pending update per key, and the keys in first-submitted order
+    private final Map<Object, Runnable> pending = new ConcurrentHashMap<>();
+    private final Queue<Object> pendingKeys = new ConcurrentLinkedQueue<>();
+    
+    private final long minFlushIntervalNanos;
+    private final AnimationTimer timer;
+    private long lastFlushNanos = 0;
+    private boolean running = false;
+    
+    // Counters
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder appliedCount = new LongAdder();
+    private final LongAdder flushCount = new LongAdder();
+    
+    public UiUpdatePump() {
+        this(DEFAULT_MAX_RATE_HZ);
+    }
+    
+    /**
+     * Creates an update pump
+     * @param maxRateHz maximum number of flushes per second
+     */
+    public UiUpdatePump(int maxRateHz) {
+        if (maxRateHz <= 0) {
+            throw new IllegalArgumentException("Flush rate must be positive");
+        }
+        this.minFlushIntervalNanos = TimeUnit.SECONDS.toNanos(1) / maxRateHz;
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (now - lastFlushNanos >= minFlushIntervalNanos) {
+                    lastFlushNanos = now;
+                    flush();
+                }
+            }
+        };
+    }
+    
+    /**
+     * Queue an update, replacing any update still pending under the same key
+     * Safe to call from any thread
+     * @param key identifies what the update refreshes
+     * @param update the action to run on the FX thread
+     */
+    public void submit(Object key, Runnable update) {
+        submittedCount.increment();
+        if (pending.put(key, update) == null) {
+            pendingKeys.add(key);
+        } else {
+            coalescedCount.increment();
+        }
+    }
+    
+    /**
+     * Apply all pending updates - must be called on the FX thread
+     * Normally driven by the pump's pulse timer
+     */
+    public void flush() {
+        UiFlushEvent event = new UiFlushEvent();
+        event.begin();
+        int applied = 0;
+        boolean flushed = false;
+        for (int pass = 0; pass < MAX_PASSES_PER_FLUSH && !pendingKeys.isEmpty(); pass++) {
+            // Only drain keys queued before this pass started
+            int batch = pendingKeys.size();
+            for (int i = 0; i < batch; i++) {
+                Object key = pendingKeys.poll();
+                if (key == null) {
+                    break;
+                }
+                Runnable update = pending.remove(key);
+                if (update == null) {
+                    continue;
+                }
+                try {
+                    update.run();
+                    appliedCount.increment();
+                    applied++;
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "UI update failed", e);
+                }
+            }
+            flushed = true;
+        }
+        if (flushed) {
+            flushCount.increment();
+            event.finish(applied, pending.size());
+        }
+    }
+    
+    /**
+     * Start flushing on the FX pulse
+     */
+    public void start() {
+        if (!running) {
+            running = true;
+            timer.start();
+        }
+    }
+    
+    /**
+     * Stop flushing; pending updates stay queued
+     */
+    public void stop() {
+        if (running) {
+            running = false;
+            timer.stop();
+        }
+    }
+    
+    public boolean isRunning() {
+        return running;
+    }
+    
+    // Statistics
+    public long getSubmittedCount() {
+        return submittedCount.sum();
+    }
+    
+    /**
+     * Number of submissions that replaced an update still pending for the same key
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+    
+    public long getAppliedCount() {
+        return appliedCount.sum();
+    }
+    
+    public long getFlushCount() {
+        return flushCount.sum();
+    }
+    
+    public int getPendingCount() {
+        return pending.size();
+    }
+    
+    @Override
+    public String toString() {
+        return "UiUpdatePump[submitted=" + getSubmittedCount()
+                + ", coalesced=" + getCoalescedCount()
+                + ", applied=" + getAppliedCount()
+                + ", flushes=" + getFlushCount() + "]";
+    }
+}
@@ -5,6 +5,11 @@ module com.quickride {
     requires javafx.base;
     requires org.controlsfx.controls;
     requires java.logging;
+    requires java.net.http;
+    requires jdk.httpserver;
+    requires jdk.management;
+    // The flight recorder events in com.quickride.metrics extend jdk.jfr.Event
+    requires transitive jdk.jfr;
     
     // Note on jxmapviewer2:
     // We acknowledge that using an automatic module is generally not recommended
@@ -33,6 +38,11 @@ module com.quickride {
     exports com.quickride.controller;
     exports com.quickride.model;
     exports com.quickride.manager;
+    exports com.quickride.metrics;
     exports com.quickride.exception;
     exports com.quickride.util;
+    exports com.quickride.persistence;
+    exports com.quickride.routing;
+    exports com.quickride.simulation;
+    exports com.quickride.tiles;
 }
\ No newline at end of file
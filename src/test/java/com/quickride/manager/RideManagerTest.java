@@ -0,0 +1,125 @@
+package com.quickride.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.quickride.model.Location;
+import com.quickride.model.Ride;
+import com.quickride.model.RideStatus;
+import com.quickride.model.Taxi;
+import com.quickride.persistence.FsyncPolicy;
+import com.quickride.persistence.StateJournal;
+
+/**
+ * Tests that a booking or status change the journal fails to make durable is undone in memory
+ */
+class RideManagerTest {
+    private static final Location ZURICH = new Location(47.37, 8.54, "Zurich");
+    private static final Location BERN = new Location(46.95, 7.44, "Bern");
+    
+    @TempDir
+    Path directory;
+    
+    private final TaxiManager taxiManager = new TaxiManager();
+    private final RideManager rideManager = new RideManager(taxiManager);
+    private StateJournal journal;
+    private Taxi taxi;
+    
+    @BeforeEach
+    void openJournal() throws Exception {
+        journal = StateJournal.open(directory, FsyncPolicy.GROUP_COMMIT);
+        taxiManager.setJournal(journal);
+        rideManager.setJournal(journal);
+        taxi = new Taxi("Anna", "ZH 1", "Test", ZURICH);
+        taxiManager.addTaxi(taxi);
+    }
+    
+    @AfterEach
+    void closeJournal() throws IOException {
+        journal.close();
+    }
+    
+    @Test
+    void failedBookingFreesItsTaxi() throws Exception {
+        failDuringCommit(() -> rideManager.requestRide("Customer", ZURICH, BERN, true));
+        assertTrue(rideManager.getAllRides().isEmpty());
+        assertEquals(0, rideManager.getTotalRideCount());
+        assertTrue(rideManager.getObservableRides().isEmpty());
+        assertEquals(List.of(taxi), taxiManager.getAvailableTaxis());
+        
+        // The failed log now refuses appends, and the taxi is handed back each time
+        assertThrows(UncheckedIOException.class, () -> rideManager.requestRide("Customer", ZURICH, BERN, false));
+        assertTrue(rideManager.getAllRides().isEmpty());
+        assertEquals(List.of(taxi), taxiManager.getAvailableTaxis());
+        assertEquals(0, taxiManager.getAssignedTaxiCount());
+    }
+    
+    @Test
+    void failedStartLeavesTheRideAssigned() throws Exception {
+        Ride ride = rideManager.requestRide("Customer", ZURICH, BERN, true);
+        failDuringCommit(() -> rideManager.startRide(ride));
+        assertEquals(RideStatus.ASSIGNED, ride.getStatus());
+        assertEquals(List.of(ride), rideManager.getRidesByStatus(RideStatus.ASSIGNED));
+        assertTrue(rideManager.getRidesByStatus(RideStatus.IN_PROGRESS).isEmpty());
+        
+        assertThrows(UncheckedIOException.class, () -> rideManager.startRide(ride));
+        assertEquals(RideStatus.ASSIGNED, ride.getStatus());
+        assertEquals(List.of(ride), rideManager.getRidesByStatus(RideStatus.ASSIGNED));
+    }
+    
+    @Test
+    void failedCompletionKeepsTheTaxiOnItsRide() throws Exception {
+        Ride ride = rideManager.requestRide("Customer", ZURICH, BERN, true);
+        rideManager.startRide(ride);
+        failDuringCommit(() -> rideManager.completeRide(ride));
+        assertEquals(RideStatus.IN_PROGRESS, ride.getStatus());
+        assertNull(ride.getCompletedTime());
+        assertEquals(List.of(ride), rideManager.getRidesByStatus(RideStatus.IN_PROGRESS));
+        assertTrue(rideManager.getRidesByStatus(RideStatus.COMPLETED).isEmpty());
+        assertEquals(0, taxiManager.getAvailableTaxiCount());
+        assertEquals(1, taxiManager.getAssignedTaxiCount());
+        
+        assertThrows(UncheckedIOException.class, () -> rideManager.updateRideStatus(ride, RideStatus.CANCELLED));
+        assertEquals(RideStatus.IN_PROGRESS, ride.getStatus());
+        assertEquals(1, taxiManager.getAssignedTaxiCount());
+    }
+    
+    @Test
+    void failedTaxiRegistrationCanBeRetried() throws Exception {
+        Taxi other = new Taxi("Ben", "ZH 2", "Test", BERN);
+        failDuringCommit(() -> taxiManager.addTaxi(other));
+        assertNull(taxiManager.getTaxiById(other.getId()));
+        assertNull(taxiManager.getTaxiByLicensePlate(other.getLicensePlate()));
+        assertEquals(List.of(taxi), taxiManager.getAvailableTaxis());
+        
+        // Without a journal the same taxi is accepted, not refused as a duplicate
+        taxiManager.setJournal(null);
+        taxiManager.addTaxi(other);
+        assertSame(other, taxiManager.getTaxiByLicensePlate(other.getLicensePlate()));
+    }
+    
+    // Run an operation while the calling thread is interrupted, so the group commit it leads fails the log
+    private void failDuringCommit(Executable operation) {
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(UncheckedIOException.class, operation);
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(journal.getLog().isFailed());
+    }
+}
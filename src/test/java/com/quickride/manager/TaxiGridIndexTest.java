@@ -0,0 +1,165 @@
+package com.quickride.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.quickride.model.GeoDistance;
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+
+/**
+ * Tests of the grid index's searches against a brute-force scan of the same fleet
+ */
+class TaxiGridIndexTest {
+    private static final int FLEET_SIZE = 2_000;
+    private static final int QUERIES = 300;
+    
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final TaxiGridIndex index = new TaxiGridIndex();
+    private final List<Taxi> fleet = new ArrayList<>();
+    
+    @BeforeEach
+    void indexFleet() {
+        // Dense around Zurich with a sparse spread over the rest of Switzerland
+        for (int i = 0; i < FLEET_SIZE; i++) {
+            Location location = i % 4 == 0 ? near(46.8, 8.2, 1.5) : near(47.37, 8.54, 0.1);
+            Taxi taxi = new Taxi("Driver " + i, "ZH " + i, "Test", location);
+            fleet.add(taxi);
+            index.add(taxi);
+        }
+    }
+    
+    @Test
+    void kNearestMatchesBruteForce() {
+        for (int q = 0; q < QUERIES; q++) {
+            Location query = q % 2 == 0 ? near(47.37, 8.54, 0.2) : near(46.8, 8.2, 2);
+            int k = 1 + q % 10;
+            List<Taxi> found = index.findKNearest(query, k);
+            
+            // Ranked by the same metric the index ranks by, then ordered by haversine
+            List<Taxi> expected = new ArrayList<>(fleet);
+            double cos = GeoDistance.cosLatitude(query.getLatitude());
+            expected.sort(Comparator.comparingDouble(taxi -> squaredDegrees(query, taxi, cos)));
+            assertEquals(new HashSet<>(expected.subList(0, k)), new HashSet<>(found));
+            for (int i = 1; i < found.size(); i++) {
+                assertTrue(distance(query, found.get(i - 1)) <= distance(query, found.get(i)));
+            }
+        }
+    }
+    
+    @Test
+    void kNearestWithFilterSkipsRejectedTaxis() {
+        Location query = new Location(47.37, 8.54, "Zurich");
+        List<Taxi> found = index.findKNearest(query, 5, taxi -> taxi.getLicensePlate().endsWith("7"));
+        double cos = GeoDistance.cosLatitude(query.getLatitude());
+        Set<Taxi> expected = new HashSet<>(fleet.stream()
+                .filter(taxi -> taxi.getLicensePlate().endsWith("7"))
+                .sorted(Comparator.comparingDouble(taxi -> squaredDegrees(query, taxi, cos)))
+                .limit(5)
+                .toList());
+        assertEquals(expected, new HashSet<>(found));
+    }
+    
+    @Test
+    void kLargerThanFleetReturnsEveryTaxi() {
+        List<Taxi> found = index.findKNearest(new Location(47.37, 8.54, "Zurich"), FLEET_SIZE * 2);
+        assertEquals(FLEET_SIZE, found.size());
+        assertEquals(new HashSet<>(fleet), new HashSet<>(found));
+    }
+    
+    @Test
+    void withinRadiusMatchesBruteForce() {
+        for (int q = 0; q < QUERIES; q++) {
+            Location query = near(47.37, 8.54, 0.2);
+            double radiusKm = 0.5 + q % 5;
+            Set<Taxi> expected = new HashSet<>();
+            for (Taxi taxi : fleet) {
+                if (distance(query, taxi) <= radiusKm) {
+                    expected.add(taxi);
+                }
+            }
+            List<Taxi> found = index.findWithin(query, radiusKm);
+            assertEquals(expected, new HashSet<>(found));
+            for (int i = 1; i < found.size(); i++) {
+                assertTrue(distance(query, found.get(i - 1)) <= distance(query, found.get(i)));
+            }
+        }
+    }
+    
+    @Test
+    void infiniteRadiusReturnsEveryTaxi() {
+        Location query = new Location(47.37, 8.54, "Zurich");
+        assertEquals(new HashSet<>(fleet), new HashSet<>(index.findWithin(query, Double.POSITIVE_INFINITY)));
+        assertEquals(new HashSet<>(fleet), new HashSet<>(index.findWithin(query, Double.MAX_VALUE)));
+        assertTrue(index.findWithin(query, Double.NaN).isEmpty());
+    }
+    
+    @Test
+    void infiniteBoundsReturnEveryTaxi() {
+        List<Taxi> found = index.findInBounds(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, taxi -> true);
+        assertEquals(new HashSet<>(fleet), new HashSet<>(found));
+        assertEquals(FLEET_SIZE, found.size());
+    }
+    
+    @Test
+    void boundsMatchBruteForce() {
+        for (int q = 0; q < QUERIES; q++) {
+            double south = 47.3 + random.nextDouble() * 0.1;
+            double west = 8.45 + random.nextDouble() * 0.1;
+            double north = south + random.nextDouble() * 0.1;
+            double east = west + random.nextDouble() * 0.1;
+            Set<Taxi> expected = new HashSet<>();
+            for (Taxi taxi : fleet) {
+                Location location = taxi.getCurrentLocation();
+                if (location.getLatitude() >= south && location.getLatitude() <= north
+                        && location.getLongitude() >= west && location.getLongitude() <= east) {
+                    expected.add(taxi);
+                }
+            }
+            assertEquals(expected, new HashSet<>(index.findInBounds(south, west, north, east, taxi -> true)));
+        }
+    }
+    
+    @Test
+    void movedAndRemovedTaxisAreFoundWhereTheyAre() {
+        Taxi taxi = fleet.get(1);
+        Location geneva = new Location(46.2044, 6.1432, "Geneva");
+        taxi.setCurrentLocation(geneva);
+        index.update(taxi);
+        assertEquals(taxi, index.findNearest(geneva));
+        
+        index.remove(taxi);
+        assertFalse(index.findKNearest(geneva, 10).contains(taxi));
+        
+        TaxiGridIndex empty = new TaxiGridIndex();
+        assertNull(empty.findNearest(geneva));
+    }
+    
+    private Location near(double latitude, double longitude, double spread) {
+        return new Location(latitude + (random.nextDouble() * 2 - 1) * spread,
+                longitude + (random.nextDouble() * 2 - 1) * spread, "Test");
+    }
+    
+    private static double distance(Location query, Taxi taxi) {
+        return query.distanceTo(taxi.getCurrentLocation());
+    }
+    
+    private static double squaredDegrees(Location query, Taxi taxi, double cos) {
+        Location location = taxi.getCurrentLocation();
+        return GeoDistance.squaredDegrees(query.getLatitude(), query.getLongitude(),
+                location.getLatitude(), location.getLongitude(), cos);
+    }
+}
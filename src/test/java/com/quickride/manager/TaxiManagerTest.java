@@ -0,0 +1,170 @@
+package com.quickride.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.quickride.exception.InvalidTaxiException;
+import com.quickride.exception.NoTaxiAvailableException;
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+
+/**
+ * Tests of the available queue's FIFO order, its lazy skipping of taxis claimed elsewhere, and concurrent dispatch
+ */
+class TaxiManagerTest {
+    private final TaxiManager manager = new TaxiManager();
+    
+    @Test
+    void nextTaxiFollowsReleaseOrder() throws Exception {
+        List<Taxi> taxis = addTaxis(5);
+        assertEquals(taxis, manager.getAvailableTaxis());
+        
+        Taxi first = manager.getNextAvailableTaxi();
+        Taxi second = manager.getNextAvailableTaxi();
+        assertSame(taxis.get(0), first);
+        assertSame(taxis.get(1), second);
+        
+        // Released taxis queue up behind the ones that waited
+        manager.releaseTaxi(second);
+        manager.releaseTaxi(first);
+        assertEquals(List.of(taxis.get(2), taxis.get(3), taxis.get(4), second, first), manager.getAvailableTaxis());
+        for (Taxi expected : List.of(taxis.get(2), taxis.get(3), taxis.get(4), second, first)) {
+            assertSame(expected, manager.getNextAvailableTaxi());
+        }
+        assertThrows(NoTaxiAvailableException.class, manager::getNextAvailableTaxi);
+    }
+    
+    @Test
+    void taxisClaimedElsewhereAreSkipped() throws Exception {
+        List<Taxi> taxis = addTaxis(5);
+        manager.claimTaxi(taxis.get(0));
+        assertSame(taxis.get(2), manager.getNearestAvailableTaxi(taxis.get(2).getCurrentLocation()));
+        
+        // A taxi claimed and released again is only queued once, at the back
+        manager.releaseTaxi(taxis.get(0));
+        assertEquals(List.of(taxis.get(1), taxis.get(3), taxis.get(4), taxis.get(0)), manager.getAvailableTaxis());
+        assertEquals(4, manager.getAvailableTaxiCount());
+        assertEquals(1, manager.getAssignedTaxiCount());
+        
+        assertSame(taxis.get(1), manager.getNextAvailableTaxi());
+        assertSame(taxis.get(3), manager.getNextAvailableTaxi());
+        assertSame(taxis.get(4), manager.getNextAvailableTaxi());
+        assertSame(taxis.get(0), manager.getNextAvailableTaxi());
+        assertThrows(NoTaxiAvailableException.class, manager::getNextAvailableTaxi);
+    }
+    
+    @Test
+    void queueStaysCorrectOverManyNearestDispatches() throws Exception {
+        List<Taxi> taxis = addTaxis(10);
+        
+        // Nearest search never reaches the queue head, so only compaction clears these entries
+        for (int i = 0; i < 100_000; i++) {
+            Taxi taxi = manager.getNearestAvailableTaxi(taxis.get(i % taxis.size()).getCurrentLocation());
+            manager.releaseTaxi(taxi);
+        }
+        List<Taxi> available = manager.getAvailableTaxis();
+        assertEquals(taxis.size(), available.size());
+        assertEquals(new HashSet<>(taxis), new HashSet<>(available));
+        
+        for (Taxi expected : available) {
+            assertSame(expected, manager.getNextAvailableTaxi());
+        }
+        assertTrue(manager.getAvailableTaxis().isEmpty());
+    }
+    
+    @Test
+    void concurrentDispatchNeverHandsOutATaxiTwice() throws Exception {
+        addTaxis(16);
+        Set<Taxi> held = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> workers = new ArrayList<>();
+            for (int w = 0; w < 8; w++) {
+                boolean nearest = w % 2 == 0;
+                workers.add(pool.submit(() -> {
+                    int claims = 0;
+                    Location zurich = new Location(47.37, 8.54, "Zurich");
+                    for (int i = 0; i < 20_000; i++) {
+                        Taxi taxi;
+                        try {
+                            taxi = nearest ? manager.getNearestAvailableTaxi(zurich) : manager.getNextAvailableTaxi();
+                        } catch (NoTaxiAvailableException e) {
+                            continue;
+                        }
+                        assertTrue(held.add(taxi), "taxi handed out twice");
+                        held.remove(taxi);
+                        manager.releaseTaxi(taxi);
+                        claims++;
+                    }
+                    return claims;
+                }));
+            }
+            int claims = 0;
+            for (Future<Integer> worker : workers) {
+                claims += worker.get();
+            }
+            assertTrue(claims > 0);
+        } finally {
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(16, manager.getAvailableTaxiCount());
+        assertEquals(16, manager.getAvailableTaxis().size());
+        assertEquals(0, manager.getAssignedTaxiCount());
+    }
+    
+    @Test
+    void duplicatePlatesAndDoubleReleasesAreRejected() throws Exception {
+        Taxi taxi = addTaxis(1).get(0);
+        assertSame(taxi, manager.getTaxiById(taxi.getId()));
+        assertSame(taxi, manager.getTaxiByLicensePlate(taxi.getLicensePlate()));
+        assertThrows(InvalidTaxiException.class, () -> manager.addTaxi(
+                new Taxi("Other", taxi.getLicensePlate(), "Test", new Location(47.0, 8.0, "Lucerne"))));
+        
+        assertThrows(InvalidTaxiException.class, () -> manager.releaseTaxi(taxi));
+        manager.releaseTaxi(manager.getNextAvailableTaxi());
+        assertFalse(manager.getAvailableTaxis().isEmpty());
+        assertThrows(InvalidTaxiException.class, () -> manager.releaseTaxi(taxi));
+    }
+    
+    @Test
+    void addingARegisteredTaxiAgainLeavesItsFlagAlone() throws Exception {
+        Taxi taxi = new Taxi("Anna", "ZH 1", "Test", new Location(47.37, 8.54, "Zurich"));
+        manager.addTaxi(taxi);
+        assertTrue(taxi.isAvailable());
+        assertSame(taxi, manager.claimTaxi(taxi));
+        
+        // Adding a registered taxi again is rejected and leaves its flag as it was
+        assertThrows(InvalidTaxiException.class, () -> manager.addTaxi(taxi));
+        assertFalse(taxi.isAvailable());
+        manager.releaseTaxi(taxi);
+        assertThrows(InvalidTaxiException.class, () -> manager.addTaxi(taxi));
+        assertTrue(taxi.isAvailable());
+        assertSame(taxi, manager.getNextAvailableTaxi());
+    }
+    
+    private List<Taxi> addTaxis(int count) throws InvalidTaxiException {
+        List<Taxi> taxis = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Taxi taxi = new Taxi("Driver " + i, "ZH " + i, "Test", new Location(47.37 + i * 0.01, 8.54, "Zurich"));
+            manager.addTaxi(taxi);
+            taxis.add(taxi);
+        }
+        return taxis;
+    }
+}
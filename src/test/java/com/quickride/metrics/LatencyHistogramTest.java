@@ -0,0 +1,84 @@
+package com.quickride.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the histogram's bucket bounds and of the percentiles read from them
+ */
+class LatencyHistogramTest {
+    
+    @Test
+    void bucketsAreContiguousAndCoverEveryValue() {
+        assertEquals(0, LatencyHistogram.lowestValueOf(0));
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS - 1; bucket++) {
+            assertTrue(LatencyHistogram.lowestValueOf(bucket) <= LatencyHistogram.highestValueOf(bucket));
+            assertEquals(LatencyHistogram.highestValueOf(bucket) + 1, LatencyHistogram.lowestValueOf(bucket + 1));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueOf(LatencyHistogram.BUCKETS - 1));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+    
+    @Test
+    void smallValuesAreCountedExactly() {
+        for (long value = 0; value < 2 * LatencyHistogram.SUB_BUCKETS; value++) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertEquals(value, LatencyHistogram.lowestValueOf(bucket));
+            assertEquals(value, LatencyHistogram.highestValueOf(bucket));
+        }
+    }
+    
+    @Test
+    void everyValueFallsInABucketWithinOneSubBucketOfIt() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int shift = 0; shift < Long.SIZE - 1; shift++) {
+            long power = 1L << shift;
+            for (long value : new long[] {power - 1, power, power + 1, power + random.nextLong(power)}) {
+                assertBucketHolds(value);
+            }
+        }
+        assertBucketHolds(Long.MAX_VALUE);
+    }
+    
+    private static void assertBucketHolds(long value) {
+        int bucket = LatencyHistogram.bucketOf(value);
+        long lowest = LatencyHistogram.lowestValueOf(bucket);
+        long highest = LatencyHistogram.highestValueOf(bucket);
+        assertTrue(lowest <= value && value <= highest, value + " outside [" + lowest + ", " + highest + "]");
+        assertTrue((double) (highest - lowest) <= (double) value / LatencyHistogram.SUB_BUCKETS,
+                value + " in a bucket " + (highest - lowest + 1) + " wide");
+    }
+    
+    @Test
+    void percentilesNeverUnderstateByMoreThanABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.getCount());
+        assertEquals(100_000, snapshot.getMax());
+        assertEquals(100_000L * 100_001 / 2, snapshot.getSum());
+        for (double percentile : new double[] {1, 50, 90, 99, 99.9}) {
+            long exact = (long) Math.ceil(percentile * 1_000);
+            long reported = snapshot.valueAtPercentile(percentile);
+            assertTrue(reported >= exact && reported <= exact + exact / LatencyHistogram.SUB_BUCKETS,
+                    percentile + "th percentile " + reported + ", exact " + exact);
+        }
+        assertEquals(100_000, snapshot.valueAtPercentile(100));
+    }
+    
+    @Test
+    void negativeValuesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(0, snapshot.getSum());
+        assertEquals(0, snapshot.valueAtPercentile(99));
+    }
+}
@@ -0,0 +1,168 @@
+package com.quickride.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the event log's recovery from a torn tail and from a failed write
+ */
+class EventLogTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void recordsSurviveReopen() throws IOException {
+        try (EventLog log = EventLog.open(directory, FsyncPolicy.GROUP_COMMIT)) {
+            for (int i = 0; i < 100; i++) {
+                log.awaitDurable(log.append(record(i)));
+            }
+        }
+        assertEquals(range(0, 100), replay());
+    }
+    
+    @Test
+    void tornTailIsCutOffOnOpen() throws IOException {
+        try (EventLog log = EventLog.open(directory, FsyncPolicy.EVERY_WRITE)) {
+            for (int i = 0; i < 3; i++) {
+                log.append(record(i));
+            }
+        }
+        
+        // A record whose header promises more bytes than made it to disk, as left by a crash
+        long intactSize = Files.size(lastSegment());
+        try (FileChannel channel = FileChannel.open(lastSegment(), StandardOpenOption.APPEND)) {
+            ByteBuffer torn = ByteBuffer.allocate(18);
+            torn.putInt(100).putInt(0x12345678).putLong(42).putShort((short) 7).flip();
+            channel.write(torn);
+        }
+        
+        try (EventLog log = EventLog.open(directory, FsyncPolicy.EVERY_WRITE)) {
+            assertEquals(intactSize, Files.size(lastSegment()));
+            assertEquals(range(0, 3), replay(log));
+            log.append(record(3));
+        }
+        assertEquals(range(0, 4), replay());
+    }
+    
+    @Test
+    void corruptTailRecordIsCutOffOnOpen() throws IOException {
+        try (EventLog log = EventLog.open(directory, FsyncPolicy.EVERY_WRITE)) {
+            for (int i = 0; i < 3; i++) {
+                log.append(record(i));
+            }
+        }
+        
+        // Flip a byte of the last record's body so its checksum no longer matches
+        Path segment = lastSegment();
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            last.put(0, (byte) (last.get(0) ^ 0xFF)).rewind();
+            channel.write(last, size - 1);
+        }
+        
+        try (EventLog log = EventLog.open(directory, FsyncPolicy.EVERY_WRITE)) {
+            assertEquals(range(0, 2), replay(log));
+        }
+    }
+    
+    @Test
+    void failedWriteFailsTheLog() throws IOException {
+        try (EventLog log = EventLog.open(directory, FsyncPolicy.GROUP_COMMIT)) {
+            log.awaitDurable(log.append(record(0)));
+            log.awaitDurable(log.append(record(1)));
+            long lost = log.append(record(2));
+            
+            // Interrupting the writer closes the channel under it, failing the write
+            Thread.currentThread().interrupt();
+            try {
+                assertThrows(UncheckedIOException.class, () -> log.awaitDurable(lost));
+            } finally {
+                Thread.interrupted();
+            }
+            
+            assertTrue(log.isFailed());
+            assertThrows(UncheckedIOException.class, () -> log.append(record(3)));
+            assertThrows(UncheckedIOException.class, () -> log.awaitDurable(lost));
+            assertThrows(IOException.class, log::flush);
+        }
+        
+        // Only what was durable before the failure is replayed, and the log takes appends again
+        try (EventLog log = EventLog.open(directory, FsyncPolicy.GROUP_COMMIT)) {
+            assertFalse(log.isFailed());
+            assertEquals(range(0, 2), replay(log));
+            log.awaitDurable(log.append(record(2)));
+        }
+        assertEquals(range(0, 3), replay());
+    }
+    
+    @Test
+    void cutStartsNewSegmentAtTheMark() throws IOException {
+        try (EventLog log = EventLog.open(directory, FsyncPolicy.GROUP_COMMIT)) {
+            log.append(record(0));
+            log.append(record(1));
+            long segment = log.cut();
+            log.append(record(2));
+            log.flush();
+            
+            assertEquals(segment, log.getActiveSegment());
+            assertEquals(List.of(2), replay(log, segment));
+            assertEquals(1, log.deleteSegmentsBefore(segment));
+        }
+        assertEquals(List.of(2), replay());
+    }
+    
+    private static ByteBuffer record(int value) {
+        ByteBuffer body = ByteBuffer.allocate(Integer.BYTES);
+        body.putInt(value).flip();
+        return body;
+    }
+    
+    private static List<Integer> range(int from, int to) {
+        List<Integer> values = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+    
+    private List<Integer> replay() throws IOException {
+        try (EventLog log = EventLog.open(directory, FsyncPolicy.GROUP_COMMIT)) {
+            return replay(log);
+        }
+    }
+    
+    private static List<Integer> replay(EventLog log) throws IOException {
+        return replay(log, 0);
+    }
+    
+    private static List<Integer> replay(EventLog log, long fromSegment) throws IOException {
+        List<Integer> values = new ArrayList<>();
+        log.replay(fromSegment, body -> values.add(body.getInt(body.position())));
+        return values;
+    }
+    
+    private Path lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().reduce((first, second) -> second).orElseThrow();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.quickride.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.quickride.manager.RideManager;
+import com.quickride.manager.TaxiManager;
+import com.quickride.model.Location;
+import com.quickride.model.Ride;
+import com.quickride.model.RideStatus;
+import com.quickride.model.Taxi;
+
+/**
+ * Tests that archived rides read back field for field, also after the archive is reopened, and are stored once
+ */
+class RideArchiveTest {
+    private static final ZoneId ZONE = ZoneOffset.UTC;
+    private static final LocalDateTime FIRST_DAY = LocalDateTime.of(2024, 3, 1, 8, 0);
+    
+    // Finished rides that make up one archive batch of the ride manager
+    private static final int FULL_BATCH = 256;
+    
+    // Instant.MIN and MAX do not fit in epoch milliseconds
+    private static final Instant ALL_FROM = Instant.EPOCH;
+    private static final Instant ALL_TO = Instant.parse("2100-01-01T00:00:00Z");
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void ridesRoundTripAndSurviveReopen() throws IOException {
+        List<Ride> rides = rides(0, 30);
+        try (RideArchive archive = RideArchive.open(directory, ZONE)) {
+            archive.append(rides);
+            archive.force();
+            assertEquals(rides.size(), archive.size());
+            assertMatches(rides, archive, ALL_FROM, ALL_TO);
+        }
+        
+        // Reopened, the same records and dictionary strings come back, and appends go on
+        List<Ride> more = rides(30, 40);
+        try (RideArchive archive = RideArchive.open(directory, ZONE)) {
+            assertEquals(rides.size(), archive.size());
+            assertEquals(List.of(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 2), LocalDate.of(2024, 3, 3)),
+                    archive.getDays());
+            assertMatches(rides, archive, ALL_FROM, ALL_TO);
+            archive.append(more);
+            archive.force();
+        }
+        
+        List<Ride> all = new ArrayList<>(rides);
+        all.addAll(more);
+        try (RideArchive archive = RideArchive.open(directory, ZONE)) {
+            assertEquals(all.size(), archive.size());
+            assertMatches(sortedByDay(all), archive, ALL_FROM, ALL_TO);
+        }
+    }
+    
+    @Test
+    void rangeQueriesIncludeFromAndExcludeTo() throws IOException {
+        List<Ride> rides = rides(0, 30);
+        try (RideArchive archive = RideArchive.open(directory, ZONE)) {
+            archive.append(rides);
+            
+            // Ride i ends i * 2 hours after the first day's start
+            Instant from = endOf(rides.get(5));
+            Instant to = endOf(rides.get(20));
+            assertMatches(rides.subList(5, 20), archive, from, to);
+            
+            long completed = rides.subList(5, 20).stream().filter(ride -> ride.getStatus() == RideStatus.COMPLETED).count();
+            assertEquals(completed, archive.countBetween(from, to, RideStatus.COMPLETED));
+            assertEquals(15 - completed, archive.countBetween(from, to, RideStatus.CANCELLED));
+            
+            assertFalse(archive.query(to, to).next());
+        }
+    }
+    
+    @Test
+    void invertedRangeIsEmpty() throws IOException {
+        List<Ride> rides = rides(0, 30);
+        try (RideArchive archive = RideArchive.open(directory, ZONE)) {
+            archive.append(rides);
+            
+            // Days apart, so the day files the range names are in reverse order too
+            Instant from = endOf(rides.get(25));
+            Instant to = endOf(rides.get(5));
+            assertFalse(archive.query(from, to).next());
+            assertEquals(0, archive.countBetween(from, to, RideStatus.COMPLETED));
+            assertFalse(archive.query(ALL_TO, ALL_FROM).next());
+        }
+    }
+    
+    @Test
+    void ridesAlreadyArchivedAreSkipped() throws IOException {
+        List<Ride> rides = rides(0, 30);
+        try (RideArchive archive = RideArchive.open(directory, ZONE)) {
+            assertEquals(rides.size(), archive.append(rides));
+            assertEquals(0, archive.append(rides.subList(10, 20)));
+            assertEquals(rides.size(), archive.size());
+        }
+        
+        // Reopened, the IDs are read back from the day files
+        List<Ride> more = rides(30, 35);
+        List<Ride> batch = new ArrayList<>(rides.subList(25, 30));
+        batch.addAll(more);
+        try (RideArchive archive = RideArchive.open(directory, ZONE)) {
+            assertEquals(more.size(), archive.append(batch));
+            List<Ride> all = new ArrayList<>(rides);
+            all.addAll(more);
+            assertMatches(sortedByDay(all), archive, ALL_FROM, ALL_TO);
+        }
+    }
+    
+    @Test
+    void batchArchivedAgainAfterACrashIsStoredOnce() throws Exception {
+        Path journalDirectory = directory.resolve("journal");
+        Path archiveDirectory = directory.resolve("archive");
+        Location zurich = new Location(47.37, 8.54, "Zurich");
+        Location bern = new Location(46.95, 7.44, "Bern");
+        
+        // First run: a full batch is archived, then the app dies before the journal records that it left memory
+        List<Ride> finished;
+        try (StateJournal journal = StateJournal.open(journalDirectory, FsyncPolicy.GROUP_COMMIT);
+                RideArchive archive = RideArchive.open(archiveDirectory, ZONE)) {
+            TaxiManager taxiManager = new TaxiManager();
+            RideManager rideManager = new RideManager(taxiManager);
+            taxiManager.setJournal(journal);
+            rideManager.setJournal(journal);
+            taxiManager.addTaxi(new Taxi("Anna", "ZH 1", "Test", zurich));
+            for (int i = 0; i < FULL_BATCH; i++) {
+                Ride ride = rideManager.requestRide("Customer " + i, zurich, bern, false);
+                rideManager.startRide(ride);
+                rideManager.completeRide(ride);
+            }
+            finished = rideManager.getAllRides();
+            archive.append(finished);
+            archive.force();
+        }
+        
+        // Second run: recovery brings the rides back, and the next batch archives them again
+        try (StateJournal journal = StateJournal.open(journalDirectory, FsyncPolicy.GROUP_COMMIT);
+                RideArchive archive = RideArchive.open(archiveDirectory, ZONE)) {
+            TaxiManager taxiManager = new TaxiManager();
+            RideManager rideManager = new RideManager(taxiManager);
+            journal.recover(taxiManager, rideManager);
+            assertEquals(FULL_BATCH, rideManager.getAllRides().size());
+            taxiManager.setJournal(journal);
+            rideManager.setJournal(journal);
+            rideManager.setArchive(archive, 0);
+            
+            Ride last = rideManager.requestRide("Customer", zurich, bern, false);
+            rideManager.startRide(last);
+            rideManager.completeRide(last);
+            assertTrue(rideManager.getAllRides().isEmpty());
+            assertEquals(FULL_BATCH + 1, archive.size());
+            assertEquals(FULL_BATCH + 1, rideManager.getTotalRideCount());
+            
+            Set<UUID> ids = new HashSet<>();
+            archive.forEachBetween(ALL_FROM, ALL_TO, cursor -> assertTrue(ids.add(cursor.getId()), "archived twice"));
+            assertEquals(FULL_BATCH + 1, ids.size());
+        }
+    }
+    
+    private static void assertMatches(List<Ride> expected, RideArchive archive, Instant from, Instant to) {
+        ArchivedRideCursor cursor = archive.query(from, to);
+        for (Ride ride : expected) {
+            assertTrue(cursor.next(), "missing " + ride.getId());
+            assertEquals(UUID.fromString(ride.getId()), cursor.getId());
+            assertEquals(ride.getStatus(), cursor.getStatus());
+            assertEquals(ride.getCustomerName(), cursor.getCustomerName());
+            assertEquals(millis(ride.getRequestTime()), cursor.getRequestTimeMillis());
+            assertEquals(endOf(ride), cursor.getEndTime());
+            assertEquals(ride.getPickupLocation().getLatitude(), cursor.getPickupLatitude());
+            assertEquals(ride.getPickupLocation().getLongitude(), cursor.getPickupLongitude());
+            assertEquals(ride.getDropoffLocation().getLatitude(), cursor.getDropoffLatitude());
+            assertEquals(ride.getDropoffLocation().getLongitude(), cursor.getDropoffLongitude());
+            assertEquals(ride.getPickupLocation().getAddress(), cursor.getPickupAddress());
+            assertEquals(ride.getDropoffLocation().getAddress(), cursor.getDropoffAddress());
+            if (ride.getAssignedTaxi() == null) {
+                assertNull(cursor.getTaxiId());
+                assertEquals(Long.MIN_VALUE, cursor.getAssignedTimeMillis());
+            } else {
+                assertEquals(UUID.fromString(ride.getAssignedTaxi().getId()), cursor.getTaxiId());
+                assertEquals(millis(ride.getAssignedTime()), cursor.getAssignedTimeMillis());
+            }
+        }
+        assertFalse(cursor.next());
+    }
+    
+    /**
+     * Rides from..to-1, two hours apart, so they spread over several days
+     * Every third ride is cancelled before it got a taxi, the rest are completed
+     */
+    private static List<Ride> rides(int from, int to) {
+        Taxi taxi = new Taxi("Anna", "ZH 1", "Test", new Location(47.37, 8.54, "Zurich"));
+        List<Ride> rides = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            LocalDateTime requested = FIRST_DAY.plusHours(2L * i).minusMinutes(30);
+            Ride ride = new Ride(UUID.randomUUID().toString(), "Customer " + i % 7,
+                    new Location(47.37 + i * 0.001, 8.54, "Pickup " + i % 5),
+                    new Location(46.95, 7.44 + i * 0.001, "Bern"), requested);
+            if (i % 3 == 0) {
+                ride.setStatus(RideStatus.CANCELLED);
+            } else {
+                ride.setAssignedTaxi(taxi);
+                ride.setAssignedTime(requested.plusMinutes(5));
+                ride.setCompletedTime(FIRST_DAY.plusHours(2L * i));
+                ride.setStatus(RideStatus.COMPLETED);
+            }
+            rides.add(ride);
+        }
+        return rides;
+    }
+    
+    // Cancelled rides are filed under their request time, as they have no later timestamp
+    private static Instant endOf(Ride ride) {
+        LocalDateTime end = ride.getCompletedTime() != null ? ride.getCompletedTime() : ride.getRequestTime();
+        return end.atZone(ZONE).toInstant();
+    }
+    
+    private static long millis(LocalDateTime time) {
+        return time.atZone(ZONE).toInstant().toEpochMilli();
+    }
+    
+    // Query order: day by day, and within a day in the order appended
+    private static List<Ride> sortedByDay(List<Ride> rides) {
+        List<Ride> sorted = new ArrayList<>(rides);
+        sorted.sort((a, b) -> endOf(a).atZone(ZONE).toLocalDate().compareTo(endOf(b).atZone(ZONE).toLocalDate()));
+        return sorted;
+    }
+}
@@ -0,0 +1,344 @@
+package com.quickride.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.quickride.exception.NoTaxiAvailableException;
+import com.quickride.manager.RideManager;
+import com.quickride.manager.TaxiManager;
+import com.quickride.model.Location;
+import com.quickride.model.Ride;
+import com.quickride.model.RideStatus;
+import com.quickride.model.Taxi;
+
+/**
+ * Tests that recovery from snapshots and the journal tail rebuilds the taxis and rides the managers held
+ */
+class StateJournalTest {
+    private static final String[] PLACES = {"Zurich HB", "Bern Bahnhof", "Basel SBB", "Lucerne", "Geneva Airport"};
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void journalAloneReplaysTheWholeHistory() throws Exception {
+        Fleet fleet = new Fleet();
+        try (StateJournal journal = fleet.open()) {
+            fleet.addTaxis(8);
+            fleet.runHistory(new SplittableRandom(1), 60);
+            assertFalse(journal.getLog().isFailed());
+        }
+        
+        Fleet recovered = new Fleet();
+        try (StateJournal journal = StateJournal.open(directory, FsyncPolicy.GROUP_COMMIT)) {
+            assertEquals(fleet.events, journal.recover(recovered.taxiManager, recovered.rideManager));
+        }
+        assertSameState(fleet, recovered);
+    }
+    
+    @Test
+    void snapshotPlusTailReplaysToTheSameState() throws Exception {
+        Fleet fleet = new Fleet();
+        long tailEvents;
+        try (StateJournal journal = fleet.open()) {
+            fleet.addTaxis(8);
+            fleet.runHistory(new SplittableRandom(2), 60);
+            journal.snapshot(fleet.taxiManager, fleet.rideManager);
+            
+            // Rides in every status change again after the snapshot, and new taxis join
+            long before = fleet.events;
+            fleet.addTaxis(3);
+            fleet.runHistory(new SplittableRandom(3), 40);
+            tailEvents = fleet.events - before;
+        }
+        
+        Fleet recovered = new Fleet();
+        try (StateJournal journal = StateJournal.open(directory, FsyncPolicy.GROUP_COMMIT)) {
+            assertEquals(tailEvents, journal.recover(recovered.taxiManager, recovered.rideManager));
+        }
+        assertSameState(fleet, recovered);
+    }
+    
+    @Test
+    void snapshotsTakenDuringBookingsMissNothing() throws Exception {
+        Fleet fleet = new Fleet();
+        try (StateJournal journal = fleet.open()) {
+            fleet.addTaxis(40);
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<?>> workers = new ArrayList<>();
+                for (int w = 0; w < 4; w++) {
+                    SplittableRandom random = new SplittableRandom(10 + w);
+                    workers.add(pool.submit(() -> {
+                        fleet.runHistory(random, 300);
+                        return null;
+                    }));
+                }
+                
+                // Each cut lands between events some thread is appending
+                for (int i = 0; i < 5; i++) {
+                    journal.snapshot(fleet.taxiManager, fleet.rideManager);
+                    Thread.sleep(5);
+                }
+                for (Future<?> worker : workers) {
+                    worker.get();
+                }
+            } finally {
+                pool.shutdown();
+                assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+            }
+        }
+        
+        Fleet recovered = new Fleet();
+        try (StateJournal journal = StateJournal.open(directory, FsyncPolicy.GROUP_COMMIT)) {
+            journal.recover(recovered.taxiManager, recovered.rideManager);
+        }
+        assertSameState(fleet, recovered);
+    }
+    
+    @Test
+    void oldSnapshotsAndTheSegmentsOnlyTheyNeedArePruned() throws Exception {
+        Fleet fleet = new Fleet();
+        List<Long> tails = new ArrayList<>();
+        try (StateJournal journal = fleet.open()) {
+            fleet.addTaxis(8);
+            for (int i = 0; i < 4; i++) {
+                fleet.runHistory(new SplittableRandom(20 + i), 30);
+                tails.add(StateSnapshot.tailSegmentOf(journal.snapshot(fleet.taxiManager, fleet.rideManager)));
+                
+                // The two newest snapshots are kept, and every segment from the older one's tail on
+                List<Long> kept = snapshotTails();
+                assertEquals(tails.subList(Math.max(0, tails.size() - 2), tails.size()), kept);
+                if (kept.size() == 2) {
+                    assertEquals(kept.get(0), segments().get(0));
+                }
+            }
+            fleet.runHistory(new SplittableRandom(30), 30);
+        }
+        
+        Fleet recovered = new Fleet();
+        try (StateJournal journal = StateJournal.open(directory, FsyncPolicy.GROUP_COMMIT)) {
+            journal.recover(recovered.taxiManager, recovered.rideManager);
+        }
+        assertSameState(fleet, recovered);
+    }
+    
+    @Test
+    void corruptNewestSnapshotFallsBackToTheOlderOne() throws Exception {
+        Fleet fleet = historyWithTwoSnapshots();
+        Path newest = StateSnapshot.list(directory).get(0);
+        
+        // Flip one byte of the body so only the trailing checksum catches it
+        try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer value = ByteBuffer.allocate(1);
+            long position = channel.size() / 2;
+            channel.read(value, position);
+            value.put(0, (byte) (value.get(0) ^ 0x40)).rewind();
+            channel.write(value, position);
+        }
+        assertUnreadable(newest);
+        
+        Fleet recovered = new Fleet();
+        try (StateJournal journal = StateJournal.open(directory, FsyncPolicy.GROUP_COMMIT)) {
+            journal.recover(recovered.taxiManager, recovered.rideManager);
+        }
+        assertSameState(fleet, recovered);
+    }
+    
+    @Test
+    void partialSnapshotsAreIgnored() throws Exception {
+        Fleet fleet = historyWithTwoSnapshots();
+        Path newest = StateSnapshot.list(directory).get(0);
+        
+        // A snapshot cut short, and the temporary file of one that was never renamed
+        try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() / 3);
+        }
+        assertUnreadable(newest);
+        Path temp = directory.resolve("snapshot-999999.bin.tmp");
+        Files.write(temp, new byte[] {1, 2, 3});
+        
+        Fleet recovered = new Fleet();
+        try (StateJournal journal = StateJournal.open(directory, FsyncPolicy.GROUP_COMMIT)) {
+            journal.recover(recovered.taxiManager, recovered.rideManager);
+            assertSameState(fleet, recovered);
+            
+            // The next snapshot clears the leftover temporary file
+            recovered.attach(journal);
+            journal.snapshot(recovered.taxiManager, recovered.rideManager);
+            assertFalse(Files.exists(temp));
+        }
+    }
+    
+    // A history with a snapshot after each half, and a tail after the second
+    private Fleet historyWithTwoSnapshots() throws Exception {
+        Fleet fleet = new Fleet();
+        try (StateJournal journal = fleet.open()) {
+            fleet.addTaxis(8);
+            fleet.runHistory(new SplittableRandom(40), 40);
+            journal.snapshot(fleet.taxiManager, fleet.rideManager);
+            fleet.addTaxis(2);
+            fleet.runHistory(new SplittableRandom(41), 40);
+            journal.snapshot(fleet.taxiManager, fleet.rideManager);
+            fleet.runHistory(new SplittableRandom(42), 20);
+        }
+        assertEquals(2, StateSnapshot.list(directory).size());
+        return fleet;
+    }
+    
+    private static void assertUnreadable(Path snapshot) {
+        try {
+            StateSnapshot.read(snapshot);
+        } catch (IOException e) {
+            return;
+        }
+        throw new AssertionError(snapshot + " still reads back");
+    }
+    
+    private static void assertSameState(Fleet expected, Fleet actual) {
+        assertEquals(describeTaxis(expected.taxiManager), describeTaxis(actual.taxiManager));
+        assertEquals(describeRides(expected.rideManager), describeRides(actual.rideManager));
+        for (RideStatus status : RideStatus.values()) {
+            assertEquals(expected.rideManager.getRideCountByStatus(status), actual.rideManager.getRideCountByStatus(status));
+        }
+        assertEquals(expected.taxiManager.getAvailableTaxiCount(), actual.taxiManager.getAvailableTaxiCount());
+        assertEquals(expected.taxiManager.getAssignedTaxiCount(), actual.taxiManager.getAssignedTaxiCount());
+        
+        // Recovered rides point at the recovered taxis, not at copies
+        for (Ride ride : actual.rideManager.getAllRides()) {
+            if (ride.getAssignedTaxi() != null) {
+                assertSame(actual.taxiManager.getTaxiById(ride.getAssignedTaxi().getId()), ride.getAssignedTaxi());
+            }
+        }
+    }
+    
+    // Every taxi field and whether it is free, sorted by ID since release order is not journaled
+    private static List<String> describeTaxis(TaxiManager taxiManager) {
+        return taxiManager.getAllTaxis().stream()
+                .map(taxi -> String.join("|", taxi.getId(), taxi.getDriverName(), taxi.getLicensePlate(),
+                        taxi.getCarModel(), describe(taxi.getCurrentLocation()), String.valueOf(taxi.isAvailable())))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+    
+    // Every ride field, in request order
+    private static List<String> describeRides(RideManager rideManager) {
+        return rideManager.getAllRides().stream()
+                .map(ride -> String.join("|", ride.getId(), ride.getCustomerName(), ride.getStatus().name(),
+                        describe(ride.getPickupLocation()), describe(ride.getDropoffLocation()),
+                        String.valueOf(ride.getRequestTime()), String.valueOf(ride.getAssignedTime()),
+                        String.valueOf(ride.getCompletedTime()),
+                        ride.getAssignedTaxi() != null ? ride.getAssignedTaxi().getId() : "-"))
+                .collect(Collectors.toList());
+    }
+    
+    private static String describe(Location location) {
+        return location.getLatitude() + "," + location.getLongitude() + "," + location.getAddress();
+    }
+    
+    private List<Long> snapshotTails() throws IOException {
+        List<Long> tails = new ArrayList<>();
+        for (Path snapshot : StateSnapshot.list(directory)) {
+            tails.add(0, StateSnapshot.tailSegmentOf(snapshot));
+        }
+        return tails;
+    }
+    
+    private List<Long> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith("events-"))
+                    .map(name -> Long.parseLong(name.substring("events-".length(), name.length() - ".log".length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+    
+    /**
+     * Managers logging to a journal, and a random mix of taxi and ride events run against them
+     */
+    private final class Fleet {
+        final TaxiManager taxiManager = new TaxiManager();
+        final RideManager rideManager = new RideManager(taxiManager);
+        
+        // Journaled events so far - one per taxi added, ride requested and status change
+        volatile long events;
+        private int taxis;
+        
+        StateJournal open() throws IOException {
+            StateJournal journal = StateJournal.open(directory, FsyncPolicy.GROUP_COMMIT);
+            attach(journal);
+            return journal;
+        }
+        
+        void attach(StateJournal journal) {
+            taxiManager.setJournal(journal);
+            rideManager.setJournal(journal);
+        }
+        
+        void addTaxis(int count) throws Exception {
+            for (int i = 0; i < count; i++, taxis++) {
+                Location stand = new Location(47.0 + taxis * 0.01, 8.0 + taxis * 0.02, PLACES[taxis % PLACES.length]);
+                taxiManager.addTaxi(new Taxi("Driver " + taxis, "ZH " + taxis, taxis % 3 == 0 ? null : "Model " + taxis % 4, stand));
+                events++;
+            }
+        }
+        
+        // Book, start, complete and cancel rides at random, moving rides of every status along
+        void runHistory(SplittableRandom random, int steps) throws Exception {
+            for (int step = 0; step < steps; step++) {
+                int action = random.nextInt(6);
+                List<Ride> assigned = rideManager.getRidesByStatus(RideStatus.ASSIGNED);
+                List<Ride> inProgress = rideManager.getRidesByStatus(RideStatus.IN_PROGRESS);
+                try {
+                    if (action <= 1 || assigned.isEmpty() && inProgress.isEmpty()) {
+                        rideManager.requestRide("Customer " + random.nextInt(20), place(random), place(random),
+                                random.nextBoolean());
+                    } else if (action == 2 && !assigned.isEmpty()) {
+                        rideManager.startRide(assigned.get(random.nextInt(assigned.size())));
+                    } else if (action == 3 && !inProgress.isEmpty()) {
+                        rideManager.completeRide(inProgress.get(random.nextInt(inProgress.size())));
+                    } else if (action == 4 && !assigned.isEmpty()) {
+                        rideManager.cancelRide(assigned.get(random.nextInt(assigned.size())));
+                    } else if (!inProgress.isEmpty()) {
+                        rideManager.updateRideStatus(inProgress.get(random.nextInt(inProgress.size())), RideStatus.CANCELLED);
+                    } else {
+                        continue;
+                    }
+                } catch (NoTaxiAvailableException | IllegalStateException e) {
+                    // Every taxi is out, or another thread moved the ride first
+                    continue;
+                }
+                synchronized (this) {
+                    events++;
+                }
+            }
+        }
+        
+        private Location place(SplittableRandom random) {
+            int index = random.nextInt(PLACES.length);
+            return new Location(46.5 + index * 0.2 + random.nextDouble() * 0.01, 7.5 + index * 0.3, PLACES[index]);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.quickride.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that contraction hierarchy queries find paths exactly as long as A* and Dijkstra
+ */
+class ContractionHierarchyTest {
+    private static final int SIDE = 40;
+    private static final int QUERIES = 500;
+    private static final double DELTA_METRES = 1e-6;
+    
+    @TempDir
+    static Path directory;
+    
+    private static RoadGraph graph;
+    private static ContractionHierarchy hierarchy;
+    
+    /**
+     * A jittered grid of streets with some missing and some one-way, plus an unreachable island
+     */
+    @BeforeAll
+    static void buildHierarchy() throws IOException {
+        SplittableRandom random = new SplittableRandom(7);
+        RoadGraphBuilder builder = new RoadGraphBuilder();
+        for (int row = 0; row < SIDE; row++) {
+            for (int col = 0; col < SIDE; col++) {
+                builder.addNode(47.3 + row * 0.002 + random.nextDouble() * 0.0008,
+                        8.5 + col * 0.003 + random.nextDouble() * 0.0012);
+            }
+        }
+        for (int row = 0; row < SIDE; row++) {
+            for (int col = 0; col < SIDE; col++) {
+                int node = row * SIDE + col;
+                if (col + 1 < SIDE) {
+                    addStreet(builder, random, node, node + 1);
+                }
+                if (row + 1 < SIDE) {
+                    addStreet(builder, random, node, node + SIDE);
+                }
+            }
+        }
+        int island = builder.addNode(46.0, 7.0);
+        builder.addRoad(island, builder.addNode(46.001, 7.001));
+        
+        graph = builder.build();
+        Path file = directory.resolve("grid.ch");
+        ContractionHierarchy.build(graph, file);
+        hierarchy = ContractionHierarchy.open(file, graph);
+    }
+    
+    private static void addStreet(RoadGraphBuilder builder, SplittableRandom random, int from, int to) {
+        int kind = random.nextInt(10);
+        if (kind == 0) {
+            return;
+        }
+        if (kind == 1) {
+            builder.addOneWay(from, to);
+        } else if (kind == 2) {
+            builder.addOneWay(to, from);
+        } else {
+            builder.addRoad(from, to);
+        }
+    }
+    
+    @Test
+    void hierarchyDistancesMatchAStarAndDijkstra() {
+        AStarRouter aStar = new AStarRouter(graph);
+        HierarchyRouter router = new HierarchyRouter(hierarchy);
+        SplittableRandom random = new SplittableRandom(11);
+        for (int q = 0; q < QUERIES; q++) {
+            int source = random.nextInt(SIDE * SIDE);
+            int target = random.nextInt(SIDE * SIDE);
+            double expected = aStar.dijkstraMetres(source, target);
+            assertEquals(expected, aStar.distanceMetres(source, target), source + " -> " + target);
+            
+            // The hierarchy adds whole decimetres, A* adds them as metres in floating point
+            assertEquals(expected, router.distanceMetres(source, target), DELTA_METRES, source + " -> " + target);
+        }
+    }
+    
+    @Test
+    void hierarchyPathsUnpackToRoadsOfTheSameLength() {
+        HierarchyRouter router = new HierarchyRouter(hierarchy);
+        SplittableRandom random = new SplittableRandom(13);
+        for (int q = 0; q < QUERIES; q++) {
+            int source = random.nextInt(SIDE * SIDE);
+            int target = random.nextInt(SIDE * SIDE);
+            double distance = router.distanceMetres(source, target);
+            int[] path = router.path(source, target);
+            if (distance == Double.POSITIVE_INFINITY) {
+                assertNull(path);
+                continue;
+            }
+            assertNotNull(path);
+            assertEquals(source, path[0]);
+            assertEquals(target, path[path.length - 1]);
+            assertEquals(distance, pathLength(path), DELTA_METRES, source + " -> " + target);
+        }
+    }
+    
+    @Test
+    void unreachableTargetsAreInfinitelyFar() {
+        int island = SIDE * SIDE;
+        assertEquals(Double.POSITIVE_INFINITY, new HierarchyRouter(hierarchy).distanceMetres(0, island));
+        assertEquals(Double.POSITIVE_INFINITY, new AStarRouter(graph).distanceMetres(0, island));
+        assertEquals(0, new HierarchyRouter(hierarchy).distanceMetres(island, island));
+        assertTrue(new HierarchyRouter(hierarchy).distanceMetres(island, island + 1) > 0);
+    }
+    
+    @Test
+    void hierarchyOfAnotherGraphIsRejected() throws IOException {
+        RoadGraphBuilder builder = new RoadGraphBuilder();
+        builder.addRoad(builder.addNode(47.0, 8.0), builder.addNode(47.01, 8.01));
+        RoadGraph other = builder.build();
+        assertThrows(IOException.class, () -> ContractionHierarchy.open(directory.resolve("grid.ch"), other));
+    }
+    
+    // Sum of the shortest arc between each pair of consecutive nodes
+    private static double pathLength(int[] path) {
+        double length = 0;
+        for (int i = 1; i < path.length; i++) {
+            double shortest = Double.POSITIVE_INFINITY;
+            for (int arc = graph.firstArc(path[i - 1]); arc < graph.firstArc(path[i - 1] + 1); arc++) {
+                if (graph.arcTarget(arc) == path[i]) {
+                    shortest = Math.min(shortest, graph.arcLength(arc));
+                }
+            }
+            assertTrue(shortest < Double.POSITIVE_INFINITY, "no road from " + path[i - 1] + " to " + path[i]);
+            length += shortest;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,257 @@
+package com.quickride.simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the array-based fleet against a plain one-object-per-vehicle model fed the same random numbers
+ */
+class FleetSimulationTest {
+    // FleetSimulation's jitter and step odds
+    private static final double JITTER = 0.00005;
+    private static final int STEP_ODDS = 3;
+    
+    @Test
+    void ticksMatchTheReference() {
+        RouteTable routes = RouteTable.swissIntercity();
+        FleetSimulation fleet = new FleetSimulation(routes, 4, 11);
+        Reference reference = new Reference(routes, 11);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(reference.add(), fleet.add());
+        }
+        
+        // Long enough for every vehicle to finish a route and start another
+        boolean restarted = false;
+        for (int tick = 0; tick < 4000; tick++) {
+            fleet.tick();
+            reference.tick();
+            assertSameFleet(reference, fleet);
+            for (int i = 0; i < fleet.size(); i++) {
+                restarted |= fleet.isRestarted(i);
+            }
+        }
+        assertTrue(restarted);
+        assertEquals(4000, fleet.getTicks());
+    }
+    
+    @Test
+    void addAndRemoveMatchTheReference() {
+        RouteTable routes = RouteTable.swissIntercity();
+        FleetSimulation fleet = new FleetSimulation(routes, 4, 5);
+        Reference reference = new Reference(routes, 5);
+        SplittableRandom choices = new SplittableRandom(6);
+        for (int tick = 0; tick < 1500; tick++) {
+            // The fleet grows past its initial capacity and shrinks from any index, including the last
+            int changes = choices.nextInt(4);
+            for (int c = 0; c < changes; c++) {
+                if (fleet.size() > 0 && choices.nextInt(5) < 2) {
+                    int index = choices.nextInt(fleet.size());
+                    assertEquals(reference.remove(index), fleet.remove(index));
+                } else {
+                    assertEquals(reference.add(), fleet.add());
+                }
+            }
+            fleet.tick();
+            reference.tick();
+            assertSameFleet(reference, fleet);
+        }
+        assertTrue(fleet.size() > 16);
+        
+        fleet.clear();
+        assertEquals(0, fleet.size());
+    }
+    
+    @Test
+    void removingAnUnknownVehicleFails() {
+        FleetSimulation fleet = new FleetSimulation(RouteTable.swissIntercity(), 4, 1);
+        fleet.add();
+        assertEquals(-1, fleet.remove(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> fleet.remove(0));
+    }
+    
+    @Test
+    void stepsOfManyShortSegmentsStayInOrder() {
+        // 1200 equal segments give each 1.25 to 1.67 steps; rounded one by one, their sum overshot the route
+        List<double[][]> paths = new ArrayList<>();
+        double[][] line = new double[1201][];
+        for (int w = 0; w < line.length; w++) {
+            line[w] = new double[] {46.0 + w * 0.0005, 7.0 + w * 0.0005};
+        }
+        paths.add(line);
+        RouteTable routes = new RouteTable(paths, List.of("Start"));
+        FleetSimulation fleet = new FleetSimulation(routes, 4, 3);
+        Reference reference = new Reference(routes, 3);
+        for (int i = 0; i < 20; i++) {
+            fleet.add();
+            reference.add();
+        }
+        
+        int[] lastSegment = new int[fleet.size()];
+        for (int tick = 0; tick < 3000; tick++) {
+            fleet.tick();
+            reference.tick();
+            assertSameFleet(reference, fleet);
+            for (int i = 0; i < fleet.size(); i++) {
+                int segment = fleet.segmentOf(i);
+                assertTrue(fleet.isRestarted(i) || segment >= lastSegment[i], "vehicle " + i + " went back");
+                lastSegment[i] = segment;
+                
+                // On the straight line between the segment's waypoints, give or take the jitter
+                double fromLat = routes.latitude(segment);
+                double toLat = routes.latitude(segment + 1);
+                assertTrue(fleet.latitude(i) >= fromLat - JITTER && fleet.latitude(i) <= toLat + JITTER,
+                        "vehicle " + i + " left segment " + segment);
+            }
+        }
+    }
+    
+    @Test
+    void parallelRunRepeatsWithTheSameSeed() {
+        RouteTable routes = RouteTable.swissIntercity();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            FleetSimulation first = new FleetSimulation(routes, 16, 9);
+            FleetSimulation second = new FleetSimulation(routes, 16, 9);
+            for (FleetSimulation fleet : List.of(first, second)) {
+                for (int i = 0; i < 10_000; i++) {
+                    fleet.add();
+                }
+                fleet.setParallel(pool, 8);
+                assertEquals(8, fleet.getPartitions());
+            }
+            for (int tick = 0; tick < 200; tick++) {
+                first.tick();
+                second.tick();
+            }
+            for (int i = 0; i < first.size(); i++) {
+                assertEquals(first.stepOf(i), second.stepOf(i));
+                assertEquals(first.latitude(i), second.latitude(i));
+                assertEquals(first.longitude(i), second.longitude(i));
+            }
+            
+            first.setSequential();
+            assertEquals(0, first.getPartitions());
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    private static void assertSameFleet(Reference reference, FleetSimulation fleet) {
+        assertEquals(reference.vehicles.size(), fleet.size());
+        for (int i = 0; i < fleet.size(); i++) {
+            Vehicle vehicle = reference.vehicles.get(i);
+            assertEquals(vehicle.route, fleet.routeOf(i), "route of " + i);
+            assertEquals(vehicle.step, fleet.stepOf(i), "step of " + i);
+            assertEquals(vehicle.segment, fleet.segmentOf(i), "segment of " + i);
+            assertEquals(vehicle.restarted, fleet.isRestarted(i), "restart of " + i);
+            assertEquals(vehicle.latitude, fleet.latitude(i), 1e-12, "latitude of " + i);
+            assertEquals(vehicle.longitude, fleet.longitude(i), 1e-12, "longitude of " + i);
+        }
+    }
+    
+    /**
+     * One object per vehicle, finding the segment of a step from the start of the route every tick
+     */
+    private static final class Vehicle {
+        int route;
+        int totalSteps;
+        // Steps from the start of the route to the end of each segment
+        int[] segmentEnds;
+        int step;
+        int segment;
+        double latitude;
+        double longitude;
+        boolean restarted;
+    }
+    
+    private static final class Reference {
+        final RouteTable routes;
+        final SplittableRandom random;
+        final List<Vehicle> vehicles = new ArrayList<>();
+        
+        Reference(RouteTable routes, long seed) {
+            this.routes = routes;
+            this.random = new SplittableRandom(seed);
+        }
+        
+        int add() {
+            Vehicle vehicle = new Vehicle();
+            start(vehicle);
+            vehicles.add(vehicle);
+            return vehicles.size() - 1;
+        }
+        
+        int remove(int index) {
+            int last = vehicles.size() - 1;
+            Vehicle moved = vehicles.remove(last);
+            if (index == last) {
+                return -1;
+            }
+            vehicles.set(index, moved);
+            return last;
+        }
+        
+        void tick() {
+            for (Vehicle vehicle : vehicles) {
+                int step = vehicle.step + (random.nextInt(STEP_ODDS) > 0 ? 1 : 0);
+                if (step >= vehicle.totalSteps) {
+                    start(vehicle);
+                    vehicle.restarted = true;
+                    continue;
+                }
+                vehicle.step = step;
+                vehicle.restarted = false;
+                
+                // The first segment whose end the step has not passed
+                int[] ends = vehicle.segmentEnds;
+                int segment = 0;
+                while (segment < ends.length - 1 && step > ends[segment]) {
+                    segment++;
+                }
+                vehicle.segment = segment;
+                
+                int from = segment == 0 ? 0 : ends[segment - 1];
+                int steps = ends[segment] - from;
+                double progress = steps > 0 ? (double) (step - from) / steps : 1;
+                int waypoint = routes.firstWaypoint(vehicle.route) + segment;
+                vehicle.latitude = routes.latitude(waypoint)
+                        + (routes.latitude(waypoint + 1) - routes.latitude(waypoint)) * progress
+                        + (random.nextDouble() * 2 - 1) * JITTER;
+                vehicle.longitude = routes.longitude(waypoint)
+                        + (routes.longitude(waypoint + 1) - routes.longitude(waypoint)) * progress
+                        + (random.nextDouble() * 2 - 1) * JITTER;
+            }
+        }
+        
+        private void start(Vehicle vehicle) {
+            vehicle.route = random.nextInt(routes.size());
+            vehicle.totalSteps = FleetSimulation.MIN_ROUTE_STEPS + random.nextInt(FleetSimulation.ROUTE_STEP_SPREAD);
+            vehicle.step = 0;
+            vehicle.segment = 0;
+            vehicle.restarted = false;
+            int first = routes.firstWaypoint(vehicle.route);
+            vehicle.latitude = routes.latitude(first);
+            vehicle.longitude = routes.longitude(first);
+            
+            // In proportion to the length covered, rounded from the start of the route each time
+            int segments = routes.segmentCount(vehicle.route);
+            vehicle.segmentEnds = new int[segments];
+            for (int segment = 0; segment < segments; segment++) {
+                double covered = 0;
+                for (int s = 0; s <= segment; s++) {
+                    covered += routes.segmentLength(first + s);
+                }
+                vehicle.segmentEnds[segment] = segment == segments - 1 ? vehicle.totalSteps
+                        : (int) Math.round(covered / routes.routeLength(vehicle.route) * vehicle.totalSteps);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.quickride.tiles;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of an offline tile server over HTTP, serving the fixture tile set
+ */
+class TileServerTest {
+    
+    @TempDir
+    Path directory;
+    
+    private final HttpClient client = HttpClient.newHttpClient();
+    private Path fixtures;
+    private TileStore store;
+    private TileServer server;
+    
+    @BeforeEach
+    void startServer() throws IOException {
+        fixtures = TileStoreTest.fixtures();
+        store = TileStore.open(directory, TileStore.DEFAULT_CAPACITY);
+        store.importDirectory(fixtures);
+        server = TileServer.start(store, true);
+    }
+    
+    @AfterEach
+    void stopServer() throws IOException {
+        server.close();
+        store.close();
+    }
+    
+    @Test
+    void servesEveryFixtureTile() throws Exception {
+        for (Path file : TileStoreTest.fixtureFiles(fixtures)) {
+            String url = server.getBaseUrl() + "/tiles/" + fixtures.relativize(file).toString().replace('\\', '/');
+            HttpResponse<byte[]> response = get(url);
+            assertEquals(200, response.statusCode(), url);
+            assertArrayEquals(Files.readAllBytes(file), response.body(), url);
+        }
+    }
+    
+    @Test
+    void uncachedTileIsNotFoundWhileOffline() throws Exception {
+        String url = server.tileUrlTemplate(TileLayer.STREET)
+                .replace("{z}", "12").replace("{x}", "2145").replace("{y}", "1434");
+        assertEquals(404, get(url).statusCode());
+    }
+    
+    @Test
+    void servesBundledLeaflet() throws Exception {
+        for (String file : new String[] {"leaflet.js", "leaflet.css", "images/layers.png"}) {
+            HttpResponse<byte[]> response = get(server.leafletUrl(file));
+            assertEquals(200, response.statusCode(), file);
+            assertTrue(response.body().length > 0, file);
+        }
+    }
+    
+    private HttpResponse<byte[]> get(String url) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(URI.create(url)).build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
@@ -0,0 +1,115 @@
+package com.quickride.tiles;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the tile cache against the fixture tile set in src/test/resources/tiles
+ */
+class TileStoreTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void importedFixturesSurviveReopen() throws IOException {
+        Path fixtures = fixtures();
+        List<Path> files = fixtureFiles(fixtures);
+        
+        try (TileStore store = TileStore.open(directory, TileStore.DEFAULT_CAPACITY)) {
+            assertEquals(files.size(), store.importDirectory(fixtures));
+            
+            // A second import finds every tile already cached
+            assertEquals(0, store.importDirectory(fixtures));
+        }
+        
+        try (TileStore store = TileStore.open(directory, TileStore.DEFAULT_CAPACITY)) {
+            assertEquals(files.size(), store.size());
+            for (Path file : files) {
+                byte[] data = store.get(keyOf(fixtures.relativize(file)));
+                assertNotNull(data, file.toString());
+                assertArrayEquals(Files.readAllBytes(file), data, file.toString());
+            }
+        }
+    }
+    
+    @Test
+    void evictionKeepsStoreWithinCapacity() throws IOException {
+        long capacity = 256 * 1024;
+        int segmentSize = 64 * 1024;
+        Random random = new Random(42);
+        byte[][] tiles = new byte[200][];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new byte[1_000 + random.nextInt(4_000)];
+            random.nextBytes(tiles[i]);
+        }
+        
+        try (TileStore store = TileStore.open(directory, capacity, segmentSize)) {
+            for (int i = 0; i < tiles.length; i++) {
+                store.put(TileStore.key(TileLayer.STREET, 18, i, i), tiles[i]);
+            }
+            assertTrue(store.getEvictions() > 0);
+            assertTrue(store.liveBytes() <= capacity);
+            
+            // The most recent tile is never the one evicted
+            assertArrayEquals(tiles[tiles.length - 1], store.get(TileStore.key(TileLayer.STREET, 18, tiles.length - 1, tiles.length - 1)));
+        }
+        
+        // Whatever survived eviction reads back intact after a reopen
+        try (TileStore store = TileStore.open(directory, capacity, segmentSize)) {
+            int readable = 0;
+            for (int i = 0; i < tiles.length; i++) {
+                byte[] data = store.get(TileStore.key(TileLayer.STREET, 18, i, i));
+                if (data != null) {
+                    assertArrayEquals(tiles[i], data);
+                    readable++;
+                }
+            }
+            assertEquals(store.size(), readable);
+            assertTrue(readable > 0);
+        }
+    }
+    
+    /**
+     * The fixture directory, laid out as {layer}/{z}/{x}/{y}.png
+     */
+    static Path fixtures() {
+        try {
+            return Paths.get(TileStoreTest.class.getResource("/tiles").toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    static List<Path> fixtureFiles(Path fixtures) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(fixtures)) {
+            paths.filter(path -> path.toString().endsWith(".png")).sorted().forEach(files::add);
+        }
+        return files;
+    }
+    
+    // Key of a fixture from its path relative to the fixture directory
+    static long keyOf(Path relative) {
+        String name = relative.getName(3).toString();
+        return TileStore.key(TileLayer.fromId(relative.getName(0).toString()),
+                Integer.parseInt(relative.getName(1).toString()),
+                Integer.parseInt(relative.getName(2).toString()),
+                Integer.parseInt(name.substring(0, name.indexOf('.'))));
+    }
+}
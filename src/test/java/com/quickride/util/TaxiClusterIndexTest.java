@@ -0,0 +1,217 @@
+package com.quickride.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+
+/**
+ * Tests that the clusters the index sends, applied the way the map applies them, match clusters recomputed from scratch
+ */
+class TaxiClusterIndexTest {
+    private static final int MAX_ZOOM = TaxiClusterIndex.MAX_CLUSTER_ZOOM;
+    
+    private final TaxiClusterIndex index = new TaxiClusterIndex();
+    
+    // The clusters the map shows: cell key to {latitude, longitude, count}, updated from every script
+    private final Map<Long, int[]> shown = new HashMap<>();
+    
+    @Test
+    void firstEncodeSendsEveryClusterWithReset() {
+        List<Taxi> fleet = List.of(taxi("a", 47.3769, 8.5417), taxi("b", 47.3770, 8.5418), taxi("c", 46.9480, 7.4474));
+        index.update(fleet);
+        String script = index.encode(10);
+        assertTrue(script.startsWith("applyClusterDelta(true,["), script);
+        apply(script);
+        assertSameClusters(clusters(fleet, 10), shown);
+        assertEquals(2, index.clusterCount());
+        assertNull(index.encode(10));
+    }
+    
+    @Test
+    void moveWithinACellOnlyShiftsItsCentroid() {
+        Taxi anna = taxi("a", 47.3769, 8.5417);
+        List<Taxi> fleet = List.of(anna, taxi("b", 47.3770, 8.5418));
+        index.update(fleet);
+        apply(index.encode(10));
+        
+        anna.setCurrentLocation(new Location(47.3771, 8.5419, "Zurich"));
+        index.update(fleet);
+        String script = index.encode(10);
+        assertTrue(script.startsWith("applyClusterDelta(false,["), script);
+        assertEquals(5, cells(script).length);
+        apply(script);
+        assertSameClusters(clusters(fleet, 10), shown);
+    }
+    
+    @Test
+    void moveAcrossCellsEmptiesTheOldOne() {
+        Taxi anna = taxi("a", 47.3769, 8.5417);
+        List<Taxi> fleet = List.of(anna);
+        index.update(fleet);
+        apply(index.encode(10));
+        long before = shown.keySet().iterator().next();
+        
+        anna.setCurrentLocation(new Location(46.9480, 7.4474, "Bern"));
+        index.update(fleet);
+        String script = index.encode(10);
+        String[] cells = cells(script);
+        assertEquals(10, cells.length);
+        assertEquals(before, GridKeys.key(Integer.parseInt(cells[0]), Integer.parseInt(cells[1])));
+        assertEquals("0", cells[4]);
+        apply(script);
+        assertSameClusters(clusters(fleet, 10), shown);
+        assertEquals(1, index.clusterCount());
+    }
+    
+    @Test
+    void levelSwitchResendsTheNewLevel() {
+        List<Taxi> fleet = randomFleet(new SplittableRandom(1), 200);
+        index.update(fleet);
+        apply(index.encode(8));
+        assertSameClusters(clusters(fleet, 8), shown);
+        
+        apply(index.encode(MAX_ZOOM));
+        assertSameClusters(clusters(fleet, MAX_ZOOM), shown);
+        
+        // Zoom levels past the last clustered one keep showing it
+        assertNull(index.encode(MAX_ZOOM + 3));
+        assertSameClusters(clusters(fleet, MAX_ZOOM), shown);
+        apply(index.encode(5));
+        assertSameClusters(clusters(fleet, 5), shown);
+    }
+    
+    @Test
+    void incrementalClustersMatchRecomputingFromScratch() {
+        SplittableRandom random = new SplittableRandom(7);
+        List<Taxi> fleet = randomFleet(random, 300);
+        int next = fleet.size();
+        int[] levels = {6, 9, 11, 13, 13, 13, 9};
+        int zoom = 11;
+        for (int round = 0; round < 200; round++) {
+            // Most taxis creep, a few jump across the country, and some join or leave
+            for (Taxi taxi : fleet) {
+                Location location = taxi.getCurrentLocation();
+                int kind = random.nextInt(10);
+                if (kind < 6) {
+                    taxi.setCurrentLocation(new Location(location.getLatitude() + (random.nextDouble() - 0.5) * 0.0004,
+                            location.getLongitude() + (random.nextDouble() - 0.5) * 0.0004, location.getAddress()));
+                } else if (kind == 6) {
+                    taxi.setCurrentLocation(randomLocation(random));
+                }
+            }
+            if (random.nextInt(3) == 0) {
+                fleet.remove(random.nextInt(fleet.size()));
+            }
+            if (random.nextInt(3) == 0) {
+                fleet.add(new Taxi("t" + next++, "Driver", "ZH", "Test", randomLocation(random)));
+            }
+            index.update(fleet);
+            
+            if (round % 25 == 24) {
+                zoom = levels[random.nextInt(levels.length)];
+            }
+            if (round == 120) {
+                // Individual taxis are shown for a while; the map drops the clusters
+                index.deactivate();
+                shown.clear();
+                continue;
+            }
+            if (round > 120 && round < 130) {
+                continue;
+            }
+            String script = index.encode(zoom);
+            if (script != null) {
+                apply(script);
+            }
+            assertSameClusters(clusters(fleet, zoom), shown, "round " + round);
+            assertEquals(shown.size(), index.clusterCount());
+        }
+        assertEquals(fleet.size(), index.size());
+    }
+    
+    // Clusters of a fleet at a zoom level, computed directly from the positions
+    private static Map<Long, int[]> clusters(List<Taxi> fleet, int zoom) {
+        double cellsPerSide = 256.0 * (1 << Math.min(zoom, MAX_ZOOM)) / TaxiClusterIndex.CELL_SIZE_PIXELS;
+        Map<Long, double[]> sums = new HashMap<>();
+        for (Taxi taxi : fleet) {
+            double x = TaxiClusterIndex.worldX(taxi.getCurrentLocation().getLongitude());
+            double y = TaxiClusterIndex.worldY(taxi.getCurrentLocation().getLatitude());
+            double[] sum = sums.computeIfAbsent(GridKeys.key((int) (x * cellsPerSide), (int) (y * cellsPerSide)),
+                    k -> new double[3]);
+            sum[0] += x;
+            sum[1] += y;
+            sum[2]++;
+        }
+        Map<Long, int[]> clusters = new HashMap<>();
+        sums.forEach((key, sum) -> clusters.put(key, new int[] {
+            TaxiDeltaEncoder.toMicroDegrees(TaxiClusterIndex.latitude(sum[1] / sum[2])),
+            TaxiDeltaEncoder.toMicroDegrees(TaxiClusterIndex.longitude(sum[0] / sum[2])),
+            (int) sum[2]
+        }));
+        return clusters;
+    }
+    
+    // Apply a script the way the map page does
+    private void apply(String script) {
+        if (script.startsWith("applyClusterDelta(true,")) {
+            shown.clear();
+        }
+        String[] cells = cells(script);
+        for (int i = 0; i + 4 < cells.length; i += 5) {
+            long key = GridKeys.key(Integer.parseInt(cells[i]), Integer.parseInt(cells[i + 1]));
+            int count = Integer.parseInt(cells[i + 4]);
+            if (count == 0) {
+                shown.remove(key);
+            } else {
+                shown.put(key, new int[] {Integer.parseInt(cells[i + 2]), Integer.parseInt(cells[i + 3]), count});
+            }
+        }
+    }
+    
+    private static String[] cells(String script) {
+        String list = script.substring(script.indexOf('[') + 1, script.lastIndexOf(']'));
+        return list.isEmpty() ? new String[0] : list.split(",");
+    }
+    
+    private static void assertSameClusters(Map<Long, int[]> expected, Map<Long, int[]> actual) {
+        assertSameClusters(expected, actual, "");
+    }
+    
+    // Same cells and counts; centroids may differ by a micro-degree from the running sums' rounding
+    private static void assertSameClusters(Map<Long, int[]> expected, Map<Long, int[]> actual, String message) {
+        assertEquals(expected.keySet(), actual.keySet(), message);
+        expected.forEach((key, cluster) -> {
+            int[] other = actual.get(key);
+            assertEquals(cluster[2], other[2], message);
+            assertTrue(Math.abs(cluster[0] - other[0]) <= 1 && Math.abs(cluster[1] - other[1]) <= 1, message);
+        });
+    }
+    
+    private static List<Taxi> randomFleet(SplittableRandom random, int size) {
+        List<Taxi> fleet = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            fleet.add(new Taxi("t" + i, "Driver", "ZH", "Test", randomLocation(random)));
+        }
+        return fleet;
+    }
+    
+    // Somewhere in Switzerland
+    private static Location randomLocation(SplittableRandom random) {
+        return new Location(45.9 + random.nextDouble() * 1.8, 6.0 + random.nextDouble() * 4.4, "Switzerland");
+    }
+    
+    private static Taxi taxi(String id, double latitude, double longitude) {
+        return new Taxi(id, "Driver", "ZH " + id, "Test", new Location(latitude, longitude, "Stand"));
+    }
+}
@@ -0,0 +1,132 @@
+package com.quickride.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.quickride.model.Location;
+import com.quickride.model.Taxi;
+
+/**
+ * Tests of the scripts the encoder emits for created, moved and removed taxis, and of handle reuse
+ */
+class TaxiDeltaEncoderTest {
+    private final TaxiDeltaEncoder encoder = new TaxiDeltaEncoder();
+    
+    @Test
+    void firstUpdateCreatesEveryMarker() {
+        List<Taxi> taxis = List.of(taxi("a", "Anna", 47.376887, 8.541694), taxi("b", "Ben", 46.948, 7.4474));
+        assertEquals("applyTaxiDelta([],[0,\"a\",\"Anna\",47376887,8541694,1,\"b\",\"Ben\",46948000,7447400],[]);",
+                encoder.encode(taxis));
+        assertEquals(2, encoder.size());
+    }
+    
+    @Test
+    void onlyMovedTaxisAreSent() {
+        Taxi anna = taxi("a", "Anna", 47.0, 8.0);
+        Taxi ben = taxi("b", "Ben", 46.0, 7.0);
+        List<Taxi> taxis = List.of(anna, ben);
+        encoder.encode(taxis);
+        assertNull(encoder.encode(taxis));
+        
+        ben.setCurrentLocation(new Location(46.000001, 7.0, "Bern"));
+        assertEquals("applyTaxiDelta([],[],[1,46000001,7000000]);", encoder.encode(taxis));
+        
+        // Moves below the micro-degree precision are not sent
+        anna.setCurrentLocation(new Location(47.0000001, 8.0, "Zurich"));
+        assertNull(encoder.encode(taxis));
+    }
+    
+    @Test
+    void removedHandlesAreReusedFromTheNextUpdateOn() {
+        Taxi anna = taxi("a", "Anna", 47.0, 8.0);
+        Taxi ben = taxi("b", "Ben", 46.0, 7.0);
+        Taxi carl = taxi("c", "Carl", 45.0, 6.0);
+        Taxi dora = taxi("d", "Dora", 44.0, 5.0);
+        encoder.encode(List.of(anna, ben));
+        
+        // A handle freed in this update is not handed out in the same one
+        assertEquals("applyTaxiDelta([0],[2,\"c\",\"Carl\",45000000,6000000],[]);", encoder.encode(List.of(ben, carl)));
+        assertEquals("applyTaxiDelta([],[0,\"d\",\"Dora\",44000000,5000000],[]);",
+                encoder.encode(List.of(ben, carl, dora)));
+        
+        // Freed handles come back most recently freed first, before any new one
+        assertEquals("applyTaxiDelta([1,2],[],[]);", encoder.encode(List.of(dora)));
+        assertEquals("applyTaxiDelta([],[2,\"a\",\"Anna\",47000000,8000000,1,\"b\",\"Ben\",46000000,7000000,"
+                + "3,\"c\",\"Carl\",45000000,6000000],[]);", encoder.encode(List.of(dora, anna, ben, carl)));
+        assertEquals(4, encoder.size());
+    }
+    
+    @Test
+    void handlesStayDenseOverManyUpdates() {
+        List<Taxi> fleet = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            fleet.add(taxi("t" + i, "Driver " + i, 47 + i * 0.001, 8));
+        }
+        encoder.encode(fleet);
+        
+        // Drop and re-add taxis in waves; the page never needs more handles than taxis at once
+        for (int round = 0; round < 10; round++) {
+            List<Taxi> shown = new ArrayList<>(fleet.subList(round * 5, 100));
+            encoder.encode(shown);
+            shown.addAll(fleet.subList(0, round * 5));
+            String script = encoder.encode(shown);
+            for (String handle : createdHandles(script)) {
+                assertTrue(Integer.parseInt(handle) < 100, script);
+            }
+        }
+        assertEquals(100, encoder.size());
+    }
+    
+    @Test
+    void taxisWithoutCoordinatesOrListedTwiceAreSkipped() {
+        Taxi anna = taxi("a", "Anna", 47.0, 8.0);
+        Taxi unplaced = taxi("b", "Ben", 0, 0);
+        assertEquals("applyTaxiDelta([],[0,\"a\",\"Anna\",47000000,8000000],[]);",
+                encoder.encode(List.of(anna, unplaced, anna)));
+        assertEquals(1, encoder.size());
+        
+        // A taxi that loses its position is taken off the map
+        anna.setCurrentLocation(new Location(0, 0, "Unknown"));
+        assertEquals("applyTaxiDelta([0],[],[]);", encoder.encode(List.of(anna, unplaced)));
+        assertEquals(0, encoder.size());
+    }
+    
+    @Test
+    void namesAreEscapedForJavaScript() {
+        Taxi taxi = taxi("q\"1", "Zoe \"Z\" \\ O'Neil\n\u2028\u0001", 47.0, 8.0);
+        assertEquals("applyTaxiDelta([],[0,\"q\\\"1\",\"Zoe \\\"Z\\\" \\\\ O'Neil\\n\\u2028\\u0001\",47000000,8000000],[]);",
+                encoder.encode(List.of(taxi)));
+    }
+    
+    @Test
+    void resetRecreatesEveryMarker() {
+        List<Taxi> taxis = List.of(taxi("a", "Anna", 47.0, 8.0), taxi("b", "Ben", 46.0, 7.0));
+        String first = encoder.encode(taxis);
+        encoder.reset();
+        assertEquals(0, encoder.size());
+        assertEquals(first, encoder.encode(taxis));
+    }
+    
+    // Handles of the markers a script creates
+    private static List<String> createdHandles(String script) {
+        List<String> handles = new ArrayList<>();
+        if (script == null) {
+            return handles;
+        }
+        String[] created = script.substring(script.indexOf("],[") + 3, script.lastIndexOf("],[")).split(",");
+        for (int i = 0; i + 4 < created.length; i += 5) {
+            handles.add(created[i]);
+        }
+        return handles;
+    }
+    
+    private static Taxi taxi(String id, String driver, double latitude, double longitude) {
+        return new Taxi(id, driver, "ZH " + id, "Test", new Location(latitude, longitude, "Stand"));
+    }
+}